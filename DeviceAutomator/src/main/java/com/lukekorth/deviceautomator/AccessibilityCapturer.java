@@ -0,0 +1,316 @@
+package com.lukekorth.deviceautomator;
+
+import android.app.UiAutomation;
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Captures {@link HierarchyNode}s from the active window and keeps a shared
+ * {@link HierarchySnapshot} up to date from window state and content change events.
+ */
+final class AccessibilityCapturer implements HierarchySnapshot.Capturer, AccessibilityEvents.Listener {
+
+    static final int[] OTHER_WINDOW = new int[0];
+
+    private static final int[] AMBIGUOUS = new int[0];
+    private static final int NO_WINDOW = -1;
+
+    private static final Fingerprint sFingerprint = new Fingerprint();
+    private static final Rect sFingerprintBounds = new Rect();
+    private static final Rect sCompactBounds = new Rect();
+    private static HierarchySnapshot sSnapshot;
+    private static volatile AccessibilityCapturer sCapturer;
+    private static volatile EventRecorder sRecorder;
+
+    private final UiAutomation mUiAutomation;
+    private final Rect mBounds = new Rect();
+    /**
+     * Path of every node captured into the snapshot, by {@link AccessibilityNodeInfo#hashCode()},
+     * which is made of the ids of the node and its window, so events can be mapped to paths
+     * without walking the tree.
+     */
+    private final Map<Integer, int[]> mPaths = new ConcurrentHashMap<>();
+    private volatile int mActiveWindowId = NO_WINDOW;
+    private HierarchySnapshot mSnapshot;
+
+    private AccessibilityCapturer(UiAutomation uiAutomation) {
+        mUiAutomation = uiAutomation;
+    }
+
+    /**
+     * @return the shared {@link HierarchySnapshot} of the active window.
+     */
+    static synchronized HierarchySnapshot snapshot() {
+        if (sSnapshot == null) {
+            AccessibilityCapturer capturer = new AccessibilityCapturer(getInstrumentation().getUiAutomation());
+            capturer.mSnapshot = new HierarchySnapshot(capturer);
+            AccessibilityEvents.addListener(capturer);
+            sSnapshot = capturer.mSnapshot;
+            sCapturer = capturer;
+        }
+        return sSnapshot;
+    }
+
+    /**
+     * Invalidates the shared snapshot if it was created, so it is captured again on the next read.
+     */
+    static synchronized void invalidate() {
+        if (sSnapshot != null) {
+            sSnapshot.invalidateAll();
+        }
+    }
+
+    /**
+     * Replaces the shared snapshot, ex: with one over a fake capturer in tests.
+     *
+     * @param snapshot the {@link HierarchySnapshot} to share, or {@code null} to capture the active
+     *        window again.
+     */
+    static synchronized void setSnapshot(HierarchySnapshot snapshot) {
+        if (sCapturer != null) {
+            AccessibilityEvents.removeListener(sCapturer);
+            sCapturer = null;
+        }
+        sSnapshot = snapshot;
+    }
+
+    /**
+     * @return {@code true} if the event is from a window other than the active window of the
+     *         shared snapshot, so it can't have changed anything the snapshot captured.
+     *         Window state changes always count, they may change which window is active.
+     */
+    static boolean isFromOtherWindow(AccessibilityEvent event) {
+        AccessibilityCapturer capturer = sCapturer;
+        return capturer != null && capturer.isOtherWindow(event);
+    }
+
+    private boolean isOtherWindow(AccessibilityEvent event) {
+        int activeWindowId = mActiveWindowId;
+        return event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED &&
+                activeWindowId != NO_WINDOW && event.getWindowId() != activeWindowId;
+    }
+
+    /**
+     * Fingerprints the active window in a single traversal, without capturing it. Hashes the same
+     * nodes as {@link #captureAll()} so the result equals {@link Fingerprint#of(HierarchyNode)} of
+     * a capture of the same screen.
+     *
+     * @return the {@link Fingerprint} of the active window.
+     */
+    static synchronized long fingerprint() {
+        sFingerprint.reset();
+        AccessibilityNodeInfo window = getInstrumentation().getUiAutomation().getRootInActiveWindow();
+        if (window == null) {
+            sFingerprint.addNode(null, null, null, 0, 0, 0, 0, 0);
+        } else {
+            sFingerprint.addNode(null, null, null, 0, 0, 0, 0, 1);
+            addToFingerprint(window);
+        }
+        return sFingerprint.get();
+    }
+
+    private static void addToFingerprint(AccessibilityNodeInfo info) {
+        info.getBoundsInScreen(sFingerprintBounds);
+        int childCount = info.getChildCount();
+        sFingerprint.addNode(info.getClassName(), info.getViewIdResourceName(), info.getText(),
+                sFingerprintBounds.left, sFingerprintBounds.top, sFingerprintBounds.right,
+                sFingerprintBounds.bottom, childCount);
+
+        for (int i = 0; i < childCount; i++) {
+            AccessibilityNodeInfo child = info.getChild(i);
+            if (child == null || !child.isVisibleToUser()) {
+                sFingerprint.addNode(null, null, null, 0, 0, 0, 0, 0);
+                if (child != null) {
+                    child.recycle();
+                }
+            } else {
+                addToFingerprint(child);
+            }
+        }
+        info.recycle();
+    }
+
+    /**
+     * Captures the active window straight into a {@link CompactHierarchy}, without creating a
+     * {@link HierarchyNode} per node. Captures the same nodes as {@link #captureAll()}.
+     *
+     * @return the hierarchy of the active window, with the same root as {@link #captureAll()}.
+     */
+    static synchronized CompactHierarchy captureCompact() {
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder(256);
+        int root = builder.add(-1, null, null, null, null, null, 0, 0, 0, 0, HierarchyNode.ENABLED);
+        AccessibilityNodeInfo window = getInstrumentation().getUiAutomation().getRootInActiveWindow();
+        if (window != null) {
+            addToCompact(builder, window, root);
+        }
+        return builder.build();
+    }
+
+    private static void addToCompact(CompactHierarchy.Builder builder, AccessibilityNodeInfo info, int parent) {
+        info.getBoundsInScreen(sCompactBounds);
+        int position = builder.add(parent, toString(info.getClassName()), toString(info.getPackageName()),
+                info.getViewIdResourceName(), toString(info.getText()), toString(info.getContentDescription()),
+                sCompactBounds.left, sCompactBounds.top, sCompactBounds.right, sCompactBounds.bottom, flags(info));
+
+        for (int i = 0; i < info.getChildCount(); i++) {
+            AccessibilityNodeInfo child = info.getChild(i);
+            if (child == null || !child.isVisibleToUser()) {
+                builder.add(position, null, null, null, null, null, 0, 0, 0, 0, HierarchyNode.ENABLED);
+                if (child != null) {
+                    child.recycle();
+                }
+            } else {
+                addToCompact(builder, child, position);
+            }
+        }
+        info.recycle();
+    }
+
+    /**
+     * Passes every event the shared snapshot receives, with the path of its source, to the
+     * recorder.
+     *
+     * @param recorder the {@link EventRecorder}, or {@code null} to stop.
+     */
+    static void setRecorder(EventRecorder recorder) {
+        sRecorder = recorder;
+    }
+
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        int[] path = null;
+        switch (event.getEventType()) {
+            case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
+                mSnapshot.invalidateAll();
+                break;
+            case AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED:
+                if (isOtherWindow(event)) {
+                    path = OTHER_WINDOW;
+                } else {
+                    path = pathOf(event.getSource());
+                }
+                if (path != OTHER_WINDOW) {
+                    mSnapshot.invalidate(path);
+                }
+                break;
+        }
+
+        EventRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.onEvent(event.getEventType(), toString(event.getPackageName()), path);
+        }
+    }
+
+    @Override
+    public HierarchyNode captureAll() {
+        mPaths.clear();
+        HierarchyNode root = new HierarchyNode(null);
+        AccessibilityNodeInfo window = mUiAutomation.getRootInActiveWindow();
+        if (window == null) {
+            mActiveWindowId = NO_WINDOW;
+        } else {
+            mActiveWindowId = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? window.getWindowId() : NO_WINDOW;
+            root.addChild(convert(window, new int[] { 0 }));
+        }
+        return root;
+    }
+
+    @Override
+    public HierarchyNode capture(int[] path) {
+        if (path[0] != 0) {
+            return null;
+        }
+
+        AccessibilityNodeInfo node = mUiAutomation.getRootInActiveWindow();
+        for (int i = 1; i < path.length && node != null; i++) {
+            AccessibilityNodeInfo child = path[i] < node.getChildCount() ? node.getChild(path[i]) : null;
+            node.recycle();
+            node = child;
+        }
+        return node == null ? null : convert(node, path);
+    }
+
+    /**
+     * Converts the node and its descendants and recycles them. Children that are not visible to the
+     * user are replaced by empty nodes without a class name, like uiautomator skips them when
+     * searching, so paths still match the child indexes reported by the framework.
+     *
+     * @param path the path of the node, remembered for every converted node.
+     */
+    private HierarchyNode convert(AccessibilityNodeInfo info, int[] path) {
+        int[] previous = mPaths.put(info.hashCode(), path);
+        if (previous != null && !Arrays.equals(previous, path)) {
+            mPaths.put(info.hashCode(), AMBIGUOUS);
+        }
+
+        info.getBoundsInScreen(mBounds);
+        HierarchyNode node = new HierarchyNode(toString(info.getClassName()))
+                .setPackageName(toString(info.getPackageName()))
+                .setResourceId(info.getViewIdResourceName())
+                .setText(toString(info.getText()))
+                .setContentDescription(toString(info.getContentDescription()))
+                .setBounds(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom)
+                .setFlags(flags(info));
+
+        for (int i = 0; i < info.getChildCount(); i++) {
+            AccessibilityNodeInfo child = info.getChild(i);
+            if (child == null) {
+                node.addChild(new HierarchyNode(null));
+            } else if (!child.isVisibleToUser()) {
+                node.addChild(new HierarchyNode(null));
+                child.recycle();
+            } else {
+                int[] childPath = Arrays.copyOf(path, path.length + 1);
+                childPath[path.length] = i;
+                node.addChild(convert(child, childPath));
+            }
+        }
+        info.recycle();
+        return node;
+    }
+
+    /**
+     * @return the state of the node as a combination of the flags of {@link HierarchyNode}.
+     */
+    private static int flags(AccessibilityNodeInfo info) {
+        return (info.isCheckable() ? HierarchyNode.CHECKABLE : 0) |
+                (info.isChecked() ? HierarchyNode.CHECKED : 0) |
+                (info.isClickable() ? HierarchyNode.CLICKABLE : 0) |
+                (info.isEnabled() ? HierarchyNode.ENABLED : 0) |
+                (info.isFocusable() ? HierarchyNode.FOCUSABLE : 0) |
+                (info.isFocused() ? HierarchyNode.FOCUSED : 0) |
+                (info.isScrollable() ? HierarchyNode.SCROLLABLE : 0) |
+                (info.isLongClickable() ? HierarchyNode.LONG_CLICKABLE : 0) |
+                (info.isPassword() ? HierarchyNode.PASSWORD : 0) |
+                (info.isSelected() ? HierarchyNode.SELECTED : 0);
+    }
+
+    /**
+     * Looks the node up in the paths of the captures, instead of walking the tree. Before Lollipop
+     * the window of an event can't be compared to the active window first, so events from other
+     * windows aren't found and invalidate the entire hierarchy.
+     *
+     * @return the path of the node in the active window, or {@code null} if it wasn't captured.
+     */
+    private int[] pathOf(AccessibilityNodeInfo node) {
+        if (node == null) {
+            return null;
+        }
+
+        int[] path = mPaths.get(node.hashCode());
+        node.recycle();
+        return path == AMBIGUOUS ? null : path;
+    }
+
+    private static String toString(CharSequence value) {
+        return value == null ? null : value.toString();
+    }
+}
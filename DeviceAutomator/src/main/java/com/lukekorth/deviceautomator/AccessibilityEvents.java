@@ -0,0 +1,110 @@
+package com.lukekorth.deviceautomator;
+
+import android.app.UiAutomation;
+import android.view.accessibility.AccessibilityEvent;
+
+import androidx.test.uiautomator.UiDevice;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Shares the accessibility events of the {@link UiAutomation}, which only supports a single
+ * listener, between the parts of the library that need them. Events still reach the listener of
+ * {@link UiDevice} first.
+ */
+final class AccessibilityEvents {
+
+    interface Listener {
+        void onAccessibilityEvent(AccessibilityEvent event);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> sListeners = new CopyOnWriteArrayList<>();
+    private static boolean sInstalled;
+    private static volatile boolean sReplaying;
+
+    private AccessibilityEvents() {}
+
+    /**
+     * Adds a listener, installing the shared {@link UiAutomation.OnAccessibilityEventListener} if
+     * it has not been installed yet. Listeners are called on the {@link UiAutomation}'s thread and
+     * must be quick.
+     */
+    static synchronized void addListener(Listener listener) {
+        if (!sInstalled && !sReplaying) {
+            // UiDevice installs its own listener when it is created, make sure it can't replace ours
+            UiDevice device = UiDevice.getInstance(getInstrumentation());
+            getInstrumentation().getUiAutomation().setOnAccessibilityEventListener(chain(uiDeviceListener(device)));
+            sInstalled = true;
+        }
+        sListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * @param previous the listener that was installed before, or {@code null}.
+     * @return a listener that passes every event to the previous listener and then to ours.
+     */
+    static UiAutomation.OnAccessibilityEventListener chain(final UiAutomation.OnAccessibilityEventListener previous) {
+        return new UiAutomation.OnAccessibilityEventListener() {
+            @Override
+            public void onAccessibilityEvent(AccessibilityEvent event) {
+                if (previous != null) {
+                    previous.onAccessibilityEvent(event);
+                }
+                if (!sReplaying) {
+                    dispatch(event);
+                }
+            }
+        };
+    }
+
+    /**
+     * {@link UiAutomation} has no getter for its listener, so the one {@link UiDevice} installed,
+     * which remembers the current activity and the last traversed text, is read from the
+     * {@code QueryController} of the {@link UiDevice}.
+     *
+     * @return the listener of the {@link UiDevice}, or {@code null} if it can't be found.
+     */
+    private static UiAutomation.OnAccessibilityEventListener uiDeviceListener(UiDevice device) {
+        try {
+            Field controllerField = UiDevice.class.getDeclaredField("mQueryController");
+            controllerField.setAccessible(true);
+            Object controller = controllerField.get(device);
+            Field listenerField = controller.getClass().getDeclaredField("mEventListener");
+            listenerField.setAccessible(true);
+            return (UiAutomation.OnAccessibilityEventListener) listenerField.get(controller);
+        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes an {@link EventReplayer} the source of events instead of the {@link UiAutomation}, so
+     * listeners can be added on the JVM without installing the shared listener. While replaying,
+     * events from the device still reach the listener of {@link UiDevice} but no other listener.
+     *
+     * @param replaying {@code true} while a replayer is installed.
+     */
+    static synchronized void setReplaying(boolean replaying) {
+        sReplaying = replaying;
+    }
+
+    static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * @return {@code true} if any part of the library is listening for events.
+     */
+    static boolean hasListeners() {
+        return !sListeners.isEmpty();
+    }
+
+    static void dispatch(AccessibilityEvent event) {
+        for (Listener listener : sListeners) {
+            listener.onAccessibilityEvent(event);
+        }
+    }
+}
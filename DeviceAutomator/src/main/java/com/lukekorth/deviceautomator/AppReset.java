@@ -0,0 +1,285 @@
+package com.lukekorth.deviceautomator;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Describes how to return an app to a clean state using shell commands instead of navigating the
+ * ui. Use with {@link DeviceAutomator#resetApp(AppReset)}.
+ *
+ * Clearing specific shared preferences or databases uses {@code run-as} and requires the app to be
+ * debuggable.
+ */
+public class AppReset {
+
+    /**
+     * {@link android.app.UiAutomation#executeShellCommand(String)} splits the command on whitespace
+     * itself instead of running it in a shell, so the words of the script passed to {@code sh -c}
+     * are separated by the shell's field separator instead.
+     */
+    private static final String SEPARATOR = "${IFS}";
+    private static final String STATUS = "__device_automator_status__";
+
+    private final String mPackageName;
+    private boolean mClearData;
+    private final List<String> mFiles = new ArrayList<>();
+    private boolean mRelaunch = true;
+
+    private AppReset(String packageName) {
+        mPackageName = packageName;
+    }
+
+    /**
+     * @param packageName package name of the app to reset.
+     * @return {@link AppReset} that force stops and relaunches the app.
+     */
+    public static AppReset forPackage(String packageName) {
+        return new AppReset(packageName);
+    }
+
+    /**
+     * Clears all data for the app, equivalent to clearing data from the app's settings screen.
+     *
+     * @return {@link AppReset} for method chaining.
+     */
+    public AppReset clearData() {
+        mClearData = true;
+        return this;
+    }
+
+    /**
+     * Deletes the given shared preferences files from the app's data directory.
+     *
+     * @param names names of the shared preferences, as passed to
+     *        {@link android.content.Context#getSharedPreferences(String, int)}.
+     * @return {@link AppReset} for method chaining.
+     */
+    public AppReset clearSharedPreferences(String... names) {
+        for (String name : names) {
+            mFiles.add("shared_prefs/" + name + ".xml");
+        }
+        return this;
+    }
+
+    /**
+     * Deletes the given databases, including their journal files, from the app's data directory.
+     *
+     * @param names names of the databases, as passed to
+     *        {@link android.content.Context#getDatabasePath(String)}.
+     * @return {@link AppReset} for method chaining.
+     */
+    public AppReset clearDatabases(String... names) {
+        for (String name : names) {
+            mFiles.add("databases/" + name);
+            mFiles.add("databases/" + name + "-journal");
+            mFiles.add("databases/" + name + "-wal");
+            mFiles.add("databases/" + name + "-shm");
+        }
+        return this;
+    }
+
+    /**
+     * @param relaunch {@code true} to launch the app again once it has been reset, {@code false}
+     *        to leave it stopped. Defaults to {@code true}.
+     * @return {@link AppReset} for method chaining.
+     */
+    public AppReset relaunch(boolean relaunch) {
+        mRelaunch = relaunch;
+        return this;
+    }
+
+    String getPackageName() {
+        return mPackageName;
+    }
+
+    boolean shouldRelaunch() {
+        return mRelaunch;
+    }
+
+    List<String> getForceStopCommands() {
+        return Collections.singletonList("am force-stop " + mPackageName);
+    }
+
+    /**
+     * All files are removed with a single {@code run-as} invocation so the cost of starting a
+     * process as the app's user is only paid once.
+     */
+    List<String> getClearCommands() {
+        List<String> commands = new ArrayList<>();
+        if (mClearData) {
+            commands.add("pm clear " + mPackageName);
+        } else if (!mFiles.isEmpty()) {
+            StringBuilder command = new StringBuilder("run-as ")
+                    .append(mPackageName)
+                    .append(" rm -f");
+            for (String file : mFiles) {
+                command.append(' ').append(file);
+            }
+            commands.add(command.toString());
+        }
+        return commands;
+    }
+
+    /**
+     * Runs the commands of every phase back to back in a single shell.
+     *
+     * @param phases the commands of each phase, in order.
+     * @return the {@link System#nanoTime()} at which each phase finished.
+     * @throws RuntimeException if a command exited with a non zero status, the commands after it
+     *         are still run.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    static long[] execute(List<List<String>> phases) {
+        ParcelFileDescriptor output = getInstrumentation().getUiAutomation().executeShellCommand(script(phases));
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(output);
+        try {
+            return read(in, phases);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * @return a single shell invocation running every command, each followed by a line with its
+     *         exit status.
+     */
+    static String script(List<List<String>> phases) {
+        StringBuilder script = new StringBuilder();
+        for (List<String> phase : phases) {
+            for (String command : phase) {
+                script.append(command)
+                        .append(";echo ")
+                        .append(STATUS)
+                        .append(" $?;");
+            }
+        }
+        return "sh -c " + script.toString().replace(" ", SEPARATOR);
+    }
+
+    /**
+     * Reads the output of {@link #script(List)} as it is written, noting the time each phase
+     * finished at.
+     */
+    static long[] read(InputStream in, List<List<String>> phases) throws IOException {
+        List<String> commands = new ArrayList<>();
+        int[] phaseEnds = new int[phases.size()];
+        for (int i = 0; i < phases.size(); i++) {
+            commands.addAll(phases.get(i));
+            phaseEnds[i] = commands.size();
+        }
+
+        long[] finished = new long[phases.size()];
+        long now = System.nanoTime();
+        int phase = 0;
+        int completed = 0;
+        // phases without commands finish as soon as the previous one did
+        for (; phase < phaseEnds.length && phaseEnds[phase] == 0; phase++) {
+            finished[phase] = now;
+        }
+        StringBuilder failures = new StringBuilder();
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (!line.startsWith(STATUS + " ") || completed == commands.size()) {
+                output.append(line).append('\n');
+                continue;
+            }
+
+            now = System.nanoTime();
+            int status;
+            try {
+                status = Integer.parseInt(line.substring(STATUS.length() + 1).trim());
+            } catch (NumberFormatException e) {
+                status = -1;
+            }
+            if (status != 0) {
+                failures.append("\n").append(commands.get(completed)).append(" exited with status ")
+                        .append(status).append(": ").append(output.toString().trim());
+            }
+            output.setLength(0);
+            completed++;
+            for (; phase < phaseEnds.length && phaseEnds[phase] <= completed; phase++) {
+                finished[phase] = now;
+            }
+        }
+
+        if (completed < commands.size()) {
+            failures.append("\n").append(commands.get(completed)).append(" did not complete: ")
+                    .append(output.toString().trim());
+        }
+        if (failures.length() > 0) {
+            throw new RuntimeException("Shell commands failed:" + failures);
+        }
+        for (; phase < phaseEnds.length; phase++) {
+            finished[phase] = now;
+        }
+        return finished;
+    }
+
+    /**
+     * Time spent in each phase of {@link DeviceAutomator#resetApp(AppReset)}.
+     */
+    public static class Timings {
+
+        private final long mForceStopMillis;
+        private final long mClearMillis;
+        private final long mLaunchMillis;
+
+        Timings(long forceStopMillis, long clearMillis, long launchMillis) {
+            mForceStopMillis = forceStopMillis;
+            mClearMillis = clearMillis;
+            mLaunchMillis = launchMillis;
+        }
+
+        /**
+         * @return time in milliseconds spent stopping the app.
+         */
+        public long getForceStopMillis() {
+            return mForceStopMillis;
+        }
+
+        /**
+         * @return time in milliseconds spent clearing data, shared preferences and databases.
+         */
+        public long getClearMillis() {
+            return mClearMillis;
+        }
+
+        /**
+         * @return time in milliseconds spent relaunching the app and waiting for it to appear,
+         *         {@code 0} if the app was not relaunched.
+         */
+        public long getLaunchMillis() {
+            return mLaunchMillis;
+        }
+
+        /**
+         * @return total time in milliseconds spent resetting the app.
+         */
+        public long getTotalMillis() {
+            return mForceStopMillis + mClearMillis + mLaunchMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "AppReset.Timings[forceStop=" + mForceStopMillis + "ms, clear=" + mClearMillis +
+                    "ms, launch=" + mLaunchMillis + "ms, total=" + getTotalMillis() + "ms]";
+        }
+    }
+}
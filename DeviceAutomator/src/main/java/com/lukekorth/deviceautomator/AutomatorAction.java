@@ -22,6 +22,21 @@ public abstract class AutomatorAction {
             public void wrappedPerform(UiSelector selector, UiObject object) throws UiObjectNotFoundException {
                 object.click();
             }
+
+            @Override
+            void simulatedPerform(SimulatedDevice device, HierarchyNode node) {
+                device.click(node);
+            }
+
+            @Override
+            boolean clicksCenter() {
+                return true;
+            }
+
+            @Override
+            AutomatorMetrics.Operation getOperation() {
+                return AutomatorMetrics.Operation.CLICK;
+            }
         };
     }
 
@@ -40,6 +55,13 @@ public abstract class AutomatorAction {
                     object.click();
                 }
             }
+
+            @Override
+            void simulatedPerform(SimulatedDevice device, HierarchyNode node) {
+                if (node.hasFlag(HierarchyNode.CHECKABLE) && check != node.hasFlag(HierarchyNode.CHECKED)) {
+                    device.click(node);
+                }
+            }
         };
     }
 
@@ -55,6 +77,16 @@ public abstract class AutomatorAction {
             public void wrappedPerform(UiSelector selector, UiObject object) throws UiObjectNotFoundException {
                 object.setText(text);
             }
+
+            @Override
+            void simulatedPerform(SimulatedDevice device, HierarchyNode node) {
+                device.setText(node, text);
+            }
+
+            @Override
+            AutomatorMetrics.Operation getOperation() {
+                return AutomatorMetrics.Operation.SET_TEXT;
+            }
         };
     }
 
@@ -70,6 +102,16 @@ public abstract class AutomatorAction {
             public void wrappedPerform(UiSelector selector, UiObject object) throws UiObjectNotFoundException {
                 object.clearTextField();
             }
+
+            @Override
+            void simulatedPerform(SimulatedDevice device, HierarchyNode node) {
+                device.setText(node, "");
+            }
+
+            @Override
+            AutomatorMetrics.Operation getOperation() {
+                return AutomatorMetrics.Operation.SET_TEXT;
+            }
         };
     }
 
@@ -130,5 +172,36 @@ public abstract class AutomatorAction {
         }
     }
 
+    void perform(SimulatedDevice device, UiObjectMatcher matcher) {
+        HierarchyNode node = device.find(matcher);
+        if (node == null) {
+            throw new RuntimeException(new UiObjectNotFoundException(matcher.getNodeQuery().toString()));
+        }
+        simulatedPerform(device, node);
+    }
+
+    /**
+     * Performs the action on a node of a {@link SimulatedDevice}. Actions that can not be simulated
+     * do not override this method.
+     */
+    void simulatedPerform(SimulatedDevice device, HierarchyNode node) {
+        throw new UnsupportedOperationException(getClass().getName() + " is not supported on a SimulatedDevice");
+    }
+
+    /**
+     * @return {@code true} if the action is a single click at the center of the element, which
+     *         can be replaced by a click at remembered coordinates.
+     */
+    boolean clicksCenter() {
+        return false;
+    }
+
+    /**
+     * @return the {@link AutomatorMetrics.Operation} the duration of the action is recorded as.
+     */
+    AutomatorMetrics.Operation getOperation() {
+        return AutomatorMetrics.Operation.ACTION;
+    }
+
     public abstract void wrappedPerform(UiSelector selector, UiObject object) throws UiObjectNotFoundException;
 }
@@ -1,5 +1,6 @@
 package com.lukekorth.deviceautomator;
 
+import android.graphics.Bitmap;
 import android.graphics.Rect;
 import androidx.test.uiautomator.By;
 import androidx.test.uiautomator.UiDevice;
@@ -48,6 +49,20 @@ public abstract class AutomatorAssertion {
                     }
                 }
             }
+
+            @Override
+            void checkNode(HierarchyNode root, HierarchyNode node) {
+                if (visible) {
+                    assertTrue("Matched view was not visible", node != null && node.isVisible());
+                } else {
+                    assertTrue("Matched view was visible", node == null || !node.isVisible());
+                }
+            }
+
+            @Override
+            boolean canCheckNode() {
+                return true;
+            }
         };
     }
 
@@ -72,6 +87,17 @@ public abstract class AutomatorAssertion {
                     assertTrue(description.toString(), false);
                 }
             }
+
+            @Override
+            void checkNode(HierarchyNode root, HierarchyNode node) {
+                visible(true).checkNode(root, node);
+                assertMatches(matcher, node.getText());
+            }
+
+            @Override
+            boolean canCheckNode() {
+                return true;
+            }
         };
     }
 
@@ -96,6 +122,17 @@ public abstract class AutomatorAssertion {
                     assertTrue(description.toString(), false);
                 }
             }
+
+            @Override
+            void checkNode(HierarchyNode root, HierarchyNode node) {
+                visible(true).checkNode(root, node);
+                assertMatches(matcher, node.getContentDescription());
+            }
+
+            @Override
+            boolean canCheckNode() {
+                return true;
+            }
         };
     }
 
@@ -111,6 +148,76 @@ public abstract class AutomatorAssertion {
             public void wrappedCheck(UiObject object) throws UiObjectNotFoundException {
                 assertTrue(UiDevice.getInstance(getInstrumentation()).hasObject(By.pkg(packageName)));
             }
+
+            @Override
+            void checkNode(HierarchyNode root, HierarchyNode node) {
+                assertTrue(packageName.equals(SimulatedDevice.getPackageName(root)));
+            }
+
+            @Override
+            boolean canCheckNode() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Asserts that the region of the screen covered by the ui element specified in
+     * {@link DeviceAutomator#onDevice(UiObjectMatcher)} matches the golden image within the given
+     * tolerance. Both images are sampled down before being compared, so the golden image does not
+     * need to be the exact size of the element.
+     *
+     * @param golden The expected image of the ui element.
+     * @param tolerance The maximum allowed difference as defined by
+     *                  {@link ImageComparator#difference(int[], int, int, int[], int, int)}, from
+     *                  {@code 0} for an exact match to {@code 1}.
+     * @return
+     */
+    public static AutomatorAssertion matchesImage(Bitmap golden, final double tolerance) {
+        final int width = golden.getWidth();
+        final int height = golden.getHeight();
+        final int[] pixels = new int[width * height];
+        golden.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        return new AutomatorAssertion() {
+            @Override
+            public void wrappedCheck(UiObject object) throws UiObjectNotFoundException {
+                double difference = ScreenCapture.difference(object.getVisibleBounds(), pixels, width, height);
+                assertTrue("Matched view differed from the golden image by " + difference +
+                        ", more than the tolerance of " + tolerance, difference <= tolerance);
+            }
+        };
+    }
+
+    /**
+     * Asserts that the perceptual hash of the region of the screen covered by the ui element
+     * specified in {@link DeviceAutomator#onDevice(UiObjectMatcher)} is equal to the expected hash.
+     *
+     * @param expectedHash The expected hash, as returned by {@link DeviceAutomator#perceptualHash()}.
+     * @return
+     */
+    public static AutomatorAssertion perceptualHash(long expectedHash) {
+        return perceptualHash(expectedHash, 0);
+    }
+
+    /**
+     * Asserts that the perceptual hash of the region of the screen covered by the ui element
+     * specified in {@link DeviceAutomator#onDevice(UiObjectMatcher)} differs from the expected hash
+     * by no more than the given number of bits.
+     *
+     * @param expectedHash The expected hash, as returned by {@link DeviceAutomator#perceptualHash()}.
+     * @param maxDistance The maximum number of bits that may differ.
+     * @return
+     */
+    public static AutomatorAssertion perceptualHash(final long expectedHash, final int maxDistance) {
+        return new AutomatorAssertion() {
+            @Override
+            public void wrappedCheck(UiObject object) throws UiObjectNotFoundException {
+                long hash = ScreenCapture.perceptualHash(object.getVisibleBounds());
+                int distance = ImageComparator.hammingDistance(expectedHash, hash);
+                assertTrue("Expected perceptual hash " + Long.toHexString(expectedHash) + " but was " +
+                        Long.toHexString(hash) + ", " + distance + " bits differ", distance <= maxDistance);
+            }
         };
     }
 
@@ -122,5 +229,38 @@ public abstract class AutomatorAssertion {
         }
     }
 
+    void check(SimulatedDevice device, UiObjectMatcher matcher) {
+        checkNode(device.getHierarchy(), matcher == null ? null : device.find(matcher));
+    }
+
+    /**
+     * Checks the assertion against a captured node, such as a node of a {@link SimulatedDevice}.
+     * The node is {@code null} if the matcher did not resolve. Assertions that can not be checked
+     * against a node do not override this method or {@link #canCheckNode()}.
+     *
+     * @param root the root of the hierarchy the node was found in.
+     */
+    void checkNode(HierarchyNode root, HierarchyNode node) {
+        throw new UnsupportedOperationException(getClass().getName() + " is not supported on a SimulatedDevice");
+    }
+
+    /**
+     * @return {@code true} if {@link #checkNode(HierarchyNode, HierarchyNode)} is supported.
+     */
+    boolean canCheckNode() {
+        return false;
+    }
+
+    private static void assertMatches(Matcher matcher, String actual) {
+        if (!matcher.matches(actual)) {
+            StringDescription description = new StringDescription();
+            description.appendText("Expected ");
+            matcher.describeTo(description);
+            description.appendText(" ");
+            matcher.describeMismatch(actual, description);
+            assertTrue(description.toString(), false);
+        }
+    }
+
     public abstract void wrappedCheck(UiObject object) throws UiObjectNotFoundException;
 }
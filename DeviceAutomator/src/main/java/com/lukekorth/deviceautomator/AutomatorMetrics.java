@@ -0,0 +1,154 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Locale;
+
+/**
+ * How long each kind of {@link DeviceAutomator} operation took, across every test in the process.
+ * Every operation records its duration into a {@link LatencyHistogram} for its
+ * {@link Operation}, without allocating or locking, so percentiles of thousands of tests can be
+ * reported without keeping a log of each operation. Export the histograms at the end of the suite
+ * with {@link #toJson()} or {@link #toPrometheus()}.
+ */
+public final class AutomatorMetrics {
+
+    public enum Operation {
+        /**
+         * Finding the element of a {@link UiObjectMatcher}, ex: {@link DeviceAutomator#exists()}
+         * and {@link DeviceAutomator#isChecked()}.
+         */
+        RESOLVE("resolve"),
+        /** {@link AutomatorAction#click()}. */
+        CLICK("click"),
+        /** {@link AutomatorAction#setText(String)} and {@link AutomatorAction#clearTextField()}. */
+        SET_TEXT("set_text"),
+        /**
+         * Every other {@link AutomatorAction}, opening the notification and Quick Settings shades
+         * and answering runtime permission prompts.
+         */
+        ACTION("action"),
+        /** The {@code waitFor} methods. */
+        WAIT("wait"),
+        /** Launching, resetting, force stopping and clearing the data of apps. */
+        LAUNCH("launch"),
+        /**
+         * The {@code press} methods, {@link DeviceAutomator#typeText(String)} and
+         * {@link DeviceAutomator#onHomeScreen()}.
+         */
+        KEY_PRESS("key_press"),
+        /**
+         * {@link DeviceAutomator#check(AutomatorAssertion)} and
+         * {@link DeviceAutomator#checkForegroundAppIs(String)}.
+         */
+        CHECK("check");
+
+        private final String mName;
+
+        Operation(String name) {
+            mName = name;
+        }
+
+        /**
+         * @return the name used in exports, ex: {@code set_text}.
+         */
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private static final int[] PERCENTILES = { 50, 90, 99 };
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99" };
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[Operation.values().length];
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private AutomatorMetrics() {}
+
+    /**
+     * @return the histogram of the durations of the operation.
+     */
+    public static LatencyHistogram getHistogram(Operation operation) {
+        return sHistograms[operation.ordinal()];
+    }
+
+    /**
+     * Records the duration of an operation that started at the given {@link System#nanoTime()}.
+     */
+    static void record(Operation operation, long startNanos) {
+        sHistograms[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Forgets the durations of every operation.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return the count and the mean, p50, p90, p99 and max durations in milliseconds of every
+     *         operation, ex: {@code {"click":{"count":120,"mean_ms":41.250,...},...}}.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = getHistogram(operation).snapshot();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(operation.getName()).append("\":{")
+                    .append("\"count\":").append(snapshot.getCount())
+                    .append(",\"mean_ms\":").append(millis(snapshot.getMean()))
+                    .append(",\"p50_ms\":").append(millis(snapshot.getPercentile(50)))
+                    .append(",\"p90_ms\":").append(millis(snapshot.getPercentile(90)))
+                    .append(",\"p99_ms\":").append(millis(snapshot.getPercentile(99)))
+                    .append(",\"max_ms\":").append(millis(snapshot.getMax()))
+                    .append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * @return the durations of every operation in the Prometheus text format, as a summary with
+     *         the p50, p90 and p99 quantiles in seconds and a gauge of the max.
+     */
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP device_automator_operation_seconds Duration of DeviceAutomator operations.\n")
+                .append("# TYPE device_automator_operation_seconds summary\n");
+        StringBuilder max = new StringBuilder();
+        max.append("# HELP device_automator_operation_max_seconds Longest DeviceAutomator operation.\n")
+                .append("# TYPE device_automator_operation_max_seconds gauge\n");
+
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = getHistogram(operation).snapshot();
+            String label = "operation=\"" + operation.getName() + "\"";
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                text.append("device_automator_operation_seconds{").append(label)
+                        .append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(seconds(snapshot.getPercentile(PERCENTILES[i]))).append('\n');
+            }
+            text.append("device_automator_operation_seconds_sum{").append(label).append("} ")
+                    .append(seconds(snapshot.getSum())).append('\n')
+                    .append("device_automator_operation_seconds_count{").append(label).append("} ")
+                    .append(snapshot.getCount()).append('\n');
+            max.append("device_automator_operation_max_seconds{").append(label).append("} ")
+                    .append(seconds(snapshot.getMax())).append('\n');
+        }
+        return text.append(max).toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1e6);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.US, "%.9f", nanos / 1e9);
+    }
+}
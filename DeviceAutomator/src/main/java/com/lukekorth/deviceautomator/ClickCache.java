@@ -0,0 +1,113 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers where each {@link UiObjectMatcher}, by its {@link NodeQuery}, was clicked on each
+ * screen, identified by its fingerprint, so clicking it again on an unchanged screen does not need to search for the
+ * element. A matcher can be remembered for several screens, such as a navigation tab that is
+ * clicked from each of the other tabs.
+ */
+final class ClickCache {
+
+    static final class Target {
+
+        final int mX;
+        final int mY;
+
+        Target(int x, int y) {
+            mX = x;
+            mY = y;
+        }
+    }
+
+    static final int DEFAULT_MAX_SIZE = 128;
+
+    private final Map<Key, Target> mTargets;
+    /**
+     * Reused for lookups so finding a point doesn't allocate.
+     */
+    private final Key mLookup = new Key(null, 0);
+    private long mHits;
+    private long mMisses;
+
+    ClickCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    ClickCache(final int maxSize) {
+        mTargets = new LinkedHashMap<Key, Target>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Target> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param query the {@link NodeQuery} of the matcher.
+     * @param fingerprint the fingerprint of the screen now.
+     * @return where the matcher was clicked when the screen last had the same fingerprint, or
+     *         {@code null}.
+     */
+    synchronized Target get(NodeQuery query, long fingerprint) {
+        mLookup.mQuery = query;
+        mLookup.mFingerprint = fingerprint;
+        Target target = mTargets.get(mLookup);
+        mLookup.mQuery = null;
+        if (target != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return target;
+    }
+
+    synchronized Target put(NodeQuery query, long fingerprint, int x, int y) {
+        Target target = new Target(x, y);
+        mTargets.put(new Key(query, fingerprint), target);
+        return target;
+    }
+
+    synchronized void clear() {
+        mTargets.clear();
+    }
+
+    synchronized int size() {
+        return mTargets.size();
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private static final class Key {
+
+        NodeQuery mQuery;
+        long mFingerprint;
+
+        Key(NodeQuery query, long fingerprint) {
+            mQuery = query;
+            mFingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mFingerprint == other.mFingerprint && mQuery.equals(other.mQuery);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mQuery.hashCode() + (int) (mFingerprint ^ (mFingerprint >>> 32));
+        }
+    }
+}
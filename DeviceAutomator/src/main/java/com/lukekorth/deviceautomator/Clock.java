@@ -0,0 +1,23 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * The time source of waits, replaced in tests so waits can be checked without sleeping.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    long nanoTime();
+
+    void sleep(long millis) throws InterruptedException;
+}
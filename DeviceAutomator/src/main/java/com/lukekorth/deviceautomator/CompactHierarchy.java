@@ -0,0 +1,411 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hierarchy stored in parallel arrays instead of one object per node, for keeping many captures
+ * in memory. Nodes are numbered in document order, bounds, flags and parent indexes are stored in
+ * primitive arrays and class names, package names and resource ids are interned in a string table
+ * of the capture, so a node takes about 48 bytes plus its text.
+ *
+ * {@link NodeQuery}s can be run directly with {@link #find(NodeQuery)} and
+ * {@link #findAll(NodeQuery)}, which return positions. Class names and resource ids are compared
+ * by their index in the string table.
+ */
+public class CompactHierarchy {
+
+    private final int mSize;
+    private final int[] mParents;
+    private final int[] mSubtreeEnds;
+    private final int[] mBounds;
+    private final int[] mFlags;
+    private final int[] mClassNames;
+    private final int[] mPackageNames;
+    private final int[] mResourceIds;
+    private final String[] mTexts;
+    private final String[] mContentDescriptions;
+    private final String[] mStrings;
+
+    private CompactHierarchy(Builder builder) {
+        mSize = builder.mSize;
+        mParents = trim(builder.mParents, mSize);
+        mSubtreeEnds = trim(builder.mSubtreeEnds, mSize);
+        mBounds = trim(builder.mBounds, mSize * 4);
+        mFlags = trim(builder.mFlags, mSize);
+        mClassNames = trim(builder.mClassNames, mSize);
+        mPackageNames = trim(builder.mPackageNames, mSize);
+        mResourceIds = trim(builder.mResourceIds, mSize);
+        mTexts = trim(builder.mTexts, mSize);
+        mContentDescriptions = trim(builder.mContentDescriptions, mSize);
+        mStrings = builder.mStrings.values();
+    }
+
+    /**
+     * @return the array, or a copy of its first {@code length} values if it is longer.
+     */
+    private static int[] trim(int[] values, int length) {
+        return values.length == length ? values : Arrays.copyOf(values, length);
+    }
+
+    private static String[] trim(String[] values, int length) {
+        return values.length == length ? values : Arrays.copyOf(values, length);
+    }
+
+    /**
+     * @return a compact copy of the hierarchy.
+     */
+    public static CompactHierarchy of(HierarchyNode root) {
+        Builder builder = new Builder(root.size());
+        add(builder, root, -1);
+        return builder.build();
+    }
+
+    private static void add(Builder builder, HierarchyNode node, int parent) {
+        int position = builder.add(parent, node.getClassName(), node.getPackageName(), node.getResourceId(),
+                node.getText(), node.getContentDescription(), node.getLeft(), node.getTop(), node.getRight(),
+                node.getBottom(), node.getFlags());
+        for (int i = 0; i < node.getChildCount(); i++) {
+            add(builder, node.getChild(i), position);
+        }
+    }
+
+    /**
+     * @return the number of nodes in the hierarchy.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the position of the parent of the node, or {@code -1} for the root.
+     */
+    public int getParent(int position) {
+        return mParents[position];
+    }
+
+    /**
+     * @return the position after the last descendant of the node. The first child of a node is at
+     *         {@code position + 1} and each next sibling starts at the subtree end of the previous
+     *         one.
+     */
+    public int getSubtreeEnd(int position) {
+        return mSubtreeEnds[position];
+    }
+
+    public String getClassName(int position) {
+        return string(mClassNames[position]);
+    }
+
+    public String getPackageName(int position) {
+        return string(mPackageNames[position]);
+    }
+
+    public String getResourceId(int position) {
+        return string(mResourceIds[position]);
+    }
+
+    public String getText(int position) {
+        return mTexts[position];
+    }
+
+    public String getContentDescription(int position) {
+        return mContentDescriptions[position];
+    }
+
+    public int getLeft(int position) {
+        return mBounds[position * 4];
+    }
+
+    public int getTop(int position) {
+        return mBounds[position * 4 + 1];
+    }
+
+    public int getRight(int position) {
+        return mBounds[position * 4 + 2];
+    }
+
+    public int getBottom(int position) {
+        return mBounds[position * 4 + 3];
+    }
+
+    /**
+     * @return the flags of the node, a combination of the flags of {@link HierarchyNode}.
+     */
+    public int getFlags(int position) {
+        return mFlags[position];
+    }
+
+    public boolean hasFlag(int position, int flag) {
+        return (mFlags[position] & flag) == flag;
+    }
+
+    /**
+     * @return a {@link HierarchyNode} copy of the node and its descendants, without a parent.
+     */
+    public HierarchyNode toHierarchyNode(int position) {
+        HierarchyNode node = new HierarchyNode(getClassName(position))
+                .setPackageName(getPackageName(position))
+                .setResourceId(getResourceId(position))
+                .setText(mTexts[position])
+                .setContentDescription(mContentDescriptions[position])
+                .setBounds(getLeft(position), getTop(position), getRight(position), getBottom(position))
+                .setFlags(mFlags[position]);
+        for (int child = position + 1; child < mSubtreeEnds[position]; child = mSubtreeEnds[child]) {
+            node.addChild(toHierarchyNode(child));
+        }
+        return node;
+    }
+
+    /**
+     * @return the position of the node the query resolves to, or {@code -1} if there is none.
+     */
+    public int find(NodeQuery query) {
+        Matches matches = new Matches(query.getInstance() + 1);
+        collect(query, 0, mSize, matches);
+        return matches.mSize > query.getInstance() ? matches.mPositions[query.getInstance()] : -1;
+    }
+
+    /**
+     * @return the positions of every node matching the query, ignoring
+     *         {@link NodeQuery#getInstance()}, in document order.
+     */
+    public int[] findAll(NodeQuery query) {
+        Matches matches = new Matches(Integer.MAX_VALUE);
+        collect(query, 0, mSize, matches);
+        return Arrays.copyOf(matches.mPositions, matches.mSize);
+    }
+
+    /**
+     * Collects matches between the positions {@code from} and {@code to}, searching the
+     * descendants of matching nodes for the child query like {@link NodeQuery#findAll(HierarchyNode)}.
+     */
+    private void collect(NodeQuery query, int from, int to, Matches matches) {
+        int className = query.getClassName() == null ? -1 : indexOf(query.getClassName());
+        int resourceId = query.getResourceId() == null ? -1 : indexOf(query.getResourceId());
+        if ((query.getClassName() != null && className == -1) || (query.getResourceId() != null && resourceId == -1)) {
+            // no node has the class name or resource id
+            return;
+        }
+
+        for (int position = from; position < to && !matches.isFull(); position++) {
+            if ((className != -1 && mClassNames[position] != className) ||
+                    (resourceId != -1 && mResourceIds[position] != resourceId) ||
+                    (query.getContentDescription() != null &&
+                            !query.getContentDescription().equals(mContentDescriptions[position])) ||
+                    (query.getText() != null && !query.matchesText(mTexts[position]))) {
+                continue;
+            }
+
+            if (query.getChild() == null) {
+                matches.add(position);
+            } else {
+                collect(query.getChild(), position + 1, mSubtreeEnds[position], matches);
+                position = mSubtreeEnds[position] - 1;
+            }
+        }
+    }
+
+    private String string(int index) {
+        return index == -1 ? null : mStrings[index];
+    }
+
+    /**
+     * @return the index of the string in the string table, or {@code -1} if no node has it. The
+     *         table only holds the distinct values of the capture, it is searched directly.
+     */
+    private int indexOf(String value) {
+        for (int i = 0; i < mStrings.length; i++) {
+            if (mStrings[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds a {@link CompactHierarchy} one node at a time. Nodes must be added in document order,
+     * a node's descendants before its next sibling. When the expected number of nodes is exact
+     * the arrays are not copied by {@link #build()}, a builder can only build once.
+     */
+    public static class Builder {
+
+        private int mSize;
+        private int[] mParents;
+        private int[] mSubtreeEnds;
+        private int[] mBounds;
+        private int[] mFlags;
+        private int[] mClassNames;
+        private int[] mPackageNames;
+        private int[] mResourceIds;
+        private String[] mTexts;
+        private String[] mContentDescriptions;
+        private final StringTable mStrings = new StringTable();
+        private int[] mOpen = new int[16];
+        private int mOpenCount;
+        private boolean mBuilt;
+
+        public Builder() {
+            this(64);
+        }
+
+        /**
+         * @param capacity expected number of nodes.
+         */
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            mParents = new int[capacity];
+            mSubtreeEnds = new int[capacity];
+            mBounds = new int[capacity * 4];
+            mFlags = new int[capacity];
+            mClassNames = new int[capacity];
+            mPackageNames = new int[capacity];
+            mResourceIds = new int[capacity];
+            mTexts = new String[capacity];
+            mContentDescriptions = new String[capacity];
+        }
+
+        /**
+         * Adds a node.
+         *
+         * @param parent position of the parent returned by an earlier call, or {@code -1} for the
+         *        root.
+         * @param flags combination of the flags of {@link HierarchyNode}.
+         * @return the position of the node.
+         */
+        public int add(int parent, String className, String packageName, String resourceId, String text,
+                String contentDescription, int left, int top, int right, int bottom, int flags) {
+            if (mBuilt) {
+                throw new IllegalStateException("build() was already called");
+            }
+            close(parent);
+            if (mSize == mParents.length) {
+                grow();
+            }
+
+            int position = mSize++;
+            mParents[position] = parent;
+            mBounds[position * 4] = left;
+            mBounds[position * 4 + 1] = top;
+            mBounds[position * 4 + 2] = right;
+            mBounds[position * 4 + 3] = bottom;
+            mFlags[position] = flags;
+            mClassNames[position] = mStrings.intern(className);
+            mPackageNames[position] = mStrings.intern(packageName);
+            mResourceIds[position] = mStrings.intern(resourceId);
+            mTexts[position] = text;
+            mContentDescriptions[position] = contentDescription;
+
+            if (mOpenCount == mOpen.length) {
+                mOpen = Arrays.copyOf(mOpen, mOpenCount * 2);
+            }
+            mOpen[mOpenCount++] = position;
+            return position;
+        }
+
+        /**
+         * Ends the subtrees of the nodes added after the parent, which can no longer get children.
+         */
+        private void close(int parent) {
+            if (parent == -1 ? mSize != 0 : parent >= mSize) {
+                throw new IllegalArgumentException("Invalid parent " + parent);
+            }
+
+            while (mOpenCount > 0 && mOpen[mOpenCount - 1] != parent) {
+                mSubtreeEnds[mOpen[--mOpenCount]] = mSize;
+            }
+            if (parent != -1 && mOpenCount == 0) {
+                throw new IllegalArgumentException("Nodes must be added in document order, the subtree of " +
+                        parent + " has ended");
+            }
+        }
+
+        private void grow() {
+            int capacity = mParents.length * 2;
+            mParents = Arrays.copyOf(mParents, capacity);
+            mSubtreeEnds = Arrays.copyOf(mSubtreeEnds, capacity);
+            mBounds = Arrays.copyOf(mBounds, capacity * 4);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mClassNames = Arrays.copyOf(mClassNames, capacity);
+            mPackageNames = Arrays.copyOf(mPackageNames, capacity);
+            mResourceIds = Arrays.copyOf(mResourceIds, capacity);
+            mTexts = Arrays.copyOf(mTexts, capacity);
+            mContentDescriptions = Arrays.copyOf(mContentDescriptions, capacity);
+        }
+
+        public CompactHierarchy build() {
+            if (mBuilt) {
+                throw new IllegalStateException("build() was already called");
+            }
+            if (mSize == 0) {
+                throw new IllegalStateException("A hierarchy needs a root");
+            }
+
+            while (mOpenCount > 0) {
+                mSubtreeEnds[mOpen[--mOpenCount]] = mSize;
+            }
+            mBuilt = true;
+            return new CompactHierarchy(this);
+        }
+    }
+
+    /**
+     * Interns strings that repeat across the nodes of a capture, only while it is built.
+     */
+    static final class StringTable {
+
+        private final Map<String, Integer> mIndexes = new HashMap<>();
+        private String[] mValues = new String[64];
+        private int mSize;
+
+        /**
+         * @return the index of the string, adding it if needed, or {@code -1} for {@code null}.
+         */
+        int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+
+            Integer index = mIndexes.get(value);
+            if (index == null) {
+                if (mSize == mValues.length) {
+                    mValues = Arrays.copyOf(mValues, mSize * 2);
+                }
+                index = mSize;
+                mValues[mSize++] = value;
+                mIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        /**
+         * @return the interned strings, by index.
+         */
+        String[] values() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+
+    private static class Matches {
+
+        final int mLimit;
+        int[] mPositions = new int[8];
+        int mSize;
+
+        Matches(int limit) {
+            mLimit = limit;
+        }
+
+        void add(int position) {
+            if (mSize == mPositions.length) {
+                mPositions = Arrays.copyOf(mPositions, mSize * 2);
+            }
+            mPositions[mSize++] = position;
+        }
+
+        boolean isFull() {
+            return mSize >= mLimit;
+        }
+    }
+}
@@ -3,19 +3,32 @@ package com.lukekorth.deviceautomator;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Rect;
 import android.os.Build;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
 
+import androidx.annotation.RequiresApi;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Configurator;
 import androidx.test.uiautomator.UiDevice;
 import androidx.test.uiautomator.UiObject;
 import androidx.test.uiautomator.UiObjectNotFoundException;
+import androidx.test.uiautomator.UiScrollable;
 import androidx.test.uiautomator.UiSelector;
 import androidx.test.uiautomator.Until;
 import androidx.core.content.ContextCompat;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
 import static androidx.test.uiautomator.Until.hasObject;
@@ -28,7 +41,57 @@ import static org.hamcrest.core.IsNull.notNullValue;
  */
 public class DeviceAutomator {
 
+    private static final String TAG = "DeviceAutomator";
+
+    private static final MatcherCache sMatcherCache = new MatcherCache();
+    private static final AccessibilityEvents.Listener sMatcherCacheInvalidator = new AccessibilityEvents.Listener() {
+        @Override
+        public void onAccessibilityEvent(AccessibilityEvent event) {
+            if (!AccessibilityCapturer.isFromOtherWindow(event)) {
+                sMatcherCache.invalidate();
+            }
+        }
+    };
+    private static final MatcherCache.Resolver sSnapshotResolver = new MatcherCache.Resolver() {
+        @Override
+        public HierarchyNode resolve(UiObjectMatcher matcher) {
+            long start = System.nanoTime();
+            int step = beginStep(AutomatorMetrics.Operation.RESOLVE, matcher);
+            HierarchySnapshot snapshot = AccessibilityCapturer.snapshot();
+            HierarchyNode node = find(matcher.getNodeQuery(), snapshot);
+            endStep(AutomatorMetrics.Operation.RESOLVE, start, step, node != null);
+            checkSlowQuery(matcher, start, snapshot);
+            return node;
+        }
+    };
+
+    private static final ClickCache sClickCache = new ClickCache();
+    private static final LatencyTracker sLatencyTracker = new LatencyTracker();
+    private static final AccessibilityEvents.Listener sLatencyListener = new AccessibilityEvents.Listener() {
+        @Override
+        public void onAccessibilityEvent(AccessibilityEvent event) {
+            if ((event.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED ||
+                    event.getEventType() == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) &&
+                    !AccessibilityCapturer.isFromOtherWindow(event)) {
+                // the event time is when the app changed the window, move it to the nanosecond clock
+                long age = Math.max(SystemClock.uptimeMillis() - event.getEventTime(), 0);
+                sLatencyTracker.onWindowChange(System.nanoTime() - age * 1000000);
+            }
+        }
+    };
+
+    private static SimulatedDevice sSimulatedDevice;
+    private static volatile boolean sMatcherCacheEnabled;
+    private static volatile boolean sClickCacheEnabled;
+    private static volatile boolean sLatencyMeasurementEnabled;
+    private static int sLatencyListenerUsers;
+    private static volatile boolean sInputPending;
+    private static volatile SlowQueryDetector sSlowQueryDetector;
+    private static volatile LocationHints sLocationHints;
+    private static volatile StepJournal sStepJournal;
+
     private UiDevice mDevice;
+    private SimulatedDevice mSimulatedDevice;
     private UiObjectMatcher mMatcher;
 
     public DeviceAutomator(UiDevice device, UiObjectMatcher matcher) {
@@ -36,6 +99,257 @@ public class DeviceAutomator {
         mMatcher = matcher;
     }
 
+    public DeviceAutomator(SimulatedDevice device, UiObjectMatcher matcher) {
+        mSimulatedDevice = device;
+        mMatcher = matcher;
+    }
+
+    /**
+     * Makes {@link #onDevice()} and {@link #onDevice(UiObjectMatcher)} return instances that
+     * interact with the given {@link SimulatedDevice} instead of the real device, so existing flows
+     * can be run on the JVM. Operations that need the real device, ex: launching an intent,
+     * resetting apps, reading logcat, screenshots and the system shades, throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @param device the {@link SimulatedDevice} to use, or {@code null} to use the real device.
+     */
+    public static void setSimulatedDevice(SimulatedDevice device) {
+        sSimulatedDevice = device;
+    }
+
+    /**
+     * Enables or disables remembering the ui element each {@link UiObjectMatcher} resolves to.
+     * While enabled, {@link #exists()}, {@link #isChecked()} and {@link #check(AutomatorAssertion)}
+     * with {@link AutomatorAssertion#visible(boolean)},
+     * {@link AutomatorAssertion#text(org.hamcrest.Matcher)} or
+     * {@link AutomatorAssertion#contentDescription(org.hamcrest.Matcher)} are answered from a
+     * snapshot of the screen, and repeated calls are served from memory until an accessibility
+     * event reports that something changed in the active window or an action is performed. After
+     * an action the snapshot is captured again once the ui is idle. Elements that are not found in
+     * the snapshot, and assertions that fail against it, are checked again with UI Automator,
+     * waiting for the element like without the cache. Only matchers created by the static factory
+     * methods of {@link UiObjectMatcher} are cached. Disabled by default.
+     *
+     * @param enabled {@code true} to enable the cache, {@code false} to disable and clear it.
+     */
+    public static synchronized void setMatcherCacheEnabled(boolean enabled) {
+        if (enabled && !sMatcherCacheEnabled) {
+            AccessibilityEvents.addListener(sMatcherCacheInvalidator);
+        } else if (!enabled) {
+            AccessibilityEvents.removeListener(sMatcherCacheInvalidator);
+        }
+        sMatcherCache.invalidate();
+        sMatcherCacheEnabled = enabled;
+    }
+
+    /**
+     * @return the number of lookups served from the matcher cache, see
+     *         {@link #setMatcherCacheEnabled(boolean)}.
+     */
+    public static long getMatcherCacheHits() {
+        return sMatcherCache.getHits();
+    }
+
+    /**
+     * @return the number of lookups that missed the matcher cache and searched the screen, see
+     *         {@link #setMatcherCacheEnabled(boolean)}.
+     */
+    public static long getMatcherCacheMisses() {
+        return sMatcherCache.getMisses();
+    }
+
+    /**
+     * Enables or disables remembering where {@link AutomatorAction#click()} clicked each
+     * {@link UiObjectMatcher}, together with a fingerprint of the screen at the time. While enabled,
+     * clicking a matcher again on a screen with the same fingerprint clicks the remembered point
+     * directly without searching for the element, which speeds up clicking navigation tabs and
+     * toolbar buttons in long flows. When the fingerprint differs the element is found again, in a
+     * snapshot of the screen when possible. The fingerprint is of the shared snapshot, which
+     * accessibility events and every action invalidate, and the first click after an action waits
+     * for the ui to be idle, so a remembered point is never used on a screen that has changed
+     * since. The point is the center of the part of the element inside its scrolling containers,
+     * like UI Automator clicks. Only matchers created by the static factory methods of
+     * {@link UiObjectMatcher} are remembered. Disabled by default.
+     *
+     * @param enabled {@code true} to enable fast clicks, {@code false} to disable them and forget
+     *        every remembered point.
+     */
+    public static synchronized void setClickCacheEnabled(boolean enabled) {
+        sClickCache.clear();
+        sClickCacheEnabled = enabled;
+    }
+
+    /**
+     * @return the number of clicks made at a remembered point, see
+     *         {@link #setClickCacheEnabled(boolean)}.
+     */
+    public static long getClickCacheHits() {
+        return sClickCache.getHits();
+    }
+
+    /**
+     * @return the number of clicks that had to find the element, see
+     *         {@link #setClickCacheEnabled(boolean)}.
+     */
+    public static long getClickCacheMisses() {
+        return sClickCache.getMisses();
+    }
+
+    /**
+     * Enables remembering where in the hierarchy each {@link UiObjectMatcher} resolved, as the
+     * path of child indexes and the package of the window, in a small file that is kept across
+     * runs. Hints only change where a lookup starts: while enabled, clicks, the waits for an
+     * element and, with {@link #setMatcherCacheEnabled(boolean)}, the lookups of the matcher cache
+     * check the remembered location in a snapshot of the screen first, in time proportional to the
+     * depth of the hierarchy, before searching it. Elements that aren't found are waited for as
+     * before. {@link #exists()}, {@link #isChecked()} and {@link #check(AutomatorAssertion)}
+     * without the matcher cache, and other actions, ex: {@link AutomatorAction#setText(String)},
+     * use a {@link UiObject} that UI Automator finds itself. Only matchers that resolved to a
+     * single element are remembered. Disabled by default.
+     *
+     * Hints are saved periodically, a failure to save them periodically is retried later instead
+     * of failing the step. Call {@link #saveLocationHints()} at the end of a suite to save the rest.
+     *
+     * @param file the file to load and save hints, ex: a file in
+     *        {@link Context#getFilesDir()} of the instrumentation context, or {@code null} to save
+     *        the hints and disable them.
+     */
+    public static synchronized void setLocationHintFile(File file) {
+        if (sLocationHints != null) {
+            sLocationHints.save();
+        }
+        sLocationHints = file == null ? null : new LocationHints(file);
+        sMatcherCache.invalidate();
+    }
+
+    /**
+     * Saves the location hints enabled with {@link #setLocationHintFile(File)} if any changed.
+     */
+    public static void saveLocationHints() {
+        LocationHints hints = sLocationHints;
+        if (hints != null) {
+            hints.save();
+        }
+    }
+
+    /**
+     * @return the number of matchers found at their remembered location, see
+     *         {@link #setLocationHintFile(File)}.
+     */
+    public static long getLocationHintHits() {
+        LocationHints hints = sLocationHints;
+        return hints == null ? 0 : hints.getHits();
+    }
+
+    /**
+     * @return the number of matchers that were not at a remembered location and were searched
+     *         for, see {@link #setLocationHintFile(File)}.
+     */
+    public static long getLocationHintMisses() {
+        LocationHints hints = sLocationHints;
+        return hints == null ? 0 : hints.getMisses();
+    }
+
+    /**
+     * Searches indexed hierarchies with at least the given number of nodes on a thread per
+     * processor, ex: {@link NodeQuery#findAll(HierarchyIndex)} and the snapshot searched by the
+     * matcher cache. The hierarchy is split into subtrees that are searched concurrently and the
+     * results are joined in document order, so they are the same as a search on a single thread.
+     * Searches that use the index to look up a few candidates gain little, searches by text on
+     * screens with thousands of nodes gain the most. Disabled by default.
+     *
+     * @param nodes minimum number of nodes, {@code 0} to disable parallel searches.
+     */
+    public static void setParallelEvaluationThreshold(int nodes) {
+        ParallelEvaluator.setThreshold(nodes);
+    }
+
+    /**
+     * Enables or disables measuring the time from injecting input to the first window change it
+     * causes, for {@link AutomatorAction#click()} and the {@code press} methods. The time of the
+     * change is the time the app reported it in its accessibility event, and actions don't wait for
+     * the change, so measuring adds little to each action. Latencies are recorded per action across
+     * repeats, see {@link #getLatencyDistributions()}. Changes in windows other than the active
+     * one, ex: the status bar, are ignored. Disabled by default.
+     *
+     * @param enabled {@code true} to measure latencies, {@code false} to stop.
+     */
+    public static synchronized void setLatencyMeasurementEnabled(boolean enabled) {
+        if (enabled && !sLatencyMeasurementEnabled) {
+            retainLatencyListener();
+        } else if (!enabled && sLatencyMeasurementEnabled) {
+            releaseLatencyListener();
+        }
+        sLatencyMeasurementEnabled = enabled;
+    }
+
+    /**
+     * Listens for window changes until every call is matched by {@link #releaseLatencyListener()}.
+     */
+    private static synchronized void retainLatencyListener() {
+        if (sLatencyListenerUsers++ == 0) {
+            AccessibilityEvents.addListener(sLatencyListener);
+        }
+    }
+
+    private static synchronized void releaseLatencyListener() {
+        if (--sLatencyListenerUsers == 0) {
+            AccessibilityEvents.removeListener(sLatencyListener);
+        }
+    }
+
+    /**
+     * @return the latencies measured by name of the action, ex: {@code click} or
+     *         {@code pressBack}, and by the names given to
+     *         {@link #measureLatency(String, AutomatorAction, UiObjectMatcher, long)}.
+     */
+    public static Map<String, LatencyDistribution> getLatencyDistributions() {
+        return sLatencyTracker.getDistributions();
+    }
+
+    /**
+     * @return the number of actions that were followed by another action before the window
+     *         changed, see {@link #setLatencyMeasurementEnabled(boolean)}.
+     */
+    public static long getUnansweredLatencyCount() {
+        return sLatencyTracker.getUnanswered();
+    }
+
+    /**
+     * Forgets every latency measured.
+     */
+    public static void clearLatencyDistributions() {
+        sLatencyTracker.clear();
+    }
+
+    /**
+     * Reports every {@link UiObjectMatcher} that takes longer to resolve than the threshold of the
+     * detector, for {@link #exists()}, {@link #isChecked()}, actions, checks, waits and the
+     * matchers resolved from a snapshot of the screen. Only the lookup is timed: when UI Automator
+     * finds the element as part of a wait, action or check, which includes waiting for it to
+     * appear, typing or taking a screenshot, the element is looked up once more afterwards and the
+     * time of that lookup is reported. Call {@link SlowQueryDetector#getReport(int)} at the end of
+     * the suite for the selectors that were slow most often.
+     *
+     * @param detector the {@link SlowQueryDetector} to report to, or {@code null} to stop.
+     */
+    public static void setSlowQueryDetector(SlowQueryDetector detector) {
+        sSlowQueryDetector = detector;
+    }
+
+    /**
+     * Records every step, action and assertion, with its matcher, duration and outcome, in a
+     * journal that survives the instrumentation crashing, on the device and on a
+     * {@link SimulatedDevice}. Methods that only read the state of the device, ex:
+     * {@link #getHierarchy()}, {@link #screenFingerprint()}, {@link #isScreenOn()} and
+     * {@link #markLog()}, are not recorded. Decode it with {@link StepJournal#decode(java.io.File)}.
+     *
+     * @param journal the {@link StepJournal} to record to, or {@code null} to stop.
+     */
+    public static void setStepJournal(StepJournal journal) {
+        sStepJournal = journal;
+    }
+
     /**
      * @return {@link DeviceAutomator} without a {@link UiObjectMatcher}. Suitable for performing
      *         global actions and launching apps.
@@ -51,9 +365,22 @@ public class DeviceAutomator {
      *         {@link UiObjectMatcher} only.
      */
     public static DeviceAutomator onDevice(UiObjectMatcher matcher) {
+        if (sSimulatedDevice != null) {
+            return new DeviceAutomator(sSimulatedDevice, matcher);
+        }
         return new DeviceAutomator(UiDevice.getInstance(getInstrumentation()), matcher);
     }
 
+    /**
+     * @param device {@link SimulatedDevice} to interact with.
+     * @param matcher {@link UiObjectMatcher} used to specify the ui element to interact with.
+     * @return {@link DeviceAutomator} for the supplied {@link UiObjectMatcher} on the supplied
+     *         {@link SimulatedDevice}.
+     */
+    public static DeviceAutomator onDevice(SimulatedDevice device, UiObjectMatcher matcher) {
+        return new DeviceAutomator(device, matcher);
+    }
+
     /**
      * Presses the home button and waits for the launcher with a timeout of 5 seconds.
      *
@@ -71,11 +398,21 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator onHomeScreen(long timeout) {
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_HOME);
+            endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
+            return this;
+        }
+
         mDevice.pressHome();
+        invalidateScreen();
 
         String launcherPackage = mDevice.getLauncherPackageName();
         assertThat(launcherPackage, notNullValue());
-        mDevice.wait(hasObject(By.pkg(launcherPackage).depth(0)), timeout);
+        Boolean home = mDevice.wait(hasObject(By.pkg(launcherPackage).depth(0)), timeout);
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, Boolean.TRUE.equals(home));
 
         return this;
     }
@@ -99,8 +436,20 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator checkForegroundAppIs(String packageName, long timeout) {
-        mDevice.wait(Until.hasObject(By.pkg(packageName).depth(0)), 5000);
-        assertTrue(mDevice.hasObject(By.pkg(packageName).depth(0)));
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.CHECK, null);
+        boolean passed = false;
+        try {
+            if (mSimulatedDevice != null) {
+                assertTrue(packageName.equals(mSimulatedDevice.getCurrentPackageName()));
+            } else {
+                mDevice.wait(Until.hasObject(By.pkg(packageName).depth(0)), 5000);
+                assertTrue(mDevice.hasObject(By.pkg(packageName).depth(0)));
+            }
+            passed = true;
+        } finally {
+            endStep(AutomatorMetrics.Operation.CHECK, start, step, passed);
+        }
         return this;
     }
 
@@ -122,6 +471,14 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator launchApp(String packageName, long timeout) {
+        if (mSimulatedDevice != null) {
+            long start = System.nanoTime();
+            int step = beginStep(AutomatorMetrics.Operation.LAUNCH, null);
+            mSimulatedDevice.launch(packageName);
+            endStep(AutomatorMetrics.Operation.LAUNCH, start, step, true);
+            return this;
+        }
+
         Context targetContext = ApplicationProvider.getApplicationContext();
         return launchApp(targetContext.getPackageManager().getLaunchIntentForPackage(packageName), timeout);
     }
@@ -144,12 +501,119 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator launchApp(Intent intent, long timeout) {
+        realDevice("launchApp(Intent)");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.LAUNCH, null);
+        boolean launched = launch(intent, timeout);
+        endStep(AutomatorMetrics.Operation.LAUNCH, start, step, launched);
+
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the app appeared before the timeout.
+     */
+    private boolean launch(Intent intent, long timeout) {
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
                 .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK);
         ApplicationProvider.getApplicationContext().startActivity(intent);
 
-        mDevice.wait(hasObject(By.pkg(intent.getPackage()).depth(0)), timeout);
+        return Boolean.TRUE.equals(mDevice.wait(hasObject(By.pkg(intent.getPackage()).depth(0)), timeout));
+    }
+
+    /**
+     * Force stops the app with the given package name, clears all of its data and relaunches it,
+     * waiting for it to start with a timeout of 5 seconds.
+     *
+     * @param packageName package name of the app to reset.
+     * @return {@link AppReset.Timings} with the time spent in each phase of the reset.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public AppReset.Timings resetApp(String packageName) {
+        return resetApp(AppReset.forPackage(packageName).clearData());
+    }
+
+    /**
+     * Resets an app as described by the given {@link AppReset}, waiting for it to start with a
+     * timeout of 5 seconds if it is relaunched.
+     *
+     * @param reset {@link AppReset} describing the reset.
+     * @return {@link AppReset.Timings} with the time spent in each phase of the reset.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public AppReset.Timings resetApp(AppReset reset) {
+        return resetApp(reset, 5000);
+    }
+
+    /**
+     * Resets an app as described by the given {@link AppReset}. All shell commands are run back to
+     * back in a single shell and the only wait is for the app to appear once it has been
+     * relaunched.
+     *
+     * @param reset {@link AppReset} describing the reset.
+     * @param timeout length of time in milliseconds to wait for the app to appear before timing out.
+     * @return {@link AppReset.Timings} with the time spent in each phase of the reset.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public AppReset.Timings resetApp(AppReset reset, long timeout) {
+        realDevice("resetApp");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.LAUNCH, null);
+        long[] finished = AppReset.execute(Arrays.asList(reset.getForceStopCommands(), reset.getClearCommands()));
+        boolean launched = true;
+        if (reset.shouldRelaunch()) {
+            Context targetContext = ApplicationProvider.getApplicationContext();
+            launched = launch(targetContext.getPackageManager().getLaunchIntentForPackage(reset.getPackageName()), timeout);
+        }
+        endStep(AutomatorMetrics.Operation.LAUNCH, start, step, launched);
+        long end = System.nanoTime();
+
+        return new AppReset.Timings((finished[0] - start) / 1000000, (finished[1] - finished[0]) / 1000000,
+                (end - finished[1]) / 1000000);
+    }
+
+    /**
+     * Disables animations, keeps the screen on and turns off spell checking suggestions for the
+     * rest of the session. Call {@link TestSpeedProfile#restore()} on the returned profile when the
+     * session is over, or use {@link TestSpeedProfile#rule()}.
+     *
+     * @return the applied {@link TestSpeedProfile}.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public TestSpeedProfile applyTestSpeedProfile() {
+        realDevice("applyTestSpeedProfile");
+        return TestSpeedProfile.create().apply();
+    }
 
+    /**
+     * Force stops the app with the given package name.
+     *
+     * @param packageName package name of the app to stop.
+     * @return {@link DeviceAutomator} for method chaining.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public DeviceAutomator forceStopApp(String packageName) {
+        realDevice("forceStopApp");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.LAUNCH, null);
+        AppReset.execute(Collections.singletonList(AppReset.forPackage(packageName).getForceStopCommands()));
+        endStep(AutomatorMetrics.Operation.LAUNCH, start, step, true);
+        return this;
+    }
+
+    /**
+     * Clears all data for the app with the given package name. The app is stopped as a side effect.
+     *
+     * @param packageName package name of the app to clear.
+     * @return {@link DeviceAutomator} for method chaining.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public DeviceAutomator clearAppData(String packageName) {
+        realDevice("clearAppData");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.LAUNCH, null);
+        AppReset.execute(Collections.singletonList(AppReset.forPackage(packageName).clearData().getClearCommands()));
+        endStep(AutomatorMetrics.Operation.LAUNCH, start, step, true);
         return this;
     }
 
@@ -166,12 +630,30 @@ public class DeviceAutomator {
 
     /**
      * Waits for the ui element specified in {@link #onDevice(UiObjectMatcher)} to be visible with
-     * the given timeout.
+     * the given timeout. Waits for the signals in {@link IdleRegistry} first.
+     *
+     * A {@link SimulatedDevice} only changes in response to input, so the element must already
+     * exist.
      *
      * @return {@link DeviceAutomator} for method chaining.
+     * @throws RuntimeException on a {@link SimulatedDevice} if the element does not exist.
      */
     public DeviceAutomator waitForExists(long timeout) {
-        mMatcher.getUiObject(mDevice).waitForExists(timeout);
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.WAIT, mMatcher);
+        if (mSimulatedDevice != null) {
+            simulatedNode();
+            endStep(AutomatorMetrics.Operation.WAIT, start, step, true);
+            return this;
+        }
+
+        long remaining = waitForIdleSignals(timeout);
+        boolean exists = findHinted() != null;
+        if (!exists) {
+            exists = mMatcher.getUiObject(mDevice).waitForExists(remaining);
+            checkSlowLookup(exists);
+        }
+        endStep(AutomatorMetrics.Operation.WAIT, start, step, exists);
         return this;
     }
 
@@ -187,25 +669,280 @@ public class DeviceAutomator {
 
     /**
      * Waits for the ui element specified in {@link #onDevice(UiObjectMatcher)} to be enabled with
-     * the given timeout.
+     * the given timeout. Waits for the signals in {@link IdleRegistry} first.
+     *
+     * A {@link SimulatedDevice} only changes in response to input, so the element must already
+     * be enabled.
      *
      * @return {@link DeviceAutomator} for method chaining.
+     * @throws RuntimeException on a {@link SimulatedDevice} if the element does not exist or is
+     *         not enabled.
      */
     public DeviceAutomator waitForEnabled(final long timeout) {
-        mDevice.findObject(mMatcher.getBySelector()).wait(Until.enabled(true), timeout);
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.WAIT, mMatcher);
+        if (mSimulatedDevice != null) {
+            if (!simulatedNode().hasFlag(HierarchyNode.ENABLED)) {
+                throw new RuntimeException(mMatcher.getNodeQuery() + " is not enabled");
+            }
+            endStep(AutomatorMetrics.Operation.WAIT, start, step, true);
+            return this;
+        }
+
+        long remaining = waitForIdleSignals(timeout);
+        HierarchyNode hinted = findHinted();
+        boolean enabled = hinted != null && hinted.hasFlag(HierarchyNode.ENABLED);
+        if (!enabled) {
+            enabled = Boolean.TRUE.equals(mDevice.findObject(mMatcher.getBySelector()).wait(Until.enabled(true), remaining));
+            checkSlowLookup(enabled);
+        }
+        endStep(AutomatorMetrics.Operation.WAIT, start, step, enabled);
+        return this;
+    }
+
+    /**
+     * Waits for every {@link IdleSignal} registered with {@link IdleRegistry} to be idle with a
+     * timeout of 5 seconds.
+     *
+     * @return {@link DeviceAutomator} for method chaining.
+     */
+    public DeviceAutomator waitForIdle() {
+        return waitForIdle(5000);
+    }
+
+    /**
+     * Waits for every {@link IdleSignal} registered with {@link IdleRegistry} to be idle with the
+     * given timeout.
+     *
+     * @param timeout length of time in milliseconds to wait before timing out.
+     * @return {@link DeviceAutomator} for method chaining.
+     */
+    public DeviceAutomator waitForIdle(long timeout) {
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.WAIT, null);
+        boolean idle = IdleRegistry.waitForIdle(timeout);
+        endStep(AutomatorMetrics.Operation.WAIT, start, step, idle);
         return this;
     }
 
+    /**
+     * Marks the current end of the log, for use with {@link #waitForLog(long, String, Pattern, long)}
+     * when the line may be logged before the wait starts, ex: by the action that is waited on.
+     *
+     * @return the mark.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public long markLog() {
+        realDevice("markLog");
+        return LogcatStream.shared().mark();
+    }
+
+    /**
+     * Waits for a line to be logged after this call with the given tag and a message containing a
+     * match of the pattern. All waits share a single logcat reader.
+     *
+     * @param tag tag of the line, or {@code null} for any tag.
+     * @param pattern pattern to find in the message of the line.
+     * @param timeout length of time in milliseconds to wait before timing out.
+     * @return the line, or {@code null} if no matching line was logged before the timeout.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public LogcatLine waitForLog(String tag, Pattern pattern, long timeout) {
+        realDevice("waitForLog");
+        return waitForLog(markLog(), tag, pattern, timeout);
+    }
+
+    /**
+     * Waits for a line to be logged after the mark with the given tag and a message containing a
+     * match of the pattern. Lines logged since the mark are checked first, as long as they are
+     * still among the last 2048 lines read.
+     *
+     * @param mark mark returned by {@link #markLog()}.
+     * @param tag tag of the line, or {@code null} for any tag.
+     * @param pattern pattern to find in the message of the line.
+     * @param timeout length of time in milliseconds to wait before timing out.
+     * @return the line, or {@code null} if no matching line was logged before the timeout.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public LogcatLine waitForLog(long mark, String tag, Pattern pattern, long timeout) {
+        realDevice("waitForLog");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.WAIT, null);
+        LogcatLine line = null;
+        try {
+            line = LogcatStream.shared().await(mark, tag, pattern, timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        endStep(AutomatorMetrics.Operation.WAIT, start, step, line != null);
+        return line;
+    }
+
+    /**
+     * Writes the record of a step that is starting to the {@link StepJournal}, if there is one.
+     *
+     * @return the sequence of the record, for {@link #endStep(AutomatorMetrics.Operation, long, int, boolean)}.
+     */
+    private static int beginStep(AutomatorMetrics.Operation operation, UiObjectMatcher matcher) {
+        StepJournal journal = sStepJournal;
+        return journal == null ? 0 : journal.begin(operation, matcher);
+    }
+
+    /**
+     * Records the duration of a step that started at the given {@link System#nanoTime()} in
+     * {@link AutomatorMetrics} and completes its record in the {@link StepJournal}.
+     */
+    private static void endStep(AutomatorMetrics.Operation operation, long start, int step, boolean passed) {
+        AutomatorMetrics.record(operation, start);
+        StepJournal journal = sStepJournal;
+        if (journal != null && step != 0) {
+            journal.end(step, System.nanoTime() - start, passed);
+        }
+    }
+
+    /**
+     * Reports the resolution of the matcher that started at the given {@link System#nanoTime()} if
+     * it was slow.
+     *
+     * @param snapshot the snapshot the matcher was resolved from, or {@code null} if it was
+     *        resolved by UI Automator.
+     */
+    private static void checkSlowQuery(UiObjectMatcher matcher, long start, HierarchySnapshot snapshot) {
+        SlowQueryDetector detector = sSlowQueryDetector;
+        long nanos = System.nanoTime() - start;
+        if (detector != null && detector.isSlow(nanos)) {
+            detector.report(matcher.getUiSelector().toString(), SlowQueryDetector.usesRegex(matcher),
+                    snapshot == null ? -1 : snapshot.getIndex().size(), nanos);
+        }
+    }
+
+    /**
+     * The time of a wait, action or check includes more than finding the element, ex: waiting for
+     * it to appear or performing the action, so once it has been found it is looked up once more,
+     * only if a {@link SlowQueryDetector} is set, to time the lookup alone.
+     *
+     * @param found {@code true} if the element was found.
+     */
+    private void checkSlowLookup(boolean found) {
+        if (found && sSlowQueryDetector != null) {
+            long start = System.nanoTime();
+            mMatcher.getUiObject(mDevice).exists();
+            checkSlowQuery(mMatcher, start, null);
+        }
+    }
+
+    /**
+     * Waits for the registered {@link IdleSignal}s, so that waits for the ui end when the app is
+     * idle. Logs the signals that were still busy if they timed out.
+     *
+     * @return the rest of the timeout in milliseconds, at least 0.
+     */
+    private static long waitForIdleSignals(long timeout) {
+        if (IdleRegistry.isEmpty()) {
+            return timeout;
+        }
+
+        long start = SystemClock.uptimeMillis();
+        if (!IdleRegistry.waitForIdle(timeout)) {
+            Log.w(TAG, "Timed out after " + timeout + "ms waiting for idle signals " +
+                    IdleRegistry.getBusySignals() + ", waiting for the ui anyway");
+        }
+        return Math.max(timeout - (SystemClock.uptimeMillis() - start), 0);
+    }
+
+    /**
+     * Waits for the ui element specified in {@link #onDevice(UiObjectMatcher)} to stop moving, or
+     * for the entire screen to stop changing if no {@link UiObjectMatcher} was specified. Returns
+     * once nothing has changed for 250 milliseconds, with a timeout of 5 seconds.
+     *
+     * @return {@code true} if nothing changed for 250 milliseconds before the timeout,
+     *         {@code false} if it was still changing.
+     */
+    public boolean waitForStable() {
+        return waitForStable(250, 5000);
+    }
+
+    /**
+     * Waits for the ui element specified in {@link #onDevice(UiObjectMatcher)} to stop moving, or
+     * for the entire screen to stop changing if no {@link UiObjectMatcher} was specified. The
+     * element is sampled by its bounds and the screen by a hash of a sampled down screenshot.
+     * Waits for the signals in {@link IdleRegistry} first. A {@link SimulatedDevice} only changes in
+     * response to input, so it is always stable.
+     *
+     * @param quietPeriod length of time in milliseconds nothing must change for.
+     * @param timeout length of time in milliseconds to wait before timing out.
+     * @return {@code true} if nothing changed for the quiet period before the timeout,
+     *         {@code false} if it was still changing.
+     */
+    public boolean waitForStable(long quietPeriod, long timeout) {
+        if (mSimulatedDevice != null) {
+            long start = System.nanoTime();
+            int step = beginStep(AutomatorMetrics.Operation.WAIT, mMatcher);
+            endStep(AutomatorMetrics.Operation.WAIT, start, step, true);
+            return true;
+        }
+
+        StabilityWaiter.Sampler sampler;
+        if (mMatcher == null) {
+            sampler = new StabilityWaiter.Sampler() {
+                @Override
+                public long sample() {
+                    return ScreenCapture.sampleHash(null);
+                }
+            };
+        } else {
+            final UiObject object = mMatcher.getUiObject(mDevice);
+            sampler = new StabilityWaiter.Sampler() {
+                @Override
+                public long sample() {
+                    try {
+                        Rect bounds = object.getVisibleBounds();
+                        return ((long) bounds.left << 48) ^ ((long) bounds.top << 32) ^
+                                ((long) bounds.right << 16) ^ bounds.bottom;
+                    } catch (UiObjectNotFoundException e) {
+                        return Long.MIN_VALUE;
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.WAIT, mMatcher);
+        long remaining = waitForIdleSignals(timeout);
+        boolean stable = new StabilityWaiter(sampler).waitForStable(quietPeriod, remaining);
+        checkSlowLookup(mMatcher != null);
+        endStep(AutomatorMetrics.Operation.WAIT, start, step, stable);
+        return stable;
+    }
+
     /**
      * @return {@code true} if the ui element specified in {@link #onDevice()} exists,
      * {@code false} otherwise.
      */
     public boolean exists() {
+        if (mSimulatedDevice != null) {
+            long start = System.nanoTime();
+            int step = beginStep(AutomatorMetrics.Operation.RESOLVE, mMatcher);
+            boolean exists = mMatcher != null && mSimulatedDevice.find(mMatcher) != null;
+            endStep(AutomatorMetrics.Operation.RESOLVE, start, step, exists);
+            return exists;
+        }
+
+        // elements missing from the snapshot are looked up on the device
+        if (isMatcherCached() && findCachedNode() != null) {
+            return true;
+        }
+
         if (mMatcher == null || mMatcher.getUiObject(mDevice) == null) {
             return false;
         }
 
-        return mMatcher.getUiObject(mDevice).exists();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.RESOLVE, mMatcher);
+        boolean exists = mMatcher.getUiObject(mDevice).exists();
+        endStep(AutomatorMetrics.Operation.RESOLVE, start, step, exists);
+        checkSlowQuery(mMatcher, start, null);
+        return exists;
     }
 
     /**
@@ -213,8 +950,148 @@ public class DeviceAutomator {
      * {@code false} otherwise.
      */
     public boolean isChecked() {
+        if (mSimulatedDevice != null) {
+            long start = System.nanoTime();
+            int step = beginStep(AutomatorMetrics.Operation.RESOLVE, mMatcher);
+            boolean checked = simulatedNode().hasFlag(HierarchyNode.CHECKED);
+            endStep(AutomatorMetrics.Operation.RESOLVE, start, step, true);
+            return checked;
+        }
+
+        // resolving from the snapshot records its own step, elements missing from it are waited
+        // for on the device
+        if (isMatcherCached()) {
+            HierarchyNode node = findCachedNode();
+            if (node != null) {
+                return node.hasFlag(HierarchyNode.CHECKED);
+            }
+        }
+
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.RESOLVE, mMatcher);
+        boolean checked;
+        try {
+            checked = mMatcher.getUiObject(mDevice).isChecked();
+        } catch (UiObjectNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        endStep(AutomatorMetrics.Operation.RESOLVE, start, step, true);
+        checkSlowLookup(true);
+        return checked;
+    }
+
+    /**
+     * Returns a snapshot of the active window. The snapshot is shared and kept up to date from
+     * accessibility events, only the subtrees that changed since the last call are recaptured.
+     *
+     * @return the root of the hierarchy, with one child per window. The nodes must not be modified
+     *         and are only valid until the next call.
+     */
+    public HierarchyNode getHierarchy() {
+        if (mSimulatedDevice != null) {
+            return mSimulatedDevice.getHierarchy();
+        }
+
+        awaitInputHandled();
+        return AccessibilityCapturer.snapshot().get();
+    }
+
+    /**
+     * Captures the active window into a {@link CompactHierarchy}, which stores nodes in primitive
+     * arrays instead of objects. Suitable for keeping a capture of every step of a long suite in
+     * memory.
+     *
+     * @return a new capture of the active window, with the same root as {@link #getHierarchy()}.
+     */
+    public CompactHierarchy captureCompactHierarchy() {
+        if (mSimulatedDevice != null) {
+            return CompactHierarchy.of(mSimulatedDevice.getHierarchy());
+        }
+
+        return AccessibilityCapturer.captureCompact();
+    }
+
+    /**
+     * Computes a 64 bit hash of the structure of the active window from the class name, resource
+     * id, text and bounds of every node, in a single traversal and without dumping the hierarchy.
+     * Two fingerprints are equal when nothing on the screen changed between them.
+     *
+     * @return the fingerprint of the active window.
+     */
+    public long screenFingerprint() {
+        if (mSimulatedDevice != null) {
+            return Fingerprint.of(mSimulatedDevice.getHierarchy());
+        }
+
+        return AccessibilityCapturer.fingerprint();
+    }
+
+    /**
+     * Returns the items of a scrolling list lazily, scrolling the container forward only when the
+     * items already returned have been consumed. Items still on the screen after a scroll are
+     * skipped, so each item is returned once however many pages it appears on, and stopping early
+     * doesn't scroll the rest of the list.
+     *
+     * @param containerMatcher the scrollable container of the list, ex: a RecyclerView.
+     * @param itemMatcher the items of the list, the outermost match is returned when matches are
+     *                    nested.
+     * @return an {@link Iterator} of copies of the items, in the order they are on the screen.
+     */
+    public ListItemIterator streamItems(final UiObjectMatcher containerMatcher, UiObjectMatcher itemMatcher) {
+        if (containerMatcher.getNodeQuery() == null || itemMatcher.getNodeQuery() == null) {
+            throw new IllegalArgumentException("Matchers created from a UiSelector are not supported");
+        }
+
+        if (mSimulatedDevice != null) {
+            // scrolling isn't simulated, the list is a single page
+            return new ListItemIterator(new ListItemIterator.Pager() {
+                @Override
+                public HierarchyNode capture() {
+                    return containerMatcher.getNodeQuery().find(mSimulatedDevice.getHierarchy());
+                }
+
+                @Override
+                public boolean scrollForward() {
+                    return false;
+                }
+            }, itemMatcher.getNodeQuery());
+        }
+
+        return new ListItemIterator(new ListItemIterator.Pager() {
+            @Override
+            public HierarchyNode capture() {
+                mDevice.waitForIdle();
+                return containerMatcher.getNodeQuery().find(AccessibilityCapturer.snapshot().getIndex());
+            }
+
+            @Override
+            public boolean scrollForward() {
+                try {
+                    boolean scrolled = new UiScrollable(containerMatcher.getUiSelector()).scrollForward();
+                    // scrolling is reported as TYPE_VIEW_SCROLLED, which doesn't invalidate the snapshot
+                    AccessibilityCapturer.snapshot().invalidateAll();
+                    return scrolled;
+                } catch (UiObjectNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, itemMatcher.getNodeQuery());
+    }
+
+    /**
+     * @return the perceptual hash of the region of the screen covered by the ui element specified
+     *         in {@link #onDevice(UiObjectMatcher)}, or of the entire screen if no
+     *         {@link UiObjectMatcher} was specified. Suitable for use with
+     *         {@link AutomatorAssertion#perceptualHash(long)}.
+     */
+    public long perceptualHash() {
+        UiDevice device = realDevice("perceptualHash");
+        if (mMatcher == null) {
+            return ScreenCapture.perceptualHash(null);
+        }
+
         try {
-            return mMatcher.getUiObject(mDevice).isChecked();
+            return ScreenCapture.perceptualHash(mMatcher.getUiObject(device).getVisibleBounds());
         } catch (UiObjectNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -225,7 +1102,89 @@ public class DeviceAutomator {
      *        {@link #onDevice(UiObjectMatcher)}.
      */
     public void perform(AutomatorAction action) {
-        action.perform(mMatcher.getUiSelector(), mMatcher.getUiObject(mDevice));
+        long start = System.nanoTime();
+        int step = beginStep(action.getOperation(), mMatcher);
+        boolean performed = false;
+        try {
+            if (mSimulatedDevice != null) {
+                action.perform(mSimulatedDevice, mMatcher);
+            } else {
+                performOnDevice(action, false);
+            }
+            performed = true;
+        } finally {
+            if (mSimulatedDevice == null) {
+                invalidateScreen();
+            }
+            endStep(action.getOperation(), start, step, performed);
+        }
+    }
+
+    /**
+     * Performs the action on the ui element specified in {@link #onDevice(UiObjectMatcher)} and
+     * waits for the given {@link UiObjectMatcher} to exist, measuring the time from injecting the
+     * input until it appeared. The window changes reported by accessibility events are used to
+     * tell when it appeared, the latency is recorded in {@link #getLatencyDistributions()} under
+     * the given name.
+     *
+     * @param name name to record the latency under, ex: {@code open search}.
+     * @param action the {@link AutomatorAction} to perform.
+     * @param until {@link UiObjectMatcher} for the ui element that appears in response.
+     * @param timeout length of time in milliseconds to wait before timing out.
+     * @return the latency in nanoseconds, or {@code -1} if the element did not appear before the
+     *         timeout.
+     */
+    public long measureLatency(String name, AutomatorAction action, final UiObjectMatcher until, long timeout) {
+        realDevice("measureLatency");
+        retainLatencyListener();
+        try {
+            long start = System.nanoTime();
+            int step = beginStep(action.getOperation(), mMatcher);
+            boolean performed = false;
+            long injected;
+            try {
+                injected = performOnDevice(action, true);
+                performed = true;
+            } finally {
+                invalidateScreen();
+                endStep(action.getOperation(), start, step, performed);
+            }
+
+            final UiObject object = until.getUiObject(mDevice);
+            return sLatencyTracker.measureUntil(name, injected, new LatencyTracker.Condition() {
+                @Override
+                public boolean isSatisfied() {
+                    return object.exists();
+                }
+            }, timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            releaseLatencyListener();
+        }
+    }
+
+    /**
+     * @param measured {@code true} to find the element before taking the time of injection, so the
+     *        time doesn't include waiting for the element to appear.
+     * @return the {@link System#nanoTime()} just before the input was injected.
+     */
+    private long performOnDevice(AutomatorAction action, boolean measured) {
+        if ((sClickCacheEnabled || sLatencyMeasurementEnabled || sLocationHints != null || measured) &&
+                action.clicksCenter()) {
+            return clickCenter();
+        }
+
+        UiObject object = mMatcher.getUiObject(mDevice);
+        if (measured) {
+            object.waitForExists(Configurator.getInstance().getWaitForSelectorTimeout());
+        }
+        long injected = System.nanoTime();
+        // UI Automator finds the element as part of the action
+        action.perform(mMatcher.getUiSelector(), object);
+        checkSlowLookup(true);
+        return injected;
     }
 
     /**
@@ -234,7 +1193,7 @@ public class DeviceAutomator {
      */
     public void perform(AutomatorAction... actions) {
         for (AutomatorAction action : actions) {
-            action.perform(mMatcher.getUiSelector(), mMatcher.getUiObject(mDevice));
+            perform(action);
         }
     }
 
@@ -243,7 +1202,34 @@ public class DeviceAutomator {
      *        {@link #onDevice(UiObjectMatcher)}.
      */
     public void check(AutomatorAssertion assertion) {
-        assertion.check(mMatcher.getUiObject(mDevice));
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.CHECK, mMatcher);
+        boolean passed = false;
+        try {
+            if (mSimulatedDevice != null) {
+                assertion.check(mSimulatedDevice, mMatcher);
+            } else if (!isMatcherCached() || !assertion.canCheckNode() || !passesOnSnapshot(assertion)) {
+                assertion.check(mMatcher.getUiObject(mDevice));
+                checkSlowLookup(true);
+            }
+            passed = true;
+        } finally {
+            endStep(AutomatorMetrics.Operation.CHECK, start, step, passed);
+        }
+    }
+
+    /**
+     * @return {@code true} if the assertion passed against the snapshot, {@code false} if it failed
+     *         and needs to be checked on the device, where UI Automator waits for the element.
+     */
+    private boolean passesOnSnapshot(AutomatorAssertion assertion) {
+        HierarchyNode node = findCachedNode();
+        try {
+            assertion.checkNode(AccessibilityCapturer.snapshot().get(), node);
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
     }
 
     /**
@@ -252,10 +1238,160 @@ public class DeviceAutomator {
      */
     public void check(AutomatorAssertion... assertions) {
         for (AutomatorAssertion assertion : assertions) {
-            assertion.check(mMatcher.getUiObject(mDevice));
+            check(assertion);
+        }
+    }
+
+    /**
+     * Clicks the center of the element, found from the click cache or location hints if they are
+     * enabled, so that the time of the click doesn't include finding the element.
+     */
+    private long clickCenter() {
+        ClickCache.Target target = null;
+        NodeQuery query = mMatcher.getNodeQuery();
+        if ((sClickCacheEnabled || sLocationHints != null) && query != null) {
+            // the snapshot is kept up to date from events and invalidated by our own input, its
+            // fingerprint is only computed again after it changed
+            awaitInputHandled();
+            long fingerprint = AccessibilityCapturer.snapshot().getFingerprint();
+            target = sClickCacheEnabled ? sClickCache.get(query, fingerprint) : null;
+            if (target == null) {
+                HierarchyNode node = findInSnapshot();
+                target = node == null ? null : visibleCenter(node);
+                if (target != null && sClickCacheEnabled) {
+                    target = sClickCache.put(query, fingerprint, target.mX, target.mY);
+                }
+            }
+        }
+
+        if (target == null) {
+            // UI Automator waits for the element to appear
+            try {
+                Rect bounds = mMatcher.getUiObject(mDevice).getVisibleBounds();
+                target = new ClickCache.Target(bounds.centerX(), bounds.centerY());
+            } catch (UiObjectNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            checkSlowLookup(true);
+        }
+
+        long injected = beforeInput("click");
+        mDevice.click(target.mX, target.mY);
+        return injected;
+    }
+
+    /**
+     * UI Automator clicks the center of the visible bounds, the part of the element inside the
+     * screen and its scrolling containers, so a row that is partly scrolled off isn't clicked
+     * outside of the list.
+     *
+     * @return the center of the part of the node inside all of its ancestors, or {@code null} if
+     *         none of it is.
+     */
+    static ClickCache.Target visibleCenter(HierarchyNode node) {
+        int left = node.getLeft();
+        int top = node.getTop();
+        int right = node.getRight();
+        int bottom = node.getBottom();
+        for (HierarchyNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            // the root holding the windows has no bounds
+            if (parent.getRight() > parent.getLeft() && parent.getBottom() > parent.getTop()) {
+                left = Math.max(left, parent.getLeft());
+                top = Math.max(top, parent.getTop());
+                right = Math.min(right, parent.getRight());
+                bottom = Math.min(bottom, parent.getBottom());
+            }
+        }
+        if (left >= right || top >= bottom) {
+            return null;
+        }
+        return new ClickCache.Target((left + right) / 2, (top + bottom) / 2);
+    }
+
+    /**
+     * @return the node the matcher resolves to in the snapshot, or {@code null} if there is none or
+     *         the matcher was created from a {@link UiSelector}.
+     */
+    private HierarchyNode findInSnapshot() {
+        if (mMatcher.getNodeQuery() == null) {
+            return null;
+        }
+
+        awaitInputHandled();
+        long start = System.nanoTime();
+        HierarchySnapshot snapshot = AccessibilityCapturer.snapshot();
+        HierarchyNode node = find(mMatcher.getNodeQuery(), snapshot);
+        checkSlowQuery(mMatcher, start, snapshot);
+        return node;
+    }
+
+    /**
+     * @return the node the matcher resolves to in the snapshot if location hints are enabled, or
+     *         {@code null} if they are not, there is no such node or the matcher was created from
+     *         a {@link UiSelector}.
+     */
+    private HierarchyNode findHinted() {
+        return sLocationHints == null ? null : findInSnapshot();
+    }
+
+    /**
+     * @return the node the query resolves to in the snapshot, checking its location hint first if
+     *         location hints are enabled.
+     */
+    private static HierarchyNode find(NodeQuery query, HierarchySnapshot snapshot) {
+        LocationHints hints = sLocationHints;
+        if (hints == null) {
+            return query.find(snapshot.getIndex());
+        }
+        HierarchyNode node = hints.findHinted(query, snapshot.get());
+        return node != null ? node : hints.search(query, snapshot.getIndex());
+    }
+
+    /**
+     * Called just before input is injected. Starts measuring the response if latency measurement
+     * is enabled and drops what is known about the screen.
+     *
+     * @return the {@link System#nanoTime()} now.
+     */
+    private static long beforeInput(String action) {
+        invalidateScreen();
+        long now = System.nanoTime();
+        if (sLatencyMeasurementEnabled) {
+            sLatencyTracker.start(action, now);
+        }
+        return now;
+    }
+
+    /**
+     * Drops the matcher cache and the shared snapshot after input, the accessibility events of the
+     * change may not have arrived yet. The next read of the snapshot waits for the ui to be idle.
+     */
+    private static void invalidateScreen() {
+        sMatcherCache.invalidate();
+        AccessibilityCapturer.invalidate();
+        sInputPending = true;
+    }
+
+    /**
+     * Waits for the ui to be idle if input was injected since the snapshot was last read, like UI
+     * Automator does before each lookup, so the snapshot isn't captured before the app responded.
+     */
+    private void awaitInputHandled() {
+        if (sInputPending) {
+            sInputPending = false;
+            mDevice.waitForIdle();
         }
     }
 
+    private boolean isMatcherCached() {
+        return sMatcherCacheEnabled && mMatcher != null && mMatcher.getNodeQuery() != null;
+    }
+
+    private HierarchyNode findCachedNode() {
+        awaitInputHandled();
+        return sMatcherCache.get(mMatcher, sSnapshotResolver);
+    }
+
     /**
      * Clicks the accept button on runtime permission prompts on Marshmallow and above if the prompt
      * is displayed.
@@ -264,7 +1400,11 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator acceptRuntimePermission(String permission) {
-        clickPermissionDialogButton(permission, 1);
+        realDevice("acceptRuntimePermission");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.ACTION, null);
+        boolean clicked = clickPermissionDialogButton(permission, 1);
+        endStep(AutomatorMetrics.Operation.ACTION, start, step, clicked);
         return this;
     }
 
@@ -276,11 +1416,18 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator denyRuntimePermission(String permission) {
-        clickPermissionDialogButton(permission, 0);
+        realDevice("denyRuntimePermission");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.ACTION, null);
+        boolean clicked = clickPermissionDialogButton(permission, 0);
+        endStep(AutomatorMetrics.Operation.ACTION, start, step, clicked);
         return this;
     }
 
-    private void clickPermissionDialogButton(String permission, int buttonIndex) {
+    /**
+     * @return {@code true} if the prompt was displayed and the button was clicked.
+     */
+    private boolean clickPermissionDialogButton(String permission, int buttonIndex) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
                 ContextCompat.checkSelfPermission(ApplicationProvider.getApplicationContext(), permission) != PackageManager.PERMISSION_GRANTED) {
             try {
@@ -290,10 +1437,13 @@ public class DeviceAutomator {
                         .index(buttonIndex));
 
                 if (allowPermissions.exists()) {
-                    allowPermissions.click();
+                    boolean clicked = allowPermissions.click();
+                    invalidateScreen();
+                    return clicked;
                 }
             } catch (UiObjectNotFoundException ignored) {}
         }
+        return false;
     }
 
     /**
@@ -303,6 +1453,14 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator typeText(String text) {
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.typeText(text);
+            endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
+            return this;
+        }
+
         KeyEvent[] events = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD)
                 .getEvents(text.toCharArray());
         for (KeyEvent event : events) {
@@ -310,6 +1468,8 @@ public class DeviceAutomator {
                 mDevice.pressKeyCode(event.getKeyCode(), event.getMetaState());
             }
         }
+        invalidateScreen();
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
 
         return this;
     }
@@ -320,7 +1480,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressBack() {
-        mDevice.pressBack();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_BACK);
+        } else {
+            beforeInput("pressBack");
+            mDevice.pressBack();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -330,7 +1498,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressMenu() {
-        mDevice.pressMenu();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_MENU);
+        } else {
+            beforeInput("pressMenu");
+            mDevice.pressMenu();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -340,11 +1516,19 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressRecentApps() {
-        try {
-            mDevice.pressRecentApps();
-        } catch (RemoteException e) {
-            throw new RuntimeException(e);
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_APP_SWITCH);
+        } else {
+            try {
+                beforeInput("pressRecentApps");
+                mDevice.pressRecentApps();
+            } catch (RemoteException e) {
+                throw new RuntimeException(e);
+            }
         }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -354,7 +1538,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressSearch() {
-        mDevice.pressSearch();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_SEARCH);
+        } else {
+            beforeInput("pressSearch");
+            mDevice.pressSearch();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -364,7 +1556,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressEnter() {
-        mDevice.pressEnter();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_ENTER);
+        } else {
+            beforeInput("pressEnter");
+            mDevice.pressEnter();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -374,7 +1574,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDelete() {
-        mDevice.pressDelete();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DEL);
+        } else {
+            beforeInput("pressDelete");
+            mDevice.pressDelete();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -384,6 +1592,9 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressTab() {
+        if (mSimulatedDevice == null) {
+            beforeInput("pressTab");
+        }
         typeText("\t");
         return this;
     }
@@ -394,7 +1605,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDPadDown() {
-        mDevice.pressDPadDown();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DPAD_DOWN);
+        } else {
+            beforeInput("pressDPadDown");
+            mDevice.pressDPadDown();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -404,7 +1623,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDPadCenter() {
-        mDevice.pressDPadCenter();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DPAD_CENTER);
+        } else {
+            beforeInput("pressDPadCenter");
+            mDevice.pressDPadCenter();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -414,7 +1641,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDPadLeft() {
-        mDevice.pressDPadLeft();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DPAD_LEFT);
+        } else {
+            beforeInput("pressDPadLeft");
+            mDevice.pressDPadLeft();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -424,7 +1659,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDPadRight() {
-        mDevice.pressDPadRight();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DPAD_RIGHT);
+        } else {
+            beforeInput("pressDPadRight");
+            mDevice.pressDPadRight();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -434,7 +1677,15 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator pressDPadUp() {
-        mDevice.pressDPadUp();
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.KEY_PRESS, null);
+        if (mSimulatedDevice != null) {
+            mSimulatedDevice.pressKeyCode(KeyEvent.KEYCODE_DPAD_UP);
+        } else {
+            beforeInput("pressDPadUp");
+            mDevice.pressDPadUp();
+        }
+        endStep(AutomatorMetrics.Operation.KEY_PRESS, start, step, true);
         return this;
     }
 
@@ -444,7 +1695,12 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator openNotification() {
-        mDevice.openNotification();
+        UiDevice device = realDevice("openNotification");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.ACTION, null);
+        boolean opened = device.openNotification();
+        invalidateScreen();
+        endStep(AutomatorMetrics.Operation.ACTION, start, step, opened);
         return this;
     }
 
@@ -454,7 +1710,12 @@ public class DeviceAutomator {
      * @return {@link DeviceAutomator} for method chaining.
      */
     public DeviceAutomator openQuickSettings() {
-        mDevice.openQuickSettings();
+        UiDevice device = realDevice("openQuickSettings");
+        long start = System.nanoTime();
+        int step = beginStep(AutomatorMetrics.Operation.ACTION, null);
+        boolean opened = device.openQuickSettings();
+        invalidateScreen();
+        endStep(AutomatorMetrics.Operation.ACTION, start, step, opened);
         return this;
     }
 
@@ -465,9 +1726,34 @@ public class DeviceAutomator {
      */
     public boolean isScreenOn() {
         try {
-            return mDevice.isScreenOn();
+            return realDevice("isScreenOn").isScreenOn();
         } catch (RemoteException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @param operation name of the operation, for the exception.
+     * @return the {@link UiDevice}, for operations that need a real device.
+     * @throws UnsupportedOperationException if this {@link DeviceAutomator} is for a
+     *         {@link SimulatedDevice}.
+     */
+    private UiDevice realDevice(String operation) {
+        if (mSimulatedDevice != null) {
+            throw new UnsupportedOperationException(operation + " is not supported on a SimulatedDevice");
+        }
+        return mDevice;
+    }
+
+    /**
+     * @return the node of the {@link SimulatedDevice}'s current screen the matcher resolves to.
+     * @throws RuntimeException if there is none.
+     */
+    private HierarchyNode simulatedNode() {
+        HierarchyNode node = mSimulatedDevice.find(mMatcher);
+        if (node == null) {
+            throw new RuntimeException(new UiObjectNotFoundException(mMatcher.getNodeQuery().toString()));
+        }
+        return node;
+    }
 }
@@ -0,0 +1,134 @@
+package com.lukekorth.deviceautomator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the accessibility events the library receives, and captures of the hierarchy at a fixed
+ * interval, into an {@link EventRecording} file while tests run on a device. Replay the file with
+ * {@link EventReplayer} to run the library's waits, caches and snapshots against the event
+ * patterns of a real app on the JVM.
+ *
+ * Events are written from the thread that delivers them, and captures from a thread of the
+ * recorder, so recording doesn't change when the shared snapshot of the screen is refreshed.
+ */
+public class EventRecorder implements Closeable {
+
+    static final long DEFAULT_CAPTURE_INTERVAL = 500;
+
+    private final EventRecording.Writer mWriter;
+    private final long mStart = System.nanoTime();
+    private Thread mCaptureThread;
+    private volatile boolean mStopped;
+    private IOException mError;
+
+    EventRecorder(OutputStream out) throws IOException {
+        mWriter = new EventRecording.Writer(out);
+    }
+
+    /**
+     * Starts recording, capturing the hierarchy every 500 milliseconds.
+     */
+    public static EventRecorder start(File file) throws IOException {
+        return start(file, DEFAULT_CAPTURE_INTERVAL);
+    }
+
+    /**
+     * Starts recording into the file, replacing it.
+     *
+     * @param captureIntervalMillis time between captures of the hierarchy. Replays only see
+     *                              changes to the hierarchy as often as it was captured.
+     */
+    public static EventRecorder start(File file, final long captureIntervalMillis) throws IOException {
+        final EventRecorder recorder = new EventRecorder(new FileOutputStream(file));
+        // the shared snapshot's capturer computes the path of each event's source
+        AccessibilityCapturer.snapshot();
+        AccessibilityCapturer.setRecorder(recorder);
+
+        recorder.mCaptureThread = new Thread("EventRecorder") {
+            @Override
+            public void run() {
+                while (!recorder.mStopped) {
+                    recorder.onCapture(AccessibilityCapturer.captureCompact());
+                    try {
+                        Thread.sleep(captureIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        recorder.mCaptureThread.setDaemon(true);
+        recorder.mCaptureThread.start();
+        return recorder;
+    }
+
+    void onEvent(int type, String packageName, int[] path) {
+        if (mStopped) {
+            return;
+        }
+
+        try {
+            mWriter.writeEvent(System.nanoTime() - mStart, type, packageName,
+                    path == AccessibilityCapturer.OTHER_WINDOW ? null : path, path == AccessibilityCapturer.OTHER_WINDOW);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onCapture(CompactHierarchy capture) {
+        if (mStopped) {
+            return;
+        }
+
+        try {
+            mWriter.writeCapture(System.nanoTime() - mStart, capture);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stops recording after the first error, errors from writing after {@link #stop()} are
+     * ignored.
+     */
+    private synchronized void fail(IOException e) {
+        if (mError == null && !mStopped) {
+            mError = e;
+        }
+        mStopped = true;
+    }
+
+    /**
+     * Stops recording and closes the file.
+     *
+     * @throws IOException if writing the recording failed, it is complete up to the failure.
+     */
+    public void stop() throws IOException {
+        mStopped = true;
+        AccessibilityCapturer.setRecorder(null);
+        if (mCaptureThread != null) {
+            mCaptureThread.interrupt();
+            try {
+                mCaptureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        mWriter.close();
+        synchronized (this) {
+            if (mError != null) {
+                throw mError;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+}
@@ -0,0 +1,371 @@
+package com.lukekorth.deviceautomator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The accessibility events and periodic captures of the hierarchy of a run on a device, recorded
+ * by {@link EventRecorder} and replayed on the JVM by {@link EventReplayer}.
+ *
+ * Recordings are stored as a stream of entries with the time since the previous entry in
+ * microseconds, numbers as variable length integers and every string after its first use as an
+ * index in a string table, so captures of a screen that barely changed cost little more than
+ * their text.
+ */
+public class EventRecording {
+
+    static final int MAGIC = 0x44414552;
+    static final int VERSION = 1;
+
+    private static final int EVENT = 1;
+    private static final int CAPTURE = 2;
+
+    // path codes, followed by the path for longer ones
+    private static final int NO_PATH = 0;
+    private static final int OTHER_WINDOW = 1;
+    private static final int PATH = 2;
+
+    // string codes, followed by the string for new ones
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int KNOWN_STRING = 2;
+
+    /**
+     * A single event or capture.
+     */
+    public static class Entry {
+
+        private final long mTimeNanos;
+        private final int mEventType;
+        private final String mPackageName;
+        private final int[] mPath;
+        private final boolean mOtherWindow;
+        private final CompactHierarchy mCapture;
+
+        Entry(long timeNanos, int eventType, String packageName, int[] path, boolean otherWindow,
+                CompactHierarchy capture) {
+            mTimeNanos = timeNanos;
+            mEventType = eventType;
+            mPackageName = packageName;
+            mPath = path;
+            mOtherWindow = otherWindow;
+            mCapture = capture;
+        }
+
+        /**
+         * @return the time of the entry in nanoseconds since the recording started, to the
+         *         microsecond.
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        public boolean isCapture() {
+            return mCapture != null;
+        }
+
+        /**
+         * @return the {@link android.view.accessibility.AccessibilityEvent} type of an event, or
+         *         {@code 0} for a capture.
+         */
+        public int getEventType() {
+            return mEventType;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        /**
+         * @return the path of the source of a window content change from the root, see
+         *         {@link HierarchySnapshot}, or {@code null} if it isn't known or the event has
+         *         none.
+         */
+        public int[] getPath() {
+            return mPath == null ? null : mPath.clone();
+        }
+
+        int[] path() {
+            return mPath;
+        }
+
+        /**
+         * @return {@code true} if the source of the event is in another window than the active one.
+         */
+        public boolean isOtherWindow() {
+            return mOtherWindow;
+        }
+
+        /**
+         * @return the hierarchy of a capture, with the same root as
+         *         {@link DeviceAutomator#getHierarchy()}, or {@code null} for an event.
+         */
+        public CompactHierarchy getCapture() {
+            return mCapture;
+        }
+    }
+
+    private final List<Entry> mEntries;
+
+    EventRecording(List<Entry> entries) {
+        mEntries = entries;
+    }
+
+    /**
+     * @throws IOException if the file can't be read or isn't a recording.
+     */
+    public static EventRecording read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a recording, up to the end of the stream. A recording cut short by the process dying
+     * is read up to its last complete entry.
+     *
+     * @throws IOException if the stream can't be read or isn't a recording.
+     */
+    public static EventRecording read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an event recording");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event recording version " + version);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        long time = 0;
+        try {
+            for (int kind = in.read(); kind != -1; kind = in.read()) {
+                time += readVarint(in) * 1000;
+                if (kind == EVENT) {
+                    int type = (int) readVarint(in);
+                    String packageName = readString(in, strings);
+                    int pathCode = (int) readVarint(in);
+                    int[] path = null;
+                    if (pathCode >= PATH) {
+                        path = new int[pathCode - PATH];
+                        for (int i = 0; i < path.length; i++) {
+                            path[i] = (int) readVarint(in);
+                        }
+                    }
+                    entries.add(new Entry(time, type, packageName, path, pathCode == OTHER_WINDOW, null));
+                } else if (kind == CAPTURE) {
+                    entries.add(new Entry(time, 0, null, null, false, readCapture(in, strings)));
+                } else {
+                    throw new IOException("Unknown entry " + kind);
+                }
+            }
+        } catch (EOFException e) {
+            // the last entry was cut short
+        }
+        return new EventRecording(entries);
+    }
+
+    private static CompactHierarchy readCapture(DataInputStream in, List<String> strings) throws IOException {
+        int size = (int) readVarint(in);
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder(size);
+        for (int i = 0; i < size; i++) {
+            int parent = (int) readVarint(in) - 1;
+            builder.add(parent, readString(in, strings), readString(in, strings), readString(in, strings),
+                    readString(in, strings), readString(in, strings), readSigned(in), readSigned(in),
+                    readSigned(in), readSigned(in), (int) readVarint(in));
+        }
+        return builder.build();
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(mEntries);
+    }
+
+    /**
+     * @return the time of the last entry in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return mEntries.isEmpty() ? 0 : mEntries.get(mEntries.size() - 1).getTimeNanos();
+    }
+
+    public int getEventCount() {
+        int count = 0;
+        for (Entry entry : mEntries) {
+            if (!entry.isCapture()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getCaptureCount() {
+        return mEntries.size() - getEventCount();
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    private static int readSigned(DataInputStream in) throws IOException {
+        int value = (int) readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int code = (int) readVarint(in);
+        if (code == NULL_STRING) {
+            return null;
+        }
+        if (code == NEW_STRING) {
+            String value = in.readUTF();
+            strings.add(value);
+            return value;
+        }
+        if (code - KNOWN_STRING >= strings.size()) {
+            throw new IOException("Unknown string " + (code - KNOWN_STRING));
+        }
+        return strings.get(code - KNOWN_STRING);
+    }
+
+    /**
+     * Writes a recording one entry at a time. Entries are buffered, so a recording cut short by the
+     * process dying loses its last few entries.
+     */
+    static class Writer {
+
+        /**
+         * {@link DataOutputStream#writeUTF(String)} can't write longer strings, and no text longer
+         * than this is needed to replay the hierarchy.
+         */
+        static final int MAX_STRING_LENGTH = 8192;
+
+        private final DataOutputStream mOut;
+        private final Map<String, Integer> mStrings = new HashMap<>();
+        private long mLastMicros;
+
+        Writer(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        /**
+         * @param nanos time of the event since the recording started.
+         * @param path the path of the source, {@code null} if unknown or {@code otherWindow}.
+         */
+        synchronized void writeEvent(long nanos, int type, String packageName, int[] path, boolean otherWindow)
+                throws IOException {
+            mOut.write(EVENT);
+            writeTime(nanos);
+            writeVarint(type);
+            writeString(packageName);
+            if (otherWindow) {
+                writeVarint(OTHER_WINDOW);
+            } else if (path == null) {
+                writeVarint(NO_PATH);
+            } else {
+                writeVarint(PATH + path.length);
+                for (int index : path) {
+                    writeVarint(index);
+                }
+            }
+        }
+
+        synchronized void writeCapture(long nanos, CompactHierarchy capture) throws IOException {
+            mOut.write(CAPTURE);
+            writeTime(nanos);
+            writeVarint(capture.size());
+            for (int i = 0; i < capture.size(); i++) {
+                writeVarint(capture.getParent(i) + 1);
+                writeString(capture.getClassName(i));
+                writeString(capture.getPackageName(i));
+                writeString(capture.getResourceId(i));
+                writeString(capture.getText(i));
+                writeString(capture.getContentDescription(i));
+                writeSigned(capture.getLeft(i));
+                writeSigned(capture.getTop(i));
+                writeSigned(capture.getRight(i));
+                writeSigned(capture.getBottom(i));
+                writeVarint(capture.getFlags(i));
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            mOut.flush();
+        }
+
+        synchronized void close() throws IOException {
+            mOut.close();
+        }
+
+        /**
+         * Entries from different threads can arrive slightly out of order, times never go back so
+         * deltas stay positive.
+         */
+        private void writeTime(long nanos) throws IOException {
+            long micros = Math.max(nanos / 1000, mLastMicros);
+            writeVarint(micros - mLastMicros);
+            mLastMicros = micros;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                mOut.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            mOut.write((int) value);
+        }
+
+        /**
+         * Zigzag encodes the value, so small negative values, such as bounds just off the screen,
+         * stay short.
+         */
+        private void writeSigned(int value) throws IOException {
+            writeVarint(((value << 1) ^ (value >> 31)) & 0xffffffffL);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarint(NULL_STRING);
+                return;
+            }
+
+            if (value.length() > MAX_STRING_LENGTH) {
+                value = value.substring(0, MAX_STRING_LENGTH);
+            }
+            Integer index = mStrings.get(value);
+            if (index != null) {
+                writeVarint(KNOWN_STRING + index);
+            } else {
+                mStrings.put(value, mStrings.size());
+                writeVarint(NEW_STRING);
+                mOut.writeUTF(value);
+            }
+        }
+    }
+}
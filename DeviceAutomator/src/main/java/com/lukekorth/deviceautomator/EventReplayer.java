@@ -0,0 +1,194 @@
+package com.lukekorth.deviceautomator;
+
+import android.os.SystemClock;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Replays an {@link EventRecording} on the JVM in place of the device, at the recorded speed or
+ * faster. The hierarchy of the replay is the most recent capture, kept in a
+ * {@link HierarchySnapshot} that each event invalidates the same way events from the device do, so
+ * the snapshot, cache and wait logic of the library can be measured against a real app's events.
+ *
+ * While a replayer is {@link #install() installed}, the library reads the screen from the replay
+ * instead of the device, so lookups of {@link DeviceAutomator}, its matcher cache and waits resolve
+ * against the replayed hierarchy, and events are rebuilt as {@link AccessibilityEvent}s and passed
+ * to the listeners the library installs on the device, like events from the device. Rebuilt events
+ * have the type and package of the recorded event and the time they were replayed at, but no
+ * source, and events from other windows are not passed on, since every listener of the library
+ * ignores them. Only one replayer can be installed at a time.
+ */
+public class EventReplayer {
+
+    /**
+     * Called on the replaying thread for every event, after the snapshot was invalidated.
+     */
+    public interface Listener {
+        void onEvent(EventRecording.Entry event);
+    }
+
+    private final EventRecording mRecording;
+    private final Clock mClock;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final HierarchySnapshot mSnapshot;
+    private volatile HierarchyNode mCurrent = new HierarchyNode(null);
+    private volatile boolean mInstalled;
+    private int mEventCount;
+    private int mCaptureCount;
+
+    public EventReplayer(EventRecording recording) {
+        this(recording, Clock.SYSTEM);
+    }
+
+    EventReplayer(EventRecording recording, Clock clock) {
+        mRecording = recording;
+        mClock = clock;
+        mSnapshot = new HierarchySnapshot(new HierarchySnapshot.Capturer() {
+            @Override
+            public HierarchyNode captureAll() {
+                return mCurrent.copy();
+            }
+
+            @Override
+            public HierarchyNode capture(int[] path) {
+                HierarchyNode node = mCurrent;
+                for (int i = 0; i < path.length && node != null; i++) {
+                    node = path[i] < node.getChildCount() ? node.getChild(path[i]) : null;
+                }
+                return node == null ? null : node.copy();
+            }
+        });
+    }
+
+    /**
+     * Makes the replay the screen and the source of events of the library until
+     * {@link #uninstall()}. Events from the device are ignored while installed.
+     */
+    public void install() {
+        AccessibilityEvents.setReplaying(true);
+        AccessibilityCapturer.setSnapshot(mSnapshot);
+        mInstalled = true;
+    }
+
+    /**
+     * Makes the device the screen and the source of events of the library again.
+     */
+    public void uninstall() {
+        if (mInstalled) {
+            mInstalled = false;
+            AccessibilityCapturer.setSnapshot(null);
+            AccessibilityEvents.setReplaying(false);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Replays the whole recording on the calling thread.
+     *
+     * @param speed how much faster than recorded to replay, ex: {@code 1} for the recorded speed
+     *              or {@code 10} for ten times faster. {@link Double#POSITIVE_INFINITY} replays
+     *              without waiting between entries.
+     * @return {@code false} if the thread was interrupted before the end of the recording.
+     */
+    public boolean replay(double speed) {
+        long start = mClock.nanoTime();
+        for (EventRecording.Entry entry : mRecording.getEntries()) {
+            if (!Double.isInfinite(speed)) {
+                long delay = (long) (entry.getTimeNanos() / speed) - (mClock.nanoTime() - start);
+                if (delay > 0) {
+                    try {
+                        // rounded up, entries are never replayed early
+                        mClock.sleep((delay + 999999) / 1000000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            apply(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Applies a single entry immediately: a capture replaces the hierarchy, an event invalidates
+     * the snapshot and is passed to the library's listeners, if installed, and then to the
+     * replayer's.
+     */
+    void apply(EventRecording.Entry entry) {
+        if (entry.isCapture()) {
+            mCurrent = entry.getCapture().toHierarchyNode(0);
+            mCaptureCount++;
+            return;
+        }
+
+        switch (entry.getEventType()) {
+            case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
+                mSnapshot.invalidateAll();
+                break;
+            case AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED:
+                if (!entry.isOtherWindow()) {
+                    mSnapshot.invalidate(entry.path());
+                }
+                break;
+        }
+        if (mInstalled && !entry.isOtherWindow() && AccessibilityEvents.hasListeners()) {
+            dispatch(entry);
+        }
+        mEventCount++;
+        for (Listener listener : mListeners) {
+            listener.onEvent(entry);
+        }
+    }
+
+    private static void dispatch(EventRecording.Entry entry) {
+        AccessibilityEvent event = AccessibilityEvent.obtain(entry.getEventType());
+        event.setPackageName(entry.getPackageName());
+        event.setEventTime(SystemClock.uptimeMillis());
+        AccessibilityEvents.dispatch(event);
+        event.recycle();
+    }
+
+    /**
+     * @return the hierarchy at the current point of the replay, recapturing the subtrees that
+     *         events reported as changed, like {@link DeviceAutomator#getHierarchy()}. The nodes
+     *         must not be modified and are only valid until the next call.
+     */
+    public HierarchyNode getHierarchy() {
+        return mSnapshot.get();
+    }
+
+    HierarchySnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return the number of events replayed so far.
+     */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return the number of captures replayed so far.
+     */
+    public int getCaptureCount() {
+        return mCaptureCount;
+    }
+
+    /**
+     * @return the entries of the recording being replayed.
+     */
+    public List<EventRecording.Entry> getEntries() {
+        return mRecording.getEntries();
+    }
+}
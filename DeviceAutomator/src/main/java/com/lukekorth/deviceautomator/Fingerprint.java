@@ -0,0 +1,94 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * Builds a 64 bit FNV-1a hash of the structure of a ui hierarchy: the class name, resource id,
+ * text and bounds of each node and the number of children it has. Values are hashed directly from
+ * their {@link CharSequence}s, so no strings are created while hashing.
+ */
+final class Fingerprint {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long mHash = OFFSET_BASIS;
+
+    Fingerprint reset() {
+        mHash = OFFSET_BASIS;
+        return this;
+    }
+
+    Fingerprint add(int value) {
+        mHash = (mHash ^ value) * PRIME;
+        return this;
+    }
+
+    /**
+     * Adds the length of the value followed by its characters, so adjacent values can't run into
+     * each other. {@code null} is hashed differently from an empty value.
+     */
+    Fingerprint add(CharSequence value) {
+        if (value == null) {
+            return add(-1);
+        }
+
+        int length = value.length();
+        add(length);
+        for (int i = 0; i < length; i++) {
+            mHash = (mHash ^ value.charAt(i)) * PRIME;
+        }
+        return this;
+    }
+
+    Fingerprint addNode(CharSequence className, CharSequence resourceId, CharSequence text, int left,
+            int top, int right, int bottom, int childCount) {
+        return add(className)
+                .add(resourceId)
+                .add(text)
+                .add(left)
+                .add(top)
+                .add(right)
+                .add(bottom)
+                .add(childCount);
+    }
+
+    long get() {
+        return mHash;
+    }
+
+    /**
+     * @return the fingerprint of the hierarchy rooted at the given node.
+     */
+    static long of(HierarchyNode root) {
+        return new Fingerprint().addTree(root).get();
+    }
+
+    /**
+     * @return a hash of the class names, resource ids, texts and content descriptions of the
+     *         subtree rooted at the given node, which unlike {@link #of(HierarchyNode)} doesn't
+     *         change when the subtree moves on the screen.
+     */
+    static long ofContent(HierarchyNode root) {
+        return new Fingerprint().addContent(root).get();
+    }
+
+    private Fingerprint addContent(HierarchyNode node) {
+        add(node.getClassName())
+                .add(node.getResourceId())
+                .add(node.getText())
+                .add(node.getContentDescription())
+                .add(node.getChildCount());
+        for (int i = 0; i < node.getChildCount(); i++) {
+            addContent(node.getChild(i));
+        }
+        return this;
+    }
+
+    private Fingerprint addTree(HierarchyNode node) {
+        addNode(node.getClassName(), node.getResourceId(), node.getText(), node.getLeft(), node.getTop(),
+                node.getRight(), node.getBottom(), node.getChildCount());
+        for (int i = 0; i < node.getChildCount(); i++) {
+            addTree(node.getChild(i));
+        }
+        return this;
+    }
+}
@@ -0,0 +1,427 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The structural difference between two captures of the ui hierarchy: the nodes that were added,
+ * removed, moved or that have changed properties.
+ *
+ * Nodes are matched top down. The children of matched nodes are matched by class name, resource
+ * id and position, using their text to tell apart siblings that only differ in content such as list
+ * rows, so the diff is computed in time linear in the size of the hierarchies. Subtrees
+ * that were removed from one parent and added to another are reported as moved when their
+ * resource id is unique among the removed and added subtrees.
+ */
+public class HierarchyDiff {
+
+    public enum Type {
+        /** The node and its descendants were added. */
+        ADDED,
+        /** The node and its descendants were removed. */
+        REMOVED,
+        /** The node moved to a different position or parent. */
+        MOVED,
+        /** Properties of the node changed, see {@link Change#getChangedProperties()}. */
+        CHANGED
+    }
+
+    public static final int TEXT = 1;
+    public static final int CONTENT_DESCRIPTION = 1 << 1;
+    public static final int BOUNDS = 1 << 2;
+    public static final int FLAGS = 1 << 3;
+    public static final int PACKAGE_NAME = 1 << 4;
+
+    /**
+     * A single difference between the hierarchies.
+     */
+    public static class Change {
+
+        private final Type mType;
+        private final HierarchyNode mBefore;
+        private final HierarchyNode mAfter;
+        private final int mChangedProperties;
+
+        Change(Type type, HierarchyNode before, HierarchyNode after, int changedProperties) {
+            mType = type;
+            mBefore = before;
+            mAfter = after;
+            mChangedProperties = changedProperties;
+        }
+
+        public Type getType() {
+            return mType;
+        }
+
+        /**
+         * @return the node in the first hierarchy, or {@code null} if it was added.
+         */
+        public HierarchyNode getBefore() {
+            return mBefore;
+        }
+
+        /**
+         * @return the node in the second hierarchy, or {@code null} if it was removed.
+         */
+        public HierarchyNode getAfter() {
+            return mAfter;
+        }
+
+        /**
+         * @return the properties that changed for {@link Type#CHANGED}, a combination of
+         *         {@link #TEXT}, {@link #CONTENT_DESCRIPTION}, {@link #BOUNDS}, {@link #FLAGS} and
+         *         {@link #PACKAGE_NAME}.
+         */
+        public int getChangedProperties() {
+            return mChangedProperties;
+        }
+
+        @Override
+        public String toString() {
+            switch (mType) {
+                case ADDED:
+                    return "added " + mAfter;
+                case REMOVED:
+                    return "removed " + mBefore;
+                case MOVED:
+                    return "moved " + mAfter;
+                default:
+                    return "changed " + mBefore + " to " + mAfter;
+            }
+        }
+    }
+
+    private final List<Change> mChanges = new ArrayList<>();
+    private final List<HierarchyNode> mAddedSubtrees = new ArrayList<>();
+    private final List<HierarchyNode> mRemovedSubtrees = new ArrayList<>();
+    private final List<HierarchyNode> mRemovedParentPartners = new ArrayList<>();
+
+    private HierarchyDiff() {}
+
+    /**
+     * @param before the earlier capture of the hierarchy.
+     * @param after the later capture of the hierarchy.
+     * @return the changes needed to turn {@code before} into {@code after}.
+     */
+    public static HierarchyDiff compute(HierarchyNode before, HierarchyNode after) {
+        HierarchyDiff diff = new HierarchyDiff();
+        if (sameKey(before, after)) {
+            diff.match(before, after);
+        } else {
+            diff.mRemovedSubtrees.add(before);
+            diff.mRemovedParentPartners.add(null);
+            diff.mAddedSubtrees.add(after);
+        }
+        diff.matchMovedSubtrees();
+
+        for (HierarchyNode node : diff.mRemovedSubtrees) {
+            diff.mChanges.add(new Change(Type.REMOVED, node, null, 0));
+        }
+        for (HierarchyNode node : diff.mAddedSubtrees) {
+            diff.mChanges.add(new Change(Type.ADDED, null, node, 0));
+        }
+        return diff;
+    }
+
+    /**
+     * @return every change, in no particular order.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(mChanges);
+    }
+
+    /**
+     * @return the changes of the given type.
+     */
+    public List<Change> getChanges(Type type) {
+        List<Change> changes = new ArrayList<>();
+        for (Change change : mChanges) {
+            if (change.mType == type) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return {@code true} if the hierarchies are the same, {@code false} otherwise.
+     */
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    private void match(HierarchyNode before, HierarchyNode after) {
+        int changed = changedProperties(before, after);
+        if (changed != 0) {
+            mChanges.add(new Change(Type.CHANGED, before, after, changed));
+        }
+
+        int beforeCount = before.getChildCount();
+        int afterCount = after.getChildCount();
+        if (beforeCount == 0 && afterCount == 0) {
+            return;
+        }
+
+        int[] partners = new int[afterCount];
+        boolean[] matched = new boolean[beforeCount];
+        Arrays.fill(partners, -1);
+
+        // most children stay where they were, match by position first
+        boolean unmatched = false;
+        for (int i = 0; i < afterCount; i++) {
+            if (i < beforeCount && sameKey(before.getChild(i), after.getChild(i)) &&
+                    equals(label(before.getChild(i)), label(after.getChild(i)))) {
+                partners[i] = i;
+                matched[i] = true;
+            } else {
+                unmatched = true;
+            }
+        }
+
+        // then siblings with the same label that moved, then siblings whose label changed in place
+        if (unmatched && beforeCount > 0) {
+            matchRemaining(before, after, partners, matched, true);
+            matchRemaining(before, after, partners, matched, false);
+        }
+
+        boolean[] inOrder = longestIncreasingSubsequence(partners);
+        for (int i = 0; i < afterCount; i++) {
+            if (partners[i] == -1) {
+                mAddedSubtrees.add(after.getChild(i));
+            } else {
+                if (!inOrder[i]) {
+                    mChanges.add(new Change(Type.MOVED, before.getChild(partners[i]), after.getChild(i), 0));
+                }
+                match(before.getChild(partners[i]), after.getChild(i));
+            }
+        }
+        for (int i = 0; i < beforeCount; i++) {
+            if (!matched[i]) {
+                mRemovedSubtrees.add(before.getChild(i));
+                mRemovedParentPartners.add(after);
+            }
+        }
+    }
+
+    /**
+     * Matches the remaining children with the same key. With {@code byLabel} the key includes the
+     * label of the child, otherwise it includes the closest matched sibling before the child so
+     * only children that stayed between the same siblings are matched.
+     */
+    private static void matchRemaining(HierarchyNode before, HierarchyNode after, int[] partners,
+            boolean[] matched, boolean byLabel) {
+        Map<String, ArrayDeque<Integer>> remaining = new HashMap<>();
+        int previous = -1;
+        for (int i = 0; i < matched.length; i++) {
+            if (!matched[i]) {
+                String key = key(before.getChild(i), byLabel ? label(before.getChild(i)) : previous);
+                ArrayDeque<Integer> indexes = remaining.get(key);
+                if (indexes == null) {
+                    indexes = new ArrayDeque<>();
+                    remaining.put(key, indexes);
+                }
+                indexes.add(i);
+            } else {
+                previous = i;
+            }
+        }
+
+        previous = -1;
+        for (int i = 0; i < partners.length && !remaining.isEmpty(); i++) {
+            if (partners[i] == -1) {
+                ArrayDeque<Integer> indexes = remaining.get(key(after.getChild(i),
+                        byLabel ? label(after.getChild(i)) : previous));
+                if (indexes != null && !indexes.isEmpty()) {
+                    partners[i] = indexes.poll();
+                    matched[partners[i]] = true;
+                }
+            } else {
+                previous = partners[i];
+            }
+        }
+    }
+
+    /**
+     * Pairs removed and added subtrees with the same unique resource id and a different parent as
+     * moves.
+     */
+    private void matchMovedSubtrees() {
+        if (mRemovedSubtrees.isEmpty() || mAddedSubtrees.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> removed = uniqueByResourceId(mRemovedSubtrees);
+        Map<String, Integer> added = uniqueByResourceId(mAddedSubtrees);
+        boolean[] movedBefore = new boolean[mRemovedSubtrees.size()];
+        boolean[] movedAfter = new boolean[mAddedSubtrees.size()];
+        List<HierarchyNode[]> moves = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : removed.entrySet()) {
+            int beforeIndex = entry.getValue();
+            Integer afterIndex = added.get(entry.getKey());
+            if (beforeIndex == -1 || afterIndex == null || afterIndex == -1) {
+                continue;
+            }
+
+            HierarchyNode before = mRemovedSubtrees.get(beforeIndex);
+            HierarchyNode after = mAddedSubtrees.get(afterIndex);
+            if (sameKey(before, after) && mRemovedParentPartners.get(beforeIndex) != after.getParent()) {
+                movedBefore[beforeIndex] = true;
+                movedAfter[afterIndex] = true;
+                moves.add(new HierarchyNode[] { before, after });
+            }
+        }
+        if (moves.isEmpty()) {
+            return;
+        }
+
+        List<HierarchyNode> remainingRemoved = new ArrayList<>();
+        List<HierarchyNode> remainingPartners = new ArrayList<>();
+        for (int i = 0; i < movedBefore.length; i++) {
+            if (!movedBefore[i]) {
+                remainingRemoved.add(mRemovedSubtrees.get(i));
+                remainingPartners.add(mRemovedParentPartners.get(i));
+            }
+        }
+        List<HierarchyNode> remainingAdded = new ArrayList<>();
+        for (int i = 0; i < movedAfter.length; i++) {
+            if (!movedAfter[i]) {
+                remainingAdded.add(mAddedSubtrees.get(i));
+            }
+        }
+        mRemovedSubtrees.clear();
+        mRemovedSubtrees.addAll(remainingRemoved);
+        mRemovedParentPartners.clear();
+        mRemovedParentPartners.addAll(remainingPartners);
+        mAddedSubtrees.clear();
+        mAddedSubtrees.addAll(remainingAdded);
+
+        for (HierarchyNode[] move : moves) {
+            mChanges.add(new Change(Type.MOVED, move[0], move[1], 0));
+            match(move[0], move[1]);
+        }
+    }
+
+    /**
+     * @return the index of each node by resource id, with -1 for resource ids used more than once.
+     */
+    private static Map<String, Integer> uniqueByResourceId(List<HierarchyNode> nodes) {
+        Map<String, Integer> unique = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            String resourceId = nodes.get(i).getResourceId();
+            if (resourceId != null) {
+                unique.put(resourceId, unique.containsKey(resourceId) ? -1 : i);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * @param partners the index of the matched node in the first hierarchy for each child in the
+     *        second hierarchy, or -1.
+     * @return for each child, whether it is part of the longest run of matched children that kept
+     *         their relative order. The other matched children moved.
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] partners) {
+        int length = 0;
+        int[] tails = new int[partners.length];
+        int[] previous = new int[partners.length];
+        for (int i = 0; i < partners.length; i++) {
+            if (partners[i] == -1) {
+                continue;
+            }
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (partners[tails[middle]] < partners[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] inOrder = new boolean[partners.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = previous[i]) {
+            inOrder[i] = true;
+        }
+        return inOrder;
+    }
+
+    private static int changedProperties(HierarchyNode before, HierarchyNode after) {
+        int changed = 0;
+        if (!equals(before.getText(), after.getText())) {
+            changed |= TEXT;
+        }
+        if (!equals(before.getContentDescription(), after.getContentDescription())) {
+            changed |= CONTENT_DESCRIPTION;
+        }
+        if (before.getLeft() != after.getLeft() || before.getTop() != after.getTop() ||
+                before.getRight() != after.getRight() || before.getBottom() != after.getBottom()) {
+            changed |= BOUNDS;
+        }
+        if (before.getFlags() != after.getFlags()) {
+            changed |= FLAGS;
+        }
+        if (!equals(before.getPackageName(), after.getPackageName())) {
+            changed |= PACKAGE_NAME;
+        }
+        return changed;
+    }
+
+    private static boolean sameKey(HierarchyNode a, HierarchyNode b) {
+        return equals(a.getClassName(), b.getClassName()) && equals(a.getResourceId(), b.getResourceId());
+    }
+
+    private static String key(HierarchyNode node, Object discriminator) {
+        return node.getClassName() + '\n' + node.getResourceId() + '\n' + discriminator;
+    }
+
+    /**
+     * @return the text or content description of the node or of one of its first descendants,
+     *         used to tell apart siblings with the same class and resource id such as list rows.
+     */
+    private static String label(HierarchyNode node) {
+        return label(node, 2);
+    }
+
+    private static String label(HierarchyNode node, int depth) {
+        if (node.getText() != null) {
+            return node.getText();
+        }
+        if (node.getContentDescription() != null) {
+            return node.getContentDescription();
+        }
+        for (int i = 0; depth > 0 && i < node.getChildCount(); i++) {
+            String label = label(node.getChild(i), depth - 1);
+            if (label != null) {
+                return label;
+            }
+        }
+        return null;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("HierarchyDiff[");
+        for (int i = 0; i < mChanges.size(); i++) {
+            builder.append(i == 0 ? "\n  " : ",\n  ").append(mChanges.get(i));
+        }
+        return builder.append(mChanges.isEmpty() ? "]" : "\n]").toString();
+    }
+}
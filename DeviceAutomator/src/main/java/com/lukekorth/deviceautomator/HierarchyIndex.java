@@ -0,0 +1,171 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of a hierarchy for answering {@link NodeQuery}s without visiting every node. Nodes are
+ * numbered in document order and indexed by class name, resource id and content description.
+ * The subtree of a node is the range of positions from the node to
+ * {@link #getSubtreeEnd(int)}, so descendants can be looked up with the same index. An index of
+ * the text of every node for {@link UiObjectMatcher#withTextContaining(String)} is built once the
+ * hierarchy is searched by text repeatedly.
+ *
+ * The index is a snapshot, it must be built again after the hierarchy is modified.
+ */
+public class HierarchyIndex {
+
+    static final int TEXT_SCANS_BEFORE_TRIGRAMS = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final HierarchyNode mRoot;
+    private final HierarchyNode[] mNodes;
+    private final int[] mSubtreeEnds;
+    private final Map<String, int[]> mByClassName;
+    private final Map<String, int[]> mByResourceId;
+    private final Map<String, int[]> mByContentDescription;
+    private TrigramIndex mTrigrams;
+    private int mTextScans;
+
+    public HierarchyIndex(HierarchyNode root) {
+        mRoot = root;
+        mNodes = new HierarchyNode[root.size()];
+        mSubtreeEnds = new int[mNodes.length];
+        Map<String, Positions> byClassName = new HashMap<>();
+        Map<String, Positions> byResourceId = new HashMap<>();
+        Map<String, Positions> byContentDescription = new HashMap<>();
+        add(root, 0, byClassName, byResourceId, byContentDescription);
+
+        mByClassName = freeze(byClassName);
+        mByResourceId = freeze(byResourceId);
+        mByContentDescription = freeze(byContentDescription);
+    }
+
+    /**
+     * @return the position after the subtree of the node.
+     */
+    private int add(HierarchyNode node, int position, Map<String, Positions> byClassName,
+            Map<String, Positions> byResourceId, Map<String, Positions> byContentDescription) {
+        mNodes[position] = node;
+        put(byClassName, node.getClassName(), position);
+        put(byResourceId, node.getResourceId(), position);
+        put(byContentDescription, node.getContentDescription(), position);
+
+        int end = position + 1;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            end = add(node.getChild(i), end, byClassName, byResourceId, byContentDescription);
+        }
+        mSubtreeEnds[position] = end;
+        return end;
+    }
+
+    private static void put(Map<String, Positions> map, String key, int position) {
+        if (key == null) {
+            return;
+        }
+
+        Positions positions = map.get(key);
+        if (positions == null) {
+            positions = new Positions();
+            map.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static Map<String, int[]> freeze(Map<String, Positions> map) {
+        Map<String, int[]> frozen = new HashMap<>(map.size() * 2);
+        for (Map.Entry<String, Positions> entry : map.entrySet()) {
+            frozen.put(entry.getKey(), Arrays.copyOf(entry.getValue().mValues, entry.getValue().mSize));
+        }
+        return frozen;
+    }
+
+    public HierarchyNode getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @return the number of nodes in the hierarchy.
+     */
+    public int size() {
+        return mNodes.length;
+    }
+
+    /**
+     * @return the node at the position in document order.
+     */
+    public HierarchyNode getNode(int position) {
+        return mNodes[position];
+    }
+
+    /**
+     * @return the position after the last descendant of the node at the given position.
+     */
+    public int getSubtreeEnd(int position) {
+        return mSubtreeEnds[position];
+    }
+
+    /**
+     * @return the positions of the nodes with the class name, in document order.
+     */
+    public int[] withClassName(String className) {
+        return get(mByClassName, className);
+    }
+
+    /**
+     * @return the positions of the nodes with the resource id, in document order.
+     */
+    public int[] withResourceId(String resourceId) {
+        return get(mByResourceId, resourceId);
+    }
+
+    /**
+     * @return the positions of the nodes with the content description, in document order.
+     */
+    public int[] withContentDescription(String contentDescription) {
+        return get(mByContentDescription, contentDescription);
+    }
+
+    /**
+     * Narrows a {@link NodeQuery.TextMatch#CONTAINS} query with a {@link TrigramIndex} of the text
+     * of every node. Building the trigram index costs about as much as a few dozen scans, so it is
+     * only built once the hierarchy was searched by text {@link #TEXT_SCANS_BEFORE_TRIGRAMS} times.
+     *
+     * @return the positions of the nodes whose text may contain the text, in document order, or
+     *         {@code null} if the text is too short or the hierarchy should be scanned.
+     */
+    int[] withTextCandidates(String text) {
+        if (text.length() < TrigramIndex.MIN_QUERY_LENGTH) {
+            return null;
+        }
+
+        TrigramIndex trigrams;
+        synchronized (this) {
+            if (mTrigrams == null && ++mTextScans > TEXT_SCANS_BEFORE_TRIGRAMS) {
+                mTrigrams = new TrigramIndex(this);
+            }
+            trigrams = mTrigrams;
+        }
+        return trigrams == null ? null : trigrams.candidates(text);
+    }
+
+    private static int[] get(Map<String, int[]> map, String key) {
+        int[] positions = map.get(key);
+        return positions == null ? EMPTY : positions;
+    }
+
+    private static class Positions {
+
+        int[] mValues = new int[4];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A plain Java copy of a node in the ui hierarchy, such as a node loaded from a
+ * {@link androidx.test.uiautomator.UiDevice#dumpWindowHierarchy(java.io.OutputStream)} dump by
+ * {@link HierarchyParser}. Unlike {@link android.view.accessibility.AccessibilityNodeInfo}, nodes
+ * do not need a device and can be created, searched and modified on the JVM.
+ */
+public class HierarchyNode {
+
+    public static final int CHECKABLE = 1;
+    public static final int CHECKED = 1 << 1;
+    public static final int CLICKABLE = 1 << 2;
+    public static final int ENABLED = 1 << 3;
+    public static final int FOCUSABLE = 1 << 4;
+    public static final int FOCUSED = 1 << 5;
+    public static final int SCROLLABLE = 1 << 6;
+    public static final int LONG_CLICKABLE = 1 << 7;
+    public static final int PASSWORD = 1 << 8;
+    public static final int SELECTED = 1 << 9;
+
+    private final String mClassName;
+    private String mPackageName;
+    private String mResourceId;
+    private String mText;
+    private String mContentDescription;
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private int mFlags = ENABLED;
+    private HierarchyNode mParent;
+    private int mIndex;
+    private final List<HierarchyNode> mChildren = new ArrayList<>();
+
+    /**
+     * @param className fully qualified class name of the view, ex: android.widget.TextView
+     */
+    public HierarchyNode(String className) {
+        mClassName = className;
+    }
+
+    /**
+     * @return a deep copy of this node and its descendants, without a parent.
+     */
+    public HierarchyNode copy() {
+        HierarchyNode copy = new HierarchyNode(mClassName)
+                .setPackageName(mPackageName)
+                .setResourceId(mResourceId)
+                .setText(mText)
+                .setContentDescription(mContentDescription)
+                .setBounds(mLeft, mTop, mRight, mBottom)
+                .setFlags(mFlags);
+        for (HierarchyNode child : mChildren) {
+            copy.addChild(child.copy());
+        }
+        return copy;
+    }
+
+    public String getClassName() {
+        return mClassName;
+    }
+
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    public HierarchyNode setPackageName(String packageName) {
+        mPackageName = packageName;
+        return this;
+    }
+
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    public HierarchyNode setResourceId(String resourceId) {
+        mResourceId = resourceId;
+        return this;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public HierarchyNode setText(String text) {
+        mText = text;
+        return this;
+    }
+
+    public String getContentDescription() {
+        return mContentDescription;
+    }
+
+    public HierarchyNode setContentDescription(String contentDescription) {
+        mContentDescription = contentDescription;
+        return this;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    public int getCenterX() {
+        return (mLeft + mRight) / 2;
+    }
+
+    public int getCenterY() {
+        return (mTop + mBottom) / 2;
+    }
+
+    /**
+     * @return {@code true} if the node has a width and height, {@code false} otherwise.
+     */
+    public boolean isVisible() {
+        return mRight > mLeft && mBottom > mTop;
+    }
+
+    public HierarchyNode setBounds(int left, int top, int right, int bottom) {
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        return this;
+    }
+
+    /**
+     * @return the state flags of this node, a combination of {@link #CHECKABLE}, {@link #CHECKED},
+     *         {@link #CLICKABLE}, {@link #ENABLED}, {@link #FOCUSABLE}, {@link #FOCUSED},
+     *         {@link #SCROLLABLE}, {@link #LONG_CLICKABLE}, {@link #PASSWORD} and {@link #SELECTED}.
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public HierarchyNode setFlags(int flags) {
+        mFlags = flags;
+        return this;
+    }
+
+    /**
+     * @param flag the flag to check, ex: {@link #CHECKED}.
+     * @return {@code true} if the flag is set, {@code false} otherwise.
+     */
+    public boolean hasFlag(int flag) {
+        return (mFlags & flag) != 0;
+    }
+
+    /**
+     * @param flag the flag to set or clear, ex: {@link #CHECKED}.
+     * @param value {@code true} to set the flag, {@code false} to clear it.
+     * @return {@link HierarchyNode} for method chaining.
+     */
+    public HierarchyNode setFlag(int flag, boolean value) {
+        mFlags = value ? mFlags | flag : mFlags & ~flag;
+        return this;
+    }
+
+    /**
+     * @return the parent of this node or {@code null} if this is the root.
+     */
+    public HierarchyNode getParent() {
+        return mParent;
+    }
+
+    /**
+     * @return the index of this node in its parent's children.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public int getChildCount() {
+        return mChildren.size();
+    }
+
+    public HierarchyNode getChild(int index) {
+        return mChildren.get(index);
+    }
+
+    public List<HierarchyNode> getChildren() {
+        return Collections.unmodifiableList(mChildren);
+    }
+
+    /**
+     * Adds a child to the end of this node's children.
+     *
+     * @return {@link HierarchyNode} for method chaining.
+     */
+    public HierarchyNode addChild(HierarchyNode child) {
+        child.mParent = this;
+        child.mIndex = mChildren.size();
+        mChildren.add(child);
+        return this;
+    }
+
+    /**
+     * Replaces the child at the given index.
+     *
+     * @return the replaced child.
+     */
+    public HierarchyNode replaceChild(int index, HierarchyNode child) {
+        HierarchyNode previous = mChildren.set(index, child);
+        previous.mParent = null;
+        child.mParent = this;
+        child.mIndex = index;
+        return previous;
+    }
+
+    /**
+     * @return the number of nodes in the subtree rooted at this node, including this node.
+     */
+    public int size() {
+        int size = 1;
+        for (HierarchyNode child : mChildren) {
+            size += child.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchyNode[class=" + mClassName + ", resource-id=" + mResourceId + ", text=" + mText +
+                ", content-desc=" + mContentDescription + ", bounds=[" + mLeft + "," + mTop + "][" +
+                mRight + "," + mBottom + "]]";
+    }
+}
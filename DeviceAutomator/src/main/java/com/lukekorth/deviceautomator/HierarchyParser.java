@@ -0,0 +1,122 @@
+package com.lukekorth.deviceautomator;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Parses the xml written by
+ * {@link androidx.test.uiautomator.UiDevice#dumpWindowHierarchy(java.io.OutputStream)} into
+ * {@link HierarchyNode}s.
+ */
+public class HierarchyParser {
+
+    private HierarchyParser() {}
+
+    /**
+     * @param xml a window hierarchy dump.
+     * @return the root of the hierarchy. The root has no class name and has one child for each
+     *         window in the dump.
+     */
+    public static HierarchyNode parse(String xml) {
+        return parse(new ByteArrayInputStream(xml.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /**
+     * @param in stream containing a window hierarchy dump. The stream is not closed.
+     * @return the root of the hierarchy. The root has no class name and has one child for each
+     *         window in the dump.
+     */
+    public static HierarchyNode parse(InputStream in) {
+        Handler handler = new Handler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalArgumentException("Unable to parse window hierarchy", e);
+        }
+        return handler.mRoot;
+    }
+
+    private static class Handler extends DefaultHandler {
+
+        private final Deque<HierarchyNode> mStack = new ArrayDeque<>();
+        private HierarchyNode mRoot;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            if ("hierarchy".equals(qName)) {
+                mRoot = new HierarchyNode(null);
+                mStack.push(mRoot);
+            } else if ("node".equals(qName)) {
+                if (mStack.isEmpty()) {
+                    throw new SAXException("node found outside of hierarchy");
+                }
+
+                HierarchyNode node = new HierarchyNode(emptyToNull(attributes.getValue("class")))
+                        .setPackageName(emptyToNull(attributes.getValue("package")))
+                        .setResourceId(emptyToNull(attributes.getValue("resource-id")))
+                        .setText(emptyToNull(attributes.getValue("text")))
+                        .setContentDescription(emptyToNull(attributes.getValue("content-desc")))
+                        .setFlag(HierarchyNode.CHECKABLE, isTrue(attributes, "checkable"))
+                        .setFlag(HierarchyNode.CHECKED, isTrue(attributes, "checked"))
+                        .setFlag(HierarchyNode.CLICKABLE, isTrue(attributes, "clickable"))
+                        .setFlag(HierarchyNode.ENABLED, isTrue(attributes, "enabled"))
+                        .setFlag(HierarchyNode.FOCUSABLE, isTrue(attributes, "focusable"))
+                        .setFlag(HierarchyNode.FOCUSED, isTrue(attributes, "focused"))
+                        .setFlag(HierarchyNode.SCROLLABLE, isTrue(attributes, "scrollable"))
+                        .setFlag(HierarchyNode.LONG_CLICKABLE, isTrue(attributes, "long-clickable"))
+                        .setFlag(HierarchyNode.PASSWORD, isTrue(attributes, "password"))
+                        .setFlag(HierarchyNode.SELECTED, isTrue(attributes, "selected"));
+                setBounds(node, attributes.getValue("bounds"));
+
+                mStack.peek().addChild(node);
+                mStack.push(node);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("hierarchy".equals(qName) || "node".equals(qName)) {
+                mStack.pop();
+            }
+        }
+
+        private static void setBounds(HierarchyNode node, String bounds) throws SAXException {
+            if (bounds == null || bounds.isEmpty()) {
+                return;
+            }
+
+            // bounds are formatted as [left,top][right,bottom]
+            String[] parts = bounds.replace("][", ",").replace("[", "").replace("]", "").split(",");
+            if (parts.length != 4) {
+                throw new SAXException("Invalid bounds " + bounds);
+            }
+
+            try {
+                node.setBounds(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                        Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            } catch (NumberFormatException e) {
+                throw new SAXException("Invalid bounds " + bounds, e);
+            }
+        }
+
+        private static boolean isTrue(Attributes attributes, String name) {
+            return "true".equals(attributes.getValue(name));
+        }
+
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+    }
+}
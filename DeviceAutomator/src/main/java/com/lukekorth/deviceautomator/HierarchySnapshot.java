@@ -0,0 +1,231 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the ui hierarchy that is kept up to date incrementally. Subtrees reported as changed
+ * with {@link #invalidate(int[])} are recaptured the next time the snapshot is read, and the whole
+ * hierarchy is only recaptured after {@link #invalidateAll()}, such as when the window changes.
+ *
+ * Nodes are identified by their path from the root, the index of each node in its parent's
+ * children. The root has one child per window, so the first index of a path is the window.
+ *
+ * Invalidating never waits for a capture, so events can be delivered while the snapshot is read.
+ * A change reported during a capture is recaptured by the next read.
+ */
+class HierarchySnapshot {
+
+    /**
+     * Captures the hierarchy, or part of it, from the device.
+     */
+    interface Capturer {
+
+        /**
+         * @return the root of the entire hierarchy, with one child per window.
+         */
+        HierarchyNode captureAll();
+
+        /**
+         * @param path indexes of the node from the root.
+         * @return the subtree rooted at the node, or {@code null} if it no longer exists.
+         */
+        HierarchyNode capture(int[] path);
+    }
+
+    /**
+     * Above this many changed subtrees a full capture is usually cheaper than the individual ones.
+     */
+    static final int MAX_PENDING_PATHS = 32;
+
+    private final Capturer mCapturer;
+    private final Object mCaptureLock = new Object();
+    // guarded by this
+    private final List<int[]> mPending = new ArrayList<>();
+    private boolean mInvalid = true;
+    // guarded by mCaptureLock
+    private HierarchyNode mRoot;
+    private boolean mFingerprintValid;
+    private long mFingerprint;
+    private HierarchyIndex mIndex;
+    private int mFullCaptures;
+    private int mPartialCaptures;
+    private long mCapturedNodes;
+
+    HierarchySnapshot(Capturer capturer) {
+        mCapturer = capturer;
+    }
+
+    /**
+     * Marks the subtree at the given path as changed.
+     *
+     * @param path indexes of the node from the root, or {@code null} if the changed node is not
+     *        known, which invalidates the entire hierarchy.
+     */
+    synchronized void invalidate(int[] path) {
+        if (mInvalid) {
+            return;
+        }
+        if (path == null || path.length == 0 || mPending.size() >= MAX_PENDING_PATHS) {
+            invalidateAll();
+            return;
+        }
+        mPending.add(path);
+    }
+
+    /**
+     * Marks the entire hierarchy as changed.
+     */
+    synchronized void invalidateAll() {
+        mInvalid = true;
+        mPending.clear();
+    }
+
+    /**
+     * @return the root of the hierarchy, recapturing any subtrees that changed since the last call.
+     *         The returned nodes must not be modified and are only valid until the next call.
+     */
+    HierarchyNode get() {
+        synchronized (mCaptureLock) {
+            boolean invalid;
+            List<int[]> pending;
+            synchronized (this) {
+                invalid = mInvalid;
+                pending = invalid ? null : removeDescendants(mPending);
+                mInvalid = false;
+                mPending.clear();
+            }
+
+            if (!invalid && pending.isEmpty()) {
+                return mRoot;
+            }
+
+            mFingerprintValid = false;
+            mIndex = null;
+            if (invalid || !refresh(pending)) {
+                mRoot = mCapturer.captureAll();
+                mFullCaptures++;
+                mCapturedNodes += mRoot.size();
+            }
+            return mRoot;
+        }
+    }
+
+    /**
+     * @return the {@link Fingerprint} of the hierarchy returned by {@link #get()}, only computed
+     *         again after something changed.
+     */
+    long getFingerprint() {
+        synchronized (mCaptureLock) {
+            HierarchyNode root = get();
+            if (!mFingerprintValid) {
+                mFingerprint = Fingerprint.of(root);
+                mFingerprintValid = true;
+            }
+            return mFingerprint;
+        }
+    }
+
+    /**
+     * @return a {@link HierarchyIndex} of the hierarchy returned by {@link #get()}, only built
+     *         again after something changed.
+     */
+    HierarchyIndex getIndex() {
+        synchronized (mCaptureLock) {
+            HierarchyNode root = get();
+            if (mIndex == null) {
+                mIndex = new HierarchyIndex(root);
+            }
+            return mIndex;
+        }
+    }
+
+    /**
+     * Recaptures the subtrees at the given paths in place.
+     *
+     * @return {@code false} if a path no longer exists and the entire hierarchy must be captured.
+     */
+    private boolean refresh(List<int[]> paths) {
+        for (int[] path : paths) {
+            HierarchyNode parent = mRoot;
+            for (int i = 0; i < path.length - 1 && parent != null; i++) {
+                parent = path[i] < parent.getChildCount() ? parent.getChild(path[i]) : null;
+            }
+
+            int index = path[path.length - 1];
+            HierarchyNode subtree = parent != null && index < parent.getChildCount() ?
+                    mCapturer.capture(path) : null;
+            if (subtree == null) {
+                // the tree changed shape, the path can't be trusted anymore
+                return false;
+            }
+
+            parent.replaceChild(index, subtree);
+            mPartialCaptures++;
+            mCapturedNodes += subtree.size();
+        }
+        return true;
+    }
+
+    /**
+     * @return the paths that are not below another path in the list, without duplicates.
+     */
+    private static List<int[]> removeDescendants(List<int[]> paths) {
+        List<int[]> roots = new ArrayList<>(paths.size());
+        for (int[] path : paths) {
+            boolean covered = false;
+            for (int i = 0; i < roots.size(); i++) {
+                int[] root = roots.get(i);
+                if (isPrefix(root, path)) {
+                    covered = true;
+                    break;
+                } else if (isPrefix(path, root)) {
+                    roots.remove(i--);
+                }
+            }
+            if (!covered) {
+                roots.add(path);
+            }
+        }
+        return roots;
+    }
+
+    private static boolean isPrefix(int[] prefix, int[] path) {
+        if (prefix.length > path.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (prefix[i] != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of times the entire hierarchy has been captured.
+     */
+    int getFullCaptures() {
+        synchronized (mCaptureLock) {
+            return mFullCaptures;
+        }
+    }
+
+    /**
+     * @return the number of times a changed subtree has been captured.
+     */
+    int getPartialCaptures() {
+        synchronized (mCaptureLock) {
+            return mPartialCaptures;
+        }
+    }
+
+    /**
+     * @return the total number of nodes captured.
+     */
+    long getCapturedNodes() {
+        synchronized (mCaptureLock) {
+            return mCapturedNodes;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@link IdleSignal}s checked by the waits of {@link DeviceAutomator}. While signals are
+ * registered, {@link DeviceAutomator#waitForExists(long)}, {@link DeviceAutomator#waitForEnabled(long)}
+ * and {@link DeviceAutomator#waitForStable(long, long)} first wait for every signal to be idle and
+ * then wait for the ui condition with the rest of the timeout. Signals still busy at the timeout
+ * are logged as a warning before the ui condition is waited for.
+ */
+public final class IdleRegistry {
+
+    static final long POLL_INTERVAL = 20;
+
+    private static final List<IdleSignal> sSignals = new CopyOnWriteArrayList<>();
+
+    private IdleRegistry() {}
+
+    /**
+     * Adds a signal. Adding a signal that is already registered has no effect.
+     */
+    public static synchronized void register(IdleSignal signal) {
+        if (!sSignals.contains(signal)) {
+            signal.onRegistered();
+            sSignals.add(signal);
+        }
+    }
+
+    /**
+     * Removes a signal.
+     */
+    public static synchronized void unregister(IdleSignal signal) {
+        if (sSignals.remove(signal)) {
+            signal.onUnregistered();
+        }
+    }
+
+    /**
+     * Removes every signal.
+     */
+    public static synchronized void clear() {
+        for (IdleSignal signal : sSignals) {
+            unregister(signal);
+        }
+    }
+
+    /**
+     * @return {@code true} if no signals are registered.
+     */
+    public static boolean isEmpty() {
+        return sSignals.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if every registered signal is idle.
+     */
+    public static boolean isIdle() {
+        for (IdleSignal signal : sSignals) {
+            if (!signal.isIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the registered signals that are not idle.
+     */
+    public static List<String> getBusySignals() {
+        List<String> busy = new ArrayList<>();
+        for (IdleSignal signal : sSignals) {
+            if (!signal.isIdle()) {
+                busy.add(signal.getName());
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Waits for every registered signal to be idle at the same time.
+     *
+     * @param timeout length of time in milliseconds to wait before giving up.
+     * @return {@code true} if every signal was idle before the timeout, {@code false} otherwise.
+     */
+    public static boolean waitForIdle(long timeout) {
+        return waitForIdle(timeout, Clock.SYSTEM);
+    }
+
+    static boolean waitForIdle(long timeout, Clock clock) {
+        long deadline = clock.nanoTime() + timeout * 1000000;
+        while (!isIdle()) {
+            long remaining = (deadline - clock.nanoTime()) / 1000000;
+            if (remaining <= 0) {
+                return false;
+            }
+
+            try {
+                clock.sleep(Math.min(POLL_INTERVAL, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+package com.lukekorth.deviceautomator;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Reports whether the app under test is idle, for use with {@link IdleRegistry}. Waits such as
+ * {@link DeviceAutomator#waitForExists()} wait for every registered signal to be idle before
+ * checking the ui, so they end when work such as a network call has finished instead of at a
+ * fixed timeout.
+ *
+ * Subclass to report custom work, or use one of the static factory methods.
+ */
+public abstract class IdleSignal {
+
+    /**
+     * Boolean extra of the broadcasts received by {@link #broadcast(Context, String)},
+     * {@code true} when the app is idle and {@code false} when it is busy.
+     */
+    public static final String EXTRA_IDLE = "com.lukekorth.deviceautomator.extra.IDLE";
+
+    /**
+     * {@code Context.RECEIVER_EXPORTED}, added in API 33, which receivers of broadcasts from other
+     * apps must be registered with on Android 14.
+     */
+    private static final int RECEIVER_EXPORTED = 0x2;
+
+    /**
+     * Idle when every Espresso {@code IdlingResource} registered with {@code IdlingRegistry} is
+     * idle, for apps instrumented in the same process. Always idle if Espresso is not on the
+     * classpath. Resources are checked on the main thread, like Espresso does.
+     *
+     * @return {@link IdleSignal} for the Espresso idling resources of this process.
+     */
+    public static IdleSignal espressoIdlingResources() {
+        final Method getInstance;
+        final Method getResources;
+        final Method isIdleNow;
+        try {
+            Class<?> registry = Class.forName("androidx.test.espresso.IdlingRegistry");
+            getInstance = registry.getMethod("getInstance");
+            getResources = registry.getMethod("getResources");
+            isIdleNow = Class.forName("androidx.test.espresso.IdlingResource").getMethod("isIdleNow");
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return new IdleSignal() {
+                @Override
+                public boolean isIdle() {
+                    return true;
+                }
+
+                @Override
+                public String getName() {
+                    return "Espresso IdlingRegistry (not available)";
+                }
+            };
+        }
+
+        return new IdleSignal() {
+            @Override
+            public boolean isIdle() {
+                final boolean[] idle = new boolean[] { true };
+                getInstrumentation().runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (Object resource : (Collection<?>) getResources.invoke(getInstance.invoke(null))) {
+                                if (!(Boolean) isIdleNow.invoke(resource)) {
+                                    idle[0] = false;
+                                    return;
+                                }
+                            }
+                        } catch (IllegalAccessException | InvocationTargetException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                return idle[0];
+            }
+
+            @Override
+            public String getName() {
+                return "Espresso IdlingRegistry";
+            }
+        };
+    }
+
+    /**
+     * Idle while the file does not exist. Suitable for apps running in another process, which
+     * create the file when work starts and delete it when the work is done.
+     *
+     * @param busyFile file that exists while the app is busy, ex: a file in shared external storage.
+     * @return {@link IdleSignal} that is busy while the file exists.
+     */
+    public static IdleSignal whileFileAbsent(final File busyFile) {
+        return new IdleSignal() {
+            @Override
+            public boolean isIdle() {
+                return !busyFile.exists();
+            }
+
+            @Override
+            public String getName() {
+                return "File " + busyFile;
+            }
+        };
+    }
+
+    /**
+     * Idle according to the last broadcast received with the given action, or idle if none was
+     * received since the signal was registered. Suitable for apps running in another process,
+     * which send a broadcast with {@link #EXTRA_IDLE} set to {@code false} when work starts and
+     * to {@code true} when it is done. The receiver is exported so it receives broadcasts from
+     * other apps.
+     *
+     * @param context context to register the receiver with, ex: the instrumentation context.
+     * @param action action of the broadcasts.
+     * @return {@link IdleSignal} that receives broadcasts while it is registered.
+     */
+    public static IdleSignal broadcast(final Context context, final String action) {
+        return new IdleSignal() {
+            private volatile boolean mIdle = true;
+            private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    mIdle = intent.getBooleanExtra(EXTRA_IDLE, true);
+                }
+            };
+
+            @Override
+            public boolean isIdle() {
+                return mIdle;
+            }
+
+            @Override
+            public String getName() {
+                return "Broadcast " + action;
+            }
+
+            @Override
+            protected void onRegistered() {
+                mIdle = true;
+                IntentFilter filter = new IntentFilter(action);
+                if (Build.VERSION.SDK_INT >= 33) {
+                    context.registerReceiver(mReceiver, filter, RECEIVER_EXPORTED);
+                } else {
+                    context.registerReceiver(mReceiver, filter);
+                }
+            }
+
+            @Override
+            protected void onUnregistered() {
+                context.unregisterReceiver(mReceiver);
+            }
+        };
+    }
+
+    /**
+     * @return {@code true} if the app has no pending work this signal knows about.
+     */
+    public abstract boolean isIdle();
+
+    /**
+     * @return a name for the signal, as reported by {@link IdleRegistry#getBusySignals()}.
+     */
+    public String getName() {
+        return getClass().getName();
+    }
+
+    /**
+     * Called when the signal is added to the {@link IdleRegistry}.
+     */
+    protected void onRegistered() {}
+
+    /**
+     * Called when the signal is removed from the {@link IdleRegistry}.
+     */
+    protected void onUnregistered() {}
+}
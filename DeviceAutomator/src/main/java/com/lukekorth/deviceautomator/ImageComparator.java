@@ -0,0 +1,204 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Arrays;
+
+/**
+ * Compares ARGB pixel arrays, as returned by {@link android.graphics.Bitmap#getPixels}, without
+ * allocating per comparison. Both images are box filtered down to a small sample grid before being
+ * compared, which makes comparisons tolerant of scaling and anti-aliasing differences and keeps the
+ * cost proportional to a single pass over the source pixels.
+ *
+ * Instances reuse internal buffers and are not thread safe.
+ */
+public class ImageComparator {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    private final int mSampleWidth;
+    private final int mSampleHeight;
+    private final int[] mSums;
+    private final int[] mCounts;
+    private final int[] mFirst;
+    private final int[] mSecond;
+    private final int[] mHashSums = new int[HASH_WIDTH * HASH_HEIGHT * 3];
+    private final int[] mHashCounts = new int[HASH_WIDTH * HASH_HEIGHT];
+    private final int[] mHash = new int[HASH_WIDTH * HASH_HEIGHT];
+    private final int[] mColumnEnds;
+
+    /**
+     * Creates a comparator that samples images down to 32x32 before comparing.
+     */
+    public ImageComparator() {
+        this(32, 32);
+    }
+
+    /**
+     * @param sampleWidth width of the grid images are sampled down to before comparing.
+     * @param sampleHeight height of the grid images are sampled down to before comparing.
+     */
+    public ImageComparator(int sampleWidth, int sampleHeight) {
+        mSampleWidth = sampleWidth;
+        mSampleHeight = sampleHeight;
+        mSums = new int[sampleWidth * sampleHeight * 3];
+        mCounts = new int[sampleWidth * sampleHeight];
+        mFirst = new int[sampleWidth * sampleHeight];
+        mSecond = new int[sampleWidth * sampleHeight];
+        mColumnEnds = new int[Math.max(sampleWidth, HASH_WIDTH)];
+    }
+
+    /**
+     * Compares two images after sampling them down.
+     *
+     * @return the mean absolute difference of each color channel between the sampled images,
+     *         from {@code 0} for identical images to {@code 1} for black compared to white.
+     */
+    public double difference(int[] pixels, int width, int height, int[] other, int otherWidth,
+                             int otherHeight) {
+        return difference(pixels, 0, width, width, height, other, 0, otherWidth, otherWidth, otherHeight);
+    }
+
+    /**
+     * Compares regions of two images after sampling them down. Regions are described by an offset
+     * of the first pixel and the row stride of the containing array, so regions of a full screen
+     * capture can be compared without being copied.
+     *
+     * @return the mean absolute difference of each color channel between the sampled regions,
+     *         from {@code 0} for identical regions to {@code 1} for black compared to white.
+     */
+    public double difference(int[] pixels, int offset, int stride, int width, int height,
+                             int[] other, int otherOffset, int otherStride, int otherWidth,
+                             int otherHeight) {
+        downscale(pixels, offset, stride, width, height, mSampleWidth, mSampleHeight, mSums, mCounts, mFirst);
+        downscale(other, otherOffset, otherStride, otherWidth, otherHeight, mSampleWidth, mSampleHeight,
+                mSums, mCounts, mSecond);
+
+        long total = 0;
+        for (int i = 0; i < mFirst.length; i++) {
+            int a = mFirst[i];
+            int b = mSecond[i];
+            total += Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff))
+                    + Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff))
+                    + Math.abs((a & 0xff) - (b & 0xff));
+        }
+
+        return total / (mFirst.length * 3 * 255.0);
+    }
+
+    /**
+     * Computes a 64 bit difference hash of an image. The image is sampled down to 9x8 and each bit
+     * records whether the luminance increases between horizontally adjacent samples, so visually
+     * similar images produce hashes that differ in only a few bits.
+     *
+     * @return the perceptual hash of the image.
+     * @see #hammingDistance(long, long)
+     */
+    public long perceptualHash(int[] pixels, int width, int height) {
+        return perceptualHash(pixels, 0, width, width, height);
+    }
+
+    /**
+     * Computes a 64 bit difference hash of a region of an image.
+     *
+     * @return the perceptual hash of the region.
+     * @see #perceptualHash(int[], int, int)
+     */
+    public long perceptualHash(int[] pixels, int offset, int stride, int width, int height) {
+        downscale(pixels, offset, stride, width, height, HASH_WIDTH, HASH_HEIGHT, mHashSums, mHashCounts, mHash);
+
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (luminance(mHash[y * HASH_WIDTH + x]) < luminance(mHash[y * HASH_WIDTH + x + 1])) {
+                    hash |= 1;
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Computes a hash of an image sampled down to the comparator's sample grid. Unlike
+     * {@link #perceptualHash(int[], int, int)} any visible change, such as a view moving by a few
+     * pixels, is likely to change the hash, which makes it suitable for detecting when the screen
+     * has stopped changing.
+     *
+     * @return a hash of the sampled region.
+     */
+    public long sampleHash(int[] pixels, int offset, int stride, int width, int height) {
+        downscale(pixels, offset, stride, width, height, mSampleWidth, mSampleHeight, mSums, mCounts, mFirst);
+
+        long hash = 0xcbf29ce484222325L;
+        for (int sample : mFirst) {
+            hash = (hash ^ sample) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of bits that differ between two perceptual hashes.
+     */
+    public static int hammingDistance(long hash, long otherHash) {
+        return Long.bitCount(hash ^ otherHash);
+    }
+
+    private void downscale(int[] pixels, int offset, int stride, int width, int height,
+                           int sampleWidth, int sampleHeight, int[] sums, int[] counts, int[] out) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image must have a width and height, was " + width + "x" + height);
+        }
+
+        for (int column = 0; column < sampleWidth; column++) {
+            mColumnEnds[column] = (int) (((long) (column + 1) * width + sampleWidth - 1) / sampleWidth);
+        }
+
+        Arrays.fill(sums, 0, sampleWidth * sampleHeight * 3, 0);
+        Arrays.fill(counts, 0, sampleWidth * sampleHeight, 0);
+
+        for (int y = 0; y < height; y++) {
+            int row = (int) ((long) y * sampleHeight / height) * sampleWidth;
+            int index = offset + y * stride;
+            int x = 0;
+            for (int column = 0; column < sampleWidth; column++) {
+                int start = x;
+                int end = mColumnEnds[column];
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                for (; x < end; x++) {
+                    int pixel = pixels[index + x];
+                    red += (pixel >> 16) & 0xff;
+                    green += (pixel >> 8) & 0xff;
+                    blue += pixel & 0xff;
+                }
+
+                int sample = row + column;
+                sums[sample * 3] += red;
+                sums[sample * 3 + 1] += green;
+                sums[sample * 3 + 2] += blue;
+                counts[sample] += end - start;
+            }
+        }
+
+        for (int i = 0; i < sampleWidth * sampleHeight; i++) {
+            int count = counts[i];
+            if (count == 0) {
+                // the sample grid is larger than the image, use the pixel under the sample's center
+                int x = (int) Math.min(((long) (i % sampleWidth) * 2 + 1) * width / (2 * sampleWidth), width - 1);
+                int y = (int) Math.min(((long) (i / sampleWidth) * 2 + 1) * height / (2 * sampleHeight), height - 1);
+                out[i] = 0xff000000 | pixels[offset + y * stride + x];
+            } else {
+                out[i] = 0xff000000
+                        | ((sums[i * 3] / count) << 16)
+                        | ((sums[i * 3 + 1] / count) << 8)
+                        | (sums[i * 3 + 2] / count);
+            }
+        }
+    }
+
+    private static int luminance(int pixel) {
+        return (((pixel >> 16) & 0xff) * 299 + ((pixel >> 8) & 0xff) * 587 + (pixel & 0xff) * 114) / 1000;
+    }
+}
@@ -0,0 +1,93 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The latencies measured for one kind of interaction across repeats, in nanoseconds. See
+ * {@link DeviceAutomator#setLatencyMeasurementEnabled(boolean)}.
+ */
+public class LatencyDistribution {
+
+    private long[] mSamples = new long[16];
+    private int mCount;
+    private boolean mSorted = true;
+
+    LatencyDistribution() {}
+
+    synchronized void add(long nanos) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSorted &= mCount == 0 || mSamples[mCount - 1] <= nanos;
+        mSamples[mCount++] = nanos;
+    }
+
+    /**
+     * @return the number of latencies measured.
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the smallest latency in nanoseconds, or {@code 0} if none was measured.
+     */
+    public synchronized long getMinimum() {
+        return mCount == 0 ? 0 : sorted()[0];
+    }
+
+    /**
+     * @return the largest latency in nanoseconds, or {@code 0} if none was measured.
+     */
+    public synchronized long getMaximum() {
+        return mCount == 0 ? 0 : sorted()[mCount - 1];
+    }
+
+    /**
+     * @return the mean latency in nanoseconds, or {@code 0} if none was measured.
+     */
+    public synchronized long getMean() {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int i = 0; i < mCount; i++) {
+            sum += mSamples[i];
+        }
+        return Math.round(sum / mCount);
+    }
+
+    /**
+     * @param percentile the percentile, from {@code 0} to {@code 100}, ex: {@code 99}.
+     * @return the smallest latency in nanoseconds that at least the given percent of latencies are
+     *         at or below, or {@code 0} if none was measured.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+        }
+        if (mCount == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile / 100 * mCount);
+        return sorted()[Math.max(rank, 1) - 1];
+    }
+
+    private long[] sorted() {
+        if (!mSorted) {
+            Arrays.sort(mSamples, 0, mCount);
+            mSorted = true;
+        }
+        return mSamples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "count=%d min=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                mCount, getMinimum() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6,
+                getPercentile(99) / 1e6, getMaximum() / 1e6);
+    }
+}
@@ -0,0 +1,160 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with buckets on a log scale, like HdrHistogram. Values
+ * below 64 have a bucket each and every power of two above is split into 32 buckets, so the value
+ * reported for a percentile is within about 3% of the real one for any latency, in a fixed 15KB.
+ *
+ * Recording increments counters and allocates nothing, it is safe to record from any number of
+ * threads without locking. Read the recorded values from a {@link Snapshot}.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a latency, negative latencies are recorded as {@code 0}.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        mCounts.incrementAndGet(index(value));
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * @return a copy of the values recorded so far. Values recorded while the snapshot is taken may
+     *         be left out of some of its statistics.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mSum.get(), mMax.get());
+    }
+
+    /**
+     * Forgets every recorded value. Values recorded while resetting may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS +
+                (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    /**
+     * @return the largest value that is counted in the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + SUB_BUCKET_BITS;
+        long top = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        // the last bucket overflows to Long.MIN_VALUE before subtracting, which wraps to Long.MAX_VALUE
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * The values of a {@link LatencyHistogram} at one point in time.
+     */
+    public static class Snapshot {
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] counts, long sum, long max) {
+            mCounts = counts;
+            long count = 0;
+            for (long bucket : counts) {
+                count += bucket;
+            }
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        /**
+         * @return the number of values recorded.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the sum of the values recorded in nanoseconds.
+         */
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * @return the mean of the values recorded in nanoseconds, or {@code 0} if there are none.
+         */
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * @return the largest value recorded in nanoseconds, exactly, or {@code 0} if there are none.
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile the percentile, from {@code 0} to {@code 100}, ex: {@code 99}.
+         * @return the value in nanoseconds that at least the given percent of values are at or
+         *         below, rounded up to the end of its bucket and at most {@link #getMax()}, or
+         *         {@code 0} if there are none.
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+            }
+            if (mCount == 0) {
+                return 0;
+            }
+
+            long rank = Math.max((long) Math.ceil(percentile / 100 * mCount), 1);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
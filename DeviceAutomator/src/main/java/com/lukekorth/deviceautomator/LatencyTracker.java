@@ -0,0 +1,146 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures the time from injecting input to the response of the app, on the
+ * {@link System#nanoTime()} clock. Responses are reported as window changes, with the time the app
+ * made the change, and recorded into a {@link LatencyDistribution} per kind of interaction.
+ *
+ * Injections don't wait for a response: the first window change at or after an injection
+ * completes it, and an injection that is followed by another before any change is counted as
+ * unanswered.
+ */
+final class LatencyTracker {
+
+    /**
+     * Accessibility event times are in milliseconds, a change may appear up to this much before the
+     * injection that caused it.
+     */
+    static final long EVENT_TIME_RESOLUTION = 1000000;
+
+    static final long DEFAULT_POLL_INTERVAL = 50;
+
+    /**
+     * A condition checked while measuring the time until something appears.
+     */
+    interface Condition {
+        boolean isSatisfied();
+    }
+
+    private final Map<String, LatencyDistribution> mDistributions = new TreeMap<>();
+    private final long mPollInterval;
+    private String mPendingAction;
+    private long mPendingStart;
+    private long mUnanswered;
+    private long mChanges;
+    private long mLastChange;
+
+    LatencyTracker() {
+        this(DEFAULT_POLL_INTERVAL);
+    }
+
+    LatencyTracker(long pollInterval) {
+        mPollInterval = pollInterval;
+    }
+
+    /**
+     * Starts measuring the response to input injected at the given time.
+     */
+    synchronized void start(String action, long injectedNanos) {
+        if (mPendingAction != null) {
+            mUnanswered++;
+        }
+        mPendingAction = action;
+        mPendingStart = injectedNanos;
+    }
+
+    /**
+     * Reports that a window changed at the given time, completing the pending injection if the
+     * change happened after it.
+     */
+    synchronized void onWindowChange(long changedNanos) {
+        if (mPendingAction != null && changedNanos - mPendingStart >= -EVENT_TIME_RESOLUTION) {
+            record(mPendingAction, Math.max(changedNanos - mPendingStart, 0));
+            mPendingAction = null;
+        }
+        if (mChanges == 0 || changedNanos - mLastChange > 0) {
+            mLastChange = changedNanos;
+        }
+        mChanges++;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the condition to be satisfied after input injected at the given time, checking it
+     * after every window change and at least every poll interval. The condition became satisfied
+     * with the last change before the check that found it satisfied, or at the check itself if the
+     * window didn't change since the injection.
+     *
+     * @param timeout length of time in milliseconds to wait from the injection before giving up.
+     * @return the latency in nanoseconds, or {@code -1} if the condition was not satisfied before
+     *         the timeout. Only latencies that were measured are recorded.
+     */
+    long measureUntil(String name, long injectedNanos, Condition condition, long timeout) throws InterruptedException {
+        long deadline = injectedNanos + timeout * 1000000;
+        while (true) {
+            long changes;
+            long lastChange;
+            synchronized (this) {
+                changes = mChanges;
+                lastChange = mLastChange;
+            }
+
+            if (condition.isSatisfied()) {
+                boolean changed = changes > 0 && lastChange - injectedNanos >= -EVENT_TIME_RESOLUTION;
+                long latency = Math.max((changed ? lastChange : System.nanoTime()) - injectedNanos, 0);
+                synchronized (this) {
+                    record(name, latency);
+                }
+                return latency;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -1;
+            }
+            synchronized (this) {
+                if (mChanges == changes) {
+                    wait(Math.min(mPollInterval, remaining / 1000000 + 1));
+                }
+            }
+        }
+    }
+
+    private void record(String name, long nanos) {
+        LatencyDistribution distribution = mDistributions.get(name);
+        if (distribution == null) {
+            distribution = new LatencyDistribution();
+            mDistributions.put(name, distribution);
+        }
+        distribution.add(nanos);
+    }
+
+    /**
+     * @return the distributions by name of the interaction, in alphabetical order.
+     */
+    synchronized Map<String, LatencyDistribution> getDistributions() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mDistributions));
+    }
+
+    /**
+     * @return the number of injections that were followed by another before any window change.
+     */
+    synchronized long getUnanswered() {
+        return mUnanswered;
+    }
+
+    synchronized void clear() {
+        mDistributions.clear();
+        mPendingAction = null;
+        mUnanswered = 0;
+    }
+}
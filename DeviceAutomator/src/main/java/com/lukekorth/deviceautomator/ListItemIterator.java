@@ -0,0 +1,167 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the items of a scrolling list, such as a RecyclerView, one page at a time, see
+ * {@link DeviceAutomator#streamItems(UiObjectMatcher, UiObjectMatcher)}. The list is only
+ * scrolled when the items already on the screen have been returned and {@link #hasNext()} is
+ * called again, so a consumer that stops early never scrolls further than it needs to.
+ *
+ * Items are returned as copies of their subtrees. Items that are still on the screen after a
+ * scroll are recognized by a hash of their content and skipped, only the hashes of the previous
+ * page are kept, so memory doesn't grow with the length of the list. Because items are compared by
+ * content, a run of identical items split exactly at a page boundary may be returned once.
+ */
+public class ListItemIterator implements Iterator<HierarchyNode> {
+
+    /**
+     * Captures and scrolls the list.
+     */
+    interface Pager {
+
+        /**
+         * @return the container of the items currently on the screen, or {@code null} if it
+         *         doesn't exist. Only used until the next call to {@link #scrollForward()}.
+         */
+        HierarchyNode capture();
+
+        /**
+         * Scrolls the container forward by about a page.
+         *
+         * @return {@code false} if the end of the list was reached.
+         */
+        boolean scrollForward();
+    }
+
+    private static final long[] NO_ITEMS = new long[0];
+
+    private final Pager mPager;
+    private final NodeQuery mItemQuery;
+    private final ArrayDeque<HierarchyNode> mPending = new ArrayDeque<>();
+    private long[] mPreviousPage = NO_ITEMS;
+    private boolean mStarted;
+    private boolean mAtEnd;
+    private int mScrollCount;
+
+    ListItemIterator(Pager pager, NodeQuery itemQuery) {
+        mPager = pager;
+        mItemQuery = itemQuery;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (mPending.isEmpty() && !mAtEnd) {
+            if (mStarted) {
+                mScrollCount++;
+                mAtEnd = !mPager.scrollForward();
+            }
+            mStarted = true;
+
+            if (addPage(mPager.capture()) == 0) {
+                // the scroll didn't reveal anything new
+                mAtEnd = true;
+            }
+        }
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * @return a copy of the subtree of the next item, without a parent.
+     */
+    @Override
+    public HierarchyNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mPending.poll();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of times the list has been scrolled.
+     */
+    public int getScrollCount() {
+        return mScrollCount;
+    }
+
+    /**
+     * Adds the items of the page that weren't on the previous page.
+     *
+     * @return the number of items added.
+     */
+    private int addPage(HierarchyNode container) {
+        List<HierarchyNode> items = container == null ? null : outermost(mItemQuery.findAll(container), container);
+        if (items == null || items.isEmpty()) {
+            mPreviousPage = NO_ITEMS;
+            return 0;
+        }
+
+        long[] page = new long[items.size()];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = Fingerprint.ofContent(items.get(i));
+        }
+
+        int overlap = overlap(mPreviousPage, page);
+        for (int i = overlap; i < page.length; i++) {
+            mPending.add(items.get(i).copy());
+        }
+        mPreviousPage = page;
+        return page.length - overlap;
+    }
+
+    /**
+     * @return the length of the longest run of items that ends the previous page and starts the
+     *         next one.
+     */
+    static int overlap(long[] previous, long[] next) {
+        for (int length = Math.min(previous.length, next.length); length > 0; length--) {
+            int offset = previous.length - length;
+            int i = 0;
+            while (i < length && previous[offset + i] == next[i]) {
+                i++;
+            }
+            if (i == length) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Drops the container and matches nested in other matches, such as a row with the same
+     * resource id as the items it contains.
+     */
+    private static List<HierarchyNode> outermost(List<HierarchyNode> matches, HierarchyNode container) {
+        Map<HierarchyNode, Boolean> matched = new IdentityHashMap<>();
+        for (HierarchyNode match : matches) {
+            matched.put(match, Boolean.TRUE);
+        }
+
+        Iterator<HierarchyNode> iterator = matches.iterator();
+        while (iterator.hasNext()) {
+            HierarchyNode match = iterator.next();
+            if (match == container) {
+                iterator.remove();
+                continue;
+            }
+            for (HierarchyNode parent = match.getParent(); parent != null && parent != container;
+                    parent = parent.getParent()) {
+                if (matched.containsKey(parent)) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+}
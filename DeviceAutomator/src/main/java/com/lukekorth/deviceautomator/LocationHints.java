@@ -0,0 +1,311 @@
+package com.lukekorth.deviceautomator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers where in the hierarchy each {@link NodeQuery} last resolved, as the path of child
+ * indexes from the root and the package of the window, and keeps the hints in a small file so
+ * they carry over to later runs. A hinted node is checked in time proportional to the depth of
+ * the hierarchy and is used when it still satisfies every constraint of the query, otherwise the
+ * hierarchy is searched and the hint is updated.
+ *
+ * Only queries that resolved to a single node when they were recorded get a hint, so a hint does
+ * not pick a different node than a search would unless a second matching node appeared earlier in
+ * the hierarchy since. Queries with an instance are always searched.
+ *
+ * Hints loaded from the file are keyed by the query's string form until the query is first looked
+ * up, and by the {@link NodeQuery} itself from then on.
+ */
+final class LocationHints {
+
+    static final int MAX_SIZE = 1024;
+    static final int SAVE_INTERVAL = 32;
+
+    private static final int VERSION = 1;
+    private static final int MAX_DEPTH = 1024;
+
+    private final File mFile;
+    private final Object mFileLock = new Object();
+    private final Map<NodeQuery, Hint> mHints = new LinkedHashMap<NodeQuery, Hint>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<NodeQuery, Hint> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private final Map<String, Hint> mLoaded = new LinkedHashMap<>();
+    private int mUnsaved;
+    private int mNextSave = SAVE_INTERVAL;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Loads the hints saved in the file. A missing or unreadable file starts with no hints.
+     */
+    LocationHints(File file) {
+        mFile = file;
+        if (file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                mLoaded.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the node at the location hinted for the query if it still satisfies the query, or
+     *         {@code null} if the hierarchy needs to be searched.
+     */
+    synchronized HierarchyNode findHinted(NodeQuery query, HierarchyNode root) {
+        Hint hint = query.getInstance() == 0 ? get(query) : null;
+        HierarchyNode node = hint == null ? null : hint.locate(query, root);
+        if (node == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return node;
+    }
+
+    /**
+     * Searches the indexed hierarchy for the query and records the location of the result. Every
+     * {@link #SAVE_INTERVAL} changed hints are saved, a failure to save is retried after as many
+     * more instead of being thrown.
+     *
+     * @return the node the query resolves to, or {@code null} if there is none.
+     */
+    HierarchyNode search(NodeQuery query, HierarchyIndex index) {
+        List<HierarchyNode> matches = QueryPlan.compile(query, index).collect(index, Math.max(query.getInstance() + 1, 2));
+        HierarchyNode node = matches.size() > query.getInstance() ? matches.get(query.getInstance()) : null;
+        if (node != null && query.getInstance() == 0 && matches.size() == 1 && record(query, index.getRoot(), node)) {
+            try {
+                write();
+            } catch (IOException e) {
+                synchronized (this) {
+                    mNextSave = mUnsaved + SAVE_INTERVAL;
+                }
+            }
+        }
+        return node;
+    }
+
+    private Hint get(NodeQuery query) {
+        Hint hint = mHints.get(query);
+        if (hint == null && !mLoaded.isEmpty()) {
+            hint = mLoaded.remove(query.toString());
+            if (hint != null) {
+                mHints.put(query, hint);
+            }
+        }
+        return hint;
+    }
+
+    /**
+     * @return {@code true} if the hints are due to be saved.
+     */
+    private synchronized boolean record(NodeQuery query, HierarchyNode root, HierarchyNode node) {
+        int depth = 0;
+        for (HierarchyNode current = node; current != root && current != null; current = current.getParent()) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        HierarchyNode current = node;
+        for (int i = depth - 1; i >= 0; i--) {
+            path[i] = current.getIndex();
+            current = current.getParent();
+        }
+        if (current != root || path.length == 0) {
+            return false;
+        }
+
+        Hint hint = new Hint(root.getChild(path[0]).getPackageName(), path);
+        if (!mLoaded.isEmpty()) {
+            mLoaded.remove(query.toString());
+        }
+        return !hint.equals(mHints.put(query, hint)) && ++mUnsaved >= mNextSave;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized int size() {
+        return mHints.size() + mLoaded.size();
+    }
+
+    /**
+     * Writes the hints to the file if any changed since they were loaded or last saved.
+     *
+     * @throws RuntimeException if the file could not be written.
+     */
+    void save() {
+        try {
+            write();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies the hints under the lock and writes the copy outside of it, so lookups on other
+     * threads don't wait for the file.
+     */
+    private void write() throws IOException {
+        synchronized (mFileLock) {
+            List<String> keys = new ArrayList<>();
+            List<Hint> hints = new ArrayList<>();
+            int unsaved;
+            synchronized (this) {
+                if (mUnsaved == 0 && mFile.exists()) {
+                    return;
+                }
+                unsaved = mUnsaved;
+                // written least recently used first, the hints not used this run are dropped first
+                int room = MAX_SIZE - mHints.size();
+                for (Iterator<Map.Entry<String, Hint>> iterator = mLoaded.entrySet().iterator();
+                        iterator.hasNext() && room-- > 0; ) {
+                    Map.Entry<String, Hint> entry = iterator.next();
+                    keys.add(entry.getKey());
+                    hints.add(entry.getValue());
+                }
+                for (Map.Entry<NodeQuery, Hint> entry : mHints.entrySet()) {
+                    keys.add(entry.getKey().toString());
+                    hints.add(entry.getValue());
+                }
+            }
+
+            File temporary = new File(mFile.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+                out.writeInt(VERSION);
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    Hint hint = hints.get(i);
+                    out.writeUTF(keys.get(i));
+                    out.writeBoolean(hint.mPackageName != null);
+                    if (hint.mPackageName != null) {
+                        out.writeUTF(hint.mPackageName);
+                    }
+                    out.writeInt(hint.mPath.length);
+                    for (int index : hint.mPath) {
+                        out.writeInt(index);
+                    }
+                }
+                out.close();
+                out = null;
+                if (!temporary.renameTo(mFile)) {
+                    throw new IOException("Unable to replace " + mFile);
+                }
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+
+            synchronized (this) {
+                mUnsaved -= unsaved;
+                mNextSave = SAVE_INTERVAL;
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String packageName = in.readBoolean() ? in.readUTF() : null;
+                int depth = in.readInt();
+                if (depth < 0 || depth > MAX_DEPTH) {
+                    throw new IOException("Invalid hint depth " + depth);
+                }
+                int[] path = new int[depth];
+                for (int j = 0; j < path.length; j++) {
+                    path[j] = in.readInt();
+                }
+                mLoaded.put(key, new Hint(packageName, path));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Hint {
+
+        final String mPackageName;
+        final int[] mPath;
+
+        Hint(String packageName, int[] path) {
+            mPackageName = packageName;
+            mPath = path;
+        }
+
+        /**
+         * @return the node at the path if it is in a window of the same package and satisfies the
+         *         query, with ancestors on the path satisfying its parent queries, or {@code null}.
+         */
+        HierarchyNode locate(NodeQuery query, HierarchyNode root) {
+            if (mPath.length == 0 || mPath[0] >= root.getChildCount()) {
+                return null;
+            }
+            String packageName = root.getChild(mPath[0]).getPackageName();
+            if (mPackageName == null ? packageName != null : !mPackageName.equals(packageName)) {
+                return null;
+            }
+
+            // the outermost query must match the topmost ancestor a search would stop at
+            NodeQuery pending = query;
+            HierarchyNode node = root;
+            for (int i = 0; i < mPath.length; i++) {
+                if (pending.getChild() != null && pending.matches(node)) {
+                    pending = pending.getChild();
+                }
+                if (mPath[i] >= node.getChildCount()) {
+                    return null;
+                }
+                node = node.getChild(mPath[i]);
+            }
+            return pending.getChild() == null && pending.matches(node) ? node : null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Hint)) {
+                return false;
+            }
+            Hint hint = (Hint) other;
+            return (mPackageName == null ? hint.mPackageName == null : mPackageName.equals(hint.mPackageName)) &&
+                    Arrays.equals(mPath, hint.mPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(mPath);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * A line of logcat output in the {@code threadtime} format, as read by
+ * {@link DeviceAutomator#waitForLog(String, java.util.regex.Pattern, long)}.
+ */
+public class LogcatLine {
+
+    private final String mTimestamp;
+    private final int mPid;
+    private final int mTid;
+    private final char mPriority;
+    private final String mTag;
+    private final String mMessage;
+
+    LogcatLine(String timestamp, int pid, int tid, char priority, String tag, String message) {
+        mTimestamp = timestamp;
+        mPid = pid;
+        mTid = tid;
+        mPriority = priority;
+        mTag = tag;
+        mMessage = message;
+    }
+
+    /**
+     * @return the time the line was logged, ex: {@code 03-14 09:26:53.589}.
+     */
+    public String getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    public int getTid() {
+        return mTid;
+    }
+
+    /**
+     * @return the priority of the line, one of {@code V}, {@code D}, {@code I}, {@code W},
+     *         {@code E}, {@code F} or {@code A}.
+     */
+    public char getPriority() {
+        return mPriority;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    @Override
+    public String toString() {
+        return mTimestamp + " " + mPid + " " + mTid + " " + mPriority + " " + mTag + ": " + mMessage;
+    }
+}
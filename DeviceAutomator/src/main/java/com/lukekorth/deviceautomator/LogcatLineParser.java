@@ -0,0 +1,86 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * Parses lines of {@code logcat -v threadtime} output without regular expressions, ex:
+ *
+ * <pre>
+ * 03-14 09:26:53.589  1234  1250 I SyncManager: sync complete
+ * </pre>
+ *
+ * Tags can contain spaces and are padded to a minimum width, the message starts after the first
+ * {@code ": "} following the priority.
+ */
+final class LogcatLineParser {
+
+    private static final String PRIORITIES = "VDIWEFA";
+
+    private LogcatLineParser() {}
+
+    /**
+     * @return the parsed line, or {@code null} if the line is not a log line, such as the
+     *         {@code --------- beginning of main} separators.
+     */
+    static LogcatLine parse(String line) {
+        // date and time are fixed width, "MM-DD HH:MM:SS.mmm"
+        if (line.length() < 18 || line.charAt(2) != '-' || line.charAt(5) != ' ' || line.charAt(8) != ':' ||
+                line.charAt(14) != '.') {
+            return null;
+        }
+        String timestamp = line.substring(0, 18);
+
+        int[] position = new int[] { 18 };
+        int pid = readInt(line, position);
+        int tid = readInt(line, position);
+        if (pid < 0 || tid < 0) {
+            return null;
+        }
+
+        int index = skipSpaces(line, position[0]);
+        if (index + 1 >= line.length() || PRIORITIES.indexOf(line.charAt(index)) == -1 ||
+                line.charAt(index + 1) != ' ') {
+            return null;
+        }
+        char priority = line.charAt(index);
+
+        int tagStart = index + 2;
+        int separator = line.indexOf(": ", tagStart);
+        String tag;
+        String message;
+        if (separator == -1) {
+            // an empty message is logged without the space after the colon
+            if (!line.endsWith(":")) {
+                return null;
+            }
+            tag = line.substring(tagStart, line.length() - 1).trim();
+            message = "";
+        } else {
+            tag = line.substring(tagStart, separator).trim();
+            message = line.substring(separator + 2);
+        }
+        return new LogcatLine(timestamp, pid, tid, priority, tag, message);
+    }
+
+    /**
+     * Reads a number preceded by spaces, advancing the position past it.
+     *
+     * @return the number, or {@code -1} if there is none.
+     */
+    private static int readInt(String line, int[] position) {
+        int index = skipSpaces(line, position[0]);
+        int start = index;
+        int value = 0;
+        while (index < line.length() && line.charAt(index) >= '0' && line.charAt(index) <= '9') {
+            value = value * 10 + (line.charAt(index) - '0');
+            index++;
+        }
+        position[0] = index;
+        return index == start ? -1 : value;
+    }
+
+    private static int skipSpaces(String line, int index) {
+        while (index < line.length() && line.charAt(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+}
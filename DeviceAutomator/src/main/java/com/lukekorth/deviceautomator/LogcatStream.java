@@ -0,0 +1,179 @@
+package com.lukekorth.deviceautomator;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * A single long lived {@code logcat} reader shared by every waiter. Lines are parsed on a
+ * background thread into a ring buffer of the last {@link #DEFAULT_CAPACITY} lines, numbered in
+ * the order they were read, and waiters scan the buffer from a mark and sleep until new lines
+ * arrive, so any number of waits share one process.
+ *
+ * Lines logged before the stream started, such as the last line of the log that
+ * {@code logcat -T 1} prints first, are skipped, and a restarted stream continues the numbering of
+ * the one it replaces, so marks taken before a restart stay valid.
+ */
+final class LogcatStream {
+
+    /**
+     * Opens the stream of logcat output.
+     */
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    static final int DEFAULT_CAPACITY = 2048;
+    static final String TIMESTAMP_FORMAT = "MM-dd HH:mm:ss.SSS";
+
+    private static LogcatStream sShared;
+
+    private final LogcatLine[] mLines;
+    private final String mSince;
+    private long mNext;
+    private boolean mClosed;
+
+    /**
+     * @param since timestamp, in the format of {@link LogcatLine#getTimestamp()}, of the earliest
+     *              line to keep, or {@code null} to keep every line.
+     * @param first number of the first line read.
+     */
+    LogcatStream(final Source source, int capacity, String since, long first) {
+        mLines = new LogcatLine[capacity];
+        mSince = since;
+        mNext = first;
+        final InputStream[] in = new InputStream[1];
+        try {
+            in[0] = source.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(in[0]);
+            }
+        }, "DeviceAutomator-logcat");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return the shared stream, started on first use and restarted if logcat exited.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    static synchronized LogcatStream shared() {
+        if (sShared == null || sShared.isClosed()) {
+            String since = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.US).format(new Date());
+            sShared = new LogcatStream(new Source() {
+                @Override
+                public InputStream open() {
+                    // -T 1 starts at the end of the log instead of replaying it, except for its last line
+                    ParcelFileDescriptor output = getInstrumentation().getUiAutomation()
+                            .executeShellCommand("logcat -v threadtime -T 1");
+                    return new ParcelFileDescriptor.AutoCloseInputStream(output);
+                }
+            }, DEFAULT_CAPACITY, since, sShared == null ? 0 : sShared.mark());
+        }
+        return sShared;
+    }
+
+    private void read(InputStream in) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String text;
+            while ((text = reader.readLine()) != null) {
+                LogcatLine line = LogcatLineParser.parse(text);
+                if (line != null && (mSince == null || !isBefore(line.getTimestamp(), mSince))) {
+                    add(line);
+                }
+            }
+        } catch (IOException ignored) {
+            // the stream is closed below, waiters return and the next one restarts logcat
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+            close();
+        }
+    }
+
+    /**
+     * @return {@code true} if the first timestamp is earlier than the second. Logcat timestamps
+     *         have no year, a line from December is earlier than a stream started in January.
+     */
+    static boolean isBefore(String timestamp, String since) {
+        String month = timestamp.substring(0, 2);
+        String sinceMonth = since.substring(0, 2);
+        if (month.equals("12") && sinceMonth.equals("01")) {
+            return true;
+        } else if (month.equals("01") && sinceMonth.equals("12")) {
+            return false;
+        }
+        return timestamp.compareTo(since) < 0;
+    }
+
+    private synchronized void add(LogcatLine line) {
+        mLines[(int) (mNext % mLines.length)] = line;
+        mNext++;
+        notifyAll();
+    }
+
+    private synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return the number of the next line to be read, lines read after this call are at or after
+     *         the mark.
+     */
+    synchronized long mark() {
+        return mNext;
+    }
+
+    /**
+     * Waits for a line at or after the mark with the tag and a message containing a match of the
+     * pattern. Lines that were dropped from the buffer are skipped.
+     *
+     * @param tag tag of the line, or {@code null} for any tag.
+     * @param timeout length of time in milliseconds to wait before giving up.
+     * @return the first matching line, or {@code null} if none was read before the timeout or
+     *         logcat exited.
+     */
+    synchronized LogcatLine await(long mark, String tag, Pattern pattern, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout * 1000000;
+        long next = Math.max(mark, mNext - mLines.length);
+        while (true) {
+            for (next = Math.max(next, mNext - mLines.length); next < mNext; next++) {
+                LogcatLine line = mLines[(int) (next % mLines.length)];
+                if ((tag == null || tag.equals(line.getTag())) && pattern.matcher(line.getMessage()).find()) {
+                    return line;
+                }
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (mClosed || remaining <= 0) {
+                return null;
+            }
+            wait(remaining / 1000000 + 1);
+        }
+    }
+}
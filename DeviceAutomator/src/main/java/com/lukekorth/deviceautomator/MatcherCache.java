@@ -0,0 +1,97 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the node each {@link UiObjectMatcher} resolved to until the ui changes, so repeated
+ * lookups on a screen that has not changed are served from memory. Entries are keyed by the
+ * {@link NodeQuery} of the matcher and cleared by
+ * {@link #invalidate()}, which is called for accessibility events and after actions.
+ */
+final class MatcherCache {
+
+    /**
+     * Resolves a matcher when it is not in the cache.
+     */
+    interface Resolver {
+
+        /**
+         * @return the node the matcher resolves to, or {@code null} if there is none.
+         */
+        HierarchyNode resolve(UiObjectMatcher matcher);
+    }
+
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<NodeQuery, HierarchyNode> mEntries;
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    MatcherCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    MatcherCache(final int maxSize) {
+        mEntries = new LinkedHashMap<NodeQuery, HierarchyNode>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NodeQuery, HierarchyNode> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param matcher a matcher created by the static factory methods of {@link UiObjectMatcher}.
+     * @return the node the matcher resolves to, from the cache if nothing changed since it was last
+     *         resolved, or {@code null} if there is none.
+     */
+    HierarchyNode get(UiObjectMatcher matcher, Resolver resolver) {
+        NodeQuery key = matcher.getNodeQuery();
+        long generation;
+        synchronized (this) {
+            if (mEntries.containsKey(key)) {
+                mHits++;
+                return mEntries.get(key);
+            }
+            mMisses++;
+            generation = mGeneration;
+        }
+
+        HierarchyNode node = resolver.resolve(matcher);
+
+        synchronized (this) {
+            // don't cache a result that may have been resolved from the ui before it changed
+            if (generation == mGeneration) {
+                mEntries.put(key, node);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Clears every entry.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized void resetCounters() {
+        mHits = 0;
+        mMisses = 0;
+    }
+}
@@ -0,0 +1,264 @@
+package com.lukekorth.deviceautomator;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds {@link UiObjectMatcher}s that are expensive to resolve from how they were built, without
+ * a device. Costs are estimated per node searched relative to matching an exact resource id, using
+ * the same costs and selectivities as the searches of the library, so a cost of {@code 20} means
+ * the matcher is expected to take about 20 times as long to resolve as
+ * {@link UiObjectMatcher#withResourceId(String)}.
+ *
+ * Use {@link #check(UiObjectMatcher)} at runtime, or {@link #assertCheap(UiObjectMatcher...)} and
+ * {@link #checkFields(Class)} in unit tests to keep the matchers of a test suite cheap.
+ */
+public final class MatcherLint {
+
+    public enum Rule {
+        /** Text is matched with a regular expression, as {@link UiObjectMatcher#withText(String)} does. */
+        REGEX_TEXT,
+        /** The element is found by a large {@link UiObjectMatcher#instance(int)}. */
+        DEEP_INSTANCE,
+        /** {@link UiObjectMatcher#withTextContaining(String)} without any other constraint. */
+        UNCONSTRAINED_CONTAINS,
+        /** Many nested {@link UiObjectMatcher#childMatcher(UiObjectMatcher)}s. */
+        LONG_CHILD_CHAIN
+    }
+
+    /**
+     * An expensive part of a matcher.
+     */
+    public static class Finding {
+
+        private final Rule mRule;
+        private final String mSource;
+        private final int mDepth;
+        private final double mCost;
+        private final String mMessage;
+        private final String mSuggestion;
+
+        Finding(Rule rule, String source, int depth, double cost, String message, String suggestion) {
+            mRule = rule;
+            mSource = source;
+            mDepth = depth;
+            mCost = cost;
+            mMessage = message;
+            mSuggestion = suggestion;
+        }
+
+        public Rule getRule() {
+            return mRule;
+        }
+
+        /**
+         * @return the field the matcher was read from by {@link #checkFields(Class)}, ex:
+         *         {@code com.myapp.LoginPage#LOG_IN}, or {@code null}.
+         */
+        public String getSource() {
+            return mSource;
+        }
+
+        /**
+         * @return the number of {@link UiObjectMatcher#childMatcher(UiObjectMatcher)}s above the
+         *         part of the matcher the finding is about, {@code 0} for the outermost matcher.
+         */
+        public int getDepth() {
+            return mDepth;
+        }
+
+        /**
+         * @return the estimated cost of the part of the matcher relative to matching an exact
+         *         resource id.
+         */
+        public double getCost() {
+            return mCost;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        /**
+         * @return a cheaper way to match the element.
+         */
+        public String getSuggestion() {
+            return mSuggestion;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s%s (%.1fx a resource id): %s. %s",
+                    mSource == null ? "" : mSource + ": ", mRule, mCost, mMessage, mSuggestion);
+        }
+    }
+
+    /**
+     * Parts of a matcher costing less than this relative to a resource id are not reported.
+     */
+    static final double MIN_COST = 2;
+    static final int DEEP_INSTANCE = 3;
+    static final int MAX_CHILD_MATCHERS = 2;
+
+    private static final String RESOURCE_ID_SUGGESTION =
+            "Use withResourceId(id) for an exact lookup, or a text matcher that doesn't use a regular expression.";
+    private static final Pattern QUOTED_TEXT = Pattern.compile("\\(\\?i\\)\\\\Q(.*)\\\\E");
+
+    private MatcherLint() {}
+
+    /**
+     * @return the findings for the matcher, most expensive first, or an empty list if it is
+     *         cheap.
+     */
+    public static List<Finding> check(UiObjectMatcher matcher) {
+        return check(matcher, null);
+    }
+
+    /**
+     * Checks every static {@link UiObjectMatcher} field of the class, such as the matchers of a
+     * page object.
+     *
+     * @return the findings for every field, with {@link Finding#getSource()} set to the field.
+     */
+    public static List<Finding> checkFields(Class<?> klass) {
+        List<Finding> findings = new ArrayList<>();
+        for (Field field : klass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && UiObjectMatcher.class.isAssignableFrom(field.getType())) {
+                try {
+                    field.setAccessible(true);
+                    UiObjectMatcher matcher = (UiObjectMatcher) field.get(null);
+                    if (matcher != null) {
+                        findings.addAll(check(matcher, klass.getName() + "#" + field.getName()));
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * Fails with every finding if any of the matchers is expensive.
+     *
+     * @throws AssertionError listing the findings.
+     */
+    public static void assertCheap(UiObjectMatcher... matchers) {
+        List<Finding> findings = new ArrayList<>();
+        for (UiObjectMatcher matcher : matchers) {
+            findings.addAll(check(matcher));
+        }
+        if (!findings.isEmpty()) {
+            StringBuilder message = new StringBuilder("Expensive matchers:");
+            for (Finding finding : findings) {
+                message.append("\n  ").append(finding);
+            }
+            throw new AssertionError(message.toString());
+        }
+    }
+
+    /**
+     * @return the estimated cost of resolving the matcher relative to matching an exact resource
+     *         id, counting each nested matcher as a search of its own.
+     */
+    public static double estimateCost(UiObjectMatcher matcher) {
+        NodeQuery query = matcher.getNodeQuery();
+        if (query == null) {
+            return SlowQueryDetector.usesRegex(matcher) ? QueryPlan.PATTERN_COST : QueryPlan.EQUALS_COST;
+        }
+
+        double cost = 0;
+        for (; query != null; query = query.getChild()) {
+            cost += levelCost(query) * (query.getInstance() + 1);
+        }
+        return cost;
+    }
+
+    private static List<Finding> check(UiObjectMatcher matcher, String source) {
+        List<Finding> findings = new ArrayList<>();
+        NodeQuery query = matcher.getNodeQuery();
+        if (query == null) {
+            // built from a UiSelector, only the selector's string is available
+            if (SlowQueryDetector.usesRegex(matcher)) {
+                findings.add(new Finding(Rule.REGEX_TEXT, source, 0, QueryPlan.PATTERN_COST,
+                        "the selector matches with a regular expression", RESOURCE_ID_SUGGESTION));
+            }
+            return findings;
+        }
+
+        int depth = 0;
+        for (NodeQuery level = query; level != null; level = level.getChild()) {
+            checkLevel(level, source, depth, findings);
+            depth++;
+        }
+
+        if (depth - 1 > MAX_CHILD_MATCHERS) {
+            findings.add(new Finding(Rule.LONG_CHILD_CHAIN, source, 0, estimateCost(matcher),
+                    (depth - 1) + " nested child matchers each search the subtrees of every match above them",
+                    "Match the innermost element directly, ex: by its resource id, and only use " +
+                            "childMatcher to tell apart elements that are otherwise identical."));
+        }
+
+        sortByCost(findings);
+        return findings;
+    }
+
+    private static void checkLevel(NodeQuery query, String source, int depth, List<Finding> findings) {
+        double cost = levelCost(query);
+        if (query.getText() != null && query.getTextMatch() == NodeQuery.TextMatch.PATTERN && cost >= MIN_COST) {
+            Matcher quoted = QUOTED_TEXT.matcher(query.getText());
+            String suggestion = quoted.matches() ?
+                    "Use withResourceId(id) for an exact lookup, or withTextStartingWith(\"" + quoted.group(1) +
+                            "\"" + classArgument(query) + ") if no other text starts with it, which " +
+                            "compares without a regular expression." :
+                    RESOURCE_ID_SUGGESTION;
+            findings.add(new Finding(Rule.REGEX_TEXT, source, depth, cost,
+                    "text is matched with a regular expression on every node" +
+                            (query.getClassName() == null ? "" : " of the class"), suggestion));
+        }
+
+        if (query.getText() != null && query.getTextMatch() == NodeQuery.TextMatch.CONTAINS &&
+                query.getClassName() == null && query.getResourceId() == null &&
+                query.getContentDescription() == null && cost >= MIN_COST) {
+            findings.add(new Finding(Rule.UNCONSTRAINED_CONTAINS, source, depth, cost,
+                    "the text of every node is searched for \"" + query.getText() + "\"",
+                    "Add the class, ex: withTextContaining(\"" + query.getText() + "\", TextView.class), " +
+                            "or use withResourceId(id)."));
+        }
+
+        if (query.getInstance() >= DEEP_INSTANCE) {
+            findings.add(new Finding(Rule.DEEP_INSTANCE, source, depth, cost * (query.getInstance() + 1),
+                    "instance(" + query.getInstance() + ") keeps searching until " + (query.getInstance() + 1) +
+                            " elements matched and breaks when elements are added before it",
+                    "Match a property unique to the element, such as its resource id, text or content " +
+                            "description, instead of its position."));
+        }
+    }
+
+    private static double levelCost(NodeQuery query) {
+        return Math.max(QueryPlan.compile(query).estimateCost(), QueryPlan.EQUALS_COST);
+    }
+
+    private static String classArgument(NodeQuery query) {
+        if (query.getClassName() == null) {
+            return "";
+        }
+        return ", " + query.getClassName().substring(query.getClassName().lastIndexOf('.') + 1) + ".class";
+    }
+
+    private static void sortByCost(List<Finding> findings) {
+        Collections.sort(findings, new Comparator<Finding>() {
+            @Override
+            public int compare(Finding first, Finding second) {
+                return Double.compare(second.mCost, first.mCost);
+            }
+        });
+    }
+}
@@ -0,0 +1,273 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The constraints of a {@link UiObjectMatcher} in a form that can be evaluated against
+ * {@link HierarchyNode}s without a device. Queries follow the matching rules of
+ * {@link androidx.test.uiautomator.UiSelector}.
+ *
+ * Queries are immutable, methods that add a constraint return a new query.
+ */
+public class NodeQuery {
+
+    /**
+     * How the text constraint of a query is compared with the text of a node.
+     */
+    public enum TextMatch {
+        /** The node's text must match a regular expression. */
+        PATTERN,
+        /** The node's text must contain the text, case-sensitive. */
+        CONTAINS,
+        /** The node's text must start with the text, case-insensitive. */
+        STARTS_WITH
+    }
+
+    private String mClassName;
+    private String mResourceId;
+    private String mContentDescription;
+    private String mText;
+    private TextMatch mTextMatch;
+    private Pattern mTextPattern;
+    private NodeQuery mChild;
+    private int mInstance;
+    private QueryPlan mPlan;
+    private int mHashCode;
+
+    NodeQuery() {}
+
+    private NodeQuery copy() {
+        NodeQuery copy = new NodeQuery();
+        copy.mClassName = mClassName;
+        copy.mResourceId = mResourceId;
+        copy.mContentDescription = mContentDescription;
+        copy.mText = mText;
+        copy.mTextMatch = mTextMatch;
+        copy.mTextPattern = mTextPattern;
+        copy.mChild = mChild;
+        copy.mInstance = mInstance;
+        return copy;
+    }
+
+    NodeQuery withClassName(String className) {
+        NodeQuery copy = copy();
+        copy.mClassName = className;
+        return copy;
+    }
+
+    NodeQuery withResourceId(String resourceId) {
+        NodeQuery copy = copy();
+        copy.mResourceId = resourceId;
+        return copy;
+    }
+
+    NodeQuery withContentDescription(String contentDescription) {
+        NodeQuery copy = copy();
+        copy.mContentDescription = contentDescription;
+        return copy;
+    }
+
+    NodeQuery withText(String text, TextMatch textMatch) {
+        NodeQuery copy = copy();
+        copy.mText = text;
+        copy.mTextMatch = textMatch;
+        copy.mTextPattern = textMatch == TextMatch.PATTERN ? Pattern.compile(text) : null;
+        return copy;
+    }
+
+    NodeQuery withChild(NodeQuery child) {
+        NodeQuery copy = copy();
+        copy.mChild = child;
+        return copy;
+    }
+
+    NodeQuery withInstance(int instance) {
+        NodeQuery copy = copy();
+        copy.mInstance = instance;
+        return copy;
+    }
+
+    public String getClassName() {
+        return mClassName;
+    }
+
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    public String getContentDescription() {
+        return mContentDescription;
+    }
+
+    /**
+     * @return the text constraint, a regular expression if {@link #getTextMatch()} is
+     *         {@link TextMatch#PATTERN}.
+     */
+    public String getText() {
+        return mText;
+    }
+
+    public TextMatch getTextMatch() {
+        return mTextMatch;
+    }
+
+    /**
+     * @return the query a descendant of a node matching this query must match, or {@code null}.
+     */
+    public NodeQuery getChild() {
+        return mChild;
+    }
+
+    public int getInstance() {
+        return mInstance;
+    }
+
+    /**
+     * Checks the constraints of this query against a single node, ignoring {@link #getChild()}
+     * and {@link #getInstance()}.
+     *
+     * @return {@code true} if the node satisfies this query's own constraints.
+     */
+    public boolean matches(HierarchyNode node) {
+        return plan().matches(node);
+    }
+
+    boolean matchesText(String text) {
+        if (text == null) {
+            return false;
+        }
+
+        switch (mTextMatch) {
+            case PATTERN:
+                return mTextPattern.matcher(text).matches();
+            case CONTAINS:
+                return text.contains(mText);
+            case STARTS_WITH:
+                return text.regionMatches(true, 0, mText, 0, mText.length());
+            default:
+                throw new IllegalStateException("Unknown text match " + mTextMatch);
+        }
+    }
+
+    /**
+     * @param root the root of the hierarchy to search.
+     * @return the node in the hierarchy this query resolves to, or {@code null} if there is none.
+     */
+    public HierarchyNode find(HierarchyNode root) {
+        return plan().find(root);
+    }
+
+    /**
+     * @param index index of the hierarchy to search.
+     * @return the node in the hierarchy this query resolves to, or {@code null} if there is none.
+     */
+    public HierarchyNode find(HierarchyIndex index) {
+        return QueryPlan.compile(this, index).find(index);
+    }
+
+    /**
+     * @param root the root of the hierarchy to search.
+     * @return every node in the hierarchy matching this query, ignoring {@link #getInstance()}, in
+     *         document order.
+     */
+    public List<HierarchyNode> findAll(HierarchyNode root) {
+        List<HierarchyNode> matches = new ArrayList<>();
+        plan().collect(root, matches, Integer.MAX_VALUE);
+        return matches;
+    }
+
+    /**
+     * @param index index of the hierarchy to search.
+     * @return every node in the hierarchy matching this query, ignoring {@link #getInstance()}, in
+     *         document order.
+     */
+    public List<HierarchyNode> findAll(HierarchyIndex index) {
+        return QueryPlan.compile(this, index).collect(index, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Queries are immutable, so the plan for searching without an index is compiled once.
+     */
+    private QueryPlan plan() {
+        if (mPlan == null) {
+            mPlan = QueryPlan.compile(this);
+        }
+        return mPlan;
+    }
+
+    /**
+     * Queries with the same constraints are equal, so they can be used as keys for what is
+     * remembered about a query.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NodeQuery)) {
+            return false;
+        }
+
+        NodeQuery other = (NodeQuery) o;
+        return mInstance == other.mInstance &&
+                equal(mClassName, other.mClassName) &&
+                equal(mResourceId, other.mResourceId) &&
+                equal(mContentDescription, other.mContentDescription) &&
+                equal(mText, other.mText) &&
+                mTextMatch == other.mTextMatch &&
+                equal(mChild, other.mChild);
+    }
+
+    @Override
+    public int hashCode() {
+        if (mHashCode == 0) {
+            int hash = mInstance;
+            hash = 31 * hash + hashCode(mClassName);
+            hash = 31 * hash + hashCode(mResourceId);
+            hash = 31 * hash + hashCode(mContentDescription);
+            hash = 31 * hash + hashCode(mText);
+            hash = 31 * hash + hashCode(mTextMatch);
+            hash = 31 * hash + hashCode(mChild);
+            mHashCode = hash == 0 ? 1 : hash;
+        }
+        return mHashCode;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hashCode(Object value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("NodeQuery[");
+        if (mClassName != null) {
+            builder.append("class=").append(mClassName).append(", ");
+        }
+        if (mResourceId != null) {
+            builder.append("resource-id=").append(mResourceId).append(", ");
+        }
+        if (mContentDescription != null) {
+            builder.append("content-desc=").append(mContentDescription).append(", ");
+        }
+        if (mText != null) {
+            builder.append("text-").append(mTextMatch.name().toLowerCase(Locale.US)).append('=').append(mText).append(", ");
+        }
+        if (mChild != null) {
+            builder.append("child=").append(mChild).append(", ");
+        }
+        if (mInstance != 0) {
+            builder.append("instance=").append(mInstance).append(", ");
+        }
+        if (builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 2);
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,209 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates {@link QueryPlan}s over large indexed hierarchies on several threads. The hierarchy
+ * is split into subtrees of at most {@link #getGrain(HierarchyIndex)} nodes, each subtree is
+ * searched on its own thread and the matches are joined in document order, so the result is the
+ * same as a search on a single thread.
+ *
+ * Subtrees are split the way the sequential search walks them: the nodes above a subtree are
+ * matched while splitting, and a node matching a query with a child query splits its children
+ * with the child query.
+ */
+final class ParallelEvaluator {
+
+    private static final int MIN_GRAIN = 256;
+    private static final int UNITS_PER_THREAD = 4;
+
+    private static volatile ParallelEvaluator sInstance;
+
+    private final int mThreshold;
+    private final int mParallelism;
+    private final ExecutorService mExecutor;
+
+    ParallelEvaluator(int threshold, int parallelism) {
+        mThreshold = threshold;
+        mParallelism = parallelism;
+        mExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DeviceAutomator-query-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Enables parallel evaluation for hierarchies of at least the given number of nodes, using a
+     * thread per processor. Searches already using the previous evaluator finish on its threads.
+     *
+     * @param threshold minimum number of nodes, {@code 0} to disable parallel evaluation.
+     */
+    static synchronized void setThreshold(int threshold) {
+        ParallelEvaluator previous = sInstance;
+        sInstance = threshold > 0 ?
+                new ParallelEvaluator(threshold, Runtime.getRuntime().availableProcessors()) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return the shared evaluator, or {@code null} if parallel evaluation is disabled.
+     */
+    static ParallelEvaluator get() {
+        return sInstance;
+    }
+
+    /**
+     * @return {@code true} if the hierarchy is large enough to be searched in parallel.
+     */
+    boolean accepts(HierarchyIndex index) {
+        return mParallelism > 1 && index.size() >= mThreshold;
+    }
+
+    /**
+     * @return the largest subtree searched by a single task.
+     */
+    int getGrain(HierarchyIndex index) {
+        return Math.max(index.size() / (mParallelism * UNITS_PER_THREAD), MIN_GRAIN);
+    }
+
+    /**
+     * Collects up to {@code limit} matches of the plan in document order.
+     */
+    List<HierarchyNode> collect(QueryPlan plan, HierarchyIndex index, int limit) {
+        List<Object> units = new ArrayList<>();
+        split(plan, index, 0, getGrain(index), units);
+
+        List<Future<List<HierarchyNode>>> futures = new ArrayList<>(units.size());
+        for (Object unit : units) {
+            futures.add(unit instanceof Range ? submit(new Search((Range) unit, index, limit)) : null);
+        }
+
+        List<HierarchyNode> matches = new ArrayList<>();
+        try {
+            for (int i = 0; i < units.size() && matches.size() < limit; i++) {
+                if (futures.get(i) == null) {
+                    matches.add((HierarchyNode) units.get(i));
+                } else {
+                    List<HierarchyNode> found = futures.get(i).get();
+                    matches.addAll(found.subList(0, Math.min(found.size(), limit - matches.size())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<List<HierarchyNode>> future : futures) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Splits the subtree at the position into {@link Range}s to search and the nodes above them
+     * that match, in document order.
+     */
+    private static void split(QueryPlan plan, HierarchyIndex index, int position, int grain, List<Object> units) {
+        int end = index.getSubtreeEnd(position);
+        if (end - position <= grain) {
+            Object last = units.isEmpty() ? null : units.get(units.size() - 1);
+            // join small siblings into one range, the range of a sibling starts where the last one ends
+            if (last instanceof Range && ((Range) last).mPlan == plan && ((Range) last).mTo == position &&
+                    end - ((Range) last).mFrom <= grain) {
+                ((Range) last).mTo = end;
+            } else {
+                units.add(new Range(plan, position, end));
+            }
+            return;
+        }
+
+        QueryPlan childPlan = plan;
+        if (plan.matches(index.getNode(position))) {
+            if (plan.getChild() == null) {
+                units.add(index.getNode(position));
+            } else {
+                childPlan = plan.getChild();
+            }
+        }
+
+        for (int child = position + 1; child < end; child = index.getSubtreeEnd(child)) {
+            split(childPlan, index, child, grain, units);
+        }
+    }
+
+    /**
+     * Searches after the evaluator was shut down run on the calling thread, so a search that got
+     * the evaluator just before {@link #setThreshold(int)} replaced it still completes.
+     */
+    private Future<List<HierarchyNode>> submit(Search search) {
+        try {
+            return mExecutor.submit(search);
+        } catch (RejectedExecutionException e) {
+            FutureTask<List<HierarchyNode>> task = new FutureTask<>(search);
+            task.run();
+            return task;
+        }
+    }
+
+    /**
+     * Stops the threads once the searches that were already submitted are done.
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private static class Range {
+
+        final QueryPlan mPlan;
+        final int mFrom;
+        int mTo;
+
+        Range(QueryPlan plan, int from, int to) {
+            mPlan = plan;
+            mFrom = from;
+            mTo = to;
+        }
+    }
+
+    private static class Search implements Callable<List<HierarchyNode>> {
+
+        private final Range mRange;
+        private final HierarchyIndex mIndex;
+        private final int mLimit;
+
+        Search(Range range, HierarchyIndex index, int limit) {
+            mRange = range;
+            mIndex = index;
+            mLimit = limit;
+        }
+
+        @Override
+        public List<HierarchyNode> call() {
+            List<HierarchyNode> matches = new ArrayList<>();
+            mRange.mPlan.collect(mIndex, mRange.mFrom, mRange.mTo, matches, mLimit);
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link NodeQuery} compiled into predicates ordered so that the cheapest and most selective
+ * ones run first: a regular expression text match only runs on the nodes that passed the class
+ * name and resource id checks. When compiled against a {@link HierarchyIndex} the selectivity of
+ * each constraint is taken from the index, and the most selective indexed constraint is used to
+ * look up candidates instead of visiting every node.
+ */
+final class QueryPlan {
+
+    /**
+     * Selectivity used for constraints whose selectivity is not known, the fraction of nodes
+     * expected to pass.
+     */
+    static final double CLASS_NAME_SELECTIVITY = 0.25;
+    static final double VALUE_SELECTIVITY = 0.02;
+
+    /**
+     * Relative cost of checking a constraint against a node.
+     */
+    static final double EQUALS_COST = 1;
+    static final double TEXT_COST = 3;
+    static final double PATTERN_COST = 20;
+
+    private static final Comparator<Predicate> BY_RANK = new Comparator<Predicate>() {
+        @Override
+        public int compare(Predicate a, Predicate b) {
+            return Double.compare(a.rank(), b.rank());
+        }
+    };
+
+    private final Predicate[] mPredicates;
+    private final Predicate mAccess;
+    private final int[] mCandidates;
+    private final QueryPlan mChild;
+    private final int mInstance;
+
+    private QueryPlan(Predicate[] predicates, Predicate access, QueryPlan child, int instance) {
+        mPredicates = predicates;
+        mAccess = access == null || !access.mExact ? null : access;
+        mCandidates = access == null ? null : access.mPositions;
+        mChild = child;
+        mInstance = instance;
+    }
+
+    /**
+     * Compiles a plan for searching hierarchies without an index, using estimated selectivities.
+     */
+    static QueryPlan compile(NodeQuery query) {
+        return compile(query, null);
+    }
+
+    /**
+     * Compiles a plan for searching the given index, using the selectivities from the index.
+     */
+    static QueryPlan compile(final NodeQuery query, HierarchyIndex index) {
+        List<Predicate> predicates = new ArrayList<>(4);
+        Predicate access = null;
+        if (query.getClassName() != null) {
+            int[] positions = index == null ? null : index.withClassName(query.getClassName());
+            predicates.add(new Predicate(EQUALS_COST, selectivity(positions, index, CLASS_NAME_SELECTIVITY), positions, true) {
+                @Override
+                boolean matches(HierarchyNode node) {
+                    return query.getClassName().equals(node.getClassName());
+                }
+            });
+        }
+        if (query.getResourceId() != null) {
+            int[] positions = index == null ? null : index.withResourceId(query.getResourceId());
+            predicates.add(new Predicate(EQUALS_COST, selectivity(positions, index, VALUE_SELECTIVITY), positions, true) {
+                @Override
+                boolean matches(HierarchyNode node) {
+                    return query.getResourceId().equals(node.getResourceId());
+                }
+            });
+        }
+        if (query.getContentDescription() != null) {
+            int[] positions = index == null ? null : index.withContentDescription(query.getContentDescription());
+            predicates.add(new Predicate(EQUALS_COST, selectivity(positions, index, VALUE_SELECTIVITY), positions, true) {
+                @Override
+                boolean matches(HierarchyNode node) {
+                    return query.getContentDescription().equals(node.getContentDescription());
+                }
+            });
+        }
+        if (query.getText() != null) {
+            // trigram candidates may not contain the text, the predicate is still checked
+            int[] positions = index == null || query.getTextMatch() != NodeQuery.TextMatch.CONTAINS ?
+                    null : index.withTextCandidates(query.getText());
+            predicates.add(new Predicate(query.getTextMatch() == NodeQuery.TextMatch.PATTERN ? PATTERN_COST : TEXT_COST,
+                    selectivity(positions, index, VALUE_SELECTIVITY), positions, false) {
+                @Override
+                boolean matches(HierarchyNode node) {
+                    return query.matchesText(node.getText());
+                }
+            });
+        }
+
+        for (Predicate predicate : predicates) {
+            if (predicate.mPositions != null &&
+                    (access == null || predicate.mPositions.length < access.mPositions.length)) {
+                access = predicate;
+            }
+        }
+        if (access != null && access.mExact) {
+            // candidates from the index already satisfy the access predicate
+            predicates.remove(access);
+        }
+
+        Predicate[] ordered = predicates.toArray(new Predicate[predicates.size()]);
+        Arrays.sort(ordered, BY_RANK);
+        QueryPlan child = query.getChild() == null ? null : compile(query.getChild(), index);
+        return new QueryPlan(ordered, access, child, query.getInstance());
+    }
+
+    /**
+     * @return the expected cost of checking the query's own constraints against a node, in units
+     *         of {@link #EQUALS_COST}, with each constraint only checked on the nodes that passed
+     *         the ones before it.
+     */
+    double estimateCost() {
+        double cost = 0;
+        double reaching = 1;
+        if (mAccess != null) {
+            cost += mAccess.mCost;
+            reaching *= mAccess.mSelectivity;
+        }
+        for (Predicate predicate : mPredicates) {
+            cost += predicate.mCost * reaching;
+            reaching *= predicate.mSelectivity;
+        }
+        return cost;
+    }
+
+    private static double selectivity(int[] positions, HierarchyIndex index, double estimate) {
+        return positions == null ? estimate : positions.length / (double) Math.max(index.size(), 1);
+    }
+
+    /**
+     * @return {@code true} if the node satisfies the query's own constraints.
+     */
+    boolean matches(HierarchyNode node) {
+        return (mAccess == null || mAccess.matches(node)) && matchesRemaining(node);
+    }
+
+    /**
+     * @return {@code true} if the node satisfies the query's own constraints, other than the one
+     *         used to look up candidates in the index.
+     */
+    private boolean matchesRemaining(HierarchyNode node) {
+        for (Predicate predicate : mPredicates) {
+            if (!predicate.matches(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the node the query resolves to in the hierarchy, or {@code null}.
+     */
+    HierarchyNode find(HierarchyNode root) {
+        List<HierarchyNode> matches = new ArrayList<>();
+        collect(root, matches, mInstance + 1);
+        return matches.size() > mInstance ? matches.get(mInstance) : null;
+    }
+
+    /**
+     * @return the node the query resolves to in the indexed hierarchy, or {@code null}.
+     */
+    HierarchyNode find(HierarchyIndex index) {
+        List<HierarchyNode> matches = collect(index, mInstance + 1);
+        return matches.size() > mInstance ? matches.get(mInstance) : null;
+    }
+
+    /**
+     * Collects up to {@code limit} matches in the indexed hierarchy, in document order. Large
+     * hierarchies are searched in parallel when enabled with
+     * {@link DeviceAutomator#setParallelEvaluationThreshold(int)}.
+     */
+    List<HierarchyNode> collect(HierarchyIndex index, int limit) {
+        ParallelEvaluator parallel = ParallelEvaluator.get();
+        if (parallel != null && parallel.accepts(index)) {
+            return parallel.collect(this, index, limit);
+        }
+
+        List<HierarchyNode> matches = new ArrayList<>();
+        collect(index, 0, index.size(), matches, limit);
+        return matches;
+    }
+
+    /**
+     * @return the plan for the child query, or {@code null}.
+     */
+    QueryPlan getChild() {
+        return mChild;
+    }
+
+    /**
+     * Collects matches in document order. When a child query is present the matches are the
+     * descendants of matching nodes that match the child query.
+     */
+    void collect(HierarchyNode node, List<HierarchyNode> matches, int limit) {
+        if (matches.size() >= limit) {
+            return;
+        }
+
+        if (matches(node)) {
+            if (mChild == null) {
+                matches.add(node);
+            } else {
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    mChild.collect(node.getChild(i), matches, limit);
+                }
+                return;
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChild(i), matches, limit);
+        }
+    }
+
+    /**
+     * Collects matches between the positions {@code from} and {@code to} of the index, in
+     * document order.
+     */
+    void collect(HierarchyIndex index, int from, int to, List<HierarchyNode> matches, int limit) {
+        if (mCandidates == null) {
+            for (int position = from; position < to && matches.size() < limit; position++) {
+                position = visit(index, position, matches, limit);
+            }
+        } else {
+            int start = Arrays.binarySearch(mCandidates, from);
+            for (int i = start < 0 ? -start - 1 : start; i < mCandidates.length &&
+                    mCandidates[i] < to && matches.size() < limit; i++) {
+                int next = visit(index, mCandidates[i], matches, limit);
+                // skip candidates inside a subtree that was already searched for the child query
+                while (i + 1 < mCandidates.length && mCandidates[i + 1] <= next) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the last position covered by visiting the node at the position.
+     */
+    private int visit(HierarchyIndex index, int position, List<HierarchyNode> matches, int limit) {
+        HierarchyNode node = index.getNode(position);
+        if (mCandidates == null ? !matches(node) : !matchesRemaining(node)) {
+            return position;
+        }
+
+        if (mChild == null) {
+            matches.add(node);
+            return position;
+        }
+
+        int end = index.getSubtreeEnd(position);
+        mChild.collect(index, position + 1, end, matches, limit);
+        return end - 1;
+    }
+
+    private abstract static class Predicate {
+
+        final double mCost;
+        final double mSelectivity;
+        final int[] mPositions;
+        final boolean mExact;
+
+        /**
+         * @param positions positions of the nodes that may match in the index, or {@code null}.
+         * @param exact {@code true} if every node at the positions matches.
+         */
+        Predicate(double cost, double selectivity, int[] positions, boolean exact) {
+            mCost = cost;
+            mSelectivity = selectivity;
+            mPositions = positions;
+            mExact = exact;
+        }
+
+        /**
+         * Filters are best run in increasing order of cost divided by the fraction of nodes they
+         * reject.
+         */
+        double rank() {
+            return mCost / Math.max(1 - mSelectivity, 0.001);
+        }
+
+        abstract boolean matches(HierarchyNode node);
+    }
+}
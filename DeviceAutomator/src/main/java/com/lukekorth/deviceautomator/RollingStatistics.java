@@ -0,0 +1,108 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Locale;
+
+/**
+ * Statistics of a series of values, such as the duration of a step in each iteration of a
+ * {@link SoakRunner}, updated as each value is added in constant memory. The mean, variance and
+ * least squares trend line are computed with Welford's method, which stays accurate over millions
+ * of values, and percentiles are read from a {@link LatencyHistogram}, within about 3%.
+ */
+public class RollingStatistics {
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private long mCount;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+    private double mMean;
+    private double mM2;
+    private double mMeanX;
+    private double mM2X;
+    private double mCoMoment;
+
+    /**
+     * Adds a value to the series.
+     *
+     * @param x the position of the value in the series, such as the iteration it was measured in,
+     *          used for the trend.
+     * @param value the value, negative values are recorded as {@code 0} for percentiles.
+     */
+    public synchronized void add(long x, long value) {
+        mCount++;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        mHistogram.record(value);
+
+        double deltaX = x - mMeanX;
+        double delta = value - mMean;
+        mMeanX += deltaX / mCount;
+        mMean += delta / mCount;
+        mM2X += deltaX * (x - mMeanX);
+        mM2 += delta * (value - mMean);
+        mCoMoment += deltaX * (value - mMean);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the smallest value, or {@code 0} if there are none.
+     */
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    /**
+     * @return the largest value, or {@code 0} if there are none.
+     */
+    public synchronized long getMax() {
+        return mCount == 0 ? 0 : mMax;
+    }
+
+    public synchronized double getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return the sample standard deviation, or {@code 0} with fewer than two values.
+     */
+    public synchronized double getStandardDeviation() {
+        return mCount < 2 ? 0 : Math.sqrt(mM2 / (mCount - 1));
+    }
+
+    /**
+     * @param percentile the percentile, from {@code 0} to {@code 100}, ex: {@code 99}.
+     * @return the value that at least the given percent of values are at or below, see
+     *         {@link LatencyHistogram.Snapshot#getPercentile(double)}.
+     */
+    public long getPercentile(double percentile) {
+        return mHistogram.snapshot().getPercentile(percentile);
+    }
+
+    /**
+     * @return the slope of the least squares line through the values, in change of the value per
+     *         unit of x, ex: nanoseconds per iteration, or {@code 0} if every value has the same x.
+     */
+    public synchronized double getSlope() {
+        return mM2X == 0 ? 0 : mCoMoment / mM2X;
+    }
+
+    /**
+     * @return how well the trend line fits the values, from {@code 0}, no linear trend, to
+     *         {@code 1}, every value on the line.
+     */
+    public synchronized double getRSquared() {
+        if (mM2X == 0 || mM2 == 0) {
+            return 0;
+        }
+        return mCoMoment * mCoMoment / (mM2X * mM2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "count=%d mean=%.1f sd=%.1f p50=%d p99=%d max=%d slope=%.2f r2=%.2f",
+                getCount(), getMean(), getStandardDeviation(), getPercentile(50), getPercentile(99), getMax(),
+                getSlope(), getRSquared());
+    }
+}
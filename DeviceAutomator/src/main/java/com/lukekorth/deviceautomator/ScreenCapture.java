@@ -0,0 +1,74 @@
+package com.lukekorth.deviceautomator;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Captures the screen into a reused pixel buffer and compares regions of it with a shared
+ * {@link ImageComparator}.
+ */
+final class ScreenCapture {
+
+    private static final ImageComparator sComparator = new ImageComparator();
+    private static int[] sPixels = new int[0];
+
+    private ScreenCapture() {}
+
+    /**
+     * @param bounds region of the screen to compare.
+     * @return the difference between the region of the screen and the given image as defined by
+     *         {@link ImageComparator#difference(int[], int, int, int[], int, int)}.
+     */
+    static synchronized double difference(Rect bounds, int[] image, int imageWidth, int imageHeight) {
+        Rect region = capture(bounds);
+        return sComparator.difference(sPixels, region.width(), region.height(), image, imageWidth,
+                imageHeight);
+    }
+
+    /**
+     * @param bounds region of the screen to hash, or {@code null} for the entire screen.
+     * @return the perceptual hash of the region as defined by
+     *         {@link ImageComparator#perceptualHash(int[], int, int)}.
+     */
+    static synchronized long perceptualHash(Rect bounds) {
+        Rect region = capture(bounds);
+        return sComparator.perceptualHash(sPixels, region.width(), region.height());
+    }
+
+    /**
+     * @param bounds region of the screen to hash, or {@code null} for the entire screen.
+     * @return a hash of the region as defined by
+     *         {@link ImageComparator#sampleHash(int[], int, int, int, int)}.
+     */
+    static synchronized long sampleHash(Rect bounds) {
+        Rect region = capture(bounds);
+        return sComparator.sampleHash(sPixels, 0, region.width(), region.width(), region.height());
+    }
+
+    private static Rect capture(Rect bounds) {
+        Bitmap screenshot = getInstrumentation().getUiAutomation().takeScreenshot();
+        if (screenshot == null) {
+            throw new IllegalStateException("Unable to take a screenshot");
+        }
+
+        try {
+            Rect region = new Rect(0, 0, screenshot.getWidth(), screenshot.getHeight());
+            if (bounds != null && !region.intersect(bounds)) {
+                throw new IllegalStateException("Region " + bounds + " is not on the screen");
+            }
+
+            int size = region.width() * region.height();
+            if (sPixels.length < size) {
+                sPixels = new int[size];
+            }
+            screenshot.getPixels(sPixels, 0, region.width(), region.left, region.top, region.width(),
+                    region.height());
+
+            return region;
+        } finally {
+            screenshot.recycle();
+        }
+    }
+}
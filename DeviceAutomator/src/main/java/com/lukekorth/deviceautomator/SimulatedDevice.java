@@ -0,0 +1,328 @@
+package com.lukekorth.deviceautomator;
+
+import android.view.KeyEvent;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A device that runs entirely on the JVM. Screens are loaded from window hierarchy dumps and
+ * scripted transitions move between them when elements are clicked, text is entered or keys are
+ * pressed, so flows written with {@link DeviceAutomator} can be run without an emulator.
+ *
+ * Use {@link DeviceAutomator#setSimulatedDevice(SimulatedDevice)} to run existing flows against a
+ * simulated device, or {@link DeviceAutomator#onDevice(SimulatedDevice, UiObjectMatcher)}. Matchers
+ * must be created by the static factory methods of {@link UiObjectMatcher}. Screenshots, shell
+ * commands, swipes and scrolling are not supported.
+ *
+ * When no transition is scripted for the back key the previous screen is restored, and when no
+ * transition is scripted for the home key the launcher screen is shown.
+ */
+public class SimulatedDevice {
+
+    private static final int CLICK = 0;
+    private static final int TEXT = 1;
+    private static final int KEY = 2;
+
+    private final Map<String, HierarchyNode> mScreens = new HashMap<>();
+    private final Map<String, List<Transition>> mTransitions = new HashMap<>();
+    private final Map<String, String> mLaunchScreens = new HashMap<>();
+    private final Deque<Screen> mBackStack = new ArrayDeque<>();
+    private String mLauncherScreen;
+    private Screen mCurrent;
+
+    /**
+     * Adds a screen that transitions can move to.
+     *
+     * @param name name of the screen used in transitions.
+     * @param hierarchy the hierarchy of the screen, as returned by {@link HierarchyParser}. A copy
+     *        is made each time the screen is shown, so changes made by entering text do not carry
+     *        over to later visits.
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice addScreen(String name, HierarchyNode hierarchy) {
+        mScreens.put(name, hierarchy);
+        return this;
+    }
+
+    /**
+     * Adds a screen from a window hierarchy dump.
+     *
+     * @param name name of the screen used in transitions.
+     * @param dump stream containing the xml written by
+     *        {@link androidx.test.uiautomator.UiDevice#dumpWindowHierarchy(java.io.OutputStream)}.
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice addScreen(String name, InputStream dump) {
+        return addScreen(name, HierarchyParser.parse(dump));
+    }
+
+    /**
+     * Sets the screen shown when the home key is pressed.
+     *
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice setLauncherScreen(String screen) {
+        mLauncherScreen = checkScreen(screen);
+        return this;
+    }
+
+    /**
+     * Sets the screen shown when the app with the given package name is launched.
+     *
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice onLaunch(String packageName, String screen) {
+        mLaunchScreens.put(packageName, checkScreen(screen));
+        return this;
+    }
+
+    /**
+     * Moves to the target screen when an element matching the matcher is clicked on the given
+     * screen.
+     *
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice onClick(String screen, UiObjectMatcher matcher, String targetScreen) {
+        return addTransition(screen, new Transition(CLICK, query(matcher), 0, targetScreen));
+    }
+
+    /**
+     * Moves to the target screen when text is entered into an element matching the matcher on the
+     * given screen.
+     *
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice onTextEntered(String screen, UiObjectMatcher matcher, String targetScreen) {
+        return addTransition(screen, new Transition(TEXT, query(matcher), 0, targetScreen));
+    }
+
+    /**
+     * Moves to the target screen when the key is pressed on the given screen.
+     *
+     * @param keyCode key code of the key, ex: {@link KeyEvent#KEYCODE_ENTER}.
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice onKey(String screen, int keyCode, String targetScreen) {
+        return addTransition(screen, new Transition(KEY, null, keyCode, targetScreen));
+    }
+
+    /**
+     * Shows the given screen and clears the back stack.
+     *
+     * @return {@link SimulatedDevice} for method chaining.
+     */
+    public SimulatedDevice start(String screen) {
+        mBackStack.clear();
+        mCurrent = new Screen(screen, mScreens.get(checkScreen(screen)).copy());
+        return this;
+    }
+
+    /**
+     * @return the name of the screen currently shown.
+     */
+    public String getCurrentScreen() {
+        return current().mName;
+    }
+
+    /**
+     * @return the hierarchy of the screen currently shown.
+     */
+    public HierarchyNode getHierarchy() {
+        return current().mHierarchy;
+    }
+
+    /**
+     * @return the package name of the first window of the current screen.
+     */
+    public String getCurrentPackageName() {
+        return getPackageName(getHierarchy());
+    }
+
+    /**
+     * @return the package name of the first window of the hierarchy.
+     */
+    static String getPackageName(HierarchyNode root) {
+        for (int i = 0; i < root.getChildCount(); i++) {
+            if (root.getChild(i).getPackageName() != null) {
+                return root.getChild(i).getPackageName();
+            }
+        }
+        return root.getPackageName();
+    }
+
+    /**
+     * @return the node the matcher resolves to on the current screen, or {@code null}.
+     */
+    public HierarchyNode find(UiObjectMatcher matcher) {
+        return query(matcher).find(getHierarchy());
+    }
+
+    /**
+     * Clicks the node, focusing it and toggling it if it is checkable.
+     */
+    public void click(HierarchyNode node) {
+        focus(node);
+        if (node.hasFlag(HierarchyNode.CHECKABLE)) {
+            node.setFlag(HierarchyNode.CHECKED, !node.hasFlag(HierarchyNode.CHECKED));
+        }
+        transition(CLICK, node, 0);
+    }
+
+    /**
+     * Replaces the text of the node.
+     */
+    public void setText(HierarchyNode node, String text) {
+        focus(node);
+        node.setText(text);
+        transition(TEXT, node, 0);
+    }
+
+    /**
+     * Appends text to the focused node, if there is one.
+     */
+    public void typeText(String text) {
+        HierarchyNode focused = findFocused(getHierarchy());
+        if (focused != null) {
+            setText(focused, focused.getText() == null ? text : focused.getText() + text);
+        }
+    }
+
+    /**
+     * Presses a key, following a scripted transition if there is one.
+     *
+     * @param keyCode key code of the key, ex: {@link KeyEvent#KEYCODE_BACK}.
+     */
+    public void pressKeyCode(int keyCode) {
+        if (transition(KEY, null, keyCode)) {
+            return;
+        }
+
+        if (keyCode == KeyEvent.KEYCODE_BACK && !mBackStack.isEmpty()) {
+            mCurrent = mBackStack.pop();
+        } else if (keyCode == KeyEvent.KEYCODE_HOME && mLauncherScreen != null) {
+            start(mLauncherScreen);
+        } else if (keyCode == KeyEvent.KEYCODE_DEL) {
+            HierarchyNode focused = findFocused(getHierarchy());
+            if (focused != null && focused.getText() != null && !focused.getText().isEmpty()) {
+                focused.setText(focused.getText().substring(0, focused.getText().length() - 1));
+            }
+        }
+    }
+
+    /**
+     * Shows the screen registered with {@link #onLaunch(String, String)} for the package.
+     */
+    public void launch(String packageName) {
+        String screen = mLaunchScreens.get(packageName);
+        if (screen == null) {
+            throw new IllegalArgumentException("No launch screen for " + packageName);
+        }
+        start(screen);
+    }
+
+    private SimulatedDevice addTransition(String screen, Transition transition) {
+        checkScreen(screen);
+        checkScreen(transition.mTarget);
+        List<Transition> transitions = mTransitions.get(screen);
+        if (transitions == null) {
+            transitions = new ArrayList<>();
+            mTransitions.put(screen, transitions);
+        }
+        transitions.add(transition);
+        return this;
+    }
+
+    private boolean transition(int type, HierarchyNode node, int keyCode) {
+        List<Transition> transitions = mTransitions.get(getCurrentScreen());
+        if (transitions == null) {
+            return false;
+        }
+
+        for (Transition transition : transitions) {
+            if (transition.mType != type) {
+                continue;
+            }
+            if (type == KEY ? transition.mKeyCode == keyCode
+                    : transition.mQuery.find(getHierarchy()) == node) {
+                mBackStack.push(mCurrent);
+                mCurrent = new Screen(transition.mTarget, mScreens.get(transition.mTarget).copy());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void focus(HierarchyNode node) {
+        HierarchyNode focused = findFocused(getHierarchy());
+        if (focused != null) {
+            focused.setFlag(HierarchyNode.FOCUSED, false);
+        }
+        node.setFlag(HierarchyNode.FOCUSED, true);
+    }
+
+    private static HierarchyNode findFocused(HierarchyNode node) {
+        if (node.hasFlag(HierarchyNode.FOCUSED)) {
+            return node;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            HierarchyNode focused = findFocused(node.getChild(i));
+            if (focused != null) {
+                return focused;
+            }
+        }
+        return null;
+    }
+
+    private Screen current() {
+        if (mCurrent == null) {
+            throw new IllegalStateException("No screen is shown, call start() first");
+        }
+        return mCurrent;
+    }
+
+    private String checkScreen(String screen) {
+        if (!mScreens.containsKey(screen)) {
+            throw new IllegalArgumentException("Unknown screen " + screen);
+        }
+        return screen;
+    }
+
+    private static NodeQuery query(UiObjectMatcher matcher) {
+        if (matcher.getNodeQuery() == null) {
+            throw new IllegalArgumentException("Matchers created from a UiSelector are not supported");
+        }
+        return matcher.getNodeQuery();
+    }
+
+    private static class Screen {
+
+        final String mName;
+        final HierarchyNode mHierarchy;
+
+        Screen(String name, HierarchyNode hierarchy) {
+            mName = name;
+            mHierarchy = hierarchy;
+        }
+    }
+
+    private static class Transition {
+
+        final int mType;
+        final NodeQuery mQuery;
+        final int mKeyCode;
+        final String mTarget;
+
+        Transition(int type, NodeQuery query, int keyCode, String target) {
+            mType = type;
+            mQuery = query;
+            mKeyCode = keyCode;
+            mTarget = target;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reports every {@link UiObjectMatcher} that takes longer than a threshold to resolve, see
+ * {@link DeviceAutomator#setSlowQueryDetector(SlowQueryDetector)}. Each slow resolution is passed
+ * to the {@link Listener} and added up by selector, so {@link #getTopSlowMatchers(int)} lists the
+ * selectors worth rewriting first at the end of a suite.
+ */
+public class SlowQueryDetector {
+
+    /**
+     * Called on the thread that resolved the matcher, for every resolution slower than the
+     * threshold.
+     */
+    public interface Listener {
+        void onSlowQuery(SlowQuery query);
+    }
+
+    /**
+     * A single slow resolution.
+     */
+    public static class SlowQuery {
+
+        private final String mSelector;
+        private final boolean mRegex;
+        private final int mNodeCount;
+        private final String mTest;
+        private final long mNanos;
+
+        SlowQuery(String selector, boolean regex, int nodeCount, String test, long nanos) {
+            mSelector = selector;
+            mRegex = regex;
+            mNodeCount = nodeCount;
+            mTest = test;
+            mNanos = nanos;
+        }
+
+        /**
+         * @return the {@link UiObjectMatcher#getUiSelector()} of the matcher as a string.
+         */
+        public String getSelector() {
+            return mSelector;
+        }
+
+        /**
+         * @return {@code true} if the matcher compares text or another property with a regular
+         *         expression.
+         */
+        public boolean usesRegex() {
+            return mRegex;
+        }
+
+        /**
+         * @return the number of nodes in the hierarchy that was searched, or {@code -1} if the
+         *         matcher was resolved by UI Automator on the device.
+         */
+        public int getNodeCount() {
+            return mNodeCount;
+        }
+
+        /**
+         * @return the test that resolved the matcher as {@code class#method}, or the first caller
+         *         outside the library if it was not called from a JUnit test method.
+         */
+        public String getTest() {
+            return mTest;
+        }
+
+        /**
+         * @return how long the resolution took in nanoseconds.
+         */
+        public long getNanos() {
+            return mNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1fms %s nodes=%d regex=%b in %s",
+                    mNanos / 1e6, mSelector, mNodeCount, mRegex, mTest);
+        }
+    }
+
+    /**
+     * The slow resolutions of one selector added up. Summaries returned by
+     * {@link #getTopSlowMatchers(int)} are copies that don't change as more resolutions are
+     * reported.
+     */
+    public static class Summary {
+
+        private final String mSelector;
+        private final boolean mRegex;
+        private final Set<String> mTests;
+        private int mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private int mMaxNodeCount = -1;
+
+        Summary(String selector, boolean regex) {
+            mSelector = selector;
+            mRegex = regex;
+            mTests = new LinkedHashSet<>();
+        }
+
+        private Summary(Summary summary) {
+            mSelector = summary.mSelector;
+            mRegex = summary.mRegex;
+            mTests = Collections.unmodifiableSet(new LinkedHashSet<>(summary.mTests));
+            mCount = summary.mCount;
+            mTotalNanos = summary.mTotalNanos;
+            mMaxNanos = summary.mMaxNanos;
+            mMaxNodeCount = summary.mMaxNodeCount;
+        }
+
+        private void add(SlowQuery query) {
+            mCount++;
+            mTotalNanos += query.getNanos();
+            mMaxNanos = Math.max(mMaxNanos, query.getNanos());
+            mMaxNodeCount = Math.max(mMaxNodeCount, query.getNodeCount());
+            if (mTests.size() < MAX_TESTS_PER_SUMMARY) {
+                mTests.add(query.getTest());
+            }
+        }
+
+        public String getSelector() {
+            return mSelector;
+        }
+
+        public boolean usesRegex() {
+            return mRegex;
+        }
+
+        /**
+         * @return the number of slow resolutions.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the time spent in slow resolutions in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        /**
+         * @return the largest hierarchy searched, or {@code -1} if unknown.
+         */
+        public int getMaxNodeCount() {
+            return mMaxNodeCount;
+        }
+
+        /**
+         * @return the first tests the selector was slow in.
+         */
+        public List<String> getTests() {
+            return new ArrayList<>(mTests);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1fms total, %d slow, max %.1fms, nodes=%d regex=%b %s in %s",
+                    mTotalNanos / 1e6, mCount, mMaxNanos / 1e6, mMaxNodeCount, mRegex, mSelector, mTests);
+        }
+    }
+
+    static final int MAX_TESTS_PER_SUMMARY = 5;
+
+    private static final String PACKAGE = SlowQueryDetector.class.getPackage().getName() + ".";
+
+    private final long mThresholdNanos;
+    private final Listener mListener;
+    private final Map<String, Summary> mSummaries = new HashMap<>();
+
+    /**
+     * @param thresholdMillis resolutions taking at least this long in milliseconds are reported.
+     */
+    public SlowQueryDetector(long thresholdMillis) {
+        this(thresholdMillis, null);
+    }
+
+    /**
+     * @param thresholdMillis resolutions taking at least this long in milliseconds are reported.
+     * @param listener called with each slow resolution, or {@code null}.
+     */
+    public SlowQueryDetector(long thresholdMillis, Listener listener) {
+        mThresholdNanos = thresholdMillis * 1000000;
+        mListener = listener;
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= mThresholdNanos;
+    }
+
+    /**
+     * Records a slow resolution and passes it to the listener.
+     */
+    void report(String selector, boolean regex, int nodeCount, long nanos) {
+        SlowQuery query = new SlowQuery(selector, regex, nodeCount, findCaller(), nanos);
+        synchronized (this) {
+            Summary summary = mSummaries.get(selector);
+            if (summary == null) {
+                summary = new Summary(selector, regex);
+                mSummaries.put(selector, summary);
+            }
+            summary.add(query);
+        }
+
+        if (mListener != null) {
+            mListener.onSlowQuery(query);
+        }
+    }
+
+    /**
+     * @param limit maximum number of selectors to return.
+     * @return the selectors that spent the most time in slow resolutions, slowest first.
+     */
+    public List<Summary> getTopSlowMatchers(int limit) {
+        List<Summary> summaries = new ArrayList<>();
+        synchronized (this) {
+            for (Summary summary : mSummaries.values()) {
+                summaries.add(new Summary(summary));
+            }
+        }
+        Collections.sort(summaries, new Comparator<Summary>() {
+            @Override
+            public int compare(Summary first, Summary second) {
+                return first.mTotalNanos == second.mTotalNanos ? first.mSelector.compareTo(second.mSelector) :
+                        first.mTotalNanos > second.mTotalNanos ? -1 : 1;
+            }
+        });
+        return new ArrayList<>(summaries.subList(0, Math.min(limit, summaries.size())));
+    }
+
+    /**
+     * @param limit maximum number of selectors to include.
+     * @return {@link #getTopSlowMatchers(int)} with one selector per line.
+     */
+    public String getReport(int limit) {
+        StringBuilder report = new StringBuilder("Top slow matchers:\n");
+        List<Summary> summaries = getTopSlowMatchers(limit);
+        for (int i = 0; i < summaries.size(); i++) {
+            report.append(i + 1).append(". ").append(summaries.get(i)).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return {@code true} if the query or any of its child queries matches text with a regular
+     *         expression.
+     */
+    static boolean usesRegex(UiObjectMatcher matcher) {
+        if (matcher.getNodeQuery() == null) {
+            // selectors built directly use regular expressions for textMatches and similar
+            return matcher.getUiSelector().toString().contains("_REGEX=");
+        }
+
+        for (NodeQuery query = matcher.getNodeQuery(); query != null; query = query.getChild()) {
+            if (query.getText() != null && query.getTextMatch() == NodeQuery.TextMatch.PATTERN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the innermost JUnit test method on the stack, or the first caller outside the
+     *         library.
+     */
+    static String findCaller() {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        String caller = null;
+        for (StackTraceElement frame : stack) {
+            if (isTestMethod(frame)) {
+                return frame.getClassName() + "#" + frame.getMethodName();
+            }
+            if (caller == null && !isPlatformOrLibrary(frame.getClassName())) {
+                caller = frame.getClassName() + "#" + frame.getMethodName();
+            }
+        }
+        return caller == null ? "unknown" : caller;
+    }
+
+    private static boolean isPlatformOrLibrary(String className) {
+        return className.startsWith(PACKAGE) || className.startsWith("java.") ||
+                className.startsWith("dalvik.") || className.startsWith("android.") ||
+                className.startsWith("androidx.") || className.startsWith("sun.") ||
+                className.startsWith("jdk.");
+    }
+
+    private static boolean isTestMethod(StackTraceElement frame) {
+        if (frame.getClassName().startsWith("java.") || frame.getClassName().startsWith("org.junit.")) {
+            return false;
+        }
+
+        try {
+            // without initializing it, a caller's static initializer must not run on a lookup
+            Class<?> caller = Class.forName(frame.getClassName(), false, SlowQueryDetector.class.getClassLoader());
+            for (Method method : caller.getDeclaredMethods()) {
+                if (method.getName().equals(frame.getMethodName()) && method.getAnnotation(Test.class) != null) {
+                    return true;
+                }
+            }
+        } catch (ClassNotFoundException | LinkageError ignored) {}
+        return false;
+    }
+}
@@ -0,0 +1,399 @@
+package com.lukekorth.deviceautomator;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+import androidx.test.uiautomator.UiDevice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Repeats a flow many times, or for a length of time, to find leaks and slowdowns that only show
+ * after hundreds of iterations. The duration of each step of every iteration, and optionally the
+ * memory of the app after it, are added to {@link RollingStatistics}, so a soak of any length uses
+ * the same memory. A {@link Drift} is reported for every step, or the memory, whose trend grows
+ * faster per iteration than its threshold.
+ *
+ * <pre>{@code
+ * SoakRunner.Result result = new SoakRunner()
+ *         .setMemorySampler(SoakRunner.appPss("com.myapp"))
+ *         .runFor(30 * 60 * 1000, new SoakRunner.Flow() {
+ *             public void run(SoakRunner.Iteration iteration) {
+ *                 iteration.step("open inbox");
+ *                 onDevice(withText("Inbox")).perform(click());
+ *                 iteration.step("back");
+ *                 onDevice().pressBack();
+ *             }
+ *         });
+ * assertTrue(result.toString(), result.getDrifts().isEmpty());
+ * }</pre>
+ */
+public class SoakRunner {
+
+    /**
+     * One iteration of the soak.
+     */
+    public interface Flow {
+        void run(Iteration iteration);
+    }
+
+    /**
+     * Measures the memory used by the app under test.
+     */
+    public interface MemorySampler {
+
+        /**
+         * @return the memory used in bytes, or a negative value if it couldn't be measured.
+         */
+        long sampleBytes();
+    }
+
+    /**
+     * Name of the statistics of whole iterations in {@link Result#getStepStatistics()}.
+     */
+    public static final String ITERATION = "iteration";
+
+    /**
+     * Trends aren't reported until this many values have been added, the slope of fewer values is
+     * mostly noise.
+     */
+    static final int MIN_SAMPLES_FOR_DRIFT = 20;
+
+    private double mLatencySlopeThresholdMillis = 1;
+    private double mMemorySlopeThresholdBytes = 64 * 1024;
+    private MemorySampler mMemorySampler;
+    private int mMemorySampleInterval = 1;
+
+    /**
+     * @param millisPerIteration a step whose duration grows by more than this many milliseconds per
+     *                           iteration is reported as a {@link Drift}. Defaults to {@code 1}.
+     * @return {@link SoakRunner} for method chaining.
+     */
+    public SoakRunner setLatencySlopeThreshold(double millisPerIteration) {
+        mLatencySlopeThresholdMillis = millisPerIteration;
+        return this;
+    }
+
+    /**
+     * @param bytesPerIteration memory growing by more than this many bytes per iteration is
+     *                          reported as a {@link Drift}. Defaults to 64KB.
+     * @return {@link SoakRunner} for method chaining.
+     */
+    public SoakRunner setMemorySlopeThreshold(double bytesPerIteration) {
+        mMemorySlopeThresholdBytes = bytesPerIteration;
+        return this;
+    }
+
+    /**
+     * @param sampler measures memory after each iteration, or {@code null} to not measure it.
+     * @return {@link SoakRunner} for method chaining.
+     */
+    public SoakRunner setMemorySampler(MemorySampler sampler) {
+        mMemorySampler = sampler;
+        return this;
+    }
+
+    /**
+     * @param iterations measure memory after every this many iterations, for samplers that are
+     *                   slow compared to an iteration. Defaults to {@code 1}.
+     * @return {@link SoakRunner} for method chaining.
+     */
+    public SoakRunner setMemorySampleInterval(int iterations) {
+        mMemorySampleInterval = Math.max(iterations, 1);
+        return this;
+    }
+
+    /**
+     * Runs the flow the given number of times.
+     *
+     * @return the statistics of the iterations.
+     */
+    public Result runTimes(int iterations, Flow flow) {
+        return run(iterations, Long.MAX_VALUE, flow);
+    }
+
+    /**
+     * Runs the flow until the given time has passed, finishing the iteration in progress.
+     *
+     * @return the statistics of the iterations.
+     */
+    public Result runFor(long durationMillis, Flow flow) {
+        return run(Integer.MAX_VALUE, durationMillis * 1000000, flow);
+    }
+
+    private Result run(int iterations, long durationNanos, Flow flow) {
+        Result result = new Result(mLatencySlopeThresholdMillis * 1000000, mMemorySlopeThresholdBytes);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations && System.nanoTime() - start < durationNanos; i++) {
+            Iteration iteration = new Iteration(i, result);
+            try {
+                flow.run(iteration);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Iteration " + i + " of the soak failed\n" + result, e);
+            }
+            iteration.finish();
+
+            if (mMemorySampler != null && i % mMemorySampleInterval == 0) {
+                long bytes = mMemorySampler.sampleBytes();
+                if (bytes >= 0) {
+                    result.addMemory(i, bytes);
+                }
+            }
+        }
+        result.mElapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * @return a {@link MemorySampler} of the total proportional set size of the app, from
+     *         {@code dumpsys meminfo}, which includes native and graphics memory. Takes a few hundred
+     *         milliseconds per sample.
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public static MemorySampler appPss(final String packageName) {
+        final UiDevice device = UiDevice.getInstance(getInstrumentation());
+        return new MemorySampler() {
+            @Override
+            public long sampleBytes() {
+                try {
+                    return parseTotalPss(device.executeShellCommand("dumpsys meminfo " + packageName));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Supports both the {@code TOTAL} row of the table and the {@code TOTAL PSS:} summary of newer
+     * versions of Android.
+     *
+     * @return the total PSS in bytes, or {@code -1} if the app isn't running.
+     */
+    static long parseTotalPss(String meminfo) {
+        for (String line : meminfo.split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length < 2 || !columns[0].equals("TOTAL")) {
+                continue;
+            }
+
+            String kilobytes = columns[1].equals("PSS:") && columns.length > 2 ? columns[2] : columns[1];
+            try {
+                return Long.parseLong(kilobytes) * 1024;
+            } catch (NumberFormatException ignored) {}
+        }
+        return -1;
+    }
+
+    /**
+     * Times the steps of a single iteration. A step lasts until the next one starts or the
+     * iteration ends.
+     */
+    public static class Iteration {
+
+        private final int mNumber;
+        private final Result mResult;
+        private final long mStart = System.nanoTime();
+        private String mStep;
+        private long mStepStart;
+
+        Iteration(int number, Result result) {
+            mNumber = number;
+            mResult = result;
+        }
+
+        /**
+         * @return the number of the iteration, starting from {@code 0}.
+         */
+        public int getNumber() {
+            return mNumber;
+        }
+
+        /**
+         * Ends the current step, if any, and starts timing the named one.
+         */
+        public void step(String name) {
+            long now = System.nanoTime();
+            endStep(now);
+            mStep = name;
+            mStepStart = now;
+        }
+
+        private void endStep(long now) {
+            if (mStep != null) {
+                mResult.addStep(mStep, mNumber, now - mStepStart);
+                mStep = null;
+            }
+        }
+
+        void finish() {
+            long now = System.nanoTime();
+            endStep(now);
+            mResult.addStep(ITERATION, mNumber, now - mStart);
+        }
+    }
+
+    /**
+     * A step, or the memory, that grows faster per iteration than its threshold.
+     */
+    public static class Drift {
+
+        private final String mName;
+        private final boolean mMemory;
+        private final double mSlope;
+        private final double mThreshold;
+        private final double mRSquared;
+
+        Drift(String name, boolean memory, double slope, double threshold, double rSquared) {
+            mName = name;
+            mMemory = memory;
+            mSlope = slope;
+            mThreshold = threshold;
+            mRSquared = rSquared;
+        }
+
+        /**
+         * @return the name of the step, or {@code null} for the memory.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isMemory() {
+            return mMemory;
+        }
+
+        /**
+         * @return the growth per iteration, in nanoseconds for steps and bytes for the memory.
+         */
+        public double getSlope() {
+            return mSlope;
+        }
+
+        public double getThreshold() {
+            return mThreshold;
+        }
+
+        /**
+         * @return how well the trend fits the values, see {@link RollingStatistics#getRSquared()}.
+         *         A low value means the slope may come from a few outliers.
+         */
+        public double getRSquared() {
+            return mRSquared;
+        }
+
+        @Override
+        public String toString() {
+            if (mMemory) {
+                return String.format(Locale.US, "memory grows %.1fKB per iteration (threshold %.1fKB, r2=%.2f)",
+                        mSlope / 1024, mThreshold / 1024, mRSquared);
+            }
+            return String.format(Locale.US, "%s grows %.3fms per iteration (threshold %.3fms, r2=%.2f)",
+                    mName, mSlope / 1e6, mThreshold / 1e6, mRSquared);
+        }
+    }
+
+    /**
+     * The statistics of a soak.
+     */
+    public static class Result {
+
+        private final double mLatencySlopeThreshold;
+        private final double mMemorySlopeThreshold;
+        private final Map<String, RollingStatistics> mSteps = new LinkedHashMap<>();
+        private final RollingStatistics mMemory = new RollingStatistics();
+        private long mElapsedNanos;
+
+        Result(double latencySlopeThresholdNanos, double memorySlopeThresholdBytes) {
+            mLatencySlopeThreshold = latencySlopeThresholdNanos;
+            mMemorySlopeThreshold = memorySlopeThresholdBytes;
+        }
+
+        void addStep(String name, int iteration, long nanos) {
+            RollingStatistics statistics = mSteps.get(name);
+            if (statistics == null) {
+                statistics = new RollingStatistics();
+                mSteps.put(name, statistics);
+            }
+            statistics.add(iteration, nanos);
+        }
+
+        void addMemory(int iteration, long bytes) {
+            mMemory.add(iteration, bytes);
+        }
+
+        /**
+         * @return the number of iterations that completed.
+         */
+        public long getIterationCount() {
+            RollingStatistics iterations = mSteps.get(ITERATION);
+            return iterations == null ? 0 : iterations.getCount();
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedNanos / 1000000;
+        }
+
+        /**
+         * @return the durations in nanoseconds of each step, in the order they first ran, and of
+         *         whole iterations under {@link #ITERATION}.
+         */
+        public Map<String, RollingStatistics> getStepStatistics() {
+            return Collections.unmodifiableMap(mSteps);
+        }
+
+        /**
+         * @return the memory in bytes after each sampled iteration.
+         */
+        public RollingStatistics getMemoryStatistics() {
+            return mMemory;
+        }
+
+        /**
+         * @return the steps and memory growing faster than their thresholds, once they have at
+         *         least 20 values.
+         */
+        public List<Drift> getDrifts() {
+            List<Drift> drifts = new ArrayList<>();
+            for (Map.Entry<String, RollingStatistics> step : mSteps.entrySet()) {
+                RollingStatistics statistics = step.getValue();
+                if (statistics.getCount() >= MIN_SAMPLES_FOR_DRIFT && statistics.getSlope() > mLatencySlopeThreshold) {
+                    drifts.add(new Drift(step.getKey(), false, statistics.getSlope(), mLatencySlopeThreshold,
+                            statistics.getRSquared()));
+                }
+            }
+            if (mMemory.getCount() >= MIN_SAMPLES_FOR_DRIFT && mMemory.getSlope() > mMemorySlopeThreshold) {
+                drifts.add(new Drift(null, true, mMemory.getSlope(), mMemorySlopeThreshold, mMemory.getRSquared()));
+            }
+            return drifts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder("Soak of ").append(getIterationCount())
+                    .append(" iterations in ").append(getElapsedMillis()).append("ms\n");
+            for (Map.Entry<String, RollingStatistics> step : mSteps.entrySet()) {
+                RollingStatistics statistics = step.getValue();
+                report.append(String.format(Locale.US, "%s: mean %.1fms p50 %.1fms p99 %.1fms max %.1fms\n",
+                        step.getKey(), statistics.getMean() / 1e6, statistics.getPercentile(50) / 1e6,
+                        statistics.getPercentile(99) / 1e6, statistics.getMax() / 1e6));
+            }
+            if (mMemory.getCount() > 0) {
+                report.append(String.format(Locale.US, "memory: min %dKB max %dKB mean %.0fKB\n",
+                        mMemory.getMin() / 1024, mMemory.getMax() / 1024, mMemory.getMean() / 1024));
+            }
+            for (Drift drift : getDrifts()) {
+                report.append("DRIFT: ").append(drift).append('\n');
+            }
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * Repeatedly samples a value describing the ui, such as the bounds of an element or a hash of a
+ * screenshot, and returns once the value has not changed for a quiet period.
+ */
+class StabilityWaiter {
+
+    /**
+     * Produces a value that changes whenever the sampled part of the ui changes.
+     */
+    interface Sampler {
+        long sample();
+    }
+
+    static final long DEFAULT_SAMPLE_INTERVAL = 50;
+
+    private final Sampler mSampler;
+    private final long mSampleInterval;
+    private final Clock mClock;
+
+    StabilityWaiter(Sampler sampler) {
+        this(sampler, DEFAULT_SAMPLE_INTERVAL, Clock.SYSTEM);
+    }
+
+    StabilityWaiter(Sampler sampler, long sampleInterval, Clock clock) {
+        mSampler = sampler;
+        mSampleInterval = sampleInterval;
+        mClock = clock;
+    }
+
+    /**
+     * @param quietPeriod length of time in milliseconds the sampled value must stay the same.
+     * @param timeout length of time in milliseconds to wait before giving up.
+     * @return {@code true} if the sampled value was stable for the quiet period before the timeout,
+     *         {@code false} otherwise.
+     */
+    boolean waitForStable(long quietPeriod, long timeout) {
+        long start = mClock.nanoTime();
+        long deadline = start + timeout * 1000000;
+        long last = mSampler.sample();
+        long lastChange = start;
+
+        while (true) {
+            long now = mClock.nanoTime();
+            if (now - lastChange >= quietPeriod * 1000000) {
+                return true;
+            }
+            if (now - deadline >= 0) {
+                return false;
+            }
+
+            long remainingQuiet = (quietPeriod * 1000000 - (now - lastChange)) / 1000000;
+            try {
+                mClock.sleep(Math.max(1, Math.min(mSampleInterval, remainingQuiet)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            long sample = mSampler.sample();
+            if (sample != last) {
+                last = sample;
+                lastChange = mClock.nanoTime();
+            }
+        }
+    }
+}
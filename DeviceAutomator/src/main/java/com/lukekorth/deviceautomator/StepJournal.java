@@ -0,0 +1,419 @@
+package com.lukekorth.deviceautomator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records every {@link DeviceAutomator} step, action and assertion as a fixed size record in a ring
+ * buffer in a memory-mapped file, see {@link DeviceAutomator#setStepJournal(StepJournal)}. A record
+ * is written when a step starts and completed when it ends, by writing into the mapping without
+ * allocating, and the kernel keeps the pages when the process dies. After an instrumentation crash
+ * the journal shows the last steps and the one that was in progress, read it with
+ * {@link #decode(File)}.
+ *
+ * Opening an existing journal continues it, so the steps of every process of a run with the
+ * Android Test Orchestrator end up in a single timeline.
+ */
+public class StepJournal implements Closeable {
+
+    public enum Outcome {
+        /**
+         * The step started and never ended: the process died during it, or it threw out of an
+         * operation other than an action or check, ex: a wait on a missing element of a
+         * {@link SimulatedDevice}.
+         */
+        STARTED,
+        PASSED,
+        /**
+         * The step didn't succeed, ex: a wait timed out, exists() was false, or an action or check
+         * threw.
+         */
+        FAILED
+    }
+
+    static final int MAGIC = 0x534a4e4c;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int MATCHER_TABLE_SIZE = 64 * 1024;
+    static final int MAX_MATCHER_LENGTH = 255;
+
+    // record layout
+    private static final int SEQUENCE = 0;
+    private static final int PID = 4;
+    private static final int TIME = 8;
+    private static final int DURATION = 16;
+    private static final int MATCHER = 24;
+    private static final int OPERATION = 28;
+    private static final int OUTCOME = 29;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MATCHER_IDS = 4096;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mPid;
+    private final int mTableStart;
+    private final int[] mMatcherIds = new int[MATCHER_IDS];
+    private int mMatcherCount;
+    private boolean mMatchersFull;
+    private int mTableEnd;
+    private int mSequence;
+
+    StepJournal(File file, int capacity, int pid) throws IOException {
+        mCapacity = capacity;
+        mPid = pid;
+        mTableStart = HEADER_SIZE + capacity * RECORD_SIZE;
+        mTableEnd = mTableStart;
+        int size = mTableStart + MATCHER_TABLE_SIZE;
+        boolean sameSize;
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            sameSize = access.length() == size;
+            access.setLength(size);
+            mBuffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            access.close();
+        }
+
+        if (sameSize && mBuffer.getInt(0) == MAGIC && mBuffer.getInt(4) == VERSION &&
+                mBuffer.getInt(8) == capacity) {
+            resume();
+        } else {
+            for (int i = 0; i < size; i += 8) {
+                mBuffer.putLong(i, 0);
+            }
+            mBuffer.putInt(0, MAGIC)
+                    .putInt(4, VERSION)
+                    .putInt(8, capacity)
+                    .putInt(12, RECORD_SIZE)
+                    .putInt(16, MATCHER_TABLE_SIZE);
+        }
+    }
+
+    /**
+     * Opens the journal in the given file with room for the last 4096 steps, continuing it if it
+     * exists.
+     */
+    public static StepJournal open(File file) throws IOException {
+        return open(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens the journal in the given file, continuing it if it exists with the same capacity.
+     *
+     * @param capacity the number of steps to keep, at 32 bytes each.
+     */
+    public static StepJournal open(File file, int capacity) throws IOException {
+        return new StepJournal(file, capacity, android.os.Process.myPid());
+    }
+
+    /**
+     * Writes the record of a step that is starting.
+     *
+     * @param matcher the matcher of the step, or {@code null}.
+     * @return the sequence number of the record, for {@link #end(int, long, boolean)}.
+     */
+    synchronized int begin(AutomatorMetrics.Operation operation, UiObjectMatcher matcher) {
+        int matcherId = matcher == null ? 0 : matcher.getId();
+        if (matcherId != 0 && !mMatchersFull && !isKnown(matcherId)) {
+            addMatcher(matcherId, matcher.describe());
+        }
+
+        int sequence = ++mSequence;
+        int offset = offset(sequence);
+        // the sequence is written last so a record torn by the process dying is skipped
+        mBuffer.putInt(offset + SEQUENCE, 0)
+                .putInt(offset + PID, mPid)
+                .putLong(offset + TIME, System.currentTimeMillis())
+                .putLong(offset + DURATION, -1)
+                .putInt(offset + MATCHER, matcherId)
+                .put(offset + OPERATION, (byte) operation.ordinal())
+                .put(offset + OUTCOME, (byte) Outcome.STARTED.ordinal())
+                .putInt(offset + SEQUENCE, sequence);
+        return sequence;
+    }
+
+    /**
+     * Completes the record of a step, unless it has already been overwritten.
+     */
+    synchronized void end(int sequence, long durationNanos, boolean passed) {
+        int offset = offset(sequence);
+        if (mBuffer.getInt(offset + SEQUENCE) == sequence) {
+            mBuffer.putLong(offset + DURATION, durationNanos)
+                    .put(offset + OUTCOME, (byte) (passed ? Outcome.PASSED : Outcome.FAILED).ordinal());
+        }
+    }
+
+    /**
+     * Writes the journal to storage. The journal survives the process dying without this, it is
+     * only needed for the journal to survive the device losing power.
+     */
+    public synchronized void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * Flushes the journal. Steps can still be recorded into the mapping after closing.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private int offset(int sequence) {
+        return HEADER_SIZE + ((sequence - 1) % mCapacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Continues after the last record and matcher of an existing journal.
+     */
+    private void resume() {
+        for (int i = 0; i < mCapacity; i++) {
+            mSequence = Math.max(mSequence, mBuffer.getInt(HEADER_SIZE + i * RECORD_SIZE + SEQUENCE));
+        }
+        while (!mMatchersFull && mTableEnd + 6 <= mTableStart + MATCHER_TABLE_SIZE && mBuffer.getInt(mTableEnd) != 0) {
+            remember(mBuffer.getInt(mTableEnd));
+            mTableEnd += 6 + (mBuffer.getShort(mTableEnd + 4) & 0xffff);
+        }
+    }
+
+    /**
+     * Matcher ids are kept in an open addressed set, so checking an id allocates nothing.
+     */
+    private boolean isKnown(int id) {
+        for (int i = slot(id); mMatcherIds[i] != 0; i = (i + 1) % MATCHER_IDS) {
+            if (mMatcherIds[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remember(int id) {
+        int i = slot(id);
+        while (mMatcherIds[i] != 0) {
+            i = (i + 1) % MATCHER_IDS;
+        }
+        mMatcherIds[i] = id;
+        // kept under three quarters full so lookups stay short
+        if (++mMatcherCount >= MATCHER_IDS * 3 / 4) {
+            mMatchersFull = true;
+        }
+    }
+
+    private static int slot(int id) {
+        return ((id * 0x9e3779b9) >>> 20) % MATCHER_IDS;
+    }
+
+    private void addMatcher(int id, String description) {
+        byte[] bytes = truncate(description).getBytes(UTF_8);
+        if (mTableEnd + 6 + bytes.length + 4 > mTableStart + MATCHER_TABLE_SIZE) {
+            // later matchers are journaled by id only
+            mMatchersFull = true;
+            return;
+        }
+
+        remember(id);
+        int entry = mTableEnd;
+        mBuffer.putShort(entry + 4, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            mBuffer.put(entry + 6 + i, bytes[i]);
+        }
+        mBuffer.putInt(entry, id);
+        mTableEnd = entry + 6 + bytes.length;
+    }
+
+    private static String truncate(String description) {
+        return description.length() <= MAX_MATCHER_LENGTH ? description : description.substring(0, MAX_MATCHER_LENGTH);
+    }
+
+    /**
+     * Reads the records of a journal, oldest first.
+     *
+     * @throws IOException if the file can't be read or isn't a journal.
+     */
+    public static List<Record> read(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+        } finally {
+            access.close();
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a step journal");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported step journal version " + buffer.getInt(4));
+        }
+
+        int capacity = buffer.getInt(8);
+        int recordSize = buffer.getInt(12);
+        int tableStart = HEADER_SIZE + capacity * recordSize;
+        int tableEnd = Math.min(tableStart + buffer.getInt(16), buffer.limit());
+
+        Map<Integer, String> matchers = new HashMap<>();
+        for (int entry = tableStart; entry + 6 <= tableEnd && buffer.getInt(entry) != 0; ) {
+            int length = buffer.getShort(entry + 4) & 0xffff;
+            byte[] bytes = new byte[Math.min(length, tableEnd - entry - 6)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(entry + 6 + i);
+            }
+            matchers.put(buffer.getInt(entry), new String(bytes, UTF_8));
+            entry += 6 + length;
+        }
+
+        AutomatorMetrics.Operation[] operations = AutomatorMetrics.Operation.values();
+        Outcome[] outcomes = Outcome.values();
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            int offset = HEADER_SIZE + i * recordSize;
+            int sequence = buffer.getInt(offset + SEQUENCE);
+            if (sequence == 0) {
+                continue;
+            }
+
+            int operation = buffer.get(offset + OPERATION) & 0xff;
+            int outcome = buffer.get(offset + OUTCOME) & 0xff;
+            int matcherId = buffer.getInt(offset + MATCHER);
+            records.add(new Record(sequence, buffer.getInt(offset + PID), buffer.getLong(offset + TIME),
+                    buffer.getLong(offset + DURATION), operation < operations.length ? operations[operation] : null,
+                    outcome < outcomes.length ? outcomes[outcome] : Outcome.STARTED, matcherId,
+                    matchers.get(matcherId)));
+        }
+
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record first, Record second) {
+                return first.mSequence < second.mSequence ? -1 : first.mSequence == second.mSequence ? 0 : 1;
+            }
+        });
+        return records;
+    }
+
+    /**
+     * @return the records of a journal as a timeline, one step per line, oldest first, with a line
+     *         where each process starts.
+     * @throws IOException if the file can't be read or isn't a journal.
+     */
+    public static String decode(File file) throws IOException {
+        StringBuilder timeline = new StringBuilder();
+        int pid = 0;
+        for (Record record : read(file)) {
+            if (record.getPid() != pid) {
+                pid = record.getPid();
+                timeline.append("--- process ").append(pid).append(" ---\n");
+            }
+            timeline.append(record).append('\n');
+        }
+        return timeline.toString();
+    }
+
+    /**
+     * A single step of a journal.
+     */
+    public static class Record {
+
+        private final int mSequence;
+        private final int mPid;
+        private final long mTimeMillis;
+        private final long mDurationNanos;
+        private final AutomatorMetrics.Operation mOperation;
+        private final Outcome mOutcome;
+        private final int mMatcherId;
+        private final String mMatcher;
+
+        Record(int sequence, int pid, long timeMillis, long durationNanos, AutomatorMetrics.Operation operation,
+                Outcome outcome, int matcherId, String matcher) {
+            mSequence = sequence;
+            mPid = pid;
+            mTimeMillis = timeMillis;
+            mDurationNanos = durationNanos;
+            mOperation = operation;
+            mOutcome = outcome;
+            mMatcherId = matcherId;
+            mMatcher = matcher;
+        }
+
+        /**
+         * @return the position of the step in the journal, starting from {@code 1}.
+         */
+        public int getSequence() {
+            return mSequence;
+        }
+
+        public int getPid() {
+            return mPid;
+        }
+
+        /**
+         * @return the wall clock time the step started at, in milliseconds since the epoch.
+         */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        /**
+         * @return how long the step took in nanoseconds, or {@code -1} if it didn't end.
+         */
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return the operation, or {@code null} if it was written by a newer version of the
+         *         library.
+         */
+        public AutomatorMetrics.Operation getOperation() {
+            return mOperation;
+        }
+
+        public Outcome getOutcome() {
+            return mOutcome;
+        }
+
+        /**
+         * @return the id of the matcher of the step, {@code 0} if it had none.
+         */
+        public int getMatcherId() {
+            return mMatcherId;
+        }
+
+        /**
+         * @return the description of the matcher of the step, or {@code null} if it had none or the
+         *         journal ran out of room for matchers.
+         */
+        public String getMatcher() {
+            return mMatcher;
+        }
+
+        @Override
+        public String toString() {
+            String time = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US).format(new Date(mTimeMillis));
+            String duration = mDurationNanos < 0 ? "-" : String.format(Locale.US, "%.1fms", mDurationNanos / 1e6);
+            String matcher = mMatcherId == 0 ? "" :
+                    " " + (mMatcher == null ? String.format(Locale.US, "matcher#%08x", mMatcherId) : mMatcher);
+            return String.format(Locale.US, "#%d %s %-9s %-7s %8s%s", mSequence, time,
+                    mOperation == null ? "unknown" : mOperation.getName(),
+                    mOutcome, duration, matcher);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.lukekorth.deviceautomator;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TestRule;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+/**
+ * Configures the device for fast tests by disabling animations, keeping the screen on and turning
+ * off spell checking suggestions. The previous value of every setting is written to a journal file
+ * before anything is changed so the device can be restored even if the test process crashes before
+ * {@link #restore()} is called. The next call to {@link #apply()} restores from a leftover journal
+ * first.
+ *
+ * Use {@link #measure(int, Step)} to time steps of a flow with and without the profile.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class TestSpeedProfile {
+
+    /**
+     * Runs shell commands on the device.
+     */
+    interface Shell {
+        String execute(String command) throws IOException;
+    }
+
+    /**
+     * A step of a flow to time with and without the profile, ex: launching the app or scrolling a
+     * list.
+     */
+    public interface Step {
+        void run();
+    }
+
+    private static final String JOURNAL_NAME = "device-automator-test-speed-profile.properties";
+    private static final String UNSET = "null";
+    private static final Map<String, String> SETTINGS = new LinkedHashMap<>();
+
+    static {
+        SETTINGS.put("global window_animation_scale", "0");
+        SETTINGS.put("global transition_animation_scale", "0");
+        SETTINGS.put("global animator_duration_scale", "0");
+        SETTINGS.put("global stay_on_while_plugged_in", "7");
+        SETTINGS.put("secure spell_checker_enabled", "0");
+    }
+
+    private final Shell mShell;
+    private final File mJournal;
+    private final Clock mClock;
+    private long mApplyMillis;
+    private long mRestoreMillis;
+
+    TestSpeedProfile(Shell shell, File journal) {
+        this(shell, journal, Clock.SYSTEM);
+    }
+
+    TestSpeedProfile(Shell shell, File journal, Clock clock) {
+        mShell = shell;
+        mJournal = journal;
+        mClock = clock;
+    }
+
+    /**
+     * @return {@link TestSpeedProfile} that keeps its journal in the instrumentation's files
+     *         directory.
+     */
+    public static TestSpeedProfile create() {
+        return create(new File(getInstrumentation().getContext().getFilesDir(), JOURNAL_NAME));
+    }
+
+    /**
+     * @param journal file to record the previous settings in. Use a location that outlives the test
+     *        apk if it is reinstalled between runs.
+     * @return {@link TestSpeedProfile} that keeps its journal in the given file.
+     */
+    public static TestSpeedProfile create(File journal) {
+        final UiDevice device = UiDevice.getInstance(getInstrumentation());
+        return new TestSpeedProfile(new Shell() {
+            @Override
+            public String execute(String command) throws IOException {
+                return device.executeShellCommand(command);
+            }
+        }, journal);
+    }
+
+    /**
+     * @return a {@link TestRule}, intended for use as a {@link org.junit.ClassRule}, that applies
+     *         the profile before the tests run and restores the device afterwards.
+     */
+    public static TestRule rule() {
+        return new ExternalResource() {
+            private TestSpeedProfile mProfile;
+
+            @Override
+            protected void before() {
+                mProfile = create().apply();
+            }
+
+            @Override
+            protected void after() {
+                mProfile.restore();
+            }
+        };
+    }
+
+    /**
+     * Saves the current settings to the journal and applies the test speed settings. If a journal
+     * from a previous session that was never restored exists, the device is restored from it first.
+     *
+     * @return {@link TestSpeedProfile} for method chaining.
+     */
+    public TestSpeedProfile apply() {
+        long start = mClock.nanoTime();
+        try {
+            if (mJournal.exists()) {
+                restoreFromJournal();
+            }
+
+            Properties previous = new Properties();
+            for (String setting : SETTINGS.keySet()) {
+                previous.setProperty(setting, mShell.execute("settings get " + setting).trim());
+            }
+            writeJournal(previous);
+
+            for (Map.Entry<String, String> setting : SETTINGS.entrySet()) {
+                mShell.execute("settings put " + setting.getKey() + " " + setting.getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        mApplyMillis = (mClock.nanoTime() - start) / 1000000;
+
+        return this;
+    }
+
+    /**
+     * Restores the settings saved by {@link #apply()} and deletes the journal. Does nothing if there
+     * is nothing to restore.
+     */
+    public void restore() {
+        long start = mClock.nanoTime();
+        try {
+            if (mJournal.exists()) {
+                restoreFromJournal();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        mRestoreMillis = (mClock.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Times a step with the settings the device had before the profile and then with the profile
+     * applied. The profile is restored first if it is applied, and is left applied.
+     *
+     * @param iterations number of times to run the step with each set of settings.
+     * @param step the step to time, it must leave the device ready to run it again.
+     * @return the {@link StepTimings} of the step before and after the profile was applied.
+     */
+    public StepTimings measure(int iterations, Step step) {
+        restore();
+        RollingStatistics before = time(iterations, step);
+        apply();
+        RollingStatistics after = time(iterations, step);
+        return new StepTimings(before, after);
+    }
+
+    private RollingStatistics time(int iterations, Step step) {
+        RollingStatistics statistics = new RollingStatistics();
+        for (int i = 0; i < iterations; i++) {
+            long start = mClock.nanoTime();
+            step.run();
+            statistics.add(i, mClock.nanoTime() - start);
+        }
+        return statistics;
+    }
+
+    /**
+     * @return time in milliseconds the last {@link #apply()} took.
+     */
+    public long getApplyMillis() {
+        return mApplyMillis;
+    }
+
+    /**
+     * @return time in milliseconds the last {@link #restore()} took.
+     */
+    public long getRestoreMillis() {
+        return mRestoreMillis;
+    }
+
+    private void restoreFromJournal() throws IOException {
+        Properties previous = readJournal();
+        for (String setting : previous.stringPropertyNames()) {
+            String value = previous.getProperty(setting);
+            if (value.isEmpty() || UNSET.equals(value)) {
+                mShell.execute("settings delete " + setting);
+            } else {
+                mShell.execute("settings put " + setting + " " + value);
+            }
+        }
+
+        if (!mJournal.delete()) {
+            throw new IOException("Unable to delete " + mJournal);
+        }
+    }
+
+    private Properties readJournal() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(mJournal);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private void writeJournal(Properties properties) throws IOException {
+        File parent = mJournal.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+
+        FileOutputStream out = new FileOutputStream(mJournal);
+        try {
+            properties.store(out, "Settings to restore after the device automator test speed profile");
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Durations of a step, in nanoseconds, before and after a {@link TestSpeedProfile} was applied.
+     */
+    public static class StepTimings {
+
+        private final RollingStatistics mBefore;
+        private final RollingStatistics mAfter;
+
+        StepTimings(RollingStatistics before, RollingStatistics after) {
+            mBefore = before;
+            mAfter = after;
+        }
+
+        /**
+         * @return the durations with the device's own settings.
+         */
+        public RollingStatistics getBefore() {
+            return mBefore;
+        }
+
+        /**
+         * @return the durations with the profile applied.
+         */
+        public RollingStatistics getAfter() {
+            return mAfter;
+        }
+
+        /**
+         * @return the mean time in milliseconds the profile saved per run of the step, negative if
+         *         the step got slower.
+         */
+        public double getSavedMillis() {
+            return (mBefore.getMean() - mAfter.getMean()) / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "before: mean=%.1fms p50=%dms, after: mean=%.1fms p50=%dms, saved=%.1fms",
+                    mBefore.getMean() / 1000000, mBefore.getPercentile(50) / 1000000,
+                    mAfter.getMean() / 1000000, mAfter.getPercentile(50) / 1000000, getSavedMillis());
+        }
+    }
+}
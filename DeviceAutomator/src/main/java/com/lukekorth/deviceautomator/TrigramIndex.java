@@ -0,0 +1,129 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Arrays;
+
+/**
+ * An index of the three character sequences in the text of every node of a {@link HierarchyIndex},
+ * for narrowing {@link NodeQuery.TextMatch#CONTAINS} queries to the nodes containing every
+ * trigram of the text. Candidates must still be checked, different trigrams can share a bucket.
+ *
+ * Trigrams are hashed into buckets and the positions of each bucket are stored contiguously in a
+ * single array. Nodes are added in document order, so the positions of a bucket are sorted
+ * without sorting and the index is built in two passes over the text.
+ */
+final class TrigramIndex {
+
+    /**
+     * Texts shorter than a trigram can't be looked up, they are checked against every node.
+     */
+    static final int MIN_QUERY_LENGTH = 3;
+
+    private static final int MIN_BUCKET_BITS = 8;
+    private static final int MAX_BUCKET_BITS = 16;
+
+    private final int mShift;
+    private final int[] mOffsets;
+    private final int[] mPositions;
+
+    TrigramIndex(HierarchyIndex index) {
+        long trigrams = 0;
+        for (int position = 0; position < index.size(); position++) {
+            String text = index.getNode(position).getText();
+            if (text != null) {
+                trigrams += Math.max(text.length() - MIN_QUERY_LENGTH + 1, 0);
+            }
+        }
+
+        // about 8 trigrams per bucket, most screens have few distinct trigrams
+        int bits = MIN_BUCKET_BITS;
+        while (bits < MAX_BUCKET_BITS && (1L << bits) * 8 < trigrams) {
+            bits++;
+        }
+        mShift = 32 - bits;
+
+        int buckets = 1 << bits;
+        int[] last = new int[buckets];
+        mOffsets = new int[buckets + 1];
+        Arrays.fill(last, -1);
+        for (int position = 0; position < index.size(); position++) {
+            String text = index.getNode(position).getText();
+            for (int i = 0; text != null && i + MIN_QUERY_LENGTH <= text.length(); i++) {
+                int bucket = bucket(text, i);
+                // a bucket holds each position once, positions only increase
+                if (last[bucket] != position) {
+                    last[bucket] = position;
+                    mOffsets[bucket + 1]++;
+                }
+            }
+        }
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            mOffsets[bucket + 1] += mOffsets[bucket];
+        }
+
+        mPositions = new int[mOffsets[buckets]];
+        int[] next = Arrays.copyOf(mOffsets, buckets);
+        Arrays.fill(last, -1);
+        for (int position = 0; position < index.size(); position++) {
+            String text = index.getNode(position).getText();
+            for (int i = 0; text != null && i + MIN_QUERY_LENGTH <= text.length(); i++) {
+                int bucket = bucket(text, i);
+                if (last[bucket] != position) {
+                    last[bucket] = position;
+                    mPositions[next[bucket]++] = position;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the positions of the nodes whose text may contain the text, in document order, or
+     *         {@code null} if the text is shorter than {@link #MIN_QUERY_LENGTH}.
+     */
+    int[] candidates(String text) {
+        if (text.length() < MIN_QUERY_LENGTH) {
+            return null;
+        }
+
+        int count = text.length() - MIN_QUERY_LENGTH + 1;
+        int[] buckets = new int[count];
+        int smallest = 0;
+        for (int i = 0; i < count; i++) {
+            buckets[i] = bucket(text, i);
+            if (size(buckets[i]) < size(buckets[smallest])) {
+                smallest = i;
+            }
+        }
+
+        // keep the positions of the rarest trigram that are also in the bucket of every other one
+        int[] candidates = new int[size(buckets[smallest])];
+        int size = 0;
+        for (int entry = mOffsets[buckets[smallest]]; entry < mOffsets[buckets[smallest] + 1]; entry++) {
+            int position = mPositions[entry];
+            boolean all = true;
+            for (int i = 0; i < count && all; i++) {
+                all = buckets[i] == buckets[smallest] ||
+                        Arrays.binarySearch(mPositions, mOffsets[buckets[i]], mOffsets[buckets[i] + 1], position) >= 0;
+            }
+            if (all) {
+                candidates[size++] = position;
+            }
+        }
+        return Arrays.copyOf(candidates, size);
+    }
+
+    /**
+     * @return the number of positions stored.
+     */
+    int size() {
+        return mPositions.length;
+    }
+
+    private int size(int bucket) {
+        return mOffsets[bucket + 1] - mOffsets[bucket];
+    }
+
+    private int bucket(String text, int index) {
+        int key = text.charAt(index) * 961 + text.charAt(index + 1) * 31 + text.charAt(index + 2);
+        return (key * 0x9E3779B9) >>> mShift;
+    }
+}
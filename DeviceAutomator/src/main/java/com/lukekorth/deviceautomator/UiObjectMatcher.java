@@ -6,6 +6,8 @@ import androidx.test.uiautomator.UiDevice;
 import androidx.test.uiautomator.UiObject;
 import androidx.test.uiautomator.UiSelector;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -13,14 +15,29 @@ import java.util.regex.Pattern;
  */
 public class UiObjectMatcher {
 
+    static final int MAX_INTERNED_IDS = 4096;
+
+    private static final Map<NodeQuery, Integer> sIds = new ConcurrentHashMap<>();
+
     private UiSelector mUiSelector;
     private BySelector mBySelector;
+    private NodeQuery mNodeQuery;
+    private int mId;
 
     public UiObjectMatcher(UiSelector uiSelector, BySelector bySelector) {
         mUiSelector = uiSelector;
         mBySelector = bySelector;
     }
 
+    /**
+     * Creates a matcher from a {@link NodeQuery}. The {@link UiSelector} and {@link BySelector} are
+     * only built when they are first needed, so matchers created by the static factory methods can
+     * be used with {@link SimulatedDevice} on the JVM.
+     */
+    UiObjectMatcher(NodeQuery nodeQuery) {
+        mNodeQuery = nodeQuery;
+    }
+
     /**
      * Find a view based on the prefixed text in the view. The matching is case-insensitive.
      *
@@ -39,16 +56,12 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withTextStartingWith(String text, Class klass) {
-        UiSelector uiSelector = new UiSelector()
-                .textStartsWith(text);
-        BySelector bySelector = By.textStartsWith(text);
-
+        NodeQuery query = new NodeQuery().withText(text, NodeQuery.TextMatch.STARTS_WITH);
         if (klass != null) {
-            uiSelector = uiSelector.className(klass);
-            bySelector.clazz(klass);
+            query = query.withClassName(klass.getName());
         }
 
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(query);
     }
 
     /**
@@ -69,16 +82,12 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withTextContaining(String text, Class klass) {
-        UiSelector uiSelector = new UiSelector()
-                .textContains(text);
-        BySelector bySelector = By.textContains(text);
-
+        NodeQuery query = new NodeQuery().withText(text, NodeQuery.TextMatch.CONTAINS);
         if (klass != null) {
-            uiSelector = uiSelector.className(klass);
-            bySelector.clazz(klass);
+            query = query.withClassName(klass.getName());
         }
 
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(query);
     }
 
     /**
@@ -99,18 +108,12 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withText(String text, Class klass) {
-        Pattern pattern = Pattern.compile("(?i)" + Pattern.quote(text));
-
-        UiSelector uiSelector = new UiSelector()
-                .textMatches(pattern.pattern());
-        BySelector bySelector = By.text(pattern);
-
+        NodeQuery query = new NodeQuery().withText("(?i)" + Pattern.quote(text), NodeQuery.TextMatch.PATTERN);
         if (klass != null) {
-            uiSelector = uiSelector.className(klass);
-            bySelector.clazz(klass);
+            query = query.withClassName(klass.getName());
         }
 
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(query);
     }
 
     /**
@@ -143,16 +146,12 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withContentDescription(String text, Class klass) {
-        UiSelector uiSelector = new UiSelector()
-                .description(text);
-        BySelector bySelector = By.desc(text);
-
+        NodeQuery query = new NodeQuery().withContentDescription(text);
         if (klass != null) {
-            uiSelector = uiSelector.className(klass);
-            bySelector.clazz(klass);
+            query = query.withClassName(klass.getName());
         }
 
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(query);
     }
 
     /**
@@ -175,16 +174,12 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withResourceId(String id, Class klass) {
-        UiSelector uiSelector = new UiSelector()
-                .resourceId(id);
-        BySelector bySelector = By.res(id);
-
+        NodeQuery query = new NodeQuery().withResourceId(id);
         if (klass != null) {
-            uiSelector = uiSelector.className(klass);
-            bySelector.clazz(klass);
+            query = query.withClassName(klass.getName());
         }
 
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(query);
     }
 
     /**
@@ -194,11 +189,7 @@ public class UiObjectMatcher {
      * @return
      */
     public static UiObjectMatcher withClass(Class klass) {
-        UiSelector uiSelector = new UiSelector()
-                .className(klass);
-        BySelector bySelector = By.clazz(klass);
-
-        return new UiObjectMatcher(uiSelector, bySelector);
+        return new UiObjectMatcher(new NodeQuery().withClassName(klass.getName()));
     }
 
     /**
@@ -210,7 +201,15 @@ public class UiObjectMatcher {
      * @return
      */
     public UiObjectMatcher childMatcher(UiObjectMatcher childMatcher) {
-        mUiSelector = mUiSelector.childSelector(childMatcher.getUiSelector());
+        if (mNodeQuery != null && childMatcher.getNodeQuery() != null) {
+            mNodeQuery = mNodeQuery.withChild(childMatcher.getNodeQuery());
+            mUiSelector = null;
+            mBySelector = null;
+        } else {
+            mUiSelector = getUiSelector().childSelector(childMatcher.getUiSelector());
+            mNodeQuery = null;
+        }
+        mId = 0;
         return this;
     }
 
@@ -224,11 +223,21 @@ public class UiObjectMatcher {
      * @return
      */
     public UiObjectMatcher instance(int instance) {
-        mUiSelector = mUiSelector.instance(instance);
+        if (mNodeQuery != null) {
+            mNodeQuery = mNodeQuery.withInstance(instance);
+            mUiSelector = null;
+            mBySelector = null;
+        } else {
+            mUiSelector = mUiSelector.instance(instance);
+        }
+        mId = 0;
         return this;
     }
 
     public UiSelector getUiSelector() {
+        if (mUiSelector == null) {
+            mUiSelector = toUiSelector(mNodeQuery);
+        }
         return mUiSelector;
     }
 
@@ -237,6 +246,110 @@ public class UiObjectMatcher {
     }
 
     public BySelector getBySelector() {
+        if (mBySelector == null && mNodeQuery != null) {
+            mBySelector = toBySelector(mNodeQuery);
+        }
         return mBySelector;
     }
+
+    /**
+     * @return the {@link NodeQuery} for this matcher, or {@code null} if the matcher was created
+     *         directly from a {@link UiSelector} and can only be used with a device.
+     */
+    public NodeQuery getNodeQuery() {
+        return mNodeQuery;
+    }
+
+    /**
+     * @return a hash of {@link #describe()}, never {@code 0}, so matchers built the same way have
+     *         the same id. Computed once until the matcher is changed, and interned by
+     *         {@link NodeQuery} so matchers created again for every step, ex:
+     *         {@code onDevice(withText("OK"))}, don't describe themselves again.
+     */
+    int getId() {
+        if (mId == 0) {
+            Integer interned = mNodeQuery == null ? null : sIds.get(mNodeQuery);
+            if (interned != null) {
+                mId = interned;
+            } else {
+                int hash = describe().hashCode();
+                mId = hash == 0 ? 1 : hash;
+                if (mNodeQuery != null && sIds.size() < MAX_INTERNED_IDS) {
+                    sIds.put(mNodeQuery, mId);
+                }
+            }
+        }
+        return mId;
+    }
+
+    /**
+     * @return the {@link NodeQuery} of the matcher as a string, or its {@link UiSelector} if it has
+     *         none.
+     */
+    String describe() {
+        return mNodeQuery != null ? mNodeQuery.toString() : getUiSelector().toString();
+    }
+
+    private static UiSelector toUiSelector(NodeQuery query) {
+        UiSelector selector = new UiSelector();
+        if (query.getText() != null) {
+            switch (query.getTextMatch()) {
+                case PATTERN:
+                    selector = selector.textMatches(query.getText());
+                    break;
+                case CONTAINS:
+                    selector = selector.textContains(query.getText());
+                    break;
+                case STARTS_WITH:
+                    selector = selector.textStartsWith(query.getText());
+                    break;
+            }
+        }
+        if (query.getClassName() != null) {
+            selector = selector.className(query.getClassName());
+        }
+        if (query.getContentDescription() != null) {
+            selector = selector.description(query.getContentDescription());
+        }
+        if (query.getResourceId() != null) {
+            selector = selector.resourceId(query.getResourceId());
+        }
+        if (query.getChild() != null) {
+            selector = selector.childSelector(toUiSelector(query.getChild()));
+        }
+        if (query.getInstance() != 0) {
+            selector = selector.instance(query.getInstance());
+        }
+        return selector;
+    }
+
+    private static BySelector toBySelector(NodeQuery query) {
+        BySelector selector = null;
+        if (query.getText() != null) {
+            switch (query.getTextMatch()) {
+                case PATTERN:
+                    selector = By.text(Pattern.compile(query.getText()));
+                    break;
+                case CONTAINS:
+                    selector = By.textContains(query.getText());
+                    break;
+                case STARTS_WITH:
+                    selector = By.textStartsWith(query.getText());
+                    break;
+            }
+        }
+        if (query.getContentDescription() != null) {
+            selector = selector == null ? By.desc(query.getContentDescription())
+                    : selector.desc(query.getContentDescription());
+        }
+        if (query.getResourceId() != null) {
+            selector = selector == null ? By.res(query.getResourceId())
+                    : selector.res(query.getResourceId());
+        }
+        if (query.getClassName() != null) {
+            selector = selector == null ? By.clazz(query.getClassName())
+                    : selector.clazz(query.getClassName());
+        }
+        return selector;
+    }
 }
@@ -0,0 +1,33 @@
+package com.lukekorth.deviceautomator;
+
+import android.app.UiAutomation;
+import android.view.accessibility.AccessibilityEvent;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class AccessibilityEventsTest {
+
+    @Test
+    public void chain_passesEventsToThePreviousListener() {
+        final int[] calls = new int[1];
+        UiAutomation.OnAccessibilityEventListener chained = AccessibilityEvents.chain(
+                new UiAutomation.OnAccessibilityEventListener() {
+                    @Override
+                    public void onAccessibilityEvent(AccessibilityEvent event) {
+                        calls[0]++;
+                    }
+                });
+
+        chained.onAccessibilityEvent(null);
+        chained.onAccessibilityEvent(null);
+
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void chain_acceptsNoPreviousListener() {
+        AccessibilityEvents.chain(null).onAccessibilityEvent(null);
+    }
+}
@@ -0,0 +1,124 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class AppResetTest {
+
+    @Test
+    public void forPackage_forceStopsAndRelaunchesWithoutClearing() {
+        AppReset reset = AppReset.forPackage("com.example");
+
+        assertEquals(Collections.singletonList("am force-stop com.example"), reset.getForceStopCommands());
+        assertTrue(reset.getClearCommands().isEmpty());
+        assertTrue(reset.shouldRelaunch());
+    }
+
+    @Test
+    public void clearData_usesPmClear() {
+        AppReset reset = AppReset.forPackage("com.example")
+                .clearData()
+                .clearSharedPreferences("settings");
+
+        assertEquals(Collections.singletonList("pm clear com.example"), reset.getClearCommands());
+    }
+
+    @Test
+    public void clearSharedPreferencesAndDatabases_areBatchedIntoOneCommand() {
+        AppReset reset = AppReset.forPackage("com.example")
+                .clearSharedPreferences("settings", "session")
+                .clearDatabases("app.db");
+
+        assertEquals(Collections.singletonList("run-as com.example rm -f shared_prefs/settings.xml " +
+                "shared_prefs/session.xml databases/app.db databases/app.db-journal databases/app.db-wal " +
+                "databases/app.db-shm"), reset.getClearCommands());
+    }
+
+    @Test
+    public void relaunch_canBeDisabled() {
+        assertFalse(AppReset.forPackage("com.example").relaunch(false).shouldRelaunch());
+    }
+
+    @Test
+    public void timings_totalIsSumOfPhases() {
+        AppReset.Timings timings = new AppReset.Timings(10, 20, 300);
+
+        assertEquals(330, timings.getTotalMillis());
+        assertEquals(Arrays.asList(10L, 20L, 300L), Arrays.asList(timings.getForceStopMillis(),
+                timings.getClearMillis(), timings.getLaunchMillis()));
+    }
+
+    @Test
+    public void script_runsEveryCommandInOneShellWithoutWhitespace() {
+        List<List<String>> phases = Arrays.asList(AppReset.forPackage("com.example").getForceStopCommands(),
+                AppReset.forPackage("com.example").clearData().getClearCommands());
+
+        String script = AppReset.script(phases);
+
+        assertTrue(script, script.startsWith("sh -c am${IFS}force-stop${IFS}com.example;echo${IFS}"));
+        assertTrue(script, script.contains(";pm${IFS}clear${IFS}com.example;echo${IFS}"));
+        assertEquals(3, script.split(" ").length);
+    }
+
+    @Test
+    public void read_returnsWhenEachPhaseFinished() throws IOException {
+        List<List<String>> phases = Arrays.asList(Collections.singletonList("am force-stop com.example"),
+                Collections.<String>emptyList(), Collections.singletonList("pm clear com.example"));
+        String output = status(0) + "Success\n" + status(0);
+
+        long before = System.nanoTime();
+        long[] finished = AppReset.read(new ByteArrayInputStream(output.getBytes("UTF-8")), phases);
+
+        assertEquals(3, finished.length);
+        assertTrue(finished[0] >= before);
+        assertEquals(finished[0], finished[1]);
+        assertTrue(finished[2] >= finished[1]);
+    }
+
+    @Test
+    public void read_throwsWithTheOutputOfFailedCommands() throws IOException {
+        List<List<String>> phases = Arrays.asList(Collections.singletonList("am force-stop com.example"),
+                Collections.singletonList("run-as com.example rm -f shared_prefs/settings.xml"));
+        String output = status(0) + "run-as: package not debuggable: com.example\n" + status(1);
+
+        try {
+            AppReset.read(new ByteArrayInputStream(output.getBytes("UTF-8")), phases);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Shell commands failed:\nrun-as com.example rm -f shared_prefs/settings.xml exited " +
+                    "with status 1: run-as: package not debuggable: com.example", e.getMessage());
+        }
+    }
+
+    @Test
+    public void read_throwsWhenTheShellStopsEarly() throws IOException {
+        List<List<String>> phases = Arrays.asList(Collections.singletonList("am force-stop com.example"),
+                Collections.singletonList("pm clear com.example"));
+
+        try {
+            AppReset.read(new ByteArrayInputStream(status(0).getBytes("UTF-8")), phases);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("pm clear com.example did not complete"));
+        }
+    }
+
+    /**
+     * @return the line the script of {@link AppReset#script(List)} writes after a command.
+     */
+    private static String status(int status) {
+        String script = AppReset.script(Collections.singletonList(Collections.singletonList("true")));
+        String echo = script.substring(script.indexOf("echo${IFS}") + "echo${IFS}".length(), script.indexOf("${IFS}$?"));
+        return echo + " " + status + "\n";
+    }
+}
@@ -0,0 +1,85 @@
+package com.lukekorth.deviceautomator;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal timing helpers for the JVM benchmarks. Results are only written when the
+ * {@code benchmarkReport} system property names a file to append them to, ex:
+ * {@code ./gradlew test -PbenchmarkReport=/tmp/benchmarks.txt}, so they can be compared between
+ * runs without adding to the test output. Benchmarks assert the behavior they measure, not times
+ * or allocations, which depend on the machine and the JVM.
+ */
+final class Benchmarks {
+
+    static final String REPORT_PROPERTY = "benchmarkReport";
+
+    interface Operation {
+        void run();
+    }
+
+    private Benchmarks() {}
+
+    /**
+     * @return the mean time in nanoseconds of a single run of the operation after warming up.
+     */
+    static double nanosPerOperation(int iterations, Operation operation) {
+        for (int i = 0; i < Math.max(iterations / 10, 1); i++) {
+            operation.run();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    /**
+     * @return the mean number of bytes allocated by the current thread for a single run of the
+     *         operation, or {@code -1} if the JVM does not support measuring allocations.
+     */
+    static long bytesPerOperation(int iterations, Operation operation) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        operation.run();
+
+        long start = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (allocations.getThreadAllocatedBytes(thread) - start) / iterations;
+    }
+
+    static void report(String name, double nanos) {
+        report(name, String.format(Locale.US, "%.3f us/op", nanos / 1000));
+    }
+
+    static synchronized void report(String name, String value) {
+        String file = System.getProperty(REPORT_PROPERTY);
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            try {
+                out.write(String.format(Locale.US, "%-60s %20s%n", name, value));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class ClickCacheTest {
+
+    private static final NodeQuery TAB = withText("Inbox").getNodeQuery();
+    private static final NodeQuery TOOLBAR = withResourceId("com.example:id/toolbar").getNodeQuery();
+    private static final NodeQuery A = withText("a").getNodeQuery();
+    private static final NodeQuery B = withText("b").getNodeQuery();
+    private static final NodeQuery C = withText("c").getNodeQuery();
+
+    private final ClickCache mCache = new ClickCache(2);
+
+    @Test
+    public void get_returnsPointRememberedForSameScreen() {
+        mCache.put(TAB, 1, 100, 200);
+
+        ClickCache.Target target = mCache.get(TAB, 1);
+
+        assertEquals(100, target.mX);
+        assertEquals(200, target.mY);
+        assertEquals(1, mCache.getHits());
+        assertEquals(0, mCache.getMisses());
+    }
+
+    @Test
+    public void get_missesWhenScreenChanged() {
+        mCache.put(TAB, 1, 100, 200);
+
+        assertNull(mCache.get(TAB, 2));
+        assertNull(mCache.get(TOOLBAR, 1));
+        assertEquals(2, mCache.getMisses());
+    }
+
+    @Test
+    public void get_remembersMatcherForSeveralScreens() {
+        mCache.put(TAB, 1, 100, 200);
+        mCache.put(TAB, 2, 100, 210);
+
+        assertEquals(200, mCache.get(TAB, 1).mY);
+        assertEquals(210, mCache.get(TAB, 2).mY);
+    }
+
+    @Test
+    public void get_matchesEqualQueriesOfDifferentMatchers() {
+        mCache.put(TAB, 1, 100, 200);
+
+        assertEquals(100, mCache.get(withText("Inbox").getNodeQuery(), 1).mX);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedPoint() {
+        mCache.put(A, 1, 0, 0);
+        mCache.put(B, 1, 0, 0);
+        mCache.get(A, 1);
+        mCache.put(C, 1, 0, 0);
+
+        assertEquals(2, mCache.size());
+        assertNull(mCache.get(B, 1));
+    }
+}
@@ -0,0 +1,166 @@
+package com.lukekorth.deviceautomator;
+
+import android.widget.CheckBox;
+import android.widget.TextView;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withClass;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withContentDescription;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextContaining;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class CompactHierarchyTest {
+
+    @Test
+    public void of_keepsEveryNode() {
+        HierarchyNode screen = SyntheticHierarchies.screen(20);
+        SyntheticHierarchies.nodeAt(screen, new int[] { 0, 1, 3, 3 }).setFlag(HierarchyNode.CHECKED, true);
+
+        CompactHierarchy compact = CompactHierarchy.of(screen);
+
+        assertEquals(screen.size(), compact.size());
+        assertEquals(-1, compact.getParent(0));
+        assertEquals(compact.size(), compact.getSubtreeEnd(0));
+        assertEquals("Item 0", compact.getText(7));
+        assertEquals("com.example:id/title", compact.getResourceId(7));
+        assertEquals(5, compact.getParent(7));
+        assertTrue(HierarchyDiff.compute(screen, compact.toHierarchyNode(0)).isEmpty());
+    }
+
+    @Test
+    public void internsRepeatedStringsOfACapture() {
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder();
+        int root = builder.add(-1, new String("android.widget.FrameLayout"), null, null, null, null, 0, 0, 0, 0, 0);
+        builder.add(root, new String("android.widget.TextView"), null, new String("com.example:id/title"), null, null, 0, 0, 0, 0, 0);
+        builder.add(root, new String("android.widget.TextView"), null, new String("com.example:id/title"), null, null, 0, 0, 0, 0, 0);
+
+        CompactHierarchy compact = builder.build();
+
+        assertSame(compact.getClassName(1), compact.getClassName(2));
+        assertSame(compact.getResourceId(1), compact.getResourceId(2));
+        assertEquals(2, compact.findAll(withResourceId("com.example:id/title").getNodeQuery()).length);
+        assertEquals(-1, compact.find(withResourceId("com.example:id/row").getNodeQuery()));
+    }
+
+    @Test
+    public void find_matchesTreeSearch() {
+        HierarchyNode screen = SyntheticHierarchies.screen(100);
+        HierarchyIndex index = new HierarchyIndex(screen);
+        CompactHierarchy compact = CompactHierarchy.of(screen);
+        List<UiObjectMatcher> matchers = Arrays.asList(
+                withText("Item 42"),
+                withTextContaining("of item 9", TextView.class),
+                withClass(CheckBox.class),
+                withContentDescription("Icon 7"),
+                withResourceId("com.example:id/row").childMatcher(withResourceId("com.example:id/title")),
+                withResourceId("com.example:id/unknown"),
+                withClass(TextView.class).instance(30));
+
+        for (UiObjectMatcher matcher : matchers) {
+            NodeQuery query = matcher.getNodeQuery();
+            List<HierarchyNode> found = new ArrayList<>();
+            for (int position : compact.findAll(query)) {
+                found.add(index.getNode(position));
+            }
+            assertEquals(query.toString(), query.findAll(screen), found);
+
+            int position = compact.find(query);
+            assertSame(query.find(screen), position == -1 ? null : index.getNode(position));
+        }
+    }
+
+    @Test
+    public void builder_requiresDocumentOrder() {
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder();
+        int root = builder.add(-1, "root", null, null, null, null, 0, 0, 0, 0, 0);
+        int first = builder.add(root, "first", null, null, null, null, 0, 0, 0, 0, 0);
+        builder.add(root, "second", null, null, null, null, 0, 0, 0, 0, 0);
+
+        try {
+            builder.add(first, "late", null, null, null, null, 0, 0, 0, 0, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {}
+
+        CompactHierarchy compact = builder.build();
+        assertEquals(2, compact.getSubtreeEnd(first));
+        assertEquals(3, compact.getSubtreeEnd(root));
+    }
+
+    @Test
+    public void benchmark_memory() {
+        final HierarchyNode screen = SyntheticHierarchies.screen(2000);
+        int nodes = screen.size();
+
+        long treeAllocated = Benchmarks.bytesPerOperation(20, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                screen.copy();
+            }
+        });
+        long compactAllocated = Benchmarks.bytesPerOperation(20, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                CompactHierarchy.of(screen);
+            }
+        });
+
+        long treeRetained = retainedBytes(new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                sRetained.add(screen.copy());
+            }
+        });
+        long compactRetained = retainedBytes(new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                sRetained.add(CompactHierarchy.of(screen));
+            }
+        });
+
+        // text is shared with the source in both cases, only the structure is measured
+        Benchmarks.report("HierarchyNode tree retained", treeRetained / nodes + " bytes/node");
+        Benchmarks.report("CompactHierarchy retained", compactRetained / nodes + " bytes/node");
+        if (treeAllocated != -1) {
+            Benchmarks.report("HierarchyNode tree allocated", treeAllocated + " bytes/capture");
+            Benchmarks.report("CompactHierarchy allocated", compactAllocated + " bytes/capture");
+        }
+        CompactHierarchy compact = CompactHierarchy.of(screen);
+        assertEquals(nodes, compact.size());
+        assertEquals(Fingerprint.of(screen), Fingerprint.of(compact.toHierarchyNode(0)));
+    }
+
+    private static final List<Object> sRetained = new ArrayList<>();
+
+    /**
+     * @return the mean growth of the heap for each result of the operation kept alive.
+     */
+    private static long retainedBytes(Benchmarks.Operation operation) {
+        int copies = 20;
+        sRetained.clear();
+        long before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            operation.run();
+        }
+        long after = usedHeap();
+        sRetained.clear();
+        return (after - before) / copies;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
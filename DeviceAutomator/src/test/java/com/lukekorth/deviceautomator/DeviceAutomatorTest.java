@@ -0,0 +1,178 @@
+package com.lukekorth.deviceautomator;
+
+import android.graphics.Rect;
+
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject;
+import androidx.test.uiautomator.UiObjectNotFoundException;
+import androidx.test.uiautomator.UiSelector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.lukekorth.deviceautomator.AutomatorAction.click;
+import static com.lukekorth.deviceautomator.AutomatorAssertion.text;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeviceAutomatorTest {
+
+    private static final int[] CHECKBOX_ROW_0 = new int[] { 0, 1, 0, 3 };
+
+    private HierarchyNode mScreen;
+    private UiDevice mDevice;
+    private UiObject mObject;
+
+    @Before
+    public void setup() {
+        mScreen = SyntheticHierarchies.screen(10);
+        // the screen only changes through the ui elements, no accessibility events are sent
+        AccessibilityEvents.setReplaying(true);
+        AccessibilityCapturer.setSnapshot(new HierarchySnapshot(new HierarchySnapshot.Capturer() {
+            @Override
+            public HierarchyNode captureAll() {
+                return mScreen.copy();
+            }
+
+            @Override
+            public HierarchyNode capture(int[] path) {
+                return SyntheticHierarchies.nodeAt(mScreen, path).copy();
+            }
+        }));
+        mDevice = mock(UiDevice.class);
+        mObject = mock(UiObject.class);
+        when(mDevice.findObject(any(UiSelector.class))).thenReturn(mObject);
+        DeviceAutomator.setMatcherCacheEnabled(true);
+    }
+
+    @After
+    public void teardown() {
+        DeviceAutomator.setMatcherCacheEnabled(false);
+        AccessibilityCapturer.setSnapshot(null);
+        AccessibilityEvents.setReplaying(false);
+    }
+
+    @Test
+    public void isChecked_readsTheScreenAfterAnAction() throws UiObjectNotFoundException {
+        when(mObject.click()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                SyntheticHierarchies.nodeAt(mScreen, CHECKBOX_ROW_0).setFlag(HierarchyNode.CHECKED, true);
+                return true;
+            }
+        });
+        DeviceAutomator checkbox = new DeviceAutomator(mDevice, withResourceId("com.example:id/checkbox"));
+        assertFalse(checkbox.isChecked());
+
+        checkbox.perform(click());
+
+        assertTrue(checkbox.isChecked());
+        verify(mDevice).waitForIdle();
+    }
+
+    @Test
+    public void check_waitsOnTheDeviceForElementsMissingFromTheSnapshot() throws UiObjectNotFoundException {
+        when(mObject.getVisibleBounds()).thenReturn(new Rect(0, 0, 100, 100));
+        when(mObject.getText()).thenReturn("Loaded");
+
+        new DeviceAutomator(mDevice, withText("Loaded")).check(text(equalTo("Loaded")));
+
+        verify(mObject).getVisibleBounds();
+    }
+
+    @Test
+    public void click_remembersTheCenterOfTheElementForTheScreen() {
+        DeviceAutomator.setClickCacheEnabled(true);
+        try {
+            DeviceAutomator checkbox = new DeviceAutomator(mDevice, withResourceId("com.example:id/checkbox"));
+            checkbox.perform(click());
+            checkbox.perform(click());
+
+            verify(mDevice, times(2)).click(1010, 250);
+            assertEquals(1, DeviceAutomator.getClickCacheHits());
+        } finally {
+            DeviceAutomator.setClickCacheEnabled(false);
+        }
+    }
+
+    @Test
+    public void check_usesTheDeviceWithLocationHintsAndNoMatcherCache() throws IOException, UiObjectNotFoundException {
+        File hints = File.createTempFile("hints", null);
+        hints.delete();
+        DeviceAutomator.setMatcherCacheEnabled(false);
+        DeviceAutomator.setLocationHintFile(hints);
+        try {
+            when(mObject.getVisibleBounds()).thenReturn(new Rect(0, 0, 100, 100));
+            when(mObject.getText()).thenReturn("Item 1");
+
+            new DeviceAutomator(mDevice, withText("Item 1")).check(text(equalTo("Item 1")));
+
+            verify(mObject).getVisibleBounds();
+        } finally {
+            DeviceAutomator.setLocationHintFile(null);
+            hints.delete();
+        }
+    }
+
+    @Test
+    public void visibleCenter_clipsRowsScrolledOffTheList() {
+        HierarchyNode list = SyntheticHierarchies.nodeAt(mScreen, new int[] { 0, 1 });
+        HierarchyNode row = SyntheticHierarchies.nodeAt(mScreen, new int[] { 0, 1, 0 });
+        list.setBounds(0, 250, 1080, 1920);
+
+        ClickCache.Target target = DeviceAutomator.visibleCenter(row);
+
+        assertEquals(540, target.mX);
+        assertEquals(275, target.mY);
+        list.setBounds(0, 300, 1080, 1920);
+        assertNull(DeviceAutomator.visibleCenter(row));
+    }
+
+    @Test
+    public void perform_reportsOnlyTheLookupToTheSlowQueryDetector() throws UiObjectNotFoundException {
+        when(mObject.exists()).thenReturn(true);
+        when(mObject.click()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws InterruptedException {
+                Thread.sleep(200);
+                return true;
+            }
+        });
+        SlowQueryDetector detector = new SlowQueryDetector(100);
+        DeviceAutomator.setSlowQueryDetector(detector);
+        try {
+            new DeviceAutomator(mDevice, withText("Loaded")).perform(click());
+
+            verify(mObject).exists();
+            assertTrue(detector.getTopSlowMatchers(10).isEmpty());
+        } finally {
+            DeviceAutomator.setSlowQueryDetector(null);
+        }
+    }
+
+    @Test
+    public void exists_looksUpElementsMissingFromTheSnapshotOnTheDevice() {
+        when(mObject.exists()).thenReturn(true);
+
+        assertTrue(new DeviceAutomator(mDevice, withText("Loaded")).exists());
+    }
+}
@@ -0,0 +1,171 @@
+package com.lukekorth.deviceautomator;
+
+import android.view.accessibility.AccessibilityEvent;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class EventRecordingTest {
+
+    private static final int[] CHECKBOX_ROW_3 = new int[] { 0, 1, 3, 3 };
+
+    @Test
+    public void read_returnsTheEntriesThatWereWritten() throws IOException {
+        HierarchyNode screen = SyntheticHierarchies.screen(10);
+        screen.getChild(0).setBounds(-20, -5, 1080, 1920);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeCapture(1000, CompactHierarchy.of(screen));
+        writer.writeEvent(2500000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.example", CHECKBOX_ROW_3, false);
+        writer.writeEvent(3000000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.android.systemui", null, true);
+        writer.writeEvent(2000000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.close();
+
+        EventRecording recording = EventRecording.read(new ByteArrayInputStream(out.toByteArray()));
+
+        List<EventRecording.Entry> entries = recording.getEntries();
+        assertEquals(4, entries.size());
+        assertEquals(1, recording.getCaptureCount());
+        assertEquals(3, recording.getEventCount());
+        assertEquals(Fingerprint.ofContent(screen), Fingerprint.ofContent(entries.get(0).getCapture().toHierarchyNode(0)));
+        assertEquals(-20, entries.get(0).getCapture().getLeft(1));
+        assertEquals(-5, entries.get(0).getCapture().getTop(1));
+
+        EventRecording.Entry change = entries.get(1);
+        assertFalse(change.isCapture());
+        assertEquals(2500000, change.getTimeNanos());
+        assertEquals(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, change.getEventType());
+        assertEquals("com.example", change.getPackageName());
+        assertTrue(Arrays.equals(CHECKBOX_ROW_3, change.getPath()));
+        assertTrue(entries.get(2).isOtherWindow());
+        assertNull(entries.get(2).getPath());
+        assertFalse(entries.get(3).isOtherWindow());
+        // written out of order, the time doesn't go back
+        assertEquals(3000000, entries.get(3).getTimeNanos());
+        assertEquals(3000000, recording.getDurationNanos());
+    }
+
+    @Test
+    public void read_stopsAtTheLastCompleteEntry() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeEvent(1000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.flush();
+        int complete = out.size();
+        writer.writeCapture(2000, CompactHierarchy.of(SyntheticHierarchies.screen(10)));
+        writer.close();
+
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), complete + (out.size() - complete) / 2);
+        EventRecording recording = EventRecording.read(new ByteArrayInputStream(truncated));
+
+        assertEquals(1, recording.getEntries().size());
+        assertEquals(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, recording.getEntries().get(0).getEventType());
+    }
+
+    @Test
+    public void read_rejectsOtherStreams() {
+        try {
+            EventRecording.read(new ByteArrayInputStream(new byte[16]));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Not an event recording", e.getMessage());
+        }
+    }
+
+    @Test
+    public void replay_recapturesTheSubtreesTheEventsChanged() throws IOException {
+        HierarchyNode before = SyntheticHierarchies.screen(10);
+        HierarchyNode after = before.copy();
+        SyntheticHierarchies.nodeAt(after, CHECKBOX_ROW_3).setFlag(HierarchyNode.CHECKED, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeCapture(0, CompactHierarchy.of(before));
+        writer.writeEvent(1000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.writeCapture(2000, CompactHierarchy.of(after));
+        writer.writeEvent(3000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.example", CHECKBOX_ROW_3, false);
+        writer.writeEvent(4000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.android.systemui", null, true);
+        writer.close();
+        final EventReplayer replayer = new EventReplayer(EventRecording.read(new ByteArrayInputStream(out.toByteArray())));
+        final HierarchyNode[] seen = new HierarchyNode[3];
+        final boolean[] checked = new boolean[3];
+        replayer.addListener(new EventReplayer.Listener() {
+            @Override
+            public void onEvent(EventRecording.Entry event) {
+                int index = replayer.getEventCount() - 1;
+                seen[index] = replayer.getHierarchy();
+                checked[index] = SyntheticHierarchies.nodeAt(seen[index], CHECKBOX_ROW_3).hasFlag(HierarchyNode.CHECKED);
+            }
+        });
+
+        assertTrue(replayer.replay(Double.POSITIVE_INFINITY));
+
+        assertEquals(3, replayer.getEventCount());
+        assertEquals(2, replayer.getCaptureCount());
+        assertFalse(checked[0]);
+        assertTrue(checked[1]);
+        assertTrue(checked[2]);
+        assertSame(seen[0], seen[1]);
+        assertSame(seen[1], seen[2]);
+        assertEquals(1, replayer.getSnapshot().getFullCaptures());
+        assertEquals(1, replayer.getSnapshot().getPartialCaptures());
+    }
+
+    @Test
+    public void replay_keepsTheRecordedTimingAtTheGivenSpeed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeEvent(0, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.writeEvent(400000000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.close();
+        FakeClock clock = new FakeClock();
+        EventReplayer replayer = new EventReplayer(EventRecording.read(new ByteArrayInputStream(out.toByteArray())), clock);
+
+        assertTrue(replayer.replay(4));
+
+        assertEquals(100, clock.getSleptMillis());
+        assertEquals(2, replayer.getEventCount());
+    }
+
+    @Test
+    public void replay_benchmark() throws IOException {
+        HierarchyNode screen = SyntheticHierarchies.screen(50);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeCapture(0, CompactHierarchy.of(screen));
+        for (int i = 0; i < 1000; i++) {
+            int[] path = new int[] { 0, 1, i % 50, 3 };
+            writer.writeEvent(i * 16000000L, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.example", path, false);
+        }
+        writer.close();
+        final EventRecording recording = EventRecording.read(new ByteArrayInputStream(out.toByteArray()));
+        final NodeQuery query = UiObjectMatcher.withText("Item 25").getNodeQuery();
+
+        double nanos = Benchmarks.nanosPerOperation(20, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                final EventReplayer replayer = new EventReplayer(recording);
+                replayer.addListener(new EventReplayer.Listener() {
+                    @Override
+                    public void onEvent(EventRecording.Entry event) {
+                        query.find(replayer.getHierarchy());
+                    }
+                });
+                replayer.replay(Double.POSITIVE_INFINITY);
+            }
+        });
+
+        Benchmarks.report("Replay 1000 content changes, resolving after each", nanos);
+    }
+}
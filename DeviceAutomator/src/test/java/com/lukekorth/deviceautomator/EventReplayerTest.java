@@ -0,0 +1,112 @@
+package com.lukekorth.deviceautomator;
+
+import android.view.accessibility.AccessibilityEvent;
+
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject;
+import androidx.test.uiautomator.UiSelector;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class EventReplayerTest {
+
+    private final List<String> mEvents = new ArrayList<>();
+    private final AccessibilityEvents.Listener mListener = new AccessibilityEvents.Listener() {
+        @Override
+        public void onAccessibilityEvent(AccessibilityEvent event) {
+            mEvents.add(event.getEventType() + " " + event.getPackageName());
+        }
+    };
+
+    private EventReplayer mReplayer;
+
+    @After
+    public void teardown() {
+        AccessibilityEvents.removeListener(mListener);
+        mReplayer.uninstall();
+    }
+
+    @Test
+    public void replay_passesEventsOfTheActiveWindowToTheLibrary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeCapture(0, CompactHierarchy.of(SyntheticHierarchies.screen(10)));
+        writer.writeEvent(1000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.writeEvent(2000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.android.systemui", null, true);
+        writer.writeEvent(3000, AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.example", new int[] { 0, 1, 3 }, false);
+        writer.close();
+        mReplayer = new EventReplayer(EventRecording.read(new ByteArrayInputStream(out.toByteArray())));
+        mReplayer.install();
+        AccessibilityEvents.addListener(mListener);
+
+        mReplayer.replay(Double.POSITIVE_INFINITY);
+
+        assertEquals(2, mEvents.size());
+        assertEquals(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED + " com.example", mEvents.get(0));
+        assertEquals(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED + " com.example", mEvents.get(1));
+        assertEquals(3, mReplayer.getEventCount());
+    }
+
+    @Test
+    public void replay_enablesTheMatcherCacheWithoutADevice() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeEvent(1000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.close();
+        mReplayer = new EventReplayer(EventRecording.read(new ByteArrayInputStream(out.toByteArray())));
+        mReplayer.install();
+        DeviceAutomator.setMatcherCacheEnabled(true);
+        try {
+            AccessibilityEvents.addListener(mListener);
+
+            mReplayer.replay(Double.POSITIVE_INFINITY);
+
+            assertEquals(1, mEvents.size());
+        } finally {
+            DeviceAutomator.setMatcherCacheEnabled(false);
+        }
+    }
+
+    @Test
+    public void install_resolvesLookupsAgainstTheReplay() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventRecording.Writer writer = new EventRecording.Writer(out);
+        writer.writeCapture(0, CompactHierarchy.of(SyntheticHierarchies.screen(10)));
+        writer.writeEvent(1000, AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.example", null, false);
+        writer.close();
+        mReplayer = new EventReplayer(EventRecording.read(new ByteArrayInputStream(out.toByteArray())));
+        // the device never finds the element, only the replay can
+        UiDevice device = mock(UiDevice.class);
+        when(device.findObject(any(UiSelector.class))).thenReturn(mock(UiObject.class));
+        DeviceAutomator checkbox = new DeviceAutomator(device, withResourceId("com.example:id/checkbox"));
+        mReplayer.install();
+        DeviceAutomator.setMatcherCacheEnabled(true);
+        try {
+            mReplayer.replay(Double.POSITIVE_INFINITY);
+            long hits = DeviceAutomator.getMatcherCacheHits();
+
+            assertTrue(checkbox.exists());
+            assertTrue(checkbox.exists());
+            assertEquals(hits + 1, DeviceAutomator.getMatcherCacheHits());
+        } finally {
+            DeviceAutomator.setMatcherCacheEnabled(false);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.lukekorth.deviceautomator;
+
+/**
+ * A {@link Clock} that only moves when it sleeps or is advanced, so tests of waits run instantly
+ * and don't depend on the speed of the machine.
+ */
+class FakeClock implements Clock {
+
+    private long mNanos;
+    private long mSlept;
+
+    @Override
+    public synchronized long nanoTime() {
+        return mNanos;
+    }
+
+    @Override
+    public synchronized void sleep(long millis) {
+        mNanos += millis * 1000000;
+        mSlept += millis;
+    }
+
+    synchronized void advance(long millis) {
+        mNanos += millis * 1000000;
+    }
+
+    /**
+     * @return the total time in milliseconds slept.
+     */
+    synchronized long getSleptMillis() {
+        return mSlept;
+    }
+}
@@ -0,0 +1,141 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+public class FingerprintTest {
+
+    @Test
+    public void of_isEqualForIdenticalHierarchies() {
+        HierarchyNode screen = SyntheticHierarchies.screen(10);
+
+        assertEquals(Fingerprint.of(screen), Fingerprint.of(screen.copy()));
+    }
+
+    @Test
+    public void of_changesWithText() {
+        HierarchyNode screen = SyntheticHierarchies.screen(10);
+        HierarchyNode changed = screen.copy();
+        SyntheticHierarchies.nodeAt(changed, new int[] { 0, 1, 4, 1 }).setText("Item 4!");
+
+        assertFalse(Fingerprint.of(screen) == Fingerprint.of(changed));
+    }
+
+    @Test
+    public void of_changesWithBounds() {
+        HierarchyNode screen = SyntheticHierarchies.screen(10);
+        HierarchyNode changed = screen.copy();
+        SyntheticHierarchies.nodeAt(changed, new int[] { 0, 1, 4 }).setBounds(0, 601, 1080, 701);
+
+        assertFalse(Fingerprint.of(screen) == Fingerprint.of(changed));
+    }
+
+    @Test
+    public void of_changesWithStructure() {
+        HierarchyNode nested = new HierarchyNode("a")
+                .addChild(new HierarchyNode("b").addChild(new HierarchyNode("c")));
+        HierarchyNode siblings = new HierarchyNode("a")
+                .addChild(new HierarchyNode("b"))
+                .addChild(new HierarchyNode("c"));
+
+        assertFalse(Fingerprint.of(nested) == Fingerprint.of(siblings));
+    }
+
+    @Test
+    public void add_doesNotLetAdjacentValuesRunTogether() {
+        assertFalse(new Fingerprint().add("ab").add("c").get() == new Fingerprint().add("a").add("bc").get());
+        assertFalse(new Fingerprint().add((CharSequence) null).get() == new Fingerprint().add("").get());
+    }
+
+    @Test
+    public void add_hashesCharSequencesLikeStrings() {
+        assertEquals(new Fingerprint().add("Item 1").get(),
+                new Fingerprint().add(new StringBuilder("Item ").append(1)).get());
+    }
+
+    @Test
+    public void benchmark_fingerprintComparedToDump() throws XMLStreamException {
+        for (int rows : new int[] { 20, 200, 2000 }) {
+            final HierarchyNode before = SyntheticHierarchies.screen(rows);
+            final HierarchyNode after = before.copy();
+
+            // the same check two ways: did anything change between two reads of the screen
+            double fingerprintNanos = Benchmarks.nanosPerOperation(100, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    if (Fingerprint.of(before) != Fingerprint.of(after)) {
+                        throw new AssertionError();
+                    }
+                }
+            });
+            double dumpNanos = Benchmarks.nanosPerOperation(100, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    if (!Arrays.equals(dump(before), dump(after))) {
+                        throw new AssertionError();
+                    }
+                }
+            });
+            long allocated = Benchmarks.bytesPerOperation(20, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    Fingerprint.of(before);
+                }
+            });
+
+            Benchmarks.report("Fingerprint compare " + before.size() + " nodes", fingerprintNanos);
+            Benchmarks.report("Dump compare " + before.size() + " nodes", dumpNanos);
+            Benchmarks.report("Fingerprint allocation " + before.size() + " nodes", allocated + " bytes/op");
+        }
+    }
+
+    /**
+     * Serializes the hierarchy like {@link androidx.test.uiautomator.UiDevice#dumpWindowHierarchy}.
+     */
+    private static byte[] dump(HierarchyNode root) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("hierarchy");
+            for (int i = 0; i < root.getChildCount(); i++) {
+                dump(writer, root.getChild(i), i);
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            return out.toByteArray();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void dump(XMLStreamWriter writer, HierarchyNode node, int index) throws XMLStreamException {
+        writer.writeStartElement("node");
+        writer.writeAttribute("index", Integer.toString(index));
+        writer.writeAttribute("text", node.getText() == null ? "" : node.getText());
+        writer.writeAttribute("resource-id", node.getResourceId() == null ? "" : node.getResourceId());
+        writer.writeAttribute("class", node.getClassName() == null ? "" : node.getClassName());
+        writer.writeAttribute("package", node.getPackageName() == null ? "" : node.getPackageName());
+        writer.writeAttribute("content-desc", node.getContentDescription() == null ? "" : node.getContentDescription());
+        writer.writeAttribute("checkable", Boolean.toString(node.hasFlag(HierarchyNode.CHECKABLE)));
+        writer.writeAttribute("checked", Boolean.toString(node.hasFlag(HierarchyNode.CHECKED)));
+        writer.writeAttribute("clickable", Boolean.toString(node.hasFlag(HierarchyNode.CLICKABLE)));
+        writer.writeAttribute("enabled", Boolean.toString(node.hasFlag(HierarchyNode.ENABLED)));
+        writer.writeAttribute("bounds", "[" + node.getLeft() + "," + node.getTop() + "][" +
+                node.getRight() + "," + node.getBottom() + "]");
+        for (int i = 0; i < node.getChildCount(); i++) {
+            dump(writer, node.getChild(i), i);
+        }
+        writer.writeEndElement();
+    }
+}
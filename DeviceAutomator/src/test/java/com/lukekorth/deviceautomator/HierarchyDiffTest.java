@@ -0,0 +1,141 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HierarchyDiffTest {
+
+    @Test
+    public void compute_isEmptyForIdenticalHierarchies() {
+        HierarchyNode before = SyntheticHierarchies.screen(10);
+
+        assertTrue(HierarchyDiff.compute(before, before.copy()).isEmpty());
+    }
+
+    @Test
+    public void compute_findsChangedProperties() {
+        HierarchyNode before = SyntheticHierarchies.screen(10);
+        HierarchyNode after = before.copy();
+        HierarchyNode title = SyntheticHierarchies.nodeAt(after, new int[] { 0, 1, 2, 1 });
+        title.setText("Renamed").setBounds(0, 0, 10, 10);
+
+        List<HierarchyDiff.Change> changes = HierarchyDiff.compute(before, after).getChanges();
+
+        assertEquals(1, changes.size());
+        assertEquals(HierarchyDiff.Type.CHANGED, changes.get(0).getType());
+        assertSame(title, changes.get(0).getAfter());
+        assertEquals(HierarchyDiff.TEXT | HierarchyDiff.BOUNDS, changes.get(0).getChangedProperties());
+    }
+
+    @Test
+    public void compute_findsAddedAndRemovedSubtrees() {
+        HierarchyNode before = SyntheticHierarchies.screen(3);
+        HierarchyNode after = before.copy();
+        HierarchyNode toolbar = after.getChild(0).getChild(0);
+        toolbar.replaceChild(0, new HierarchyNode("android.widget.ImageButton").setContentDescription("Back"));
+
+        HierarchyDiff diff = HierarchyDiff.compute(before, after);
+
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.REMOVED).size());
+        assertEquals("android.widget.TextView",
+                diff.getChanges(HierarchyDiff.Type.REMOVED).get(0).getBefore().getClassName());
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.ADDED).size());
+        assertEquals("Back", diff.getChanges(HierarchyDiff.Type.ADDED).get(0).getAfter().getContentDescription());
+        assertEquals(2, diff.getChanges().size());
+    }
+
+    @Test
+    public void compute_findsInsertedRowWithoutReportingLaterRowsAsMoved() {
+        HierarchyNode before = list(0, 1, 2, 3);
+        HierarchyNode after = list(0, 1, 9, 2, 3);
+
+        HierarchyDiff diff = HierarchyDiff.compute(before, after);
+
+        assertEquals(0, diff.getChanges(HierarchyDiff.Type.MOVED).size());
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.ADDED).size());
+        assertEquals("Row 9", diff.getChanges(HierarchyDiff.Type.ADDED).get(0).getAfter().getText());
+    }
+
+    @Test
+    public void compute_findsReorderedChildren() {
+        HierarchyNode before = list(0, 1, 2, 3);
+        HierarchyNode after = list(0, 3, 1, 2);
+
+        List<HierarchyDiff.Change> moved = HierarchyDiff.compute(before, after).getChanges(HierarchyDiff.Type.MOVED);
+
+        assertEquals(1, moved.size());
+        assertEquals("Row 3", moved.get(0).getAfter().getText());
+        assertEquals(3, moved.get(0).getBefore().getIndex());
+        assertEquals(1, moved.get(0).getAfter().getIndex());
+    }
+
+    @Test
+    public void compute_findsSubtreeMovedToAnotherParent() {
+        HierarchyNode before = new HierarchyNode("android.widget.FrameLayout")
+                .addChild(new HierarchyNode("android.widget.LinearLayout").setResourceId("top")
+                        .addChild(new HierarchyNode("android.widget.Button").setResourceId("action").setText("Go")))
+                .addChild(new HierarchyNode("android.widget.LinearLayout").setResourceId("bottom"));
+        HierarchyNode after = new HierarchyNode("android.widget.FrameLayout")
+                .addChild(new HierarchyNode("android.widget.LinearLayout").setResourceId("top"))
+                .addChild(new HierarchyNode("android.widget.LinearLayout").setResourceId("bottom")
+                        .addChild(new HierarchyNode("android.widget.Button").setResourceId("action").setText("Go!")));
+
+        HierarchyDiff diff = HierarchyDiff.compute(before, after);
+
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.MOVED).size());
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.CHANGED).size());
+        assertEquals(HierarchyDiff.TEXT, diff.getChanges(HierarchyDiff.Type.CHANGED).get(0).getChangedProperties());
+        assertEquals(0, diff.getChanges(HierarchyDiff.Type.ADDED).size());
+        assertEquals(0, diff.getChanges(HierarchyDiff.Type.REMOVED).size());
+    }
+
+    @Test
+    public void compute_replacesRootsWithDifferentClasses() {
+        HierarchyDiff diff = HierarchyDiff.compute(new HierarchyNode("a"), new HierarchyNode("b"));
+
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.REMOVED).size());
+        assertEquals(1, diff.getChanges(HierarchyDiff.Type.ADDED).size());
+    }
+
+    @Test
+    public void benchmark_compute() {
+        for (int rows : new int[] { 20, 200, 2000 }) {
+            // a typical step: a row is removed, another one inserted further down and a checkbox is
+            // toggled, rows between the two move by one position
+            int[] ids = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                ids[i] = i < rows / 4 ? i : i < rows / 2 ? i + 1 : i == rows / 2 ? rows : i;
+            }
+            final HierarchyNode before = SyntheticHierarchies.screen(rows);
+            final HierarchyNode after = SyntheticHierarchies.screenWithRows(ids);
+            SyntheticHierarchies.nodeAt(after, new int[] { 0, 1, 1, 3 }).setFlag(HierarchyNode.CHECKED, true);
+
+            final HierarchyDiff[] diff = new HierarchyDiff[1];
+            double nanos = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    diff[0] = HierarchyDiff.compute(before, after);
+                }
+            });
+
+            Benchmarks.report("HierarchyDiff.compute " + before.size() + " nodes", nanos);
+            assertEquals(1, diff[0].getChanges(HierarchyDiff.Type.REMOVED).size());
+            assertEquals(1, diff[0].getChanges(HierarchyDiff.Type.ADDED).size());
+            assertEquals(0, diff[0].getChanges(HierarchyDiff.Type.MOVED).size());
+            assertEquals(HierarchyDiff.FLAGS, diff[0].getChanges(HierarchyDiff.Type.CHANGED).get(0).getChangedProperties());
+        }
+    }
+
+    private static HierarchyNode list(int... rows) {
+        HierarchyNode list = new HierarchyNode("android.widget.ListView");
+        for (int row : rows) {
+            list.addChild(new HierarchyNode("android.widget.TextView").setText("Row " + row));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,41 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HierarchyIndexTest {
+
+    private final HierarchyNode mScreen = SyntheticHierarchies.screen(3);
+    private final HierarchyIndex mIndex = new HierarchyIndex(mScreen);
+
+    @Test
+    public void numbersNodesInDocumentOrder() {
+        assertEquals(mScreen.size(), mIndex.size());
+        assertSame(mScreen, mIndex.getNode(0));
+        assertSame(mScreen.getChild(0), mIndex.getNode(1));
+        assertSame(mScreen.getChild(0).getChild(0), mIndex.getNode(2));
+        assertSame(mScreen.getChild(0).getChild(0).getChild(0), mIndex.getNode(3));
+        assertSame(mScreen.getChild(0).getChild(1), mIndex.getNode(4));
+    }
+
+    @Test
+    public void getSubtreeEnd_coversDescendants() {
+        assertEquals(mIndex.size(), mIndex.getSubtreeEnd(0));
+        assertEquals(4, mIndex.getSubtreeEnd(2));
+        assertEquals(4, mIndex.getSubtreeEnd(3));
+        assertEquals(10, mIndex.getSubtreeEnd(5));
+    }
+
+    @Test
+    public void looksUpPositionsByValue() {
+        assertTrue(Arrays.equals(new int[] { 5, 10, 15 }, mIndex.withResourceId("com.example:id/row")));
+        assertTrue(Arrays.equals(new int[] { 11 }, mIndex.withContentDescription("Icon 1")));
+        assertEquals(7, mIndex.withClassName("android.widget.TextView").length);
+        assertEquals(0, mIndex.withClassName("android.widget.Switch").length);
+    }
+}
@@ -0,0 +1,54 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HierarchyParserTest {
+
+    @Test
+    public void parse_returnsRootWithWindows() {
+        HierarchyNode root = HierarchyParser.parse(getClass().getClassLoader().getResourceAsStream("login_screen.xml"));
+
+        assertNull(root.getClassName());
+        assertEquals(1, root.getChildCount());
+        assertEquals("android.widget.FrameLayout", root.getChild(0).getClassName());
+        assertEquals(8, root.size());
+    }
+
+    @Test
+    public void parse_readsAttributes() {
+        HierarchyNode root = HierarchyParser.parse(getClass().getClassLoader().getResourceAsStream("login_screen.xml"));
+        HierarchyNode content = root.getChild(0).getChild(0);
+        HierarchyNode password = content.getChild(2);
+
+        assertEquals("com.example:id/password", password.getResourceId());
+        assertEquals("com.example", password.getPackageName());
+        assertEquals("Password", password.getContentDescription());
+        assertNull(password.getText());
+        assertTrue(password.hasFlag(HierarchyNode.PASSWORD));
+        assertTrue(password.hasFlag(HierarchyNode.CLICKABLE));
+        assertTrue(password.hasFlag(HierarchyNode.ENABLED));
+        assertFalse(password.hasFlag(HierarchyNode.CHECKED));
+        assertEquals(42, password.getLeft());
+        assertEquals(402, password.getTop());
+        assertEquals(1038, password.getRight());
+        assertEquals(520, password.getBottom());
+        assertSame(content, password.getParent());
+        assertEquals(2, password.getIndex());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_throwsForInvalidBounds() {
+        HierarchyParser.parse("<hierarchy><node class=\"a\" bounds=\"[0,0]\" /></hierarchy>");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_throwsForInvalidXml() {
+        HierarchyParser.parse("<hierarchy><node>");
+    }
+}
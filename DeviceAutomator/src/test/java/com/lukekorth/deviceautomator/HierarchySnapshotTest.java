@@ -0,0 +1,229 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class HierarchySnapshotTest {
+
+    private static final int[] CHECKBOX_ROW_3 = new int[] { 0, 1, 3, 3 };
+    private static final int[] ROW_3 = new int[] { 0, 1, 3 };
+
+    private FakeCapturer mCapturer;
+    private HierarchySnapshot mSnapshot;
+
+    @Before
+    public void setup() {
+        mCapturer = new FakeCapturer(SyntheticHierarchies.screen(10));
+        mSnapshot = new HierarchySnapshot(mCapturer);
+    }
+
+    @Test
+    public void get_capturesEverythingTheFirstTime() {
+        HierarchyNode root = mSnapshot.get();
+
+        assertEquals(mCapturer.mDevice.size(), root.size());
+        assertEquals(1, mSnapshot.getFullCaptures());
+        assertSame(root, mSnapshot.get());
+        assertEquals(1, mSnapshot.getFullCaptures());
+    }
+
+    @Test
+    public void invalidate_recapturesOnlyTheChangedSubtree() {
+        HierarchyNode root = mSnapshot.get();
+        HierarchyNode untouched = SyntheticHierarchies.nodeAt(root, new int[] { 0, 1, 4 });
+        SyntheticHierarchies.nodeAt(mCapturer.mDevice, CHECKBOX_ROW_3).setFlag(HierarchyNode.CHECKED, true);
+
+        mSnapshot.invalidate(CHECKBOX_ROW_3);
+
+        assertSame(root, mSnapshot.get());
+        assertTrue(SyntheticHierarchies.nodeAt(root, CHECKBOX_ROW_3).hasFlag(HierarchyNode.CHECKED));
+        assertSame(untouched, SyntheticHierarchies.nodeAt(root, new int[] { 0, 1, 4 }));
+        assertEquals(1, mSnapshot.getFullCaptures());
+        assertEquals(1, mSnapshot.getPartialCaptures());
+        assertEquals(root.size() + 1, mSnapshot.getCapturedNodes());
+    }
+
+    @Test
+    public void invalidate_skipsPathsBelowAnotherChangedPath() {
+        mSnapshot.get();
+
+        mSnapshot.invalidate(CHECKBOX_ROW_3);
+        mSnapshot.invalidate(ROW_3);
+        mSnapshot.invalidate(CHECKBOX_ROW_3);
+        mSnapshot.get();
+
+        assertEquals(1, mSnapshot.getPartialCaptures());
+        assertEquals(1, mCapturer.mPartialCaptures);
+    }
+
+    @Test
+    public void invalidate_recapturesEverythingWhenPathNoLongerExists() {
+        mSnapshot.get();
+        mCapturer.mDevice = SyntheticHierarchies.screen(2);
+
+        mSnapshot.invalidate(ROW_3);
+        HierarchyNode root = mSnapshot.get();
+
+        assertEquals(2, mSnapshot.getFullCaptures());
+        assertEquals(mCapturer.mDevice.size(), root.size());
+    }
+
+    @Test
+    public void invalidate_recapturesEverythingForUnknownNode() {
+        mSnapshot.get();
+
+        mSnapshot.invalidate(null);
+        mSnapshot.get();
+
+        assertEquals(2, mSnapshot.getFullCaptures());
+        assertEquals(0, mSnapshot.getPartialCaptures());
+    }
+
+    @Test
+    public void invalidate_recapturesEverythingAfterTooManyChanges() {
+        mSnapshot.get();
+
+        for (int i = 0; i <= HierarchySnapshot.MAX_PENDING_PATHS; i++) {
+            mSnapshot.invalidate(new int[] { 0, 1, i % 10 });
+        }
+        mSnapshot.get();
+
+        assertEquals(2, mSnapshot.getFullCaptures());
+        assertEquals(0, mCapturer.mPartialCaptures);
+    }
+
+    @Test
+    public void invalidateAll_recapturesEverything() {
+        HierarchyNode first = mSnapshot.get();
+
+        mSnapshot.invalidateAll();
+
+        assertTrue(first != mSnapshot.get());
+        assertEquals(2, mSnapshot.getFullCaptures());
+    }
+
+    @Test
+    public void invalidate_doesNotWaitForACaptureInProgress() throws InterruptedException {
+        final boolean[] delivered = new boolean[1];
+        HierarchySnapshot snapshot = new HierarchySnapshot(new FakeCapturer(SyntheticHierarchies.screen(10)) {
+            @Override
+            public HierarchyNode captureAll() {
+                final HierarchySnapshot snapshot = mSnapshot;
+                Thread events = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        snapshot.invalidateAll();
+                    }
+                });
+                events.start();
+                try {
+                    events.join(5000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                delivered[0] |= !events.isAlive();
+                return super.captureAll();
+            }
+        });
+        mSnapshot = snapshot;
+
+        snapshot.get();
+
+        assertTrue(delivered[0]);
+        assertEquals(1, snapshot.getFullCaptures());
+        snapshot.get();
+        assertEquals(2, snapshot.getFullCaptures());
+    }
+
+    @Test
+    public void getFingerprint_isOnlyRecomputedAfterChanges() {
+        long fingerprint = mSnapshot.getFingerprint();
+
+        assertEquals(Fingerprint.of(mCapturer.mDevice), fingerprint);
+        assertEquals(fingerprint, mSnapshot.getFingerprint());
+
+        SyntheticHierarchies.nodeAt(mCapturer.mDevice, CHECKBOX_ROW_3).setBounds(0, 0, 1, 1);
+        mSnapshot.invalidate(CHECKBOX_ROW_3);
+
+        assertEquals(Fingerprint.of(mCapturer.mDevice), mSnapshot.getFingerprint());
+        assertTrue(fingerprint != mSnapshot.getFingerprint());
+    }
+
+    @Test
+    public void benchmark_capturePerStep() {
+        for (final int rows : new int[] { 20, 200, 2000 }) {
+            final FakeCapturer capturer = new FakeCapturer(SyntheticHierarchies.screen(rows));
+            final HierarchySnapshot incremental = new HierarchySnapshot(capturer);
+            final HierarchySnapshot full = new HierarchySnapshot(capturer);
+            incremental.get();
+            full.get();
+
+            // a typical step: perform(click()) toggles a checkbox in a row, then check() reads it
+            double incrementalNanos = Benchmarks.nanosPerOperation(200, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    incremental.invalidate(CHECKBOX_ROW_3);
+                    incremental.get();
+                }
+            });
+            double fullNanos = Benchmarks.nanosPerOperation(200, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    full.invalidateAll();
+                    full.get();
+                }
+            });
+
+            int nodes = capturer.mDevice.size();
+            Benchmarks.report("HierarchySnapshot incremental step, " + nodes + " nodes", incrementalNanos);
+            Benchmarks.report("HierarchySnapshot full recapture step, " + nodes + " nodes", fullNanos);
+
+            // one more step of each, recapturing only the row against the whole screen
+            long incrementalNodes = incremental.getCapturedNodes();
+            incremental.invalidate(CHECKBOX_ROW_3);
+            incremental.get();
+            long fullNodes = full.getCapturedNodes();
+            full.invalidateAll();
+            full.get();
+            assertEquals(SyntheticHierarchies.nodeAt(capturer.mDevice, CHECKBOX_ROW_3).size(),
+                    incremental.getCapturedNodes() - incrementalNodes);
+            assertEquals(nodes, full.getCapturedNodes() - fullNodes);
+        }
+    }
+
+    /**
+     * Captures by copying from a hierarchy standing in for the device, which costs time in
+     * proportion to the number of nodes captured like a real capture does.
+     */
+    private static class FakeCapturer implements HierarchySnapshot.Capturer {
+
+        HierarchyNode mDevice;
+        int mPartialCaptures;
+
+        FakeCapturer(HierarchyNode device) {
+            mDevice = device;
+        }
+
+        @Override
+        public HierarchyNode captureAll() {
+            return mDevice.copy();
+        }
+
+        @Override
+        public HierarchyNode capture(int[] path) {
+            mPartialCaptures++;
+            HierarchyNode node = mDevice;
+            for (int index : path) {
+                if (index >= node.getChildCount()) {
+                    return null;
+                }
+                node = node.getChild(index);
+            }
+            return node.copy();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class IdleRegistryTest {
+
+    @After
+    public void tearDown() {
+        IdleRegistry.clear();
+    }
+
+    @Test
+    public void isIdle_whenEverySignalIsIdle() {
+        TestSignal first = new TestSignal("first", true);
+        TestSignal second = new TestSignal("second", false);
+        IdleRegistry.register(first);
+        IdleRegistry.register(second);
+
+        assertFalse(IdleRegistry.isIdle());
+        assertEquals(Collections.singletonList("second"), IdleRegistry.getBusySignals());
+
+        second.mIdle = true;
+        assertTrue(IdleRegistry.isIdle());
+    }
+
+    @Test
+    public void register_callsLifecycleOnce() {
+        TestSignal signal = new TestSignal("signal", true);
+
+        IdleRegistry.register(signal);
+        IdleRegistry.register(signal);
+        IdleRegistry.unregister(signal);
+        IdleRegistry.unregister(signal);
+
+        assertEquals(1, signal.mRegistered);
+        assertEquals(1, signal.mUnregistered);
+        assertTrue(IdleRegistry.isEmpty());
+    }
+
+    @Test
+    public void waitForIdle_returnsWhenWorkFinishes() {
+        final FakeClock clock = new FakeClock();
+        IdleRegistry.register(new TestSignal("network", false) {
+            @Override
+            public boolean isIdle() {
+                return clock.nanoTime() >= 100000000;
+            }
+        });
+
+        assertTrue(IdleRegistry.waitForIdle(5000, clock));
+        assertEquals(100, clock.getSleptMillis());
+    }
+
+    @Test
+    public void waitForIdle_timesOut() {
+        FakeClock clock = new FakeClock();
+        IdleRegistry.register(new TestSignal("stuck", false));
+
+        assertFalse(IdleRegistry.waitForIdle(50, clock));
+        assertEquals(50, clock.getSleptMillis());
+    }
+
+    @Test
+    public void whileFileAbsent_isBusyWhileFileExists() throws IOException {
+        File file = File.createTempFile("busy", null);
+        IdleSignal signal = IdleSignal.whileFileAbsent(file);
+
+        assertFalse(signal.isIdle());
+        file.delete();
+        assertTrue(signal.isIdle());
+    }
+
+    @Test
+    public void espressoIdlingResources_isIdleWithoutEspresso() {
+        assertTrue(IdleSignal.espressoIdlingResources().isIdle());
+    }
+
+    private static class TestSignal extends IdleSignal {
+
+        final String mName;
+        volatile boolean mIdle;
+        int mRegistered;
+        int mUnregistered;
+
+        TestSignal(String name, boolean idle) {
+            mName = name;
+            mIdle = idle;
+        }
+
+        @Override
+        public boolean isIdle() {
+            return mIdle;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        protected void onRegistered() {
+            mRegistered++;
+        }
+
+        @Override
+        protected void onUnregistered() {
+            mUnregistered++;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ImageComparatorTest {
+
+    private final ImageComparator mComparator = new ImageComparator();
+
+    @Test
+    public void difference_isZeroForIdenticalImages() {
+        int[] image = noise(200, 100, 1);
+
+        assertEquals(0.0, mComparator.difference(image, 200, 100, image.clone(), 200, 100), 0);
+    }
+
+    @Test
+    public void difference_isOneForBlackComparedToWhite() {
+        assertEquals(1.0, mComparator.difference(solid(50, 50, 0xff000000), 50, 50,
+                solid(50, 50, 0xffffffff), 50, 50), 0);
+    }
+
+    @Test
+    public void difference_toleratesScaling() {
+        int[] small = gradient(100, 100);
+        int[] large = gradient(400, 400);
+
+        assertTrue(mComparator.difference(small, 100, 100, large, 400, 400) < 0.01);
+    }
+
+    @Test
+    public void difference_comparesRegionsWithoutCopying() {
+        int[] screen = solid(300, 300, 0xff000000);
+        int[] golden = gradient(100, 100);
+        for (int y = 0; y < 100; y++) {
+            System.arraycopy(golden, y * 100, screen, (y + 50) * 300 + 50, 100);
+        }
+
+        assertEquals(0.0, mComparator.difference(screen, 50 * 300 + 50, 300, 100, 100, golden, 0, 100,
+                100, 100), 0);
+    }
+
+    @Test
+    public void difference_detectsChangedRegion() {
+        int[] image = gradient(100, 100);
+        int[] changed = image.clone();
+        for (int y = 0; y < 50; y++) {
+            Arrays.fill(changed, y * 100, y * 100 + 50, 0xffff0000);
+        }
+
+        assertTrue(mComparator.difference(image, 100, 100, changed, 100, 100) > 0.1);
+    }
+
+    @Test
+    public void perceptualHash_isStableForSimilarImages() {
+        long hash = mComparator.perceptualHash(gradient(100, 100), 100, 100);
+        long scaled = mComparator.perceptualHash(gradient(360, 240), 360, 240);
+
+        assertTrue(ImageComparator.hammingDistance(hash, scaled) <= 2);
+    }
+
+    @Test
+    public void perceptualHash_differsForDifferentImages() {
+        long hash = mComparator.perceptualHash(gradient(100, 100), 100, 100);
+        long noise = mComparator.perceptualHash(noise(100, 100, 2), 100, 100);
+
+        assertTrue(ImageComparator.hammingDistance(hash, noise) > 10);
+    }
+
+    @Test
+    public void hammingDistance_countsDifferentBits() {
+        assertEquals(0, ImageComparator.hammingDistance(0x0fL, 0x0fL));
+        assertEquals(4, ImageComparator.hammingDistance(0x0fL, 0xf0fL));
+        assertEquals(64, ImageComparator.hammingDistance(0L, -1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void difference_throwsForEmptyImage() {
+        mComparator.difference(new int[0], 0, 0, new int[1], 1, 1);
+    }
+
+    @Test
+    public void difference_samplesTheNearestPixelOfImagesSmallerThanTheGrid() {
+        int[] tiny = new int[] { 0xff000000, 0xffffffff, 0xff000000, 0xffffffff };
+        int[] halves = new int[64 * 64];
+        for (int i = 0; i < halves.length; i++) {
+            halves[i] = i % 64 < 32 ? 0xff000000 : 0xffffffff;
+        }
+
+        assertEquals(0.0, mComparator.difference(tiny, 2, 2, halves, 64, 64), 0);
+    }
+
+    @Test
+    public void benchmark_compares1080pRegion() {
+        final int[] region = noise(1080, 1920, 3);
+        final int[] golden = noise(1080, 1920, 4);
+
+        double compare = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                mComparator.difference(region, 1080, 1920, golden, 1080, 1920);
+            }
+        });
+        double hash = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                mComparator.perceptualHash(region, 1080, 1920);
+            }
+        });
+
+        Benchmarks.report("ImageComparator.difference 1080x1920 vs 1080x1920", compare);
+        Benchmarks.report("ImageComparator.perceptualHash 1080x1920", hash);
+        assertEquals(0.0, mComparator.difference(region, 1080, 1920, region.clone(), 1080, 1920), 0);
+    }
+
+    static int[] solid(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = x * 255 / width;
+                int green = y * 255 / height;
+                pixels[y * width + x] = 0xff000000 | (red << 16) | (green << 8) | ((red + green) / 2);
+            }
+        }
+        return pixels;
+    }
+
+    static int[] noise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0xffffff);
+        }
+        return pixels;
+    }
+}
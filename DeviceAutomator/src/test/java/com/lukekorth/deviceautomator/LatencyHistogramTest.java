@@ -0,0 +1,126 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @After
+    public void tearDown() {
+        AutomatorMetrics.reset();
+    }
+
+    @Test
+    public void index_coversEveryValueWithinTheRelativeError() {
+        long[] values = { 0, 1, 63, 64, 65, 127, 128, 1000, 999999, 1000000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+            assertTrue(LatencyHistogram.highestValue(index) - value <= value / 32);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void snapshot_percentilesAreWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000000L, snapshot.getMax());
+        assertEquals(500500000L, snapshot.getMean());
+        assertWithin(500000000L, snapshot.getPercentile(50));
+        assertWithin(990000000L, snapshot.getPercentile(99));
+        assertEquals(1000000000L, snapshot.getPercentile(100));
+        assertWithin(1000000L, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void snapshot_isEmptyWithoutValues() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getPercentile(99));
+    }
+
+    @Test
+    public void record_fromManyThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(thread * 10000 + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(39999, snapshot.getMax());
+        assertEquals(40000L * 39999 / 2, snapshot.getSum());
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Random random = new Random(0);
+        long allocated = Benchmarks.bytesPerOperation(100000, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                histogram.record(random.nextInt(100000000));
+            }
+        });
+
+        assertTrue(allocated <= 0);
+        double nanos = Benchmarks.nanosPerOperation(1000000, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                histogram.record(random.nextInt(100000000));
+            }
+        });
+        Benchmarks.report("Record latency", nanos);
+    }
+
+    @Test
+    public void metrics_exportJsonAndPrometheus() {
+        AutomatorMetrics.getHistogram(AutomatorMetrics.Operation.CLICK).record(40000000);
+        AutomatorMetrics.getHistogram(AutomatorMetrics.Operation.CLICK).record(60000000);
+
+        String json = AutomatorMetrics.toJson();
+        assertTrue(json, json.startsWith("{\"resolve\":{\"count\":0,"));
+        assertTrue(json, json.contains("\"click\":{\"count\":2,\"mean_ms\":50.000,"));
+        assertTrue(json, json.contains("\"max_ms\":60.000}"));
+
+        String prometheus = AutomatorMetrics.toPrometheus();
+        assertTrue(prometheus, prometheus.contains("# TYPE device_automator_operation_seconds summary\n"));
+        assertTrue(prometheus, prometheus.contains("device_automator_operation_seconds_count{operation=\"click\"} 2\n"));
+        assertTrue(prometheus, prometheus.contains("device_automator_operation_seconds_sum{operation=\"click\"} 0.100000000\n"));
+        assertTrue(prometheus, prometheus.contains("device_automator_operation_max_seconds{operation=\"click\"} 0.060000000\n"));
+        assertTrue(prometheus, prometheus.contains("device_automator_operation_seconds{operation=\"key_press\",quantile=\"0.99\"} 0.000000000\n"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,144 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LatencyTrackerTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void onWindowChange_completesThePendingInjection() {
+        LatencyTracker tracker = new LatencyTracker();
+
+        tracker.start("click", 1000 * MS);
+        tracker.onWindowChange(1016 * MS);
+        tracker.onWindowChange(1040 * MS);
+        tracker.start("click", 2000 * MS);
+        tracker.onWindowChange(2032 * MS);
+        tracker.start("pressBack", 3000 * MS);
+        tracker.onWindowChange(3008 * MS);
+
+        LatencyDistribution click = tracker.getDistributions().get("click");
+        assertEquals(2, click.getCount());
+        assertEquals(16 * MS, click.getMinimum());
+        assertEquals(32 * MS, click.getMaximum());
+        assertEquals(8 * MS, tracker.getDistributions().get("pressBack").getMaximum());
+    }
+
+    @Test
+    public void onWindowChange_ignoresChangesBeforeTheInjection() {
+        LatencyTracker tracker = new LatencyTracker();
+
+        tracker.start("click", 1000 * MS);
+        tracker.onWindowChange(990 * MS);
+        assertEquals(0, tracker.getDistributions().size());
+
+        // within the resolution of event times the change counts as immediate
+        tracker.onWindowChange(1000 * MS - MS / 2);
+        assertEquals(0, tracker.getDistributions().get("click").getMaximum());
+    }
+
+    @Test
+    public void start_countsInjectionsWithoutResponse() {
+        LatencyTracker tracker = new LatencyTracker();
+
+        tracker.start("click", 1000 * MS);
+        tracker.start("click", 2000 * MS);
+        tracker.onWindowChange(2010 * MS);
+
+        assertEquals(1, tracker.getUnanswered());
+        assertEquals(1, tracker.getDistributions().get("click").getCount());
+    }
+
+    @Test
+    public void measureUntil_usesTheLastChangeBeforeTheConditionWasSatisfied() throws Exception {
+        final LatencyTracker tracker = new LatencyTracker(1000);
+        final AtomicBoolean visible = new AtomicBoolean();
+        final long injected = System.nanoTime();
+
+        Thread app = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    tracker.onWindowChange(injected + 5 * MS);
+                    Thread.sleep(20);
+                    visible.set(true);
+                    tracker.onWindowChange(injected + 12 * MS);
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        app.start();
+
+        long latency = tracker.measureUntil("open", injected, new LatencyTracker.Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return visible.get();
+            }
+        }, 5000);
+        app.join();
+
+        assertEquals(12 * MS, latency);
+        assertEquals(1, tracker.getDistributions().get("open").getCount());
+    }
+
+    @Test
+    public void measureUntil_timesOut() throws Exception {
+        LatencyTracker tracker = new LatencyTracker(10);
+
+        long latency = tracker.measureUntil("open", System.nanoTime(), new LatencyTracker.Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return false;
+            }
+        }, 50);
+
+        assertEquals(-1, latency);
+        assertEquals(0, tracker.getDistributions().size());
+    }
+
+    @Test
+    public void measureUntil_withoutChangesUsesTheTimeOfTheCheck() throws Exception {
+        LatencyTracker tracker = new LatencyTracker(10);
+        final long injected = System.nanoTime();
+
+        long latency = tracker.measureUntil("open", injected, new LatencyTracker.Condition() {
+            @Override
+            public boolean isSatisfied() {
+                return System.nanoTime() - injected >= 30 * MS;
+            }
+        }, 5000);
+
+        assertTrue(latency >= 30 * MS);
+    }
+
+    @Test
+    public void distribution_percentiles() {
+        LatencyDistribution distribution = new LatencyDistribution();
+        for (int i = 100; i >= 1; i--) {
+            distribution.add(i * MS);
+        }
+
+        assertEquals(100, distribution.getCount());
+        assertEquals(MS, distribution.getMinimum());
+        assertEquals(50 * MS, distribution.getPercentile(50));
+        assertEquals(99 * MS, distribution.getPercentile(99));
+        assertEquals(100 * MS, distribution.getPercentile(100));
+        assertEquals(MS, distribution.getPercentile(0));
+        assertEquals(50500000, distribution.getMean());
+    }
+
+    @Test
+    public void distribution_isEmptyWithoutSamples() {
+        LatencyDistribution distribution = new LatencyDistribution();
+
+        assertEquals(0, distribution.getCount());
+        assertEquals(0, distribution.getPercentile(99));
+        assertEquals(0, distribution.getMaximum());
+    }
+}
@@ -0,0 +1,239 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+public class ListItemIteratorTest {
+
+    private static final NodeQuery ROWS = withResourceId("com.example:id/row").getNodeQuery();
+
+    @Test
+    public void returnsEveryItemOnceAcrossOverlappingPages() {
+        FakeList list = new FakeList(texts(25), 7, 5);
+
+        List<String> items = drain(new ListItemIterator(list, ROWS));
+
+        assertEquals(texts(25), items);
+        assertEquals(4, list.mScrolls);
+    }
+
+    @Test
+    public void scrollsOnlyWhenTheItemsOnScreenAreConsumed() {
+        FakeList list = new FakeList(texts(100), 7, 5);
+        ListItemIterator iterator = new ListItemIterator(list, ROWS);
+
+        for (int i = 0; i < 7; i++) {
+            assertEquals("Item " + i, textOf(iterator.next()));
+        }
+        assertEquals(0, iterator.getScrollCount());
+
+        assertEquals("Item 7", textOf(iterator.next()));
+        assertEquals(1, iterator.getScrollCount());
+        assertEquals(1, list.mScrolls);
+    }
+
+    @Test
+    public void stopsWhenAScrollRevealsNothingNew() {
+        FakeList list = new FakeList(texts(10), 7, 5);
+        list.mAlwaysScrolls = true;
+
+        assertEquals(texts(10), drain(new ListItemIterator(list, ROWS)));
+        assertEquals(2, list.mScrolls);
+    }
+
+    @Test
+    public void keepsIdenticalItemsOnTheSamePage() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            texts.add(i % 4 == 0 ? "Item " + i : "Same");
+        }
+        FakeList list = new FakeList(texts, 5, 4);
+
+        assertEquals(texts, drain(new ListItemIterator(list, ROWS)));
+    }
+
+    @Test
+    public void keepsIdenticalItemsAcrossOverlappingPages() {
+        List<String> texts = Arrays.asList("Item 0", "Same", "Same", "Same", "Item 4", "Item 5");
+        FakeList list = new FakeList(texts, 4, 2);
+
+        assertEquals(texts, drain(new ListItemIterator(list, ROWS)));
+    }
+
+    @Test
+    public void returnsIdenticalItemsSplitExactlyAtAPageBoundaryOnce() {
+        // the second page starts where the first ended, its identical rows look like the overlap
+        List<String> texts = Arrays.asList("Item 0", "Item 1", "Same", "Same", "Same", "Same", "Item 6", "Item 7");
+        FakeList list = new FakeList(texts, 4, 4);
+
+        assertEquals(Arrays.asList("Item 0", "Item 1", "Same", "Same", "Item 6", "Item 7"),
+                drain(new ListItemIterator(list, ROWS)));
+    }
+
+    @Test
+    public void isEmptyWithoutTheContainer() {
+        FakeList list = new FakeList(texts(10), 7, 5);
+        list.mMissing = true;
+        ListItemIterator iterator = new ListItemIterator(list, ROWS);
+
+        assertFalse(iterator.hasNext());
+        assertEquals(0, iterator.getScrollCount());
+    }
+
+    @Test
+    public void returnsTheOutermostOfNestedMatches() {
+        HierarchyNode container = new HierarchyNode("androidx.recyclerview.widget.RecyclerView");
+        HierarchyNode row = new HierarchyNode("android.widget.LinearLayout").setResourceId("com.example:id/row");
+        row.addChild(new HierarchyNode("android.widget.FrameLayout").setResourceId("com.example:id/row"));
+        container.addChild(row);
+        ListItemIterator iterator = new ListItemIterator(new SinglePage(container), ROWS);
+
+        assertEquals(1, iterator.next().getChildCount());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void outermost_dropsTheContainerAndMatchesNestedAtAnyDepth() {
+        HierarchyNode container = new HierarchyNode("androidx.recyclerview.widget.RecyclerView")
+                .setResourceId("com.example:id/row");
+        for (int i = 0; i < 2; i++) {
+            HierarchyNode row = new HierarchyNode("android.widget.LinearLayout").setResourceId("com.example:id/row");
+            HierarchyNode card = new HierarchyNode("android.widget.FrameLayout");
+            card.addChild(new HierarchyNode("android.widget.TextView").setResourceId("com.example:id/row"));
+            row.addChild(card);
+            container.addChild(row);
+        }
+        ListItemIterator iterator = new ListItemIterator(new SinglePage(container), ROWS);
+
+        assertEquals("android.widget.LinearLayout", iterator.next().getClassName());
+        assertEquals("android.widget.LinearLayout", iterator.next().getClassName());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void returnsCopiesOfTheItems() {
+        HierarchyNode container = new FakeList(texts(3), 3, 3).capture();
+        ListItemIterator iterator = new ListItemIterator(new SinglePage(container), ROWS);
+
+        HierarchyNode item = iterator.next();
+
+        assertNull(item.getParent());
+        item.getChild(0).setText("Changed");
+        assertEquals("Item 0", container.getChild(0).getChild(0).getText());
+    }
+
+    @Test
+    public void overlap_findsTheLongestRunEndingThePreviousPage() {
+        assertEquals(0, ListItemIterator.overlap(new long[0], new long[] { 1, 2 }));
+        assertEquals(0, ListItemIterator.overlap(new long[] { 1, 2 }, new long[] { 3, 4 }));
+        assertEquals(2, ListItemIterator.overlap(new long[] { 1, 2, 3 }, new long[] { 2, 3, 4 }));
+        assertEquals(3, ListItemIterator.overlap(new long[] { 5, 5, 5 }, new long[] { 5, 5, 5, 6 }));
+        assertEquals(1, ListItemIterator.overlap(new long[] { 5, 6, 5 }, new long[] { 5, 7 }));
+    }
+
+    @Test
+    public void overlap_onlyCountsRunsAtTheEndOfThePreviousPage() {
+        assertEquals(0, ListItemIterator.overlap(new long[] { 1, 2, 3 }, new long[] { 1, 2 }));
+        assertEquals(2, ListItemIterator.overlap(new long[] { 1, 2, 3 }, new long[] { 2, 3 }));
+        assertEquals(2, ListItemIterator.overlap(new long[] { 5, 5 }, new long[] { 5, 5, 5 }));
+        assertEquals(0, ListItemIterator.overlap(new long[] { 1, 2 }, new long[0]));
+    }
+
+    private static List<String> texts(int count) {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            texts.add("Item " + i);
+        }
+        return texts;
+    }
+
+    private static List<String> drain(ListItemIterator iterator) {
+        List<String> texts = new ArrayList<>();
+        while (iterator.hasNext()) {
+            texts.add(textOf(iterator.next()));
+        }
+        return texts;
+    }
+
+    private static String textOf(HierarchyNode item) {
+        return item.getChild(0).getText();
+    }
+
+    /**
+     * A list showing a window of its rows, which moves by a fixed number of rows per scroll.
+     */
+    private static class FakeList implements ListItemIterator.Pager {
+
+        private final List<String> mTexts;
+        private final int mWindow;
+        private final int mStep;
+        private int mFirst;
+        private int mScrolls;
+        private boolean mAlwaysScrolls;
+        private boolean mMissing;
+
+        FakeList(List<String> texts, int window, int step) {
+            mTexts = texts;
+            mWindow = window;
+            mStep = step;
+        }
+
+        @Override
+        public HierarchyNode capture() {
+            if (mMissing) {
+                return null;
+            }
+
+            HierarchyNode root = new HierarchyNode(null);
+            HierarchyNode container = new HierarchyNode("androidx.recyclerview.widget.RecyclerView")
+                    .setResourceId("com.example:id/list");
+            root.addChild(container);
+            for (int i = mFirst; i < Math.min(mFirst + mWindow, mTexts.size()); i++) {
+                int top = (i - mFirst) * 100;
+                HierarchyNode row = new HierarchyNode("android.widget.LinearLayout")
+                        .setResourceId("com.example:id/row")
+                        .setBounds(0, top, 1080, top + 100);
+                row.addChild(new HierarchyNode("android.widget.TextView")
+                        .setText(mTexts.get(i))
+                        .setBounds(0, top, 1080, top + 100));
+                container.addChild(row);
+            }
+            return container;
+        }
+
+        @Override
+        public boolean scrollForward() {
+            mScrolls++;
+            int last = Math.max(mTexts.size() - mWindow, 0);
+            mFirst = Math.min(mFirst + mStep, last);
+            return mAlwaysScrolls || mFirst < last;
+        }
+    }
+
+    private static class SinglePage implements ListItemIterator.Pager {
+
+        private final HierarchyNode mContainer;
+
+        SinglePage(HierarchyNode container) {
+            mContainer = container;
+        }
+
+        @Override
+        public HierarchyNode capture() {
+            return mContainer;
+        }
+
+        @Override
+        public boolean scrollForward() {
+            return false;
+        }
+    }
+}
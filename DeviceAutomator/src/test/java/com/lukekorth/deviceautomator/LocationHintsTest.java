@@ -0,0 +1,171 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withContentDescription;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+public class LocationHintsTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("location-hints", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void search_recordsHintUsedByLaterLookups() {
+        HierarchyNode screen = SyntheticHierarchies.screen(50);
+        LocationHints hints = new LocationHints(mFile);
+        NodeQuery query = withText("Item 42").getNodeQuery();
+
+        assertNull(hints.findHinted(query, screen));
+        HierarchyNode found = hints.search(query, new HierarchyIndex(screen));
+
+        assertSame(found, hints.findHinted(query, screen));
+        assertEquals(1, hints.getHits());
+        assertEquals(1, hints.getMisses());
+    }
+
+    @Test
+    public void save_keepsHintsForLaterRuns() {
+        LocationHints hints = new LocationHints(mFile);
+        NodeQuery query = withResourceId("com.example:id/list").childMatcher(withContentDescription("Icon 7"))
+                .getNodeQuery();
+        hints.search(query, new HierarchyIndex(SyntheticHierarchies.screen(20)));
+        hints.save();
+
+        HierarchyNode screen = SyntheticHierarchies.screen(20);
+        HierarchyNode hinted = new LocationHints(mFile).findHinted(query, screen);
+
+        assertSame(query.find(screen), hinted);
+    }
+
+    @Test
+    public void save_keepsHintsThatWereNotUsed() {
+        HierarchyNode screen = SyntheticHierarchies.screen(20);
+        NodeQuery used = withText("Item 3").getNodeQuery();
+        NodeQuery unused = withText("Item 7").getNodeQuery();
+        LocationHints hints = new LocationHints(mFile);
+        hints.search(used, new HierarchyIndex(screen));
+        hints.search(unused, new HierarchyIndex(screen));
+        hints.save();
+
+        LocationHints loaded = new LocationHints(mFile);
+        assertSame(used.find(screen), loaded.findHinted(withText("Item 3").getNodeQuery(), screen));
+        loaded.search(withText("Item 4").getNodeQuery(), new HierarchyIndex(screen));
+        loaded.save();
+
+        assertEquals(3, new LocationHints(mFile).size());
+        assertSame(unused.find(screen), new LocationHints(mFile).findHinted(unused, screen));
+    }
+
+    @Test
+    public void search_doesNotThrowWhenSaveFails() {
+        File directory = new File(mFile.getPath() + ".tmp");
+        directory.mkdir();
+        try {
+            HierarchyNode screen = SyntheticHierarchies.screen(LocationHints.SAVE_INTERVAL);
+            LocationHints hints = new LocationHints(mFile);
+            for (int i = 0; i < LocationHints.SAVE_INTERVAL; i++) {
+                hints.search(withText("Item " + i).getNodeQuery(), new HierarchyIndex(screen));
+            }
+
+            assertEquals(LocationHints.SAVE_INTERVAL, hints.size());
+            assertFalse(mFile.exists());
+        } finally {
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void findHinted_ignoresHintThatNoLongerMatches() {
+        HierarchyNode screen = SyntheticHierarchies.screen(20);
+        LocationHints hints = new LocationHints(mFile);
+        NodeQuery query = withText("Item 3").getNodeQuery();
+        hints.search(query, new HierarchyIndex(screen));
+
+        // a row was inserted above, the same text is now one row further down
+        HierarchyNode changed = SyntheticHierarchies.screenWithRows(new int[] { 0, 99, 1, 2, 3, 4 });
+        assertNull(hints.findHinted(query, changed));
+        assertSame(query.find(changed), hints.search(query, new HierarchyIndex(changed)));
+        assertSame(query.find(changed), hints.findHinted(query, changed));
+    }
+
+    @Test
+    public void findHinted_requiresSameWindowPackage() {
+        HierarchyNode screen = SyntheticHierarchies.screen(5);
+        LocationHints hints = new LocationHints(mFile);
+        NodeQuery query = withText("Item 3").getNodeQuery();
+        hints.search(query, new HierarchyIndex(screen));
+
+        screen.getChild(0).setPackageName("com.example.other");
+
+        assertNull(hints.findHinted(query, screen));
+    }
+
+    @Test
+    public void search_doesNotRecordAmbiguousMatchers() {
+        HierarchyNode screen = SyntheticHierarchies.screen(5);
+        LocationHints hints = new LocationHints(mFile);
+
+        hints.search(withResourceId("com.example:id/title").getNodeQuery(), new HierarchyIndex(screen));
+        hints.search(withText("Item 3").instance(0).getNodeQuery(), new HierarchyIndex(screen));
+        hints.search(withResourceId("com.example:id/title").instance(2).getNodeQuery(), new HierarchyIndex(screen));
+
+        assertEquals(1, hints.size());
+    }
+
+    @Test
+    public void unreadableFile_startsWithoutHints() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 5, 1 });
+        out.close();
+
+        assertEquals(0, new LocationHints(mFile).size());
+    }
+
+    @Test
+    public void benchmark_hintedLookup() {
+        final HierarchyNode screen = SyntheticHierarchies.screen(2000);
+        final LocationHints hints = new LocationHints(mFile);
+        final NodeQuery query = withText("Item 1800").getNodeQuery();
+        hints.search(query, new HierarchyIndex(screen));
+
+        double hinted = Benchmarks.nanosPerOperation(1000, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                hints.findHinted(query, screen);
+            }
+        });
+        double searched = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                query.find(screen);
+            }
+        });
+
+        Benchmarks.report("hinted lookup " + screen.size() + " nodes", hinted);
+        Benchmarks.report("search " + screen.size() + " nodes", searched);
+        Benchmarks.report("hint hit ratio", String.format("%.3f",
+                hints.getHits() / (double) (hints.getHits() + hints.getMisses())));
+    }
+}
@@ -0,0 +1,92 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class LogcatLineParserTest {
+
+    @Test
+    public void parse_readsEveryField() {
+        LogcatLine line = LogcatLineParser.parse("03-14 09:26:53.589  4821  4853 I SyncManager: sync complete: 42 items");
+
+        assertEquals("03-14 09:26:53.589", line.getTimestamp());
+        assertEquals(4821, line.getPid());
+        assertEquals(4853, line.getTid());
+        assertEquals('I', line.getPriority());
+        assertEquals("SyncManager", line.getTag());
+        assertEquals("sync complete: 42 items", line.getMessage());
+    }
+
+    @Test
+    public void parse_recordedLog() throws IOException {
+        List<LogcatLine> lines = parseResource("logcat-threadtime.txt");
+
+        assertEquals(10, lines.size());
+        assertEquals("ActivityManager", lines.get(0).getTag());
+        assertEquals(612, lines.get(0).getPid());
+        assertEquals('W', lines.get(3).getPriority());
+        assertEquals("chatty", lines.get(4).getTag());
+        assertEquals("uid=10142(com.example.feed) identical 3 lines", lines.get(4).getMessage());
+        assertEquals("OkHttp Dispatcher", lines.get(5).getTag());
+        assertEquals("--> GET https://example.com/feed: 200 OK", lines.get(5).getMessage());
+        assertEquals("FeedView", lines.get(7).getTag());
+        assertEquals("", lines.get(7).getMessage());
+        assertEquals('E', lines.get(9).getPriority());
+    }
+
+    @Test
+    public void parse_returnsNullForLinesThatAreNotLogLines() {
+        assertNull(LogcatLineParser.parse("--------- beginning of main"));
+        assertNull(LogcatLineParser.parse("\tat com.example.feed.FeedView.onDraw(FeedView.java:42)"));
+        assertNull(LogcatLineParser.parse(""));
+        assertNull(LogcatLineParser.parse("03-14 09:26:53.589  4821"));
+        assertNull(LogcatLineParser.parse("03-14 09:26:53.589  4821  4853 X Tag: message"));
+        assertNull(LogcatLineParser.parse("03-14 09:26:53.589  4821  4853 I Tag without separator"));
+    }
+
+    @Test
+    public void parse_benchmark() throws IOException {
+        final List<String> text = readResource("logcat-threadtime.txt");
+        double nanos = Benchmarks.nanosPerOperation(20000, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                for (String line : text) {
+                    LogcatLineParser.parse(line);
+                }
+            }
+        });
+
+        Benchmarks.report("Parse logcat line", nanos / text.size());
+    }
+
+    private List<LogcatLine> parseResource(String name) throws IOException {
+        List<LogcatLine> lines = new ArrayList<>();
+        for (String text : readResource(name)) {
+            LogcatLine line = LogcatLineParser.parse(text);
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private List<String> readResource(String name) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream(name), "UTF-8"));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+}
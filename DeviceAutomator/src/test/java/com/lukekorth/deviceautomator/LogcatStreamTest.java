@@ -0,0 +1,175 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class LogcatStreamTest {
+
+    private PipedOutputStream mOutput;
+    private PipedInputStream mInput;
+
+    @Before
+    public void setUp() throws IOException {
+        mOutput = new PipedOutputStream();
+        mInput = new PipedInputStream(mOutput, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mOutput.close();
+    }
+
+    @Test
+    public void await_returnsLineLoggedAfterTheMark() throws Exception {
+        LogcatStream stream = stream(16);
+        log("I SyncManager: sync complete");
+        awaitRead(stream, 1);
+
+        long mark = stream.mark();
+        log("I SyncManager: sync started");
+        log("I SyncManager: sync complete: 42 items");
+
+        LogcatLine line = stream.await(mark, "SyncManager", Pattern.compile("complete"), 1000);
+        assertEquals("sync complete: 42 items", line.getMessage());
+    }
+
+    @Test
+    public void await_matchesTagExactlyOrAnyTag() throws Exception {
+        LogcatStream stream = stream(16);
+        long mark = stream.mark();
+        log("I FeedView: feed rendered");
+        log("I OkHttp Dispatcher: feed");
+
+        assertEquals("OkHttp Dispatcher", stream.await(mark, "OkHttp Dispatcher", Pattern.compile("feed"), 1000).getTag());
+        assertEquals("FeedView", stream.await(mark, null, Pattern.compile("feed"), 1000).getTag());
+        assertNull(stream.await(mark, "Feed", Pattern.compile("feed"), 50));
+    }
+
+    @Test
+    public void await_timesOut() throws Exception {
+        LogcatStream stream = stream(16);
+
+        assertNull(stream.await(stream.mark(), null, Pattern.compile("never"), 100));
+    }
+
+    @Test(timeout = 60000)
+    public void await_returnsWhenLogcatExits() throws Exception {
+        LogcatStream stream = stream(16);
+        mOutput.close();
+
+        // only returns before the test times out if closing the stream wakes it
+        assertNull(stream.await(stream.mark(), null, Pattern.compile("never"), Integer.MAX_VALUE));
+        assertTrue(stream.isClosed());
+    }
+
+    @Test
+    public void await_skipsLinesLoggedBeforeTheStreamStarted() throws Exception {
+        LogcatStream stream = new LogcatStream(new LogcatStream.Source() {
+            @Override
+            public InputStream open() {
+                return mInput;
+            }
+        }, 16, "03-14 09:26:53.589", 40);
+        long mark = stream.mark();
+        log("03-14 09:26:53.412", "I SyncManager: sync complete");
+        log("03-14 09:26:53.589", "I SyncManager: sync started");
+        log("03-14 09:26:54.003", "I SyncManager: sync complete: 42 items");
+
+        assertEquals(40, mark);
+        assertEquals("sync complete: 42 items", stream.await(mark, "SyncManager", Pattern.compile("complete"), 1000).getMessage());
+        assertEquals(42, stream.mark());
+    }
+
+    @Test
+    public void isBefore_comparesAcrossTheEndOfTheYear() {
+        assertTrue(LogcatStream.isBefore("03-14 09:26:53.412", "03-14 09:26:53.589"));
+        assertFalse(LogcatStream.isBefore("03-14 09:26:53.589", "03-14 09:26:53.589"));
+        assertTrue(LogcatStream.isBefore("12-31 23:59:59.999", "01-01 00:00:00.000"));
+        assertFalse(LogcatStream.isBefore("01-01 00:00:00.000", "12-31 23:59:59.999"));
+    }
+
+    @Test
+    public void await_skipsLinesDroppedFromTheBuffer() throws Exception {
+        LogcatStream stream = stream(4);
+        long mark = stream.mark();
+        log("I Test: first");
+        for (int i = 0; i < 8; i++) {
+            log("I Test: line " + i);
+        }
+        awaitRead(stream, 9);
+
+        assertNull(stream.await(mark, "Test", Pattern.compile("first"), 50));
+        assertEquals("line 4", stream.await(mark, "Test", Pattern.compile("line"), 50).getMessage());
+    }
+
+    @Test
+    public void await_sharesTheStreamBetweenWaiters() throws Exception {
+        final LogcatStream stream = stream(64);
+        final long mark = stream.mark();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] waiters = new Future<?>[8];
+            for (int i = 0; i < waiters.length; i++) {
+                final Pattern pattern = Pattern.compile("ready " + i + "$");
+                waiters[i] = executor.submit(new Callable<LogcatLine>() {
+                    @Override
+                    public LogcatLine call() throws InterruptedException {
+                        return stream.await(mark, "App", pattern, 5000);
+                    }
+                });
+            }
+
+            for (int i = waiters.length - 1; i >= 0; i--) {
+                log("I App: ready " + i);
+            }
+
+            for (int i = 0; i < waiters.length; i++) {
+                assertEquals("ready " + i, ((LogcatLine) waiters[i].get()).getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private LogcatStream stream(int capacity) {
+        return new LogcatStream(new LogcatStream.Source() {
+            @Override
+            public InputStream open() {
+                return mInput;
+            }
+        }, capacity, null, 0);
+    }
+
+    private void log(String line) throws IOException {
+        log("03-14 09:26:53.589", line);
+    }
+
+    private void log(String timestamp, String line) throws IOException {
+        mOutput.write((timestamp + "  4821  4853 " + line + "\n").getBytes("UTF-8"));
+        mOutput.flush();
+    }
+
+    private static void awaitRead(LogcatStream stream, long lines) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stream.mark() < lines && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+public class MatcherCacheTest {
+
+    private HierarchyNode mScreen;
+    private CountingResolver mResolver;
+    private MatcherCache mCache;
+
+    @Before
+    public void setup() {
+        mScreen = SyntheticHierarchies.screen(20);
+        mResolver = new CountingResolver();
+        mCache = new MatcherCache(4);
+    }
+
+    @Test
+    public void get_servesRepeatedLookupsFromMemory() {
+        HierarchyNode first = mCache.get(withText("Item 3"), mResolver);
+        HierarchyNode second = mCache.get(withText("Item 3"), mResolver);
+
+        assertSame(first, second);
+        assertEquals("Item 3", first.getText());
+        assertEquals(1, mResolver.mResolves);
+        assertEquals(1, mCache.getHits());
+        assertEquals(1, mCache.getMisses());
+    }
+
+    @Test
+    public void get_cachesMissingNodes() {
+        assertNull(mCache.get(withText("Missing"), mResolver));
+        assertNull(mCache.get(withText("Missing"), mResolver));
+
+        assertEquals(1, mResolver.mResolves);
+        assertEquals(1, mCache.getHits());
+    }
+
+    @Test
+    public void get_distinguishesMatchersWithDifferentConstraints() {
+        mCache.get(withResourceId("com.example:id/title"), mResolver);
+        mCache.get(withResourceId("com.example:id/title").instance(2), mResolver);
+
+        assertEquals(2, mResolver.mResolves);
+        assertEquals(0, mCache.getHits());
+    }
+
+    @Test
+    public void invalidate_clearsEntries() {
+        mCache.get(withText("Item 3"), mResolver);
+
+        mCache.invalidate();
+        mCache.get(withText("Item 3"), mResolver);
+
+        assertEquals(2, mResolver.mResolves);
+        assertEquals(2, mCache.getMisses());
+    }
+
+    @Test
+    public void get_doesNotCacheResultResolvedWhileInvalidated() {
+        MatcherCache.Resolver resolver = new MatcherCache.Resolver() {
+            @Override
+            public HierarchyNode resolve(UiObjectMatcher matcher) {
+                // an accessibility event arrives while the screen is being searched
+                mCache.invalidate();
+                return mResolver.resolve(matcher);
+            }
+        };
+
+        mCache.get(withText("Item 3"), resolver);
+
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void get_evictsLeastRecentlyUsedEntries() {
+        for (int i = 0; i < 5; i++) {
+            mCache.get(withText("Item " + i), mResolver);
+        }
+        mCache.get(withText("Item 0"), mResolver);
+
+        assertEquals(4, mCache.size());
+        assertEquals(6, mResolver.mResolves);
+    }
+
+    @Test
+    public void benchmark_repeatedLookupsOnStaticScreen() {
+        mScreen = SyntheticHierarchies.screen(400);
+        final MatcherCache cache = new MatcherCache();
+        final UiObjectMatcher matcher = withText("Item 350");
+
+        double uncached = Benchmarks.nanosPerOperation(200, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                mResolver.resolve(matcher);
+            }
+        });
+        double cached = Benchmarks.nanosPerOperation(200, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                cache.get(matcher, mResolver);
+            }
+        });
+
+        Benchmarks.report("NodeQuery.find " + mScreen.size() + " nodes", uncached);
+        Benchmarks.report("MatcherCache.get hit", cached);
+    }
+
+    private class CountingResolver implements MatcherCache.Resolver {
+
+        int mResolves;
+
+        @Override
+        public HierarchyNode resolve(UiObjectMatcher matcher) {
+            mResolves++;
+            return matcher.getNodeQuery().find(mScreen);
+        }
+    }
+}
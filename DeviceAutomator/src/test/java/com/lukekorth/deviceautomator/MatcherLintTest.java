@@ -0,0 +1,97 @@
+package com.lukekorth.deviceautomator;
+
+import android.widget.Button;
+import android.widget.TextView;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class MatcherLintTest {
+
+    private static final UiObjectMatcher LOG_IN = UiObjectMatcher.withText("Log in");
+    private static final UiObjectMatcher USERNAME = UiObjectMatcher.withResourceId("com.app:id/username");
+
+    @Test
+    public void check_cheapMatchersHaveNoFindings() {
+        assertEquals(0, MatcherLint.check(UiObjectMatcher.withResourceId("com.app:id/username")).size());
+        assertEquals(0, MatcherLint.check(UiObjectMatcher.withContentDescription("Search")).size());
+        assertEquals(0, MatcherLint.check(UiObjectMatcher.withTextContaining("total", TextView.class)).size());
+        assertEquals(0, MatcherLint.check(UiObjectMatcher.withResourceId("com.app:id/list")
+                .childMatcher(UiObjectMatcher.withClass(TextView.class))).size());
+        assertEquals(1.0, MatcherLint.estimateCost(UiObjectMatcher.withResourceId("com.app:id/username")));
+    }
+
+    @Test
+    public void check_regexText() {
+        List<MatcherLint.Finding> findings = MatcherLint.check(UiObjectMatcher.withText("Log in", Button.class));
+
+        assertEquals(1, findings.size());
+        assertEquals(MatcherLint.Rule.REGEX_TEXT, findings.get(0).getRule());
+        assertEquals(6.0, findings.get(0).getCost(), 0.01);
+        assertTrue(findings.get(0).getSuggestion(),
+                findings.get(0).getSuggestion().contains("withTextStartingWith(\"Log in\", Button.class)"));
+        assertEquals(20.0, MatcherLint.check(UiObjectMatcher.withText("Log in")).get(0).getCost(), 0.01);
+    }
+
+    @Test
+    public void check_unconstrainedContains() {
+        List<MatcherLint.Finding> findings = MatcherLint.check(UiObjectMatcher.withTextContaining("order"));
+
+        assertEquals(1, findings.size());
+        assertEquals(MatcherLint.Rule.UNCONSTRAINED_CONTAINS, findings.get(0).getRule());
+        assertEquals(3.0, findings.get(0).getCost(), 0.01);
+        assertTrue(findings.get(0).getSuggestion().contains("withTextContaining(\"order\", TextView.class)"));
+    }
+
+    @Test
+    public void check_deepInstance() {
+        List<MatcherLint.Finding> findings = MatcherLint.check(UiObjectMatcher.withClass(TextView.class).instance(7));
+
+        assertEquals(1, findings.size());
+        assertEquals(MatcherLint.Rule.DEEP_INSTANCE, findings.get(0).getRule());
+        assertEquals(8.0, findings.get(0).getCost(), 0.01);
+        assertEquals(0, MatcherLint.check(UiObjectMatcher.withClass(TextView.class).instance(1)).size());
+    }
+
+    @Test
+    public void check_longChildChainWithFindingsOfNestedMatchers() {
+        UiObjectMatcher matcher = UiObjectMatcher.withResourceId("com.app:id/root").childMatcher(
+                UiObjectMatcher.withResourceId("com.app:id/list").childMatcher(
+                        UiObjectMatcher.withResourceId("com.app:id/row").childMatcher(
+                                UiObjectMatcher.withText("Item 1"))));
+
+        List<MatcherLint.Finding> findings = MatcherLint.check(matcher);
+
+        assertEquals(2, findings.size());
+        assertEquals(MatcherLint.Rule.LONG_CHILD_CHAIN, findings.get(0).getRule());
+        assertEquals(23.0, findings.get(0).getCost(), 0.01);
+        assertEquals(MatcherLint.Rule.REGEX_TEXT, findings.get(1).getRule());
+        assertEquals(3, findings.get(1).getDepth());
+    }
+
+    @Test
+    public void checkFields_reportsTheField() {
+        List<MatcherLint.Finding> findings = MatcherLint.checkFields(MatcherLintTest.class);
+
+        assertEquals(1, findings.size());
+        assertEquals(MatcherLintTest.class.getName() + "#LOG_IN", findings.get(0).getSource());
+    }
+
+    @Test
+    public void assertCheap_failsWithEveryFinding() {
+        MatcherLint.assertCheap(USERNAME);
+
+        try {
+            MatcherLint.assertCheap(USERNAME, LOG_IN, UiObjectMatcher.withTextContaining("order"));
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Expensive matchers:\n  REGEX_TEXT (20.0x a resource id)"));
+            assertTrue(e.getMessage(), e.getMessage().contains("\n  UNCONSTRAINED_CONTAINS (3.0x a resource id)"));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class NodeQueryTest {
+
+    private final HierarchyNode mRoot = new HierarchyNode("android.widget.FrameLayout")
+            .addChild(new HierarchyNode("android.widget.LinearLayout")
+                    .setResourceId("list")
+                    .addChild(new HierarchyNode("android.widget.TextView").setText("Hello World"))
+                    .addChild(new HierarchyNode("android.widget.ImageView").setContentDescription("icon")))
+            .addChild(new HierarchyNode("android.widget.LinearLayout")
+                    .addChild(new HierarchyNode("android.widget.TextView").setText("hello again"))
+                    .addChild(new HierarchyNode("android.widget.ImageView").setContentDescription("icon")));
+
+    @Test
+    public void withText_matchesExactTextIgnoringCase() {
+        NodeQuery query = UiObjectMatcher.withText("HELLO WORLD").getNodeQuery();
+
+        assertEquals("Hello World", query.find(mRoot).getText());
+        assertNull(UiObjectMatcher.withText("Hello").getNodeQuery().find(mRoot));
+    }
+
+    @Test
+    public void withTextStartingWith_ignoresCase() {
+        List<HierarchyNode> matches = UiObjectMatcher.withTextStartingWith("HELLO").getNodeQuery().findAll(mRoot);
+
+        assertEquals(2, matches.size());
+    }
+
+    @Test
+    public void withTextContaining_isCaseSensitive() {
+        assertEquals("hello again", UiObjectMatcher.withTextContaining("again").getNodeQuery().find(mRoot).getText());
+        assertNull(UiObjectMatcher.withTextContaining("AGAIN").getNodeQuery().find(mRoot));
+    }
+
+    @Test
+    public void withClass_andResourceIdAndContentDescription() {
+        assertEquals(4, UiObjectMatcher.withClass(android.widget.TextView.class).getNodeQuery().findAll(mRoot).size()
+                + UiObjectMatcher.withClass(android.widget.ImageView.class).getNodeQuery().findAll(mRoot).size());
+        assertEquals("list", UiObjectMatcher.withResourceId("list").getNodeQuery().find(mRoot).getResourceId());
+        assertEquals(2, UiObjectMatcher.withContentDescription("icon").getNodeQuery().findAll(mRoot).size());
+    }
+
+    @Test
+    public void instance_selectsMatchInDocumentOrder() {
+        NodeQuery query = UiObjectMatcher.withContentDescription("icon").instance(1).getNodeQuery();
+
+        HierarchyNode match = query.find(mRoot);
+
+        assertEquals(mRoot.getChild(1).getChild(1), match);
+        assertNull(UiObjectMatcher.withContentDescription("icon").instance(2).getNodeQuery().find(mRoot));
+    }
+
+    @Test
+    public void childMatcher_matchesDescendantsOfMatchingNodes() {
+        NodeQuery query = UiObjectMatcher.withResourceId("list")
+                .childMatcher(UiObjectMatcher.withContentDescription("icon"))
+                .getNodeQuery();
+
+        List<HierarchyNode> matches = query.findAll(mRoot);
+
+        assertEquals(1, matches.size());
+        assertEquals(mRoot.getChild(0).getChild(1), matches.get(0));
+    }
+
+    @Test
+    public void matches_ignoresNodesWithoutText() {
+        NodeQuery query = UiObjectMatcher.withTextContaining("").getNodeQuery();
+
+        assertFalse(query.matches(new HierarchyNode("android.view.View")));
+        assertTrue(query.matches(new HierarchyNode("android.view.View").setText("")));
+    }
+
+    @Test
+    public void equals_comparesConstraints() {
+        NodeQuery query = UiObjectMatcher.withResourceId("list")
+                .childMatcher(UiObjectMatcher.withText("Hello World"))
+                .getNodeQuery();
+        NodeQuery same = UiObjectMatcher.withResourceId("list")
+                .childMatcher(UiObjectMatcher.withText("Hello World"))
+                .getNodeQuery();
+
+        assertEquals(query, same);
+        assertEquals(query.hashCode(), same.hashCode());
+        assertFalse(query.equals(same.withInstance(1)));
+        assertFalse(query.equals(UiObjectMatcher.withResourceId("list").getNodeQuery()));
+        assertFalse(UiObjectMatcher.withTextContaining("Hello").getNodeQuery()
+                .equals(UiObjectMatcher.withTextStartingWith("Hello").getNodeQuery()));
+    }
+}
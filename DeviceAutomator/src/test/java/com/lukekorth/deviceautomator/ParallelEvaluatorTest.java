@@ -0,0 +1,121 @@
+package com.lukekorth.deviceautomator;
+
+import android.widget.CheckBox;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withClass;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withContentDescription;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextContaining;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextStartingWith;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class ParallelEvaluatorTest {
+
+    private final ParallelEvaluator mEvaluator = new ParallelEvaluator(1, 4);
+
+    @After
+    public void tearDown() {
+        mEvaluator.shutdown();
+        DeviceAutomator.setParallelEvaluationThreshold(0);
+    }
+
+    @Test
+    public void collect_returnsSameMatchesInDocumentOrder() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.screen(1000));
+        List<UiObjectMatcher> matchers = Arrays.asList(
+                withTextStartingWith("Item 1"),
+                withTextContaining("of item 99", TextView.class),
+                withClass(CheckBox.class),
+                withContentDescription("Icon 999"),
+                withResourceId("com.example:id/list").childMatcher(withTextStartingWith("Item 5")),
+                withResourceId("com.example:id/row").childMatcher(withClass(TextView.class)),
+                withClass(android.widget.FrameLayout.class).childMatcher(withText("Items")),
+                withText("Missing"));
+
+        assertTrue(mEvaluator.getGrain(index) < index.size());
+        for (UiObjectMatcher matcher : matchers) {
+            NodeQuery query = matcher.getNodeQuery();
+            assertEquals(query.toString(), query.findAll(index),
+                    mEvaluator.collect(QueryPlan.compile(query, index), index, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void collect_completesAfterShutdown() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.screen(1000));
+        NodeQuery query = withClass(CheckBox.class).getNodeQuery();
+
+        // a search that got the evaluator just before setThreshold() replaced it
+        mEvaluator.shutdown();
+
+        assertEquals(query.findAll(index), mEvaluator.collect(QueryPlan.compile(query, index), index, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void collect_stopsAtLimit() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.screen(1000));
+        NodeQuery query = withTextStartingWith("Item ").getNodeQuery();
+
+        List<HierarchyNode> matches = mEvaluator.collect(QueryPlan.compile(query, index), index, 701);
+
+        assertEquals(701, matches.size());
+        assertEquals(query.findAll(index).subList(0, 701), matches);
+    }
+
+    @Test
+    public void setParallelEvaluationThreshold_appliesToIndexedSearches() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.screen(1000));
+        NodeQuery query = withResourceId("com.example:id/title").instance(900).getNodeQuery();
+        HierarchyNode expected = query.find(index);
+
+        DeviceAutomator.setParallelEvaluationThreshold(1000);
+
+        assertTrue(ParallelEvaluator.get() != null);
+        assertSame(expected, query.find(index));
+        assertEquals("Item 900", expected.getText());
+    }
+
+    @Test
+    public void benchmark_crossover() {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ParallelEvaluator evaluator = new ParallelEvaluator(1, parallelism);
+        try {
+            final NodeQuery query = withText("Item 99999").getNodeQuery();
+            for (int rows : new int[] { 50, 200, 800, 3200, 12800 }) {
+                final HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.screen(rows));
+                final QueryPlan plan = QueryPlan.compile(query, index);
+                final List<HierarchyNode> matches = new java.util.ArrayList<>();
+                double sequential = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+                    @Override
+                    public void run() {
+                        matches.clear();
+                        plan.collect(index, 0, index.size(), matches, Integer.MAX_VALUE);
+                    }
+                });
+                final ParallelEvaluator parallel = evaluator;
+                double concurrent = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+                    @Override
+                    public void run() {
+                        parallel.collect(plan, index, Integer.MAX_VALUE);
+                    }
+                });
+
+                Benchmarks.report("sequential text search " + index.size() + " nodes", sequential);
+                Benchmarks.report("parallel text search " + index.size() + " nodes, " + parallelism +
+                        " threads", concurrent);
+            }
+        } finally {
+            evaluator.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.lukekorth.deviceautomator;
+
+import android.widget.CheckBox;
+import android.widget.TextView;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withClass;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withContentDescription;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextContaining;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextStartingWith;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class QueryPlanTest {
+
+    private final HierarchyNode mScreen = SyntheticHierarchies.screen(50);
+    private final HierarchyIndex mIndex = new HierarchyIndex(mScreen);
+
+    @Test
+    public void indexAndTreeSearchesAgree() {
+        List<UiObjectMatcher> matchers = Arrays.asList(
+                withText("Item 7"),
+                withText("item 7", TextView.class),
+                withTextContaining("of item 4", TextView.class),
+                withTextStartingWith("item 1"),
+                withClass(CheckBox.class),
+                withResourceId("com.example:id/title").instance(12),
+                withContentDescription("Icon 30"),
+                withResourceId("com.example:id/row").childMatcher(withClass(TextView.class)),
+                withResourceId("com.example:id/list").childMatcher(withResourceId("com.example:id/row")
+                        .childMatcher(withText("Item 3"))),
+                withClass(android.widget.LinearLayout.class).childMatcher(withText("Missing")));
+
+        for (UiObjectMatcher matcher : matchers) {
+            NodeQuery query = matcher.getNodeQuery();
+            assertEquals(query.toString(), naiveFindAll(query, mScreen), query.findAll(mScreen));
+            assertEquals(query.toString(), naiveFindAll(query, mScreen), query.findAll(mIndex));
+            assertSame(query.find(mScreen), query.find(mIndex));
+        }
+    }
+
+    @Test
+    public void childMatcher_onlyReturnsDescendantsOfOutermostMatches() {
+        HierarchyNode root = new HierarchyNode("a").setResourceId("group")
+                .addChild(new HierarchyNode("a").setResourceId("group")
+                        .addChild(new HierarchyNode("b").setText("one")))
+                .addChild(new HierarchyNode("b").setText("two"));
+        NodeQuery query = withResourceId("group").childMatcher(withTextStartingWith("")).getNodeQuery();
+
+        List<HierarchyNode> matches = query.findAll(new HierarchyIndex(root));
+
+        assertEquals(2, matches.size());
+        assertEquals("one", matches.get(0).getText());
+        assertEquals("two", matches.get(1).getText());
+    }
+
+    @Test
+    public void benchmark_mixedConstraintMatchers() {
+        HierarchyNode screen = SyntheticHierarchies.screen(2000);
+        final int[] evaluated = new int[1];
+        final HierarchyIndex index = new HierarchyIndex(screen) {
+            @Override
+            public HierarchyNode getNode(int position) {
+                evaluated[0]++;
+                return super.getNode(position);
+            }
+        };
+        final HierarchyNode root = screen;
+        List<UiObjectMatcher> matchers = Arrays.asList(
+                withText("Item 1500", CheckBox.class),
+                withTextContaining("item 1999", TextView.class),
+                withResourceId("com.example:id/checkbox").instance(1800));
+
+        for (UiObjectMatcher matcher : matchers) {
+            final NodeQuery query = matcher.getNodeQuery();
+            double naive = Benchmarks.nanosPerOperation(20, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    naiveFindAll(query, root);
+                }
+            });
+            double planned = Benchmarks.nanosPerOperation(20, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    query.findAll(root);
+                }
+            });
+            // text searches build the trigram index after a few scans, measure the steady state
+            for (int i = 0; i <= HierarchyIndex.TEXT_SCANS_BEFORE_TRIGRAMS; i++) {
+                query.findAll(index);
+            }
+            evaluated[0] = 0;
+            assertEquals(naiveFindAll(query, root), query.findAll(index));
+            int indexedNodes = evaluated[0];
+            double indexed = Benchmarks.nanosPerOperation(20, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    query.findAll(index);
+                }
+            });
+
+            Benchmarks.report("text first " + query, naive);
+            Benchmarks.report("planned " + query, planned);
+            Benchmarks.report("planned with index " + query, indexed);
+            Benchmarks.report("nodes evaluated with index " + query, indexedNodes + " of " + root.size());
+            // the naive search evaluates every node
+            assertTrue(indexedNodes < root.size());
+        }
+
+        double build = Benchmarks.nanosPerOperation(20, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                new HierarchyIndex(root);
+            }
+        });
+        Benchmarks.report("HierarchyIndex build " + index.size() + " nodes", build);
+    }
+
+    /**
+     * Searches like {@link NodeQuery} did before plans, checking the text first and then the
+     * other constraints on every node.
+     */
+    private static List<HierarchyNode> naiveFindAll(NodeQuery query, HierarchyNode root) {
+        List<HierarchyNode> matches = new java.util.ArrayList<>();
+        naiveCollect(query, root, matches);
+        return matches;
+    }
+
+    private static void naiveCollect(NodeQuery query, HierarchyNode node, List<HierarchyNode> matches) {
+        boolean match = (query.getText() == null || query.matchesText(node.getText())) &&
+                (query.getContentDescription() == null || query.getContentDescription().equals(node.getContentDescription())) &&
+                (query.getResourceId() == null || query.getResourceId().equals(node.getResourceId())) &&
+                (query.getClassName() == null || query.getClassName().equals(node.getClassName()));
+        if (match) {
+            if (query.getChild() == null) {
+                matches.add(node);
+            } else {
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    naiveCollect(query.getChild(), node.getChild(i), matches);
+                }
+                return;
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            naiveCollect(query, node.getChild(i), matches);
+        }
+    }
+}
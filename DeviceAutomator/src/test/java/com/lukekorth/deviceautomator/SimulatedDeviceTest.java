@@ -0,0 +1,262 @@
+package com.lukekorth.deviceautomator;
+
+import android.content.Intent;
+import android.view.KeyEvent;
+import android.widget.Button;
+import android.widget.CheckBox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static com.lukekorth.deviceautomator.AutomatorAction.check;
+import static com.lukekorth.deviceautomator.AutomatorAction.click;
+import static com.lukekorth.deviceautomator.AutomatorAction.setText;
+import static com.lukekorth.deviceautomator.AutomatorAssertion.text;
+import static com.lukekorth.deviceautomator.AutomatorAssertion.visible;
+import static com.lukekorth.deviceautomator.DeviceAutomator.onDevice;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withContentDescription;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.hamcrest.CoreMatchers.equalTo;
+
+public class SimulatedDeviceTest {
+
+    private SimulatedDevice mDevice;
+
+    @Before
+    public void setup() {
+        mDevice = new SimulatedDevice()
+                .addScreen("launcher", getClass().getClassLoader().getResourceAsStream("launcher_screen.xml"))
+                .addScreen("login", getClass().getClassLoader().getResourceAsStream("login_screen.xml"))
+                .addScreen("home", getClass().getClassLoader().getResourceAsStream("home_screen.xml"))
+                .setLauncherScreen("launcher")
+                .onLaunch("com.example", "login")
+                .onClick("launcher", withContentDescription("Example"), "login")
+                .onClick("login", withText("Log in", Button.class), "home")
+                .start("launcher");
+        DeviceAutomator.setSimulatedDevice(mDevice);
+    }
+
+    @After
+    public void teardown() {
+        DeviceAutomator.setSimulatedDevice(null);
+    }
+
+    @Test
+    public void runsLoginFlow() {
+        onDevice().onHomeScreen().launchApp("com.example");
+        onDevice().checkForegroundAppIs("com.example");
+
+        onDevice(withResourceId("com.example:id/username")).perform(setText("user"));
+        onDevice(withResourceId("com.example:id/password")).perform(setText("secret"));
+        onDevice(withText("Remember me", CheckBox.class)).perform(check(true));
+        onDevice(withResourceId("com.example:id/username")).check(text(equalTo("user")));
+        assertTrue(onDevice(withText("Remember me")).isChecked());
+
+        onDevice(withText("Log in")).perform(click());
+
+        assertEquals("home", mDevice.getCurrentScreen());
+        onDevice(withText("Welcome back")).check(visible(true));
+        assertFalse(onDevice(withText("Log in")).exists());
+    }
+
+    @Test
+    public void recordsMetricsOfEveryOperation() {
+        AutomatorMetrics.reset();
+
+        onDevice().launchApp("com.example");
+        onDevice(withText("Remember me")).waitForExists(1000);
+        onDevice(withText("Remember me", CheckBox.class)).perform(check(true));
+        onDevice(withText("Remember me")).isChecked();
+        onDevice(withText("Remember me")).exists();
+        onDevice(withText("Log in")).check(visible(true));
+
+        assertEquals(1, count(AutomatorMetrics.Operation.LAUNCH));
+        assertEquals(1, count(AutomatorMetrics.Operation.WAIT));
+        assertEquals(1, count(AutomatorMetrics.Operation.ACTION));
+        assertEquals(2, count(AutomatorMetrics.Operation.RESOLVE));
+        assertEquals(1, count(AutomatorMetrics.Operation.CHECK));
+    }
+
+    @Test
+    public void pressBack_restoresPreviousScreenWithItsState() {
+        onDevice(withContentDescription("Example")).perform(click());
+        onDevice(withResourceId("com.example:id/username")).perform(setText("user"));
+        onDevice(withText("Log in")).perform(click());
+
+        onDevice().pressBack();
+
+        assertEquals("login", mDevice.getCurrentScreen());
+        onDevice(withResourceId("com.example:id/username")).check(text(equalTo("user")));
+    }
+
+    @Test
+    public void typeText_appendsToFocusedNode() {
+        mDevice.start("login");
+        onDevice(withResourceId("com.example:id/username")).perform(click());
+
+        onDevice().typeText("abc").pressDelete();
+
+        onDevice(withResourceId("com.example:id/username")).check(text(equalTo("ab")));
+    }
+
+    @Test
+    public void onKey_followsScriptedTransition() {
+        mDevice.onKey("login", KeyEvent.KEYCODE_ENTER, "home").start("login");
+
+        onDevice().pressEnter();
+
+        assertEquals("home", mDevice.getCurrentScreen());
+    }
+
+    @Test
+    public void onTextEntered_followsScriptedTransition() {
+        mDevice.onTextEntered("login", withResourceId("com.example:id/password"), "home").start("login");
+
+        onDevice(withResourceId("com.example:id/password")).perform(setText("secret"));
+
+        assertEquals("home", mDevice.getCurrentScreen());
+    }
+
+    @Test
+    public void start_showsFreshCopyOfScreen() {
+        mDevice.start("login");
+        onDevice(withResourceId("com.example:id/username")).perform(setText("user"));
+
+        mDevice.start("login");
+
+        onDevice(withResourceId("com.example:id/username")).check(visible(true));
+        assertEquals(null, mDevice.find(withResourceId("com.example:id/username")).getText());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void perform_throwsWhenMatcherDoesNotResolve() {
+        onDevice(withText("Missing")).perform(click());
+    }
+
+    @Test
+    public void waitForExists_returnsWhenTheElementExists() {
+        mDevice.start("login");
+
+        onDevice(withText("Log in")).waitForExists();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void waitForExists_throwsWhenTheElementDoesNotExist() {
+        onDevice(withText("Missing")).waitForExists();
+    }
+
+    @Test
+    public void waitForEnabled_returnsWhenTheElementIsEnabled() {
+        mDevice.start("login");
+
+        onDevice(withText("Log in")).waitForEnabled();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void waitForEnabled_throwsWhenTheElementIsDisabled() {
+        mDevice.start("login");
+        mDevice.find(withText("Log in")).setFlag(HierarchyNode.ENABLED, false);
+
+        onDevice(withText("Log in")).waitForEnabled();
+    }
+
+    @Test
+    public void waitForStable_returnsTrue() {
+        assertTrue(onDevice().waitForStable());
+    }
+
+    @Test
+    public void pressRecentApps_followsScriptedTransition() {
+        mDevice.onKey("launcher", KeyEvent.KEYCODE_APP_SWITCH, "home");
+
+        onDevice().pressRecentApps();
+
+        assertEquals("home", mDevice.getCurrentScreen());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void launchAppIntent_isNotSupported() {
+        onDevice().launchApp((Intent) null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void resetApp_isNotSupported() {
+        onDevice().resetApp("com.example");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void forceStopApp_isNotSupported() {
+        onDevice().forceStopApp("com.example");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void clearAppData_isNotSupported() {
+        onDevice().clearAppData("com.example");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void applyTestSpeedProfile_isNotSupported() {
+        onDevice().applyTestSpeedProfile();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void markLog_isNotSupported() {
+        onDevice().markLog();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void waitForLog_isNotSupported() {
+        onDevice().waitForLog("Tag", Pattern.compile("ready"), 1000);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void perceptualHash_isNotSupported() {
+        onDevice().perceptualHash();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void measureLatency_isNotSupported() {
+        onDevice(withContentDescription("Example")).measureLatency("open", click(), withText("Log in"), 1000);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void acceptRuntimePermission_isNotSupported() {
+        onDevice().acceptRuntimePermission("android.permission.CAMERA");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void denyRuntimePermission_isNotSupported() {
+        onDevice().denyRuntimePermission("android.permission.CAMERA");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void openNotification_isNotSupported() {
+        onDevice().openNotification();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void openQuickSettings_isNotSupported() {
+        onDevice().openQuickSettings();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isScreenOn_isNotSupported() {
+        onDevice().isScreenOn();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onClick_throwsForUnknownScreen() {
+        mDevice.onClick("login", withText("Log in"), "settings");
+    }
+
+    private static long count(AutomatorMetrics.Operation operation) {
+        return AutomatorMetrics.getHistogram(operation).snapshot().getCount();
+    }
+}
@@ -0,0 +1,108 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SlowQueryDetectorTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void isSlow_atOrAboveTheThreshold() {
+        SlowQueryDetector detector = new SlowQueryDetector(50);
+
+        assertFalse(detector.isSlow(49 * MS));
+        assertTrue(detector.isSlow(50 * MS));
+    }
+
+    @Test
+    public void report_passesTheQueryWithTheCallingTestToTheListener() {
+        final List<SlowQueryDetector.SlowQuery> queries = new ArrayList<>();
+        SlowQueryDetector detector = new SlowQueryDetector(50, new SlowQueryDetector.Listener() {
+            @Override
+            public void onSlowQuery(SlowQueryDetector.SlowQuery query) {
+                queries.add(query);
+            }
+        });
+
+        detector.report("UiSelector[TEXT_REGEX=Item .*]", true, 5000, 80 * MS);
+
+        assertEquals(1, queries.size());
+        assertEquals("UiSelector[TEXT_REGEX=Item .*]", queries.get(0).getSelector());
+        assertTrue(queries.get(0).usesRegex());
+        assertEquals(5000, queries.get(0).getNodeCount());
+        assertEquals(80 * MS, queries.get(0).getNanos());
+        assertEquals(getClass().getName() + "#report_passesTheQueryWithTheCallingTestToTheListener",
+                queries.get(0).getTest());
+    }
+
+    @Test
+    public void getTopSlowMatchers_ordersSelectorsByTotalTime() {
+        SlowQueryDetector detector = new SlowQueryDetector(50);
+        detector.report("fast", false, 100, 60 * MS);
+        detector.report("slow", true, 4000, 90 * MS);
+        detector.report("often", false, 200, 60 * MS);
+        detector.report("often", false, 300, 70 * MS);
+
+        List<SlowQueryDetector.Summary> top = detector.getTopSlowMatchers(2);
+
+        assertEquals(2, top.size());
+        assertEquals("often", top.get(0).getSelector());
+        assertEquals(2, top.get(0).getCount());
+        assertEquals(130 * MS, top.get(0).getTotalNanos());
+        assertEquals(70 * MS, top.get(0).getMaxNanos());
+        assertEquals(300, top.get(0).getMaxNodeCount());
+        assertEquals(Arrays.asList(getClass().getName() + "#getTopSlowMatchers_ordersSelectorsByTotalTime"),
+                top.get(0).getTests());
+        assertEquals("slow", top.get(1).getSelector());
+
+        String report = detector.getReport(10);
+        assertTrue(report, report.startsWith("Top slow matchers:\n1. 130.0ms total, 2 slow, max 70.0ms, nodes=300"));
+        assertTrue(report, report.contains("3. 60.0ms total, 1 slow"));
+    }
+
+    @Test
+    public void getTopSlowMatchers_returnsSnapshots() {
+        SlowQueryDetector detector = new SlowQueryDetector(50);
+        detector.report("often", false, 200, 60 * MS);
+
+        SlowQueryDetector.Summary summary = detector.getTopSlowMatchers(1).get(0);
+        detector.report("often", false, 300, 70 * MS);
+
+        assertEquals(1, summary.getCount());
+        assertEquals(60 * MS, summary.getTotalNanos());
+        assertEquals(200, summary.getMaxNodeCount());
+        assertEquals(2, detector.getTopSlowMatchers(1).get(0).getCount());
+    }
+
+    @Test
+    public void usesRegex_checksEveryChildQuery() {
+        assertTrue(SlowQueryDetector.usesRegex(UiObjectMatcher.withText("Hello")));
+        assertFalse(SlowQueryDetector.usesRegex(UiObjectMatcher.withTextContaining("Hello")));
+        assertFalse(SlowQueryDetector.usesRegex(UiObjectMatcher.withResourceId("com.app:id/list")));
+        assertTrue(SlowQueryDetector.usesRegex(UiObjectMatcher.withResourceId("com.app:id/list")
+                .childMatcher(UiObjectMatcher.withText("Item"))));
+    }
+
+    @Test
+    public void findCaller_outsideATestMethod() throws InterruptedException {
+        final String[] caller = new String[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                caller[0] = SlowQueryDetector.findCaller();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals("unknown", caller[0]);
+    }
+}
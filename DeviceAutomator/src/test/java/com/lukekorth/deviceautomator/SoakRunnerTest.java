@@ -0,0 +1,199 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class SoakRunnerTest {
+
+    @Test
+    public void rollingStatistics_matchesTheExactStatistics() {
+        RollingStatistics statistics = new RollingStatistics();
+        for (int i = 0; i < 5; i++) {
+            statistics.add(i, new long[] { 2, 4, 4, 4, 6 }[i]);
+        }
+
+        assertEquals(5, statistics.getCount());
+        assertEquals(2, statistics.getMin());
+        assertEquals(6, statistics.getMax());
+        assertEquals(4.0, statistics.getMean(), 1e-9);
+        assertEquals(Math.sqrt(2), statistics.getStandardDeviation(), 1e-9);
+        assertEquals(4, statistics.getPercentile(50));
+        assertEquals(0.8, statistics.getSlope(), 1e-9);
+    }
+
+    @Test
+    public void rollingStatistics_findsTheSlopeOfANoisyLine() {
+        RollingStatistics statistics = new RollingStatistics();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            statistics.add(i, 50000000 + 2000L * i + (long) (random.nextGaussian() * 1000000));
+        }
+
+        assertEquals(2000, statistics.getSlope(), 1);
+        assertTrue(statistics.getRSquared() > 0.99);
+    }
+
+    @Test
+    public void rollingStatistics_isFlatWithoutATrend() {
+        RollingStatistics statistics = new RollingStatistics();
+        for (int i = 0; i < 100; i++) {
+            statistics.add(i, 10);
+        }
+
+        assertEquals(0.0, statistics.getSlope(), 0);
+        assertEquals(0.0, statistics.getRSquared(), 0);
+        assertEquals(0.0, statistics.getStandardDeviation(), 0);
+    }
+
+    @Test
+    public void runTimes_timesEveryStepOfEveryIteration() {
+        final List<Integer> numbers = new ArrayList<>();
+
+        SoakRunner.Result result = new SoakRunner().runTimes(5, new SoakRunner.Flow() {
+            @Override
+            public void run(SoakRunner.Iteration iteration) {
+                numbers.add(iteration.getNumber());
+                iteration.step("open");
+                iteration.step("close");
+            }
+        });
+
+        assertEquals(5, result.getIterationCount());
+        assertEquals("[0, 1, 2, 3, 4]", numbers.toString());
+        assertEquals("[open, close, iteration]", result.getStepStatistics().keySet().toString());
+        assertEquals(5, result.getStepStatistics().get("open").getCount());
+        assertEquals(5, result.getStepStatistics().get("close").getCount());
+        assertEquals(0, result.getMemoryStatistics().getCount());
+    }
+
+    @Test
+    public void runFor_stopsAfterTheDuration() {
+        SoakRunner.Result result = new SoakRunner().runFor(30, new SoakRunner.Flow() {
+            @Override
+            public void run(SoakRunner.Iteration iteration) {
+                sleep(5);
+            }
+        });
+
+        assertTrue(result.getIterationCount() >= 1);
+        assertTrue(result.getIterationCount() <= 7);
+        assertTrue(result.getElapsedMillis() >= 30);
+    }
+
+    @Test
+    public void reportsMemoryGrowingFasterThanTheThreshold() {
+        SoakRunner.Result result = new SoakRunner()
+                .setMemorySlopeThreshold(64 * 1024)
+                .setMemorySampler(new SoakRunner.MemorySampler() {
+                    private long mBytes = 50 * 1024 * 1024;
+
+                    @Override
+                    public long sampleBytes() {
+                        mBytes += 100 * 1024;
+                        return mBytes;
+                    }
+                })
+                .runTimes(SoakRunner.MIN_SAMPLES_FOR_DRIFT, new SoakRunner.Flow() {
+                    @Override
+                    public void run(SoakRunner.Iteration iteration) {}
+                });
+
+        List<SoakRunner.Drift> drifts = result.getDrifts();
+        assertEquals(1, drifts.size());
+        assertTrue(drifts.get(0).isMemory());
+        assertNull(drifts.get(0).getName());
+        assertEquals(100 * 1024, drifts.get(0).getSlope(), 1e-6);
+        assertTrue(result.toString(), result.toString().contains("DRIFT: memory grows 100.0KB per iteration"));
+    }
+
+    @Test
+    public void samplesMemoryAtTheInterval() {
+        final int[] samples = new int[1];
+
+        SoakRunner.Result result = new SoakRunner()
+                .setMemorySampleInterval(3)
+                .setMemorySampler(new SoakRunner.MemorySampler() {
+                    @Override
+                    public long sampleBytes() {
+                        return samples[0]++ == 0 ? -1 : 1024;
+                    }
+                })
+                .runTimes(10, new SoakRunner.Flow() {
+                    @Override
+                    public void run(SoakRunner.Iteration iteration) {}
+                });
+
+        assertEquals(4, samples[0]);
+        assertEquals(3, result.getMemoryStatistics().getCount());
+    }
+
+    @Test
+    public void reportsStepsSlowingDownOnlyOnceThereAreEnoughIterations() {
+        SoakRunner.Result result = new SoakRunner.Result(1000000, 64 * 1024);
+        for (int i = 0; i < SoakRunner.MIN_SAMPLES_FOR_DRIFT - 1; i++) {
+            result.addStep("search", i, 40000000 + 3000000L * i);
+            result.addStep("back", i, 10000000);
+        }
+        assertTrue(result.getDrifts().isEmpty());
+
+        result.addStep("search", SoakRunner.MIN_SAMPLES_FOR_DRIFT - 1, 40000000 + 3000000L * 19);
+        List<SoakRunner.Drift> drifts = result.getDrifts();
+
+        assertEquals(1, drifts.size());
+        assertEquals("search", drifts.get(0).getName());
+        assertFalse(drifts.get(0).isMemory());
+        assertEquals(3000000, drifts.get(0).getSlope(), 1e-3);
+        assertEquals(1.0, drifts.get(0).getRSquared(), 1e-9);
+    }
+
+    @Test
+    public void failuresIncludeTheIteration() {
+        try {
+            new SoakRunner().runTimes(10, new SoakRunner.Flow() {
+                @Override
+                public void run(SoakRunner.Iteration iteration) {
+                    if (iteration.getNumber() == 3) {
+                        throw new IllegalStateException("Not found");
+                    }
+                }
+            });
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Iteration 3 of the soak failed"));
+            assertTrue(e.getMessage().contains("Soak of 3 iterations"));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void parseTotalPss_readsTheTableAndTheSummary() {
+        assertEquals(45678L * 1024, SoakRunner.parseTotalPss(
+                "Applications Memory Usage (kB):\n" +
+                "** MEMINFO in pid 1234 [com.example] **\n" +
+                "                   Pss  Private  Private  Swapped     Heap     Heap     Heap\n" +
+                "                 Total    Dirty    Clean    Dirty     Size    Alloc     Free\n" +
+                "  Native Heap    12000    11900        0        0    20480    15000     5480\n" +
+                "        TOTAL    45678    40000     2000        0    30000    25000     5000\n"));
+        assertEquals(82915L * 1024, SoakRunner.parseTotalPss(
+                " App Summary\n" +
+                "           TOTAL PSS:    82915            TOTAL RSS:   181656       TOTAL SWAP PSS:      123\n"));
+        assertEquals(-1, SoakRunner.parseTotalPss("No process found for: com.example\n"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
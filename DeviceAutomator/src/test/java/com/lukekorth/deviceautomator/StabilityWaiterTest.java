@@ -0,0 +1,57 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class StabilityWaiterTest {
+
+    private final FakeClock mClock = new FakeClock();
+
+    @Test
+    public void waitForStable_returnsAfterQuietPeriodWhenNothingChanges() {
+        StabilityWaiter waiter = new StabilityWaiter(new StabilityWaiter.Sampler() {
+            @Override
+            public long sample() {
+                return 1;
+            }
+        }, 5, mClock);
+
+        assertTrue(waiter.waitForStable(50, 500));
+        assertEquals(50, mClock.getSleptMillis());
+    }
+
+    @Test
+    public void waitForStable_waitsForChangesToStop() {
+        final AtomicInteger samples = new AtomicInteger();
+        StabilityWaiter waiter = new StabilityWaiter(new StabilityWaiter.Sampler() {
+            @Override
+            public long sample() {
+                return Math.min(samples.incrementAndGet(), 10);
+            }
+        }, 5, mClock);
+
+        assertTrue(waiter.waitForStable(30, 900));
+        // the value changed until the 10th sample, 9 intervals after the first
+        assertEquals(45 + 30, mClock.getSleptMillis());
+        assertEquals(16, samples.get());
+    }
+
+    @Test
+    public void waitForStable_returnsFalseWhenValueNeverSettles() {
+        final AtomicInteger samples = new AtomicInteger();
+        StabilityWaiter waiter = new StabilityWaiter(new StabilityWaiter.Sampler() {
+            @Override
+            public long sample() {
+                return samples.incrementAndGet();
+            }
+        }, 5, mClock);
+
+        assertFalse(waiter.waitForStable(100, 200));
+        assertEquals(200, mClock.getSleptMillis());
+    }
+}
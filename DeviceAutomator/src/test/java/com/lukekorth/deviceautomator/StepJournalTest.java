@@ -0,0 +1,194 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withText;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class StepJournalTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("step-journal", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void read_returnsTheStepsInOrderWithTheirMatchers() throws IOException {
+        StepJournal journal = new StepJournal(mFile, 16, 100);
+        UiObjectMatcher login = withText("Log in");
+
+        int click = journal.begin(AutomatorMetrics.Operation.CLICK, login);
+        journal.end(click, 42000000, true);
+        int wait = journal.begin(AutomatorMetrics.Operation.WAIT, withResourceId("com.example:id/home"));
+        journal.end(wait, 5000000000L, false);
+        int press = journal.begin(AutomatorMetrics.Operation.KEY_PRESS, null);
+        journal.end(press, 1000000, true);
+
+        List<StepJournal.Record> records = StepJournal.read(mFile);
+
+        assertEquals(3, records.size());
+        StepJournal.Record first = records.get(0);
+        assertEquals(1, first.getSequence());
+        assertEquals(100, first.getPid());
+        assertEquals(AutomatorMetrics.Operation.CLICK, first.getOperation());
+        assertEquals(StepJournal.Outcome.PASSED, first.getOutcome());
+        assertEquals(42000000, first.getDurationNanos());
+        assertEquals(login.getId(), first.getMatcherId());
+        assertEquals("NodeQuery[text-pattern=(?i)\\QLog in\\E]", first.getMatcher());
+        assertTrue(Math.abs(System.currentTimeMillis() - first.getTimeMillis()) < 60000);
+
+        assertEquals(StepJournal.Outcome.FAILED, records.get(1).getOutcome());
+        assertEquals("NodeQuery[resource-id=com.example:id/home]", records.get(1).getMatcher());
+        assertEquals(0, records.get(2).getMatcherId());
+        assertNull(records.get(2).getMatcher());
+    }
+
+    @Test
+    public void read_showsTheStepInProgressWithoutClosing() throws IOException {
+        StepJournal journal = new StepJournal(mFile, 16, 100);
+        journal.end(journal.begin(AutomatorMetrics.Operation.LAUNCH, null), 900000000, true);
+        journal.begin(AutomatorMetrics.Operation.CLICK, withText("Checkout"));
+
+        // the journal is never closed or flushed, as if the process died
+        List<StepJournal.Record> records = StepJournal.read(mFile);
+
+        StepJournal.Record last = records.get(records.size() - 1);
+        assertEquals(StepJournal.Outcome.STARTED, last.getOutcome());
+        assertEquals(-1, last.getDurationNanos());
+        assertTrue(last.toString(), last.toString().contains("click     STARTED        - NodeQuery[text-pattern="));
+    }
+
+    @Test
+    public void begin_overwritesTheOldestSteps() throws IOException {
+        StepJournal journal = new StepJournal(mFile, 8, 100);
+        int first = journal.begin(AutomatorMetrics.Operation.CLICK, null);
+        for (int i = 0; i < 19; i++) {
+            journal.end(journal.begin(AutomatorMetrics.Operation.KEY_PRESS, null), i, true);
+        }
+        journal.end(first, 1, true);
+
+        List<StepJournal.Record> records = StepJournal.read(mFile);
+
+        assertEquals(8, records.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(13 + i, records.get(i).getSequence());
+            assertEquals(AutomatorMetrics.Operation.KEY_PRESS, records.get(i).getOperation());
+        }
+    }
+
+    @Test
+    public void open_continuesAnExistingJournal() throws IOException {
+        StepJournal journal = new StepJournal(mFile, 16, 100);
+        UiObjectMatcher login = withText("Log in");
+        journal.end(journal.begin(AutomatorMetrics.Operation.CLICK, login), 1, true);
+        journal.begin(AutomatorMetrics.Operation.CHECK, withText("Welcome"));
+
+        StepJournal next = new StepJournal(mFile, 16, 200);
+        next.end(next.begin(AutomatorMetrics.Operation.LAUNCH, null), 1, true);
+        next.end(next.begin(AutomatorMetrics.Operation.CLICK, withText("Log in")), 1, true);
+
+        String timeline = StepJournal.decode(mFile);
+
+        String[] lines = timeline.split("\n");
+        assertEquals(6, lines.length);
+        assertEquals("--- process 100 ---", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("#1 "));
+        assertTrue(lines[2], lines[2].contains(" check     STARTED "));
+        assertEquals("--- process 200 ---", lines[3]);
+        assertTrue(lines[4], lines[4].startsWith("#3 "));
+        assertTrue(lines[5], lines[5].startsWith("#4 ") && lines[5].endsWith("NodeQuery[text-pattern=(?i)\\QLog in\\E]"));
+        assertEquals(1, countMatcherEntries(login.getId()));
+    }
+
+    @Test
+    public void open_startsOverWithADifferentCapacity() throws IOException {
+        StepJournal journal = new StepJournal(mFile, 16, 100);
+        journal.end(journal.begin(AutomatorMetrics.Operation.CLICK, null), 1, true);
+
+        new StepJournal(mFile, 32, 100);
+
+        assertTrue(StepJournal.read(mFile).isEmpty());
+    }
+
+    @Test
+    public void read_rejectsOtherFiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[64]);
+        out.close();
+
+        try {
+            StepJournal.read(mFile);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("is not a step journal"));
+        }
+    }
+
+    @Test
+    public void step_doesNotAllocate() throws IOException {
+        final StepJournal journal = new StepJournal(mFile, 1024, 100);
+        // built like onDevice(withResourceId(..)) builds a new matcher for every step
+        final UiObjectMatcher[] matchers = new UiObjectMatcher[10001];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = withResourceId("com.example:id/submit");
+        }
+        journal.begin(AutomatorMetrics.Operation.CLICK, withResourceId("com.example:id/submit"));
+        final int[] next = new int[1];
+
+        long allocated = Benchmarks.bytesPerOperation(matchers.length - 1, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                journal.end(journal.begin(AutomatorMetrics.Operation.CLICK, matchers[next[0]++]), 1000, true);
+            }
+        });
+
+        assertTrue(allocated <= 0);
+        double nanos = Benchmarks.nanosPerOperation(1000000, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                journal.end(journal.begin(AutomatorMetrics.Operation.CLICK, matchers[0]), 1000, true);
+            }
+        });
+        Benchmarks.report("Journal step", nanos);
+    }
+
+    /**
+     * @return the number of entries for the matcher in the matcher table of a 16 record journal.
+     */
+    private int countMatcherEntries(int id) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(mFile, "r");
+        try {
+            access.seek(StepJournal.HEADER_SIZE + 16 * StepJournal.RECORD_SIZE);
+            int count = 0;
+            for (int entry = access.readInt(); entry != 0; entry = access.readInt()) {
+                if (entry == id) {
+                    count++;
+                }
+                access.skipBytes(access.readShort() & 0xffff);
+            }
+            return count;
+        } finally {
+            access.close();
+        }
+    }
+}
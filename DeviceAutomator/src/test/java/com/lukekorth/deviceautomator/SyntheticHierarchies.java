@@ -0,0 +1,133 @@
+package com.lukekorth.deviceautomator;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds hierarchies shaped like a typical app screen, a toolbar followed by a list of rows with a
+ * few views each, at a given size for the JVM benchmarks.
+ */
+final class SyntheticHierarchies {
+
+    private SyntheticHierarchies() {}
+
+    /**
+     * @param rows number of rows in the list, each row has 5 nodes.
+     * @return the root of the hierarchy, with one window.
+     */
+    static HierarchyNode screen(int rows) {
+        int[] ids = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            ids[i] = i;
+        }
+        return screenWithRows(ids);
+    }
+
+    /**
+     * @param ids the id of each row in the list, used in the text of the row.
+     * @return the root of the hierarchy, with one window.
+     */
+    static HierarchyNode screenWithRows(int[] ids) {
+        HierarchyNode list = new HierarchyNode("androidx.recyclerview.widget.RecyclerView")
+                .setResourceId("com.example:id/list")
+                .setBounds(0, 200, 1080, 1920)
+                .setFlag(HierarchyNode.SCROLLABLE, true);
+        for (int i = 0; i < ids.length; i++) {
+            list.addChild(row(ids[i], i));
+        }
+
+        HierarchyNode window = new HierarchyNode("android.widget.FrameLayout")
+                .setPackageName("com.example")
+                .setBounds(0, 0, 1080, 1920)
+                .addChild(new HierarchyNode("android.view.ViewGroup")
+                        .setResourceId("com.example:id/toolbar")
+                        .setBounds(0, 0, 1080, 200)
+                        .addChild(new HierarchyNode("android.widget.TextView")
+                                .setText("Items")
+                                .setBounds(40, 60, 400, 140)))
+                .addChild(list);
+        return new HierarchyNode(null).addChild(window);
+    }
+
+    /**
+     * @return a row of the list created by {@link #screen(int)}.
+     */
+    static HierarchyNode row(int index) {
+        return row(index, index);
+    }
+
+    private static HierarchyNode row(int index, int position) {
+        int top = 200 + position * 100;
+        return new HierarchyNode("android.widget.LinearLayout")
+                .setResourceId("com.example:id/row")
+                .setBounds(0, top, 1080, top + 100)
+                .setFlag(HierarchyNode.CLICKABLE, true)
+                .addChild(new HierarchyNode("android.widget.ImageView")
+                        .setContentDescription("Icon " + index)
+                        .setBounds(20, top + 10, 100, top + 90))
+                .addChild(new HierarchyNode("android.widget.TextView")
+                        .setResourceId("com.example:id/title")
+                        .setText("Item " + index)
+                        .setBounds(120, top + 10, 900, top + 50))
+                .addChild(new HierarchyNode("android.widget.TextView")
+                        .setResourceId("com.example:id/subtitle")
+                        .setText("Description of item " + index)
+                        .setBounds(120, top + 50, 900, top + 90))
+                .addChild(new HierarchyNode("android.widget.CheckBox")
+                        .setResourceId("com.example:id/checkbox")
+                        .setBounds(960, top + 20, 1060, top + 80)
+                        .setFlag(HierarchyNode.CHECKABLE, true)
+                        .setFlag(HierarchyNode.CLICKABLE, true));
+    }
+
+    /**
+     * @param messages number of messages, each message has 4 nodes.
+     * @return the root of a text heavy hierarchy shaped like a chat log. Message bodies are made of
+     *         random common words, every 100th message also mentions "order #" followed by its
+     *         index.
+     */
+    static HierarchyNode chat(int messages) {
+        String[] words = ("the a to and of you I it is that for on my this be have with was are " +
+                "at so we not can but just what get all like will your up do if out about when " +
+                "time today lunch meeting tomorrow thanks sure call later send photo see good " +
+                "great sounds home work back now here there think know").split(" ");
+        Random random = new Random(42);
+        HierarchyNode list = new HierarchyNode("androidx.recyclerview.widget.RecyclerView")
+                .setResourceId("com.example:id/messages");
+        for (int i = 0; i < messages; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int j = 8 + random.nextInt(20); j > 0; j--) {
+                body.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            if (i % 100 == 0) {
+                body.append("order #").append(i);
+            }
+
+            list.addChild(new HierarchyNode("android.widget.LinearLayout")
+                    .setResourceId("com.example:id/message")
+                    .addChild(new HierarchyNode("android.widget.TextView")
+                            .setResourceId("com.example:id/sender")
+                            .setText("User " + random.nextInt(20)))
+                    .addChild(new HierarchyNode("android.widget.TextView")
+                            .setResourceId("com.example:id/body")
+                            .setText(body.toString().trim()))
+                    .addChild(new HierarchyNode("android.widget.TextView")
+                            .setResourceId("com.example:id/time")
+                            .setText(String.format(Locale.US, "%02d:%02d", i / 60 % 24, i % 60))));
+        }
+        return new HierarchyNode(null).addChild(new HierarchyNode("android.widget.FrameLayout")
+                .setPackageName("com.example")
+                .addChild(list));
+    }
+
+    /**
+     * @return the node at the path from the root.
+     */
+    static HierarchyNode nodeAt(HierarchyNode root, int[] path) {
+        HierarchyNode node = root;
+        for (int index : path) {
+            node = node.getChild(index);
+        }
+        return node;
+    }
+}
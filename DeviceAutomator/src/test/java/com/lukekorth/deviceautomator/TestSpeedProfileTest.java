@@ -0,0 +1,125 @@
+package com.lukekorth.deviceautomator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TestSpeedProfileTest {
+
+    private FakeShell mShell;
+    private File mJournal;
+
+    @Before
+    public void setup() throws IOException {
+        mShell = new FakeShell();
+        mShell.settings.put("global window_animation_scale", "1.0");
+        mShell.settings.put("global transition_animation_scale", "0.5");
+        mShell.settings.put("global animator_duration_scale", "1.0");
+        mShell.settings.put("global stay_on_while_plugged_in", "0");
+
+        mJournal = File.createTempFile("journal", ".properties");
+        mJournal.delete();
+    }
+
+    @Test
+    public void apply_disablesAnimationsAndWritesJournal() {
+        new TestSpeedProfile(mShell, mJournal).apply();
+
+        assertEquals("0", mShell.settings.get("global window_animation_scale"));
+        assertEquals("0", mShell.settings.get("global transition_animation_scale"));
+        assertEquals("0", mShell.settings.get("global animator_duration_scale"));
+        assertEquals("7", mShell.settings.get("global stay_on_while_plugged_in"));
+        assertEquals("0", mShell.settings.get("secure spell_checker_enabled"));
+        assertTrue(mJournal.exists());
+    }
+
+    @Test
+    public void restore_restoresPreviousSettingsAndDeletesJournal() {
+        TestSpeedProfile profile = new TestSpeedProfile(mShell, mJournal).apply();
+
+        profile.restore();
+
+        assertEquals("1.0", mShell.settings.get("global window_animation_scale"));
+        assertEquals("0.5", mShell.settings.get("global transition_animation_scale"));
+        assertEquals("1.0", mShell.settings.get("global animator_duration_scale"));
+        assertEquals("0", mShell.settings.get("global stay_on_while_plugged_in"));
+        assertFalse(mShell.settings.containsKey("secure spell_checker_enabled"));
+        assertFalse(mJournal.exists());
+    }
+
+    @Test
+    public void apply_restoresFromJournalLeftByCrashedSession() {
+        new TestSpeedProfile(mShell, mJournal).apply();
+
+        TestSpeedProfile profile = new TestSpeedProfile(mShell, mJournal).apply();
+        profile.restore();
+
+        assertEquals("1.0", mShell.settings.get("global window_animation_scale"));
+        assertEquals("0.5", mShell.settings.get("global transition_animation_scale"));
+    }
+
+    @Test
+    public void restore_doesNothingWithoutJournal() {
+        new TestSpeedProfile(mShell, mJournal).restore();
+
+        assertTrue(mShell.commands.isEmpty());
+    }
+
+    @Test
+    public void measure_timesTheStepBeforeAndAfterApplying() {
+        final FakeClock clock = new FakeClock();
+        TestSpeedProfile profile = new TestSpeedProfile(mShell, mJournal, clock).apply();
+        final List<String> scales = new ArrayList<>();
+
+        TestSpeedProfile.StepTimings timings = profile.measure(3, new TestSpeedProfile.Step() {
+            @Override
+            public void run() {
+                String scale = mShell.settings.get("global window_animation_scale");
+                scales.add(scale);
+                clock.advance(scale.equals("0") ? 100 : 400);
+            }
+        });
+
+        assertEquals(Arrays.asList("1.0", "1.0", "1.0", "0", "0", "0"), scales);
+        assertEquals(3, timings.getBefore().getCount());
+        assertEquals(400000000.0, timings.getBefore().getMean(), 0);
+        assertEquals(100000000.0, timings.getAfter().getMean(), 0);
+        assertEquals(300.0, timings.getSavedMillis(), 0);
+        assertTrue(mJournal.exists());
+    }
+
+    private static class FakeShell implements TestSpeedProfile.Shell {
+
+        final Map<String, String> settings = new HashMap<>();
+        final List<String> commands = new ArrayList<>();
+
+        @Override
+        public String execute(String command) {
+            commands.add(command);
+            String[] parts = command.split(" ");
+            String key = parts[2] + " " + parts[3];
+            if (parts[1].equals("get")) {
+                return settings.containsKey(key) ? settings.get(key) + "\n" : "null\n";
+            } else if (parts[1].equals("put")) {
+                settings.put(key, parts[4]);
+            } else if (parts[1].equals("delete")) {
+                settings.remove(key);
+            }
+            return "";
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.lukekorth.deviceautomator;
+
+import android.widget.TextView;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withResourceId;
+import static com.lukekorth.deviceautomator.UiObjectMatcher.withTextContaining;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class TrigramIndexTest {
+
+    @Test
+    public void candidates_includeEveryNodeContainingText() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.chat(500));
+        TrigramIndex trigrams = new TrigramIndex(index);
+
+        for (String text : Arrays.asList("order #300", "lunch tomorrow", "sounds great", "the", "zzz", "User 1")) {
+            int[] candidates = trigrams.candidates(text);
+            int expected = 0;
+            for (int position = 0; position < index.size(); position++) {
+                String nodeText = index.getNode(position).getText();
+                if (nodeText != null && nodeText.contains(text)) {
+                    expected++;
+                    assertTrue(text, Arrays.binarySearch(candidates, position) >= 0);
+                }
+            }
+            assertTrue(text, candidates.length >= expected);
+        }
+        assertEquals(1, trigrams.candidates("order #300").length);
+        assertEquals(0, trigrams.candidates("zzz").length);
+    }
+
+    @Test
+    public void candidates_skipsShortText() {
+        TrigramIndex trigrams = new TrigramIndex(new HierarchyIndex(SyntheticHierarchies.chat(10)));
+
+        assertNull(trigrams.candidates("at"));
+    }
+
+    @Test
+    public void candidates_handlesCharactersOutsideLatin() {
+        HierarchyNode root = new HierarchyNode("root")
+                .addChild(new HierarchyNode("a").setText("\u3053\u3093\u306b\u3061\u306f\u4e16\u754c"))
+                .addChild(new HierarchyNode("b").setText("\u041f\u0440\u0438\u0432\u0435\u0442 \u043c\u0438\u0440"))
+                .addChild(new HierarchyNode("c").setText("hello \u4e16\u754c"));
+        TrigramIndex trigrams = new TrigramIndex(new HierarchyIndex(root));
+
+        assertTrue(Arrays.equals(new int[] { 1 }, trigrams.candidates("\u306b\u3061\u306f")));
+        assertTrue(Arrays.equals(new int[] { 2 }, trigrams.candidates("\u0435\u0442 \u043c")));
+        assertTrue(Arrays.equals(new int[] { 3 }, trigrams.candidates("o \u4e16\u754c")));
+    }
+
+    @Test
+    public void withTextCandidates_scansUntilHierarchyIsSearchedRepeatedly() {
+        HierarchyIndex index = new HierarchyIndex(SyntheticHierarchies.chat(10));
+
+        for (int i = 0; i < HierarchyIndex.TEXT_SCANS_BEFORE_TRIGRAMS; i++) {
+            assertNull(index.withTextCandidates("order #0"));
+        }
+        assertTrue(Arrays.equals(new int[] { 5 }, index.withTextCandidates("order #0")));
+        assertNull(index.withTextCandidates("#0"));
+    }
+
+    @Test
+    public void indexedContainsQueries_matchScan() {
+        HierarchyNode chat = SyntheticHierarchies.chat(500);
+        HierarchyIndex index = new HierarchyIndex(chat);
+        for (int i = 0; i < HierarchyIndex.TEXT_SCANS_BEFORE_TRIGRAMS; i++) {
+            index.withTextCandidates("warm up");
+        }
+        List<UiObjectMatcher> matchers = Arrays.asList(
+                withTextContaining("order #4"),
+                withTextContaining("lunch", TextView.class),
+                withTextContaining("o"),
+                withResourceId("com.example:id/message").childMatcher(withTextContaining("photo")),
+                withTextContaining("meeting").instance(7));
+
+        for (UiObjectMatcher matcher : matchers) {
+            NodeQuery query = matcher.getNodeQuery();
+            assertEquals(query.toString(), query.findAll(chat), query.findAll(index));
+            assertEquals(query.toString(), query.find(chat), query.find(index));
+        }
+    }
+
+    @Test
+    public void benchmark_textContaining() {
+        final HierarchyNode chat = SyntheticHierarchies.chat(5000);
+        final HierarchyIndex index = new HierarchyIndex(chat);
+        for (int i = 0; i < HierarchyIndex.TEXT_SCANS_BEFORE_TRIGRAMS; i++) {
+            index.withTextCandidates("warm up");
+        }
+        double build = Benchmarks.nanosPerOperation(40, new Benchmarks.Operation() {
+            @Override
+            public void run() {
+                new TrigramIndex(index);
+            }
+        });
+        Benchmarks.report("TrigramIndex build " + index.size() + " nodes", build);
+
+        for (String text : Arrays.asList("order #4200", "lunch tomorrow", "the")) {
+            final NodeQuery query = withTextContaining(text).getNodeQuery();
+            double scan = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    query.findAll(chat);
+                }
+            });
+            double indexed = Benchmarks.nanosPerOperation(50, new Benchmarks.Operation() {
+                @Override
+                public void run() {
+                    query.findAll(index);
+                }
+            });
+
+            Benchmarks.report("scan contains \"" + text + "\"", scan);
+            Benchmarks.report("trigram contains \"" + text + "\"", indexed);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.lukekorth.deviceautomator;
 
+import androidx.test.uiautomator.BySelector;
 import androidx.test.uiautomator.UiDevice;
 import androidx.test.uiautomator.UiObject;
 import androidx.test.uiautomator.UiSelector;
@@ -12,6 +13,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -129,6 +131,16 @@ public class UiObjectMatcherTest {
                 matcher.getUiSelector().toString());
     }
 
+    @Test
+    public void childMatcher_rebuildsBySelector() {
+        UiObjectMatcher matcher = UiObjectMatcher.withClass(LinearLayout.class);
+        BySelector before = matcher.getBySelector();
+
+        matcher.childMatcher(UiObjectMatcher.withClass(ImageView.class));
+
+        assertNotSame(before, matcher.getBySelector());
+    }
+
     @Test
     public void instance_setsInstance() {
         UiObjectMatcher matcher = UiObjectMatcher.withClass(LinearLayout.class)
@@ -138,6 +150,16 @@ public class UiObjectMatcherTest {
                 matcher.getUiSelector().toString());
     }
 
+    @Test
+    public void instance_rebuildsBySelector() {
+        UiObjectMatcher matcher = UiObjectMatcher.withClass(LinearLayout.class);
+        BySelector before = matcher.getBySelector();
+
+        matcher.instance(2);
+
+        assertNotSame(before, matcher.getBySelector());
+    }
+
     @Test
     public void getUiSelector() {
         UiObjectMatcher matcher = UiObjectMatcher.withClass(LinearLayout.class);